@@ -113,6 +113,9 @@ public class ImportConfig {
 
     public final BoolValue debug;
     public final BoolValue contOnError;
+    public final IntValue importThreads;
+    public final IntValue uploadThreads;
+    public final LongValue uploadBytesInFlight;
     public final BoolValue sendReport;
     public final BoolValue sendFiles;
     public final BoolValue sendLogFile;
@@ -224,6 +227,12 @@ public class ImportConfig {
 
         debug        = new BoolValue("debug", this, false);
         contOnError  = new BoolValue("contOnError", this, false);
+        importThreads = new IntValue("importThreads", this,
+                ImportLibrary.DEFAULT_IMPORT_THREADS);
+        uploadThreads = new IntValue("uploadThreads", this,
+                ImportLibrary.DEFAULT_UPLOAD_THREADS);
+        uploadBytesInFlight = new LongValue("uploadBytesInFlight", this,
+                ImportLibrary.DEFAULT_UPLOAD_BYTES_IN_FLIGHT);
         sendReport   = new BoolValue("sendReport", this, false);
         sendFiles    = new BoolValue("sendFiles", this, true);
         sendLogFile  = new BoolValue("sendLogFile", this, true);
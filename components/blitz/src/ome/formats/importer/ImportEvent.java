@@ -292,6 +292,43 @@ public class ImportEvent {
         }
     }
 
+    /**
+     * Aggregate throughput of the imports of a set of candidates, sent as
+     * each import completes, successfully or not, and once all are done.
+     */
+    public static class IMPORT_THROUGHPUT extends ImportEvent {
+        public final int numDone;
+        public final int total;
+        public final long files;
+        public final long bytes;
+        public final long elapsed;
+
+        public IMPORT_THROUGHPUT(int numDone, int total, long files,
+                long bytes, long elapsed) {
+            this.numDone = numDone;
+            this.total = total;
+            this.files = files;
+            this.bytes = bytes;
+            this.elapsed = elapsed;
+        }
+
+        public double getFilesPerSecond() {
+            return elapsed > 0 ? files * 1000.0 / elapsed : 0;
+        }
+
+        public double getBytesPerSecond() {
+            return elapsed > 0 ? bytes * 1000.0 / elapsed : 0;
+        }
+
+        @Override
+        public String toLog() {
+            return String.format("%s: %d/%d imports, %d files, %d bytes " +
+                    "in %d ms (%.1f files/s, %.0f bytes/s)", super.toLog(),
+                    numDone, total, files, bytes, elapsed,
+                    getFilesPerSecond(), getBytesPerSecond());
+        }
+    }
+
     // count-events
 
     public static class LOADING_IMAGE extends COUNT_EVENT {
@@ -22,11 +22,20 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import loci.common.Location;
 import loci.formats.FormatException;
 import loci.formats.FormatReader;
 import ome.formats.OMEROMetadataStoreClient;
+import ome.formats.importer.util.BlockWriter;
+import ome.formats.importer.util.ConcurrentImports;
+import ome.formats.importer.util.ConcurrentTimeEstimatorImpl;
+import ome.formats.importer.util.ConcurrentUploads;
 import ome.formats.importer.util.ErrorHandler;
 import ome.formats.importer.util.ProportionalTimeEstimatorImpl;
 import ome.formats.importer.util.TimeEstimator;
@@ -98,10 +107,21 @@ public class ImportLibrary implements IObservable
     /** The class used to identify the screen target.*/
     private static final String SCREEN_CLASS = "omero.model.Screen";
 
+    /** The default number of containers imported at once. */
+    public static final int DEFAULT_IMPORT_THREADS = 1;
+
+    /** The default number of files of a fileset uploaded at once. */
+    public static final int DEFAULT_UPLOAD_THREADS = 2;
+
+    /** The default number of bytes of a file written ahead of the server. */
+    public static final long DEFAULT_UPLOAD_BYTES_IN_FLIGHT = 16L * 1024 * 1024;
+
     /* checksum provider factory for verifying file integrity in upload */
     private static final ChecksumProviderFactory checksumProviderFactory = new ChecksumProviderFactoryImpl();
 
-    private final ArrayList<IObserver> observers = new ArrayList<IObserver>();
+    /** Observers, notified from the import and upload threads too. */
+    private final List<IObserver> observers =
+        new CopyOnWriteArrayList<IObserver>();
 
     private final OMEROMetadataStoreClient store;
 
@@ -119,6 +139,25 @@ public class ImportLibrary implements IObservable
      */
     private final String category;
 
+    /**
+     * Threads importing containers and uploading the files of a fileset. The threads are daemons and are dropped when
+     * idle, so the library need not be closed.
+     */
+    private final ExecutorService uploadExecutor =
+        Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ImportLibrary-upload-"
+                        + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    private volatile int uploadThreads = DEFAULT_UPLOAD_THREADS;
+
+    private volatile long uploadBytesInFlight = DEFAULT_UPLOAD_BYTES_IN_FLIGHT;
+
     /**
      * The library will not close the client instance. The reader will be closed
      * between calls to import.
@@ -146,6 +185,26 @@ public class ImportLibrary implements IObservable
         category = omero.client.getRouter(ic).getCategoryForClient();
     }
 
+    /**
+     * Sets the number of files of a fileset which are uploaded at once.
+     * @param uploadThreads at least 1 for one file after the other.
+     */
+    public void setUploadThreads(int uploadThreads)
+    {
+        this.uploadThreads = Math.max(1, uploadThreads);
+    }
+
+    /**
+     * Sets the number of bytes of each file which may be written before the
+     * server has replied to the writes of the earlier blocks. Less than two
+     * blocks means that each block is written only once the previous one has
+     * been replied to.
+     */
+    public void setUploadBytesInFlight(long uploadBytesInFlight)
+    {
+        this.uploadBytesInFlight = uploadBytesInFlight;
+    }
+
     //
     // Observable methods
     //
@@ -178,42 +237,52 @@ public class ImportLibrary implements IObservable
     /**
      * Primary user method for importing a number
      *
+     * Up to {@link ImportConfig#importThreads} containers are imported at
+     * once. {@link ImportEvent.IMPORT_THROUGHPUT} is sent as each import
+     * completes and once all are done.
+     *
      * @param config The configuration information.
      * @param candidates Hosts information about the files to import.
+     * @return <code>false</code> if an import failed and the config does not
+     * continue on error, otherwise <code>true</code>.
      */
     public boolean importCandidates(ImportConfig config, ImportCandidates candidates)
     {
-        List<ImportContainer> containers = candidates.getContainers();
-        if (containers != null) {
-            int numDone = 0;
-            for (int index = 0; index < containers.size(); index++) {
-                ImportContainer ic = containers.get(index);
-                if (DATASET_CLASS.equals(config.targetClass.get()))
-                {
-                    ic.setTarget(store.getTarget(
-                            Dataset.class, config.targetId.get()));
-                }
-                else if (SCREEN_CLASS.equals(config.targetClass.get()))
-                {
-                    ic.setTarget(store.getTarget(
-                            Screen.class, config.targetId.get()));
-                }
-
-                try {
-                    importImage(ic,index,numDone,containers.size());
-                    numDone++;
-                } catch (Throwable t) {
-                    log.error("Error on import", t);
-                    if (!config.contOnError.get()) {
-                        log.info("Exiting on error");
-                        return false;
-                    } else {
-                        log.info("Continuing after error");
-                    }
-                }
+        if (config.uploadThreads.get() != null) {
+            setUploadThreads(config.uploadThreads.get());
+        }
+        if (config.uploadBytesInFlight.get() != null) {
+            setUploadBytesInFlight(config.uploadBytesInFlight.get());
+        }
+        final List<ImportContainer> containers = candidates.getContainers();
+        if (containers == null) {
+            return true;
+        }
+        // The targets are loaded here since the store is not thread-safe.
+        for (ImportContainer ic : containers) {
+            if (DATASET_CLASS.equals(config.targetClass.get()))
+            {
+                ic.setTarget(store.getTarget(
+                        Dataset.class, config.targetId.get()));
+            }
+            else if (SCREEN_CLASS.equals(config.targetClass.get()))
+            {
+                ic.setTarget(store.getTarget(
+                        Screen.class, config.targetId.get()));
             }
         }
-        return true;
+
+        final Integer importThreads = config.importThreads.get();
+        return ConcurrentImports.importAll(uploadExecutor,
+                importThreads == null ? 1 : importThreads,
+                config.contOnError.get(), containers, this,
+                new ConcurrentImports.Import() {
+                    public void importContainer(ImportContainer ic,
+                            int index, int numDone, int total)
+                            throws Throwable {
+                        importImage(ic, index, numDone, total);
+                    }
+                });
     }
 
     /**
@@ -284,28 +353,62 @@ public class ImportLibrary implements IObservable
     public List<String> uploadFilesToRepository(
             final String[] srcFiles, final ImportProcessPrx proc)
     {
-        final byte[] buf = new byte[store.getDefaultBlockSize()];
         final int fileTotal = srcFiles.length;
-        final List<String> checksums = new ArrayList<String>(fileTotal);
+        final String[] uploaded = new String[fileTotal];
         // TODO Fix with proper code instead of 10000L
-        final TimeEstimator estimator = new ProportionalTimeEstimatorImpl(10000L);
+        final TimeEstimator estimator = createEstimator(10000L, fileTotal);
 
         log.debug("Used files created:");
-        for (int i = 0; i < fileTotal; i++) {
-            try {
-                checksums.add(uploadFile(proc, srcFiles, i,
-                        checksumProviderFactory, estimator, buf));
-            } catch (ServerError e) {
-                log.error("Server error uploading file.", e);
-                break;
-            } catch (IOException e) {
-                log.error("I/O error uploading file.", e);
+        try {
+            uploadFiles(proc, srcFiles, estimator, uploaded);
+        } catch (ServerError e) {
+            log.error("Server error uploading file.", e);
+        } catch (IOException e) {
+            log.error("I/O error uploading file.", e);
+        }
+        // Only the checksums of the files before the first failure
+        final List<String> checksums = new ArrayList<String>(fileTotal);
+        for (String checksum : uploaded) {
+            if (checksum == null) {
                 break;
             }
+            checksums.add(checksum);
         }
         return checksums;
     }
 
+    /**
+     * Uploads the files, several at once if there is more than one and
+     * {@link #setUploadThreads(int)} allows it, and places the checksum of
+     * each file at its index in <code>checksums</code>.
+     */
+    private void uploadFiles(final ImportProcessPrx proc,
+            final String[] srcFiles, final TimeEstimator estimator,
+            final String[] checksums) throws ServerError, IOException
+    {
+        ConcurrentUploads.upload(uploadExecutor, uploadThreads,
+                store.getDefaultBlockSize(), checksums,
+                new ConcurrentUploads.Upload() {
+                    public String upload(int index, byte[] buf)
+                            throws ServerError, IOException {
+                        return uploadFile(proc, srcFiles, index,
+                                checksumProviderFactory, estimator, buf);
+                    }
+                });
+    }
+
+    /**
+     * Returns an estimator for the upload of the given number of files,
+     * which can be shared by threads if the files are uploaded at once.
+     */
+    private TimeEstimator createEstimator(long size, int files)
+    {
+        if (Math.min(uploadThreads, files) > 1) {
+            return new ConcurrentTimeEstimatorImpl(size);
+        }
+        return new ProportionalTimeEstimatorImpl(size);
+    }
+
     public String uploadFile(final ImportProcessPrx proc,
             final String[] srcFiles, int index, TimeEstimator estimator)
                     throws ServerError, IOException
@@ -346,27 +449,40 @@ public class ImportLibrary implements IObservable
                     file.getAbsolutePath(), index, srcFiles.length,
                     offset, length, estimator.getUploadTimeLeft(), null));
 
-            while (true) {
-                estimator.start();
-                rlen = stream.read(buf);
-                if (rlen == -1) {
-                    break;
+            // Each block is read and hashed while the earlier ones are
+            // still being written.
+            final String path = file.getAbsolutePath();
+            final long fileLength = length;
+            final TimeEstimator fileEstimator = estimator;
+            final BlockWriter writer = new BlockWriter(rawFileStore,
+                    uploadBytesInFlight) {
+                private long written = 0;
+                @Override
+                protected void written(int rlen) {
+                    written += rlen;
+                    fileEstimator.stop(rlen);
+                    notifyObservers(new ImportEvent.FILE_UPLOAD_BYTES(path,
+                            index, srcFiles.length, written, fileLength,
+                            fileEstimator.getUploadTimeLeft(), null));
+                    fileEstimator.start();
                 }
-                cp.putBytes(buf, 0, rlen);
-                final byte[] bufferToWrite;
-                if (rlen < buf.length) {
-                    bufferToWrite = new byte[rlen];
-                    System.arraycopy(buf, 0, bufferToWrite, 0, rlen);
-                } else {
-                    bufferToWrite = buf;
+            };
+            estimator.start();
+            try {
+                while (true) {
+                    rlen = stream.read(buf);
+                    if (rlen == -1) {
+                        break;
+                    }
+                    cp.putBytes(buf, 0, rlen);
+                    writer.write(buf, offset, rlen);
+                    offset += rlen;
                 }
-                rawFileStore.write(bufferToWrite, offset, rlen);
-                offset += rlen;
-                estimator.stop(rlen);
-                notifyObservers(new ImportEvent.FILE_UPLOAD_BYTES(
-                        file.getAbsolutePath(), index, srcFiles.length, offset,
-                        length, estimator.getUploadTimeLeft(), null));
+                writer.flush();
+            } finally {
+                writer.abandon();
             }
+            estimator.stop();
             estimator.start();
             digestString = cp.checksumAsString();
 
@@ -451,19 +567,17 @@ public class ImportLibrary implements IObservable
         final ImportProcessPrx proc = createImport(container);
         final HandlePrx handle;
         final String[] srcFiles = container.getUsedFiles();
-        final List<String> checksums = new ArrayList<String>();
-        final byte[] buf = new byte[store.getDefaultBlockSize()];
-        final TimeEstimator estimator = new ProportionalTimeEstimatorImpl(
-                container.getUsedFilesTotalSize());
+        final String[] uploaded = new String[srcFiles.length];
+        final TimeEstimator estimator = createEstimator(
+                container.getUsedFilesTotalSize(), srcFiles.length);
         Map<Integer, String> failingChecksums = new HashMap<Integer, String>();
 
         notifyObservers(new ImportEvent.FILESET_UPLOAD_START(
                 null, index, srcFiles.length, null, null, null));
 
-        for (int i = 0; i < srcFiles.length; i++) {
-            checksums.add(uploadFile(proc, srcFiles, i, checksumProviderFactory,
-                    estimator, buf));
-        }
+        uploadFiles(proc, srcFiles, estimator, uploaded);
+        final List<String> checksums = new ArrayList<String>(
+                Arrays.asList(uploaded));
 
         try {
             handle = proc.verifyUpload(checksums);
@@ -217,6 +217,9 @@ public class CommandLineImporter {
                                         + "  --annotation_ns\tNamespace to use for subsequent annotation\n"
                                         + "  --annotation_text\tContent for a text annotation (requires namespace)\n"
                                         + "  --annotation_link\tComment annotation ID to link all images to\n"
+                                        + "  --import_threads\tNumber of imports to run at once\n"
+                                        + "  --upload_threads\tNumber of files of a fileset to upload at once\n"
+                                        + "  --upload_bytes_in_flight\tBytes of each file sent ahead of the server's replies\n"
                                         + "\n"
                                         + "ex. %s -s localhost -u bart -w simpson -d 50 foo.tiff\n"
                                         + "\n"
@@ -306,12 +309,22 @@ public class CommandLineImporter {
         LongOpt annotationLink =
             new LongOpt("annotation_link", LongOpt.REQUIRED_ARGUMENT,
                         null, 12);
+        LongOpt uploadThreads =
+            new LongOpt("upload_threads", LongOpt.REQUIRED_ARGUMENT,
+                        null, 13);
+        LongOpt importThreads =
+            new LongOpt("import_threads", LongOpt.REQUIRED_ARGUMENT,
+                        null, 14);
+        LongOpt uploadBytesInFlight =
+            new LongOpt("upload_bytes_in_flight", LongOpt.REQUIRED_ARGUMENT,
+                        null, 15);
 
         Getopt g = new Getopt(APP_NAME, args, "cfl:s:u:w:d:r:k:x:n:p:h",
                 new LongOpt[] { debug, report, upload, logs, email,
                                 plateName, plateDescription, noThumbnails,
                                 agent, annotationNamespace, annotationText,
-                                annotationLink });
+                                annotationLink, uploadThreads,
+                                importThreads, uploadBytesInFlight });
         int a;
 
         boolean getUsedFiles = false;
@@ -384,6 +397,18 @@ public class CommandLineImporter {
                 annotationIds.add(Long.parseLong(g.getOptarg()));
                 break;
             }
+            case 13: {
+                config.uploadThreads.set(Integer.parseInt(g.getOptarg()));
+                break;
+            }
+            case 14: {
+                config.importThreads.set(Integer.parseInt(g.getOptarg()));
+                break;
+            }
+            case 15: {
+                config.uploadBytesInFlight.set(Long.parseLong(g.getOptarg()));
+                break;
+            }
             case 's': {
                 config.hostname.set(g.getOptarg());
                 break;
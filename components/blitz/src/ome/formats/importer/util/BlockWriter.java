@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2013 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.formats.importer.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+
+import omero.ServerError;
+import omero.api.AMI_RawFileStore_write;
+import omero.api.RawFileStorePrx;
+
+/**
+ * Writes the blocks of a file to its {@link RawFileStorePrx} with
+ * asynchronous calls so that the next blocks can be read and hashed, and
+ * sent, before the server has replied to the earlier ones. Up to a budget of
+ * bytes may be in flight; once it is spent, each write first waits for the
+ * oldest one. The raw file store runs the writes of one file one at a time,
+ * each at its own offset. {@link #written(int)} is called for each write in
+ * the order in which they were made, on the thread which made them, so that
+ * progress can be reported as if the blocks were written one after the
+ * other.
+ *
+ * Ice marshals the arguments of an asynchronous call before the call
+ * returns, so a block may be read into again as soon as it has been handed
+ * to {@link #write(byte[], long, int)}. The last, partial, block of a file is
+ * copied so that no more than its length is sent.
+ *
+ * @since 5.0
+ */
+public class BlockWriter {
+
+    /**
+     * A write which has been sent, and the server's reply to it once it has
+     * come.
+     */
+    private static class Write extends AMI_RawFileStore_write {
+
+        final int rlen;
+
+        final CountDownLatch replied = new CountDownLatch(1);
+
+        volatile Exception failure;
+
+        Write(int rlen) {
+            this.rlen = rlen;
+        }
+
+        @Override
+        public void ice_response() {
+            replied.countDown();
+        }
+
+        @Override
+        public void ice_exception(Ice.LocalException e) {
+            failure = e;
+            replied.countDown();
+        }
+
+        @Override
+        public void ice_exception(Ice.UserException e) {
+            failure = e;
+            replied.countDown();
+        }
+
+    }
+
+    private final RawFileStorePrx rawFileStore;
+
+    private final long bytesInFlight;
+
+    /** The writes which have been sent, oldest first. */
+    private final LinkedList<Write> writes = new LinkedList<Write>();
+
+    /** The sum of the lengths of {@link #writes}. */
+    private long pending = 0;
+
+    /**
+     * @param rawFileStore
+     *            the store to write to, which is not closed by this instance.
+     * @param bytesInFlight
+     *            the most bytes which may be written before the server has
+     *            replied to the earlier writes. Whatever its value, a write
+     *            is always sent once the earlier ones have been replied to.
+     */
+    public BlockWriter(RawFileStorePrx rawFileStore, long bytesInFlight) {
+        this.rawFileStore = rawFileStore;
+        this.bytesInFlight = bytesInFlight;
+    }
+
+    /**
+     * Writes the first bytes of a block at the given offset of the file once
+     * enough of the earlier writes have been replied to. The block may be
+     * read into again once this method has returned.
+     *
+     * @throws ServerError
+     *             if an earlier write failed.
+     */
+    public void write(byte[] block, long offset, int rlen)
+            throws ServerError, IOException {
+        while (!writes.isEmpty() && pending + rlen > bytesInFlight) {
+            complete();
+        }
+        final byte[] bufferToWrite;
+        if (rlen < block.length) {
+            bufferToWrite = Arrays.copyOf(block, rlen);
+        } else {
+            bufferToWrite = block;
+        }
+        final Write write = new Write(rlen);
+        writes.add(write);
+        pending += rlen;
+        rawFileStore.write_async(write, bufferToWrite, offset, rlen);
+    }
+
+    /**
+     * Waits for the replies to all the writes.
+     *
+     * @throws ServerError
+     *             if a write failed.
+     */
+    public void flush() throws ServerError, IOException {
+        while (!writes.isEmpty()) {
+            complete();
+        }
+    }
+
+    /**
+     * Waits for the replies to all the writes which have been sent, even if
+     * interrupted, so that no write reaches the store once it is closed.
+     * Their failures, if any, are not reported.
+     */
+    public void abandon() {
+        boolean interrupted = false;
+        try {
+            while (!writes.isEmpty()) {
+                try {
+                    writes.getFirst().replied.await();
+                    writes.removeFirst();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            pending = 0;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Called once each write has been replied to, in the order in which they
+     * were made, on the thread which made them.
+     *
+     * @param rlen
+     *            the number of bytes written.
+     */
+    protected void written(int rlen) {
+        // By default, progress is not reported.
+    }
+
+    /**
+     * Waits for the reply to the oldest write.
+     */
+    private void complete() throws ServerError, IOException {
+        final Write write = writes.getFirst();
+        try {
+            write.replied.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Upload interrupted");
+        }
+        writes.removeFirst();
+        pending -= write.rlen;
+        if (write.failure != null) {
+            ConcurrentUploads.rethrow(write.failure);
+        }
+        written(write.rlen);
+    }
+
+}
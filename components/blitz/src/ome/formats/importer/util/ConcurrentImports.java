@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2013 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.formats.importer.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.formats.importer.IObservable;
+import ome.formats.importer.ImportContainer;
+import ome.formats.importer.ImportEvent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Imports the containers of a set of candidates, several at once if
+ * allowed, and notifies the observers of the throughput with
+ * {@link ImportEvent.IMPORT_THROUGHPUT} as each import completes and once
+ * all are done.
+ *
+ * @since 5.0
+ */
+public class ConcurrentImports {
+
+    private final static Logger log =
+        LoggerFactory.getLogger(ConcurrentImports.class);
+
+    /**
+     * Imports one container.
+     */
+    public interface Import {
+
+        /**
+         * Imports the container at the given index of the total, of which
+         * the given number have already been imported.
+         */
+        void importContainer(ImportContainer ic, int index, int numDone,
+                int total) throws Throwable;
+
+    }
+
+    private ConcurrentImports() {
+        // Static methods only
+    }
+
+    /**
+     * Imports the containers on up to the given number of threads of the
+     * executor. A failed import stops the others from being started unless
+     * <code>contOnError</code> is set, as does an interrupt of the calling
+     * thread, and the imports which were started are waited for.
+     *
+     * @return <code>false</code> if the imports were stopped early, otherwise
+     * <code>true</code>, even if some imports failed.
+     */
+    public static boolean importAll(ExecutorService executor, int threads,
+            final boolean contOnError, final List<ImportContainer> containers,
+            IObservable observable, final Import imp) {
+        final int total = containers.size();
+        final Throughput throughput = new Throughput(observable, total);
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        // Each worker imports the next container until none are left or an
+        // import has failed and the imports may not continue.
+        final Runnable worker = new Runnable() {
+            public void run() {
+                int index;
+                while (!failed.get()
+                        && (index = next.getAndIncrement()) < total) {
+                    final ImportContainer ic = containers.get(index);
+                    try {
+                        imp.importContainer(ic, index,
+                                throughput.getNumDone(), total);
+                        throughput.done(ic);
+                    } catch (Throwable t) {
+                        log.error("Error on import", t);
+                        if (!contOnError) {
+                            log.info("Exiting on error");
+                            failed.set(true);
+                        } else {
+                            log.info("Continuing after error");
+                        }
+                        throughput.done(null);
+                    }
+                }
+            }
+        };
+
+        final int workers = Math.min(total, threads);
+        if (workers <= 1) {
+            worker.run();
+        } else {
+            final List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int w = 0; w < workers; w++) {
+                futures.add(executor.submit(worker));
+            }
+            boolean interrupted = false;
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        if (!interrupted) {
+                            log.info("Exiting on interrupt");
+                        }
+                        interrupted = true;
+                        failed.set(true);
+                    } catch (ExecutionException e) {
+                        log.error("Error on import", e.getCause());
+                        failed.set(true);
+                        break;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        observable.notifyObservers(throughput.event());
+        return !failed.get();
+    }
+
+    /**
+     * Counts the imports completed by the workers and the files and bytes
+     * they uploaded.
+     */
+    private static class Throughput {
+
+        private final IObservable observable;
+
+        private final int total;
+
+        private final long start = System.currentTimeMillis();
+
+        private int numDone = 0;
+
+        private long files = 0;
+
+        private long bytes = 0;
+
+        Throughput(IObservable observable, int total) {
+            this.observable = observable;
+            this.total = total;
+        }
+
+        synchronized int getNumDone() {
+            return numDone;
+        }
+
+        /**
+         * Records an import as completed, successfully if the container is
+         * not null, and notifies the observers of the throughput so far.
+         */
+        void done(ImportContainer ic) {
+            final ImportEvent event;
+            synchronized (this) {
+                if (ic != null) {
+                    numDone++;
+                    files += ic.getUsedFiles().length;
+                    bytes += ic.getUsedFilesTotalSize();
+                }
+                event = event();
+            }
+            observable.notifyObservers(event);
+        }
+
+        synchronized ImportEvent event() {
+            return new ImportEvent.IMPORT_THROUGHPUT(numDone, total, files,
+                    bytes, System.currentTimeMillis() - start);
+        }
+    }
+
+}
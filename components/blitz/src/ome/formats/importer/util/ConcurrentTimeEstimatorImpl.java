@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2013 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.formats.importer.util;
+
+/**
+ * Class implementing the {@link TimeEstimator} interface for uploads made by
+ * several threads at once, e.g. the files of a fileset uploaded in parallel.
+ * The intervals timed by the threads overlap, so rather than adding them up
+ * the rate is taken from the wall-clock time since the first
+ * {@link #start()}. {@link #start()} and {@link #stop()} calls of different
+ * threads need not be paired.
+ *
+ * @since 5.0
+ */
+public class ConcurrentTimeEstimatorImpl implements TimeEstimator {
+
+    private long imageContainerSize = 0, timeLeft = 0;
+
+    private long totalBytes = 0;
+
+    private long startTime = -1;
+
+    /**
+     * Creates a new object of this class.
+     *
+     * @param imageContainerSize
+     *            The total size in bytes of the data container for which upload
+     *            time is being estimated.
+     */
+    public ConcurrentTimeEstimatorImpl(long imageContainerSize) {
+        this.imageContainerSize = imageContainerSize;
+    }
+
+    /**
+     * @see TimeEstimator#start()
+     */
+    public synchronized void start() {
+        if (startTime < 0) {
+            startTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @see TimeEstimator#stop()
+     */
+    public void stop() {
+        // The clock keeps running for the other threads.
+    }
+
+    /**
+     * @see TimeEstimator#stop(long)
+     */
+    public synchronized void stop(long uploadedBytes) {
+        totalBytes += uploadedBytes;
+        imageContainerSize -= uploadedBytes;
+
+        final long totalTime = System.currentTimeMillis() - startTime;
+        if (startTime >= 0 && totalTime > 0 && totalBytes > 0) {
+            float averageBps = totalBytes / ((float) totalTime / 1000);
+            timeLeft = (long) Math
+                    .ceil((imageContainerSize / averageBps) * 1000);
+        }
+    }
+
+    /**
+     * @see TimeEstimator#getUploadTimeLeft()
+     */
+    public synchronized long getUploadTimeLeft() {
+        return timeLeft;
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2013 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.formats.importer.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import omero.ServerError;
+
+/**
+ * Uploads the files of a fileset, several at once if allowed. Each file has
+ * a {@link omero.api.RawFileStorePrx} of its own, so files may be uploaded
+ * concurrently whereas the blocks of one file are written one after the
+ * other by a {@link BlockWriter}.
+ *
+ * @since 5.0
+ */
+public class ConcurrentUploads {
+
+    /**
+     * Uploads one file of a fileset.
+     */
+    public interface Upload {
+
+        /**
+         * Uploads the file at the given index, reading it into the given
+         * buffer, and returns its checksum.
+         */
+        String upload(int index, byte[] buf) throws ServerError, IOException;
+
+    }
+
+    private ConcurrentUploads() {
+        // Static methods only
+    }
+
+    /**
+     * Uploads the files on up to the given number of threads of the
+     * executor, one buffer of the block size per thread, and places the
+     * checksum of each file at its index in <code>checksums</code>. No more
+     * files are started once an upload has failed or the calling thread is
+     * interrupted, and the uploads which were started are waited for before
+     * the first failure is thrown.
+     */
+    public static void upload(ExecutorService executor, int threads,
+            final int blockSize, final String[] checksums, final Upload upload)
+            throws ServerError, IOException {
+        final int files = checksums.length;
+        final int workers = Math.min(threads, files);
+        if (workers <= 1) {
+            final byte[] buf = new byte[blockSize];
+            for (int i = 0; i < files; i++) {
+                checksums[i] = upload.upload(i, buf);
+            }
+            return; // EARLY EXIT
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (int w = 0; w < workers; w++) {
+            futures.add(executor.submit(new Callable<Object>() {
+                public Object call() throws ServerError, IOException {
+                    final byte[] buf = new byte[blockSize];
+                    int i;
+                    boolean completed = false;
+                    try {
+                        while ((i = next.getAndIncrement()) < files) {
+                            checksums[i] = upload.upload(i, buf);
+                        }
+                        completed = true;
+                    } finally {
+                        if (!completed) {
+                            next.set(files); // Stops the other workers
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (Future<Object> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    next.set(files);
+                    if (failure == null) {
+                        failure = new InterruptedIOException(
+                                "Upload interrupted");
+                    }
+                } catch (ExecutionException e) {
+                    next.set(files);
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            rethrow(failure);
+        }
+    }
+
+    /**
+     * Rethrows the failure of an upload thread as thrown by the upload.
+     */
+    static void rethrow(Throwable t) throws ServerError, IOException {
+        if (t instanceof ServerError) {
+            throw (ServerError) t;
+        } else if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new RuntimeException(t);
+    }
+
+}
@@ -185,13 +185,18 @@ public abstract class ErrorHandler implements IObserver, IObservable {
 
     final protected Logger log = LoggerFactory.getLogger(getClass());
 
+    /** Guarded by itself, since observers are notified by several threads */
     final protected ArrayList<IObserver> observers = new ArrayList<IObserver>();
 
+    /**
+     * Guarded by the handler, which handles the events of imports running
+     * on several threads one at a time.
+     */
     final protected ArrayList<ErrorContainer> errors = new ArrayList<ErrorContainer>();
 
     final protected ImportConfig config;
 
-    protected boolean cancelUploads = false;
+    protected volatile boolean cancelUploads = false;
 
     protected boolean sendFiles = true;
 
@@ -223,7 +228,7 @@ public abstract class ErrorHandler implements IObserver, IObservable {
     /* (non-Javadoc)
      * @see ome.formats.importer.IObserver#update(ome.formats.importer.IObservable, ome.formats.importer.ImportEvent)
      */
-    public final void update(IObservable observable, ImportEvent event) {
+    public final synchronized void update(IObservable observable, ImportEvent event) {
 
 
         if (event instanceof MISSING_LIBRARY) {
@@ -268,7 +273,7 @@ public abstract class ErrorHandler implements IObserver, IObservable {
     /**
      * @return number of errors in ErrorContainer array
      */
-    public int errorCount()
+    public synchronized int errorCount()
     {
         return errors.size();
     }
@@ -284,7 +289,7 @@ public abstract class ErrorHandler implements IObserver, IObservable {
     /**
      * Send existing errors in ErrorContainer array to server
      */
-    protected void sendErrors() {
+    protected synchronized void sendErrors() {
 
         for (int i = 0; i < errors.size(); i++) {
 
@@ -447,7 +452,7 @@ public abstract class ErrorHandler implements IObserver, IObservable {
      *
      * @param errorContainer
      */
-    private void addError(ErrorContainer errorContainer) {
+    private synchronized void addError(ErrorContainer errorContainer) {
         String errorMessage = errorContainer.getError().toString();
         String[] splitMessage = errorMessage.split("\n");
 
@@ -462,7 +467,7 @@ public abstract class ErrorHandler implements IObserver, IObservable {
         notifyObservers(new ImportEvent.ERRORS_PENDING());
     }
 
-    protected void clearErrors(int index) {
+    protected synchronized void clearErrors(int index) {
     	errors.remove(index);
     }
     
@@ -475,7 +480,9 @@ public abstract class ErrorHandler implements IObserver, IObservable {
      */
     public final boolean addObserver(IObserver object)
     {
-        return observers.add(object);
+        synchronized (observers) {
+            return observers.add(object);
+        }
     }
 
     /* (non-Javadoc)
@@ -483,8 +490,9 @@ public abstract class ErrorHandler implements IObserver, IObservable {
      */
     public final boolean deleteObserver(IObserver object)
     {
-        return observers.remove(object);
-
+        synchronized (observers) {
+            return observers.remove(object);
+        }
     }
 
     /* (non-Javadoc)
@@ -492,7 +500,11 @@ public abstract class ErrorHandler implements IObserver, IObservable {
      */
     public final void notifyObservers(ImportEvent event)
     {
-        for (IObserver observer : observers)
+        final List<IObserver> copy;
+        synchronized (observers) {
+            copy = new ArrayList<IObserver>(observers);
+        }
+        for (IObserver observer : copy)
         {
             observer.update(this, event);
         }
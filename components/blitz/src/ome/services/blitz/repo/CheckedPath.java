@@ -355,6 +355,15 @@ public class CheckedPath {
         return this.file.length();
     }
 
+    /**
+     * Get the last modification time of this file.
+     * Analogous to {@link java.io.File.lastModified()}.
+     * @return the time at which the file was last modified, or 0
+     */
+    public long lastModified() {
+        return this.file.lastModified();
+    }
+
     /**
      * Create this directory on the underlying filesystem.
      * Analogous to {@link java.io.File.mkdir()}.
@@ -48,6 +48,7 @@ import omero.grid._ImportProcessTie;
 import omero.model.ChecksumAlgorithm;
 import omero.model.Fileset;
 import omero.model.FilesetJobLink;
+import omero.model.OriginalFile;
 
 /**
  * Represents a single import within a defined-session
@@ -261,7 +262,7 @@ public class ManagedImportProcessI extends AbstractCloseableAmdServant
             String usedFile = location.sharedPath + FsFile.separatorChar + location.usedFiles.get(i);
             CheckedPath cp = repo.checkPath(usedFile, settings.checksumAlgorithm, this.current);
             final String clientHash = hashes.get(i);
-            final String serverHash = cp.hash();
+            final String serverHash = savedHash(cp);
             if (!clientHash.equals(serverHash)) {
                 failingChecksums.put(i, serverHash);
             }
@@ -303,6 +304,31 @@ public class ManagedImportProcessI extends AbstractCloseableAmdServant
     // GETTERS
     //
 
+    /**
+     * Returns the hash which was saved for an uploaded file as it was
+     * written, so that the file need not be read again to verify it, or
+     * hashes the file afresh if no such hash can be trusted: if the file
+     * was hashed with another algorithm or has changed on disk since.
+     */
+    private String savedHash(CheckedPath cp) throws ServerError {
+        final OriginalFile found = repo.repositoryDao.findRepoFile(
+                repo.getRepoUuid(), cp, null, this.current);
+        if (found != null && settings.checksumAlgorithm != null) {
+            final OriginalFile ofile = repo.repositoryDao.getOriginalFile(
+                    found.getId().getValue(), this.current);
+            if (ofile != null && ofile.getHash() != null
+                    && ofile.getHasher() != null
+                    && ofile.getSize() != null && ofile.getMtime() != null
+                    && ofile.getHasher().getValue().getValue().equals(
+                            settings.checksumAlgorithm.getValue().getValue())
+                    && ofile.getSize().getValue() == cp.size()
+                    && ofile.getMtime().getValue() == cp.lastModified()) {
+                return ofile.getHash().getValue();
+            }
+        }
+        return cp.hash();
+    }
+
     public long getUploadOffset(int i, Current ignore) throws ServerError {
         UploadState state = uploaders.get(i);
         if (state == null) {
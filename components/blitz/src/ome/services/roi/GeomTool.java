@@ -15,12 +15,22 @@ import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import ome.conditions.ApiUsageException;
+import ome.conditions.ResourceError;
 import ome.io.nio.PixelBuffer;
 import ome.model.IObject;
 import ome.model.core.Pixels;
@@ -76,6 +86,12 @@ public class GeomTool {
 
     protected final String uuid;
 
+    /**
+     * The executor measuring the planes of a shape concurrently. If null,
+     * the planes are measured on the calling thread.
+     */
+    protected ExecutorService statsExecutor;
+
     public GeomTool(PixelData data, SqlAction sql,
             SessionFactory factory) {
         this(data, sql, factory, null, null);
@@ -90,6 +106,10 @@ public class GeomTool {
         this.uuid = uuid;
     }
 
+    public void setStatsExecutor(ExecutorService statsExecutor) {
+        this.statsExecutor = statsExecutor;
+    }
+
     /**
      * Loads just the shape and no other relationships. This
      * 
@@ -248,120 +268,243 @@ public class GeomTool {
         final RoiStats rs = new RoiStats();
         rs.perShape = new ShapeStats[shapeIds.size()];
 
-        for (int i = 0; i < shapeIds.size(); i++) {
-
-            final long shapeId = shapeIds.get(i);
-
-            final ome.model.roi.Shape shape = (ome.model.roi.Shape) session
-                    .createQuery(
-                            "select s from Shape s "
-                                    + "left outer join fetch s.channels selected " // optional
-                                    + "join fetch s.roi r join fetch r.image i "
-                                    + "join fetch i.pixels p join fetch p.channels c "
-                                    + "join fetch c.logicalChannel lc "
-                                    + "where s.id = :id").setParameter("id",
-                            shapeId).uniqueResult();
-            final SmartShape smartShape = (SmartShape) new ShapeMapper()
-                    .map(shape);
-
-            final ome.model.roi.Roi roi = shape.getRoi();
-            final ome.model.core.Image img = roi.getImage();
-            final ome.model.core.Pixels pix = img.getPrimaryPixels();
-
-            final long roiId = roi.getId();
-            final long imgId = img.getId();
-            final long pixId = pix.getId();
-
-            final int maxZ = pix.getSizeZ();
-            final int maxT = pix.getSizeT();
-
-            // We only take the values for the first Shape. If this call is
-            // being made with different shapes, then the user will know as
-            // much.
-            if (rs.combined == null) {
-                rs.roiId = roiId;
-                rs.imageId = imgId;
-                rs.pixelsId = pixId;
-
-                int ch = pix.sizeOfChannels();
-                rs.combined = makeStats(ch);
-                rs.combined.shapeId = -1;
-                rs.combined.channelIds = new long[ch];
-                for (int w = 0; w < ch; w++) {
-                    rs.combined.channelIds[w] = pix.getChannel(w)
-                            .getLogicalChannel().getId();
+        // Buffers are opened on this thread since it requires the database
+        // and are kept for all the shapes of the same pixels set.
+        final Map<Long, List<PixelBuffer>> buffers = new HashMap<Long, List<PixelBuffer>>();
+        try {
+            for (int i = 0; i < shapeIds.size(); i++) {
+                rs.perShape[i] = getStats(shapeIds.get(i), session, rs, buffers);
+            }
+        } finally {
+            for (List<PixelBuffer> list : buffers.values()) {
+                for (PixelBuffer buf : list) {
+                    try {
+                        buf.close();
+                    } catch (IOException e) {
+                        log.error("Error closing " + buf, e);
+                    }
                 }
             }
-            ShapeStats agg = rs.combined;
-
-            final ShapeStats stats = makeStats(pix, shape);
-            stats.shapeId = shape.getId();
-
-            final int ch = stats.channelIds.length;
-            final double[] sumOfSquares = new double[ch];
+        }
 
-            final Integer theZ = shape.getTheZ(); // May be null
-            final Integer theT = shape.getTheT(); // May be null
+        return rs;
 
-            final int startZ = (theZ == null) ? 0 : theZ.intValue();
-            final int startT = (theT == null) ? 0 : theT.intValue();
+    }
 
-            final int endZ = (theZ == null) ? (maxZ - 1) : theZ.intValue();
-            final int endT = (theT == null) ? (maxT - 1) : theT.intValue();
+    private ShapeStats getStats(final long shapeId, final Session session,
+            final RoiStats rs, final Map<Long, List<PixelBuffer>> buffers) {
+
+        final ome.model.roi.Shape shape = (ome.model.roi.Shape) session
+                .createQuery(
+                        "select s from Shape s "
+                                + "left outer join fetch s.channels selected " // optional
+                                + "join fetch s.roi r join fetch r.image i "
+                                + "join fetch i.pixels p join fetch p.channels c "
+                                + "join fetch c.logicalChannel lc "
+                                + "where s.id = :id").setParameter("id",
+                        shapeId).uniqueResult();
+        final SmartShape smartShape = (SmartShape) new ShapeMapper()
+                .map(shape);
+
+        final ome.model.roi.Roi roi = shape.getRoi();
+        final ome.model.core.Image img = roi.getImage();
+        final ome.model.core.Pixels pix = img.getPrimaryPixels();
+
+        final long roiId = roi.getId();
+        final long imgId = img.getId();
+        final long pixId = pix.getId();
+
+        final int maxZ = pix.getSizeZ();
+        final int maxT = pix.getSizeT();
+
+        // We only take the values for the first Shape. If this call is
+        // being made with different shapes, then the user will know as
+        // much.
+        if (rs.combined == null) {
+            rs.roiId = roiId;
+            rs.imageId = imgId;
+            rs.pixelsId = pixId;
+
+            int ch = pix.sizeOfChannels();
+            rs.combined = makeStats(ch);
+            rs.combined.shapeId = -1;
+            rs.combined.channelIds = new long[ch];
+            for (int w = 0; w < ch; w++) {
+                rs.combined.channelIds[w] = pix.getChannel(w)
+                        .getLogicalChannel().getId();
+            }
+        }
 
-            final PixelBuffer buf = data.getBuffer(pixId);
-            try {
-                SmartShape.PointCallback cb = new SmartShape.PointCallback() {
+        final ShapeStats stats = makeStats(pix, shape);
+        stats.shapeId = shape.getId();
 
-                    public void handle(int x, int y) {
+        final int ch = stats.channelIds.length;
 
-                        for (int w = 0; w < ch; w++) {
+        final Integer theC = shape.getTheC(); // May be null
+        final Integer theZ = shape.getTheZ(); // May be null
+        final Integer theT = shape.getTheT(); // May be null
 
-                            for (int z = startZ; z <= endZ; z++) {
-                                for (int t = startT; t <= endT; t++) {
+        final int startZ = (theZ == null) ? 0 : theZ.intValue();
+        final int startT = (theT == null) ? 0 : theT.intValue();
 
-                                    // WHAT TO DO ABOUT THE CHANNELS IN AGGREGATION?
-                                    stats.pointsCount[w]++;
-                                    double value = data.get(buf, x, y, z, w, t);
-                                    stats.min[w] = Math.min(value, stats.min[w]);
-                                    stats.max[w] = Math.max(value, stats.max[w]);
-                                    stats.sum[w] += value;
-                                    sumOfSquares[w] += value * value;
+        final int endZ = (theZ == null) ? (maxZ - 1) : theZ.intValue();
+        final int endT = (theT == null) ? (maxT - 1) : theT.intValue();
 
-                                }
-                            }
+        // The points are turned into spans once, and each row of each
+        // plane under the shape is then read once.
+        final ShapeSpans.Builder points = new ShapeSpans.Builder();
+        smartShape.areaPoints(new SmartShape.PointCallback() {
+            public void handle(int x, int y) {
+                points.add(x, y);
+            }
+        });
+        final ShapeSpans spans = points.build();
+
+        final List<PlaneStats> planes = new ArrayList<PlaneStats>();
+        for (int w = 0; w < ch; w++) {
+            final int c = (theC == null) ? w : theC.intValue();
+            for (int z = startZ; z <= endZ; z++) {
+                for (int t = startT; t <= endT; t++) {
+                    planes.add(new PlaneStats(w, c, z, t));
+                }
+            }
+        }
+        measure(planes, spans, getBuffers(pixId, planes.size(), buffers));
+
+        // WHAT TO DO ABOUT THE CHANNELS IN AGGREGATION?
+        final double[] sumOfSquares = new double[ch];
+        for (PlaneStats plane : planes) {
+            final int w = plane.w;
+            stats.pointsCount[w] += plane.count;
+            stats.min[w] = Math.min(plane.min, stats.min[w]);
+            stats.max[w] = Math.max(plane.max, stats.max[w]);
+            stats.sum[w] += plane.sum;
+            sumOfSquares[w] += plane.sumOfSquares;
+        }
 
-                        }
-                    }
-                };
+        for (int w = 0; w < ch; w++) {
 
-                smartShape.areaPoints(cb);
-            } finally {
-                try {
-                    buf.close();
-                } catch (IOException e) {
-                    log.error("Error closing " + buf, e);
+            stats.mean[w] = stats.sum[w] / stats.pointsCount[w];
+            if (stats.pointsCount[w] > 1) {
+                double sigmaSquare = (sumOfSquares[w] - stats.sum[w]
+                        * stats.sum[w] / stats.pointsCount[w])
+                        / (stats.pointsCount[w] - 1);
+                if (sigmaSquare > 0) {
+                    stats.stdDev[w] = Math.sqrt(sigmaSquare);
                 }
             }
+        }
 
-            for (int w = 0; w < ch; w++) {
+        return stats;
+    }
 
-                stats.mean[w] = stats.sum[w] / stats.pointsCount[w];
-                if (stats.pointsCount[w] > 1) {
-                    double sigmaSquare = (sumOfSquares[w] - stats.sum[w]
-                            * stats.sum[w] / stats.pointsCount[w])
-                            / (stats.pointsCount[w] - 1);
-                    if (sigmaSquare > 0) {
-                        stats.stdDev[w] = Math.sqrt(sigmaSquare);
+    /**
+     * Returns the buffers to read the planes of a pixels set with, one per
+     * worker, opening more if the pixels set has fewer than needed so far.
+     */
+    private List<PixelBuffer> getBuffers(long pixId, int planes,
+            Map<Long, List<PixelBuffer>> buffers) {
+        int workers = 1;
+        if (statsExecutor != null) {
+            workers = Math.max(1, Math.min(planes, getStatsWorkers()));
+        }
+        List<PixelBuffer> list = buffers.get(pixId);
+        if (list == null) {
+            list = new ArrayList<PixelBuffer>();
+            buffers.put(pixId, list);
+        }
+        while (list.size() < workers) {
+            list.add(data.getBuffer(pixId));
+        }
+        return list.subList(0, workers);
+    }
+
+    /**
+     * Measures the planes, concurrently if there is more than one buffer,
+     * and waits for them to complete.
+     */
+    private void measure(List<PlaneStats> planes, final ShapeSpans spans,
+            List<PixelBuffer> buffers) {
+        final Queue<PlaneStats> queue = new ConcurrentLinkedQueue<PlaneStats>(
+                planes);
+        if (buffers.size() == 1) {
+            PlaneStats plane;
+            while ((plane = queue.poll()) != null) {
+                plane.measure(data, buffers.get(0), spans);
+            }
+            return;
+        }
+        // Each worker is claimed either by itself when it starts or by this
+        // thread if interrupted first, in which case it never reads.
+        final List<AtomicBoolean> claims = new ArrayList<AtomicBoolean>();
+        final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (final PixelBuffer buf : buffers) {
+            final AtomicBoolean claim = new AtomicBoolean();
+            claims.add(claim);
+            futures.add(statsExecutor.submit(new Callable<Object>() {
+                public Object call() {
+                    if (!claim.compareAndSet(false, true)) {
+                        return null; // Abandoned
+                    }
+                    PlaneStats plane;
+                    while ((plane = queue.poll()) != null) {
+                        plane.measure(data, buf, spans);
+                    }
+                    return null;
+                }
+            }));
+        }
+        // The buffers are closed once this returns, so the workers which
+        // have started are waited for even if interrupted.
+        RuntimeException failure = null;
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++) {
+            while (true) {
+                try {
+                    futures.get(i).get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    queue.clear();
+                    for (int j = i; j < futures.size(); j++) {
+                        if (claims.get(j).compareAndSet(false, true)) {
+                            futures.get(j).cancel(false);
+                        }
+                    }
+                    if (failure == null) {
+                        failure = new ResourceError(
+                                "Interrupted while measuring.");
+                    }
+                } catch (CancellationException e) {
+                    break; // Never started
+                } catch (ExecutionException e) {
+                    queue.clear();
+                    if (failure == null
+                            && e.getCause() instanceof RuntimeException) {
+                        failure = (RuntimeException) e.getCause();
+                    } else if (failure == null) {
+                        failure = new ResourceError(e.getCause().getMessage());
                     }
+                    break;
                 }
             }
-
-            rs.perShape[i] = stats;
         }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
 
-        return rs;
-
+    /**
+     * Returns the number of planes measured concurrently.
+     */
+    private int getStatsWorkers() {
+        if (statsExecutor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) statsExecutor).getMaximumPoolSize();
+        }
+        return 2;
     }
 
     /**
@@ -440,6 +583,55 @@ public class GeomTool {
         return ss;
     }
 
+    /**
+     * Running statistics of the points of a shape in one plane.
+     */
+    private static class PlaneStats {
+
+        final int w, c, z, t;
+
+        long count = 0;
+
+        double min = Double.MAX_VALUE;
+
+        double max = -Double.MAX_VALUE;
+
+        double sum = 0;
+
+        double sumOfSquares = 0;
+
+        PlaneStats(int w, int c, int z, int t) {
+            this.w = w;
+            this.c = c;
+            this.z = z;
+            this.t = t;
+        }
+
+        void measure(PixelData data, PixelBuffer buf, ShapeSpans spans) {
+            for (int row = 0; row < spans.getRowCount(); row++) {
+                final ome.util.PixelData pd = data.getRow(buf,
+                        spans.getY(row), z, c, t);
+                try {
+                    final int last = spans.getFirstSpan(row + 1);
+                    for (int span = spans.getFirstSpan(row); span < last; span++) {
+                        final int end = spans.getEndX(span);
+                        for (int x = spans.getStartX(span); x <= end; x++) {
+                            final double value = data.get(pd, x);
+                            min = Math.min(value, min);
+                            max = Math.max(value, max);
+                            sum += value;
+                            sumOfSquares += value * value;
+                        }
+                    }
+                } finally {
+                    pd.dispose();
+                }
+            }
+            count = spans.getPointCount();
+        }
+
+    }
+
     private static class ShapeMapper extends IceMapper {
 
         boolean called = false;
@@ -43,20 +43,36 @@ public class PixelData {
     }
 
     public double get(PixelBuffer buf, int x, int y, int z, int c, int t) {
-        ome.util.PixelData pd = null;
+        ome.util.PixelData pd = getRow(buf, y, z, c, t);
         try {
-            pd = buf.getRow(y, z, c, t);
-            return pd.getPixelValue(x);
+            return get(pd, x);
+        } finally {
+            pd.dispose();
+        }
+    }
+
+    /**
+     * Reads a whole row, which the caller must dispose of, so that several
+     * values can be taken from it with {@link #get(ome.util.PixelData, int)}.
+     */
+    public ome.util.PixelData getRow(PixelBuffer buf, int y, int z, int c,
+            int t) {
+        try {
+            return buf.getRow(y, z, c, t);
         } catch (IOException e) {
             throw new ResourceError("IOException: " + e);
         } catch (DimensionsOutOfBoundsException e) {
             throw new ApiUsageException("DimensionsOutOfBounds: " + e);
         } catch (IndexOutOfBoundsException iobe) {
             throw new ValidationException("IndexOutOfBounds: " + iobe);
-        } finally {
-            if (pd != null) {
-                pd.dispose();
-            }
+        }
+    }
+
+    public double get(ome.util.PixelData row, int x) {
+        try {
+            return row.getPixelValue(x);
+        } catch (IndexOutOfBoundsException iobe) {
+            throw new ValidationException("IndexOutOfBounds: " + iobe);
         }
     }
 
@@ -0,0 +1,146 @@
+/*
+ * ome.services.roi.ShapeSpans
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi;
+
+import java.util.Arrays;
+
+/**
+ * The points of a shape as runs of consecutive points along rows, ordered by
+ * row and then by column, so that the pixels under the shape can be read a
+ * row at a time rather than a point at a time. Points given more than once
+ * are counted once.
+ *
+ * @since 5.0
+ */
+public class ShapeSpans {
+
+    /**
+     * Collects points in any order, e.g. as a
+     * {@link omero.model.SmartShape.PointCallback} would receive them.
+     */
+    public static class Builder {
+
+        private long[] points = new long[64];
+
+        private int size = 0;
+
+        public void add(int x, int y) {
+            if (size == points.length) {
+                points = Arrays.copyOf(points, size * 2);
+            }
+            // Sorting the encoded longs orders the points by row then column
+            points[size++] = ((long) y << 32) | (x - (long) Integer.MIN_VALUE);
+        }
+
+        public ShapeSpans build() {
+            Arrays.sort(points, 0, size);
+            return new ShapeSpans(points, size);
+        }
+
+    }
+
+    private final int[] rows;
+
+    private final int[] rowFirstSpan;
+
+    private final int[] starts;
+
+    private final int[] ends;
+
+    private final long count;
+
+    private ShapeSpans(long[] points, int size) {
+        int[] rows = new int[8];
+        int[] rowFirstSpan = new int[9];
+        int[] starts = new int[8];
+        int[] ends = new int[8];
+        int rowCount = 0;
+        int spanCount = 0;
+        long count = 0;
+        for (int i = 0; i < size; i++) {
+            if (i > 0 && points[i] == points[i - 1]) {
+                continue; // Duplicate
+            }
+            final int y = (int) (points[i] >> 32);
+            final int x = (int) ((points[i] & 0xffffffffL) + Integer.MIN_VALUE);
+            count++;
+            final boolean newRow = rowCount == 0 || rows[rowCount - 1] != y;
+            if (!newRow && ends[spanCount - 1] == x - 1) {
+                ends[spanCount - 1] = x;
+                continue;
+            }
+            if (newRow) {
+                if (rowCount == rows.length) {
+                    rows = Arrays.copyOf(rows, rowCount * 2);
+                    rowFirstSpan = Arrays.copyOf(rowFirstSpan, rowCount * 2 + 1);
+                }
+                rows[rowCount] = y;
+                rowFirstSpan[rowCount] = spanCount;
+                rowCount++;
+            }
+            if (spanCount == starts.length) {
+                starts = Arrays.copyOf(starts, spanCount * 2);
+                ends = Arrays.copyOf(ends, spanCount * 2);
+            }
+            starts[spanCount] = x;
+            ends[spanCount] = x;
+            spanCount++;
+        }
+        rowFirstSpan[rowCount] = spanCount;
+        this.rows = Arrays.copyOf(rows, rowCount);
+        this.rowFirstSpan = Arrays.copyOf(rowFirstSpan, rowCount + 1);
+        this.starts = Arrays.copyOf(starts, spanCount);
+        this.ends = Arrays.copyOf(ends, spanCount);
+        this.count = count;
+    }
+
+    /**
+     * Returns the number of distinct points.
+     */
+    public long getPointCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of rows which contain at least one point.
+     */
+    public int getRowCount() {
+        return rows.length;
+    }
+
+    /**
+     * Returns the y coordinate of a row.
+     */
+    public int getY(int row) {
+        return rows[row];
+    }
+
+    /**
+     * Returns the index of the first span of a row. The spans of the row end
+     * before the first span of the next row, i.e.
+     * <code>getFirstSpan(row + 1)</code> which is valid for the last row too.
+     */
+    public int getFirstSpan(int row) {
+        return rowFirstSpan[row];
+    }
+
+    /**
+     * Returns the x coordinate of the first point of a span.
+     */
+    public int getStartX(int span) {
+        return starts[span];
+    }
+
+    /**
+     * Returns the x coordinate of the last point of a span, inclusive.
+     */
+    public int getEndX(int span) {
+        return ends[span];
+    }
+
+}
@@ -0,0 +1,545 @@
+/*
+ * ome.services.throttling.SessionThrottlingStrategy
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.throttling;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import ome.api.ServiceInterface;
+import ome.conditions.OverUsageException;
+import ome.security.basic.CurrentDetails;
+import ome.services.blitz.util.IceMethodInvoker;
+import ome.services.throttling.Queue.CancelledException;
+import omero.util.IceMapper;
+
+import org.springframework.context.ApplicationEvent;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import Ice.Current;
+
+/**
+ * Throttling implementation which runs calls on a pool of threads so that no
+ * one session can take up the whole server. At most
+ * <code>callsPerSession</code> calls of any session and
+ * <code>callsPerService</code> calls to any service run at once; the rest
+ * wait in a queue per session, which holds at most
+ * <code>queuedPerSession</code> calls before further calls of the session are
+ * rejected with an {@link OverUsageException}. Whenever a thread comes free
+ * the sessions with waiting calls take turns, so that a session with hundreds
+ * of calls waiting only delays the calls of other sessions by one call each.
+ * Calls to the interactive services, e.g. rendering and thumbnails, wait in a
+ * lane of their own which is served first, though every
+ * {@link #INTERACTIVE_BURST}th call is taken from the other lane when both
+ * have calls waiting so that bulk work is not starved.
+ *
+ * Calls made from a thread of this strategy, e.g. to a collocated servant,
+ * are run at once in that thread: queueing them behind the limits which their
+ * caller already counts against could deadlock.
+ *
+ * The number of calls waiting and how long they waited and ran for are kept
+ * for JMX.
+ *
+ * @since 5.0
+ */
+@ManagedResource(objectName = "omero:type=SessionThrottling",
+        description = "Calls queued and run by the session throttling strategy")
+public class SessionThrottlingStrategy extends AbstractThrottlingStrategy {
+
+    /**
+     * The most interactive calls which are started in a row while bulk calls
+     * could be started instead.
+     */
+    public static final int INTERACTIVE_BURST = 4;
+
+    /**
+     * A call waiting to be run.
+     */
+    private static class Pending {
+
+        final Task task;
+
+        final Ice.Current current;
+
+        final String session;
+
+        final String service;
+
+        final long queued = System.nanoTime();
+
+        Pending(Task task, Ice.Current current, String session, String service) {
+            this.task = task;
+            this.current = current;
+            this.session = session;
+            this.service = service;
+        }
+
+    }
+
+    /**
+     * Calls waiting per session, the sessions in the order in which they are
+     * to be served. Calls of the same session are served in order.
+     */
+    private static class Lane {
+
+        final LinkedHashMap<String, ArrayDeque<Pending>> sessions =
+                new LinkedHashMap<String, ArrayDeque<Pending>>();
+
+        int size = 0;
+
+        void add(Pending pending) {
+            ArrayDeque<Pending> calls = sessions.get(pending.session);
+            if (calls == null) {
+                calls = new ArrayDeque<Pending>();
+                sessions.put(pending.session, calls);
+            }
+            calls.add(pending);
+            size++;
+        }
+
+    }
+
+    private final ThreadLocal<Boolean> inWorker = new ThreadLocal<Boolean>();
+
+    private final CurrentDetails cd;
+
+    private final ExecutorService executor;
+
+    private final int threads;
+
+    private final int callsPerSession;
+
+    private final int callsPerService;
+
+    private final int queuedPerSession;
+
+    private final Set<String> interactiveServices;
+
+    /*
+     * All of the below are guarded by this.
+     */
+
+    private final Lane interactive = new Lane();
+
+    private final Lane bulk = new Lane();
+
+    private final Map<String, Integer> runningPerSession = new HashMap<String, Integer>();
+
+    private final Map<String, Integer> runningPerService = new HashMap<String, Integer>();
+
+    private int running = 0;
+
+    private int interactiveInARow = 0;
+
+    private boolean destroyed = false;
+
+    private long started = 0;
+
+    private long rejected = 0;
+
+    private long finished = 0;
+
+    private long waitNanos = 0;
+
+    private long maxWaitNanos = 0;
+
+    private long runNanos = 0;
+
+    /**
+     * @param executor
+     *            runs the calls; its number of threads, if known, is the most
+     *            calls which run at once.
+     * @param callsPerSession
+     *            the most calls of one session which run at once.
+     * @param callsPerService
+     *            the most calls to one service which run at once.
+     * @param queuedPerSession
+     *            the most calls of one session which wait to run.
+     * @param interactiveServices
+     *            comma-separated names of the services whose calls are served
+     *            first, e.g. <code>omero.api.ThumbnailStore</code>.
+     */
+    public SessionThrottlingStrategy(CurrentDetails cd,
+            ExecutorService executor, int callsPerSession,
+            int callsPerService, int queuedPerSession,
+            String interactiveServices) {
+        if (callsPerSession < 1 || callsPerService < 1
+                || queuedPerSession < 1) {
+            throw new IllegalArgumentException(
+                    "calls per session and service and calls queued must be at least 1");
+        }
+        this.cd = cd;
+        this.executor = executor;
+        this.threads = executor instanceof ThreadPoolExecutor ?
+                ((ThreadPoolExecutor) executor).getMaximumPoolSize() :
+                Integer.MAX_VALUE;
+        this.callsPerSession = callsPerSession;
+        this.callsPerService = callsPerService;
+        this.queuedPerSession = queuedPerSession;
+        final Set<String> services = new HashSet<String>();
+        if (interactiveServices != null) {
+            for (String service : interactiveServices.split(",")) {
+                service = service.trim();
+                if (service.length() > 0) {
+                    services.add(service);
+                }
+            }
+        }
+        this.interactiveServices = Collections.unmodifiableSet(services);
+    }
+
+    /**
+     * The stats messages of a call are raised in the thread which runs it
+     * and are already acted upon there by the in-thread strategy, which is
+     * always defined. Acting upon them here too would abort or block the
+     * call twice.
+     */
+    @Override
+    public void onApplicationEvent(ApplicationEvent event) {
+        // See above
+    }
+
+    public void callInvokerOnRawArgs(ServiceInterface service,
+            IceMethodInvoker invoker, Object __cb, Ice.Current __current,
+            Object... args) {
+        IceMapper mapper = new IceMapper();
+        Callback cb = new Callback(service, invoker, mapper, __cb, __current,
+                args);
+        submit(__current, cb);
+    }
+
+    public void callInvokerWithMappedArgs(ServiceInterface service,
+            IceMethodInvoker invoker, IceMapper mapper, Object __cb,
+            Current __current, Object... args) {
+        Callback cb = new Callback(service, invoker, mapper, __cb, __current,
+                args);
+        submit(__current, cb);
+    }
+
+    public <R> void safeRunnableCall(Current __current, Object __cb,
+            boolean isVoid, Callable<R> callable) {
+        Callback2<R> cb = new Callback2<R>(__current, __cb, isVoid, callable);
+        submit(__current, cb);
+    }
+
+    public void runnableCall(Current __current, Task runnable) {
+        submit(__current, runnable);
+    }
+
+    /**
+     * Cancels the calls which are still waiting. Calls made after this are
+     * cancelled at once.
+     */
+    public void destroy() {
+        final ArrayDeque<Pending> cancelled = new ArrayDeque<Pending>();
+        synchronized (this) {
+            destroyed = true;
+            for (Lane lane : new Lane[] { interactive, bulk }) {
+                for (ArrayDeque<Pending> calls : lane.sessions.values()) {
+                    cancelled.addAll(calls);
+                }
+                lane.sessions.clear();
+                lane.size = 0;
+            }
+        }
+        for (Pending pending : cancelled) {
+            cancel(pending.task);
+        }
+    }
+
+    //
+    // Scheduling
+    //
+
+    private void submit(Ice.Current current, Task task) {
+        if (Boolean.TRUE.equals(inWorker.get())) {
+            run(current, task);
+            return;
+        }
+        final Pending pending = new Pending(task, current,
+                sessionOf(current), serviceOf(current));
+        final boolean cancel;
+        synchronized (this) {
+            cancel = destroyed;
+            if (!destroyed) {
+                if (queued(pending.session) >= queuedPerSession) {
+                    rejected++;
+                } else {
+                    if (interactiveServices.contains(pending.service)) {
+                        interactive.add(pending);
+                    } else {
+                        bulk.add(pending);
+                    }
+                    startCalls();
+                    return;
+                }
+            }
+        }
+        // Outside of the lock as the callback replies to the client
+        if (cancel) {
+            cancel(task);
+        } else {
+            reject(task);
+        }
+    }
+
+    /**
+     * The calls of the session which are waiting to run.
+     */
+    private int queued(String session) {
+        int queued = 0;
+        for (Lane lane : new Lane[] { interactive, bulk }) {
+            final ArrayDeque<Pending> calls = lane.sessions.get(session);
+            if (calls != null) {
+                queued += calls.size();
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Hands waiting calls to the executor while there are threads free and
+     * calls whose session and service are under their limits.
+     */
+    private synchronized void startCalls() {
+        while (running < threads) {
+            Pending next = null;
+            if (interactiveInARow < INTERACTIVE_BURST || bulk.size == 0) {
+                next = take(interactive);
+            }
+            if (next == null) {
+                next = take(bulk);
+                if (next == null && interactiveInARow >= INTERACTIVE_BURST) {
+                    next = take(interactive);
+                } else {
+                    interactiveInARow = 0;
+                }
+            }
+            if (next == null) {
+                return; // Nothing can start until a call finishes
+            }
+            if (interactiveServices.contains(next.service)) {
+                interactiveInARow++;
+            }
+            final long waited = System.nanoTime() - next.queued;
+            waitNanos += waited;
+            maxWaitNanos = Math.max(maxWaitNanos, waited);
+            started++;
+            running++;
+            increment(runningPerSession, next.session, 1);
+            increment(runningPerService, next.service, 1);
+            try {
+                executor.execute(worker(next));
+            } catch (RejectedExecutionException ree) {
+                log.warn("Throttling executor rejected call; cancelling");
+                release(next);
+                cancel(next.task);
+            }
+        }
+    }
+
+    /**
+     * Removes the first call of the first session in the lane which can be
+     * started without exceeding a limit, and moves its session to the back
+     * of the lane if it has more calls waiting.
+     */
+    private Pending take(Lane lane) {
+        final Iterator<Map.Entry<String, ArrayDeque<Pending>>> it =
+                lane.sessions.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, ArrayDeque<Pending>> entry = it.next();
+            final Pending first = entry.getValue().peek();
+            if (count(runningPerSession, first.session) >= callsPerSession
+                    || count(runningPerService, first.service) >= callsPerService) {
+                continue;
+            }
+            entry.getValue().poll();
+            lane.size--;
+            it.remove();
+            if (!entry.getValue().isEmpty()) {
+                lane.sessions.put(entry.getKey(), entry.getValue());
+            }
+            return first;
+        }
+        return null;
+    }
+
+    private Runnable worker(final Pending pending) {
+        return new Runnable() {
+            public void run() {
+                final long start = System.nanoTime();
+                inWorker.set(Boolean.TRUE);
+                try {
+                    SessionThrottlingStrategy.this.run(pending.current,
+                            pending.task);
+                } finally {
+                    inWorker.remove();
+                    synchronized (SessionThrottlingStrategy.this) {
+                        finished(pending, System.nanoTime() - start);
+                        startCalls();
+                    }
+                }
+            }
+        };
+    }
+
+    private void finished(Pending pending, long ran) {
+        finished++;
+        runNanos += ran;
+        release(pending);
+    }
+
+    private void release(Pending pending) {
+        running--;
+        increment(runningPerSession, pending.session, -1);
+        increment(runningPerService, pending.service, -1);
+    }
+
+    private void run(Ice.Current current, Task task) {
+        final Map<String, String> previous =
+                current == null ? null : cd.setContext(current.ctx);
+        try {
+            task.run(ctx);
+        } catch (Throwable t) {
+            log.error("Exception during throttled call", t);
+        } finally {
+            if (current != null) {
+                cd.setContext(previous);
+            }
+        }
+    }
+
+    private void cancel(Task task) {
+        try {
+            task.exception(new CancelledException(), ctx);
+        } catch (Exception e) {
+            log.warn("Failed to cancel " + task, e);
+        }
+    }
+
+    private void reject(Task task) {
+        try {
+            task.exception(new OverUsageException(String.format(
+                    "Too many calls queued: at most %d calls of a session "
+                    + "may wait to run", queuedPerSession)), ctx);
+        } catch (Exception e) {
+            log.warn("Failed to reject " + task, e);
+        }
+    }
+
+    private static int count(Map<String, Integer> counts, String key) {
+        final Integer count = counts.get(key);
+        return count == null ? 0 : count;
+    }
+
+    private static void increment(Map<String, Integer> counts, String key,
+            int delta) {
+        final int count = count(counts, key) + delta;
+        if (count == 0) {
+            counts.remove(key);
+        } else {
+            counts.put(key, count);
+        }
+    }
+
+    /**
+     * The session of a call, as servants are registered under the session
+     * uuid as their category.
+     */
+    static String sessionOf(Ice.Current current) {
+        if (current == null) {
+            return "";
+        }
+        if (current.ctx != null) {
+            final String session = current.ctx.get(
+                    omero.constants.SESSIONUUID.value);
+            if (session != null) {
+                return session;
+            }
+        }
+        return current.id == null ? "" : current.id.category;
+    }
+
+    /**
+     * The service of a call, as servants of services are named by a client or
+     * servant uuid followed by the service name, e.g.
+     * <code>omero.api.RenderingEngine</code>. Other servants are their own
+     * service.
+     */
+    static String serviceOf(Ice.Current current) {
+        if (current == null || current.id == null) {
+            return "";
+        }
+        final String name = current.id.name;
+        final int service = name.indexOf("omero.");
+        return service < 0 ? name : name.substring(service);
+    }
+
+    //
+    // Metrics
+    //
+
+    @ManagedAttribute(description = "Calls waiting to run")
+    public synchronized int getQueued() {
+        return interactive.size + bulk.size;
+    }
+
+    @ManagedAttribute(description = "Calls to interactive services waiting to run")
+    public synchronized int getQueuedInteractive() {
+        return interactive.size;
+    }
+
+    @ManagedAttribute(description = "Sessions with calls waiting to run")
+    public synchronized int getSessionsQueued() {
+        final Set<String> sessions = new HashSet<String>(
+                interactive.sessions.keySet());
+        sessions.addAll(bulk.sessions.keySet());
+        return sessions.size();
+    }
+
+    @ManagedAttribute(description = "Calls running")
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    @ManagedAttribute(description = "Calls rejected as their session had too many calls waiting")
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    @ManagedAttribute(description = "Calls run to completion")
+    public synchronized long getFinished() {
+        return finished;
+    }
+
+    @ManagedAttribute(description = "Mean time in milliseconds calls waited to run")
+    public synchronized double getMeanWaitMillis() {
+        return started == 0 ? 0 : waitNanos / 1e6 / started;
+    }
+
+    @ManagedAttribute(description = "Longest time in milliseconds a call waited to run")
+    public synchronized double getMaxWaitMillis() {
+        return maxWaitNanos / 1e6;
+    }
+
+    @ManagedAttribute(description = "Mean time in milliseconds calls ran for")
+    public synchronized double getMeanRunMillis() {
+        return finished == 0 ? 0 : runNanos / 1e6 / finished;
+    }
+
+}
@@ -355,6 +355,12 @@ public class HandleI implements _HandleOperations, IHandle,
         try {
             Map<String, String> merged = mergeContexts();
 
+            List<IRequest> chunks = chunks(merged);
+            if (chunks != null) {
+                runChunks(merged, chunks);
+                return; // EARLY EXIT
+            }
+
             @SuppressWarnings("unchecked")
             List<Object> rv = (List<Object>) executor.execute(merged, principal,
                     new Executor.SimpleWork(this, "run",
@@ -396,6 +402,103 @@ public class HandleI implements _HandleOperations, IHandle,
         }
     }
 
+    /**
+     * Lets an {@link IChunkedRequest} split itself in a transaction of its
+     * own if the call context asks for chunks. Returns null if the request is
+     * to be run as a whole.
+     */
+    @SuppressWarnings("unchecked")
+    private List<IRequest> chunks(final Map<String, String> merged) {
+        if (!(req instanceof IChunkedRequest)
+                || !merged.containsKey(IChunkedRequest.CHUNK)) {
+            return null;
+        }
+        return (List<IRequest>) executor.execute(merged, principal,
+                new Executor.SimpleWork(this, "chunks",
+                Ice.Util.identityToString(id), req) {
+            @Transactional(readOnly = true)
+            public List<IRequest> doWork(Session session, ServiceFactory sf) {
+                helper = new Helper((Request) req, status, getSqlAction(),
+                        session, sf);
+                try {
+                    return ((IChunkedRequest) req).chunks(helper, merged);
+                } catch (Cancel c) {
+                    state.set(State.CANCELLED);
+                    throw c;
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs each chunk in a transaction of its own, building its response
+     * once it has been committed. The callbacks are notified after each
+     * chunk with the number of chunks committed as the step, and the
+     * {@link Status#parameters} hold the number of objects processed so far
+     * (i.e. the number of steps of the chunks, one per object for graph
+     * requests) and the throughput in objects per second.
+     */
+    private void runChunks(final Map<String, String> merged,
+            final List<IRequest> chunks) {
+
+        final List<IRequest> done = new ArrayList<IRequest>();
+        final long start = System.currentTimeMillis();
+        long objects = 0;
+        IRequest failed = null;
+
+        status.steps = chunks.size();
+        try {
+            for (final IRequest chunk : chunks) {
+                failed = chunk;
+                final Status chunkStatus = new Status();
+                @SuppressWarnings("unchecked")
+                List<Object> rv = (List<Object>) executor.execute(merged,
+                        principal, new Executor.SimpleWork(this, "runChunk",
+                        Ice.Util.identityToString(id), chunk) {
+                    @Transactional(readOnly = false)
+                    public List<Object> doWork(Session session, ServiceFactory sf) {
+                        try {
+                            return steps(chunk, new Helper((Request) chunk,
+                                    chunkStatus, getSqlAction(), session, sf));
+                        } catch (Cancel c) {
+                            state.set(State.CANCELLED);
+                            throw c; // Exception intended to rollback transaction
+                        }
+                    }
+                });
+
+                for (int step = 0; step < chunkStatus.steps; step++) {
+                    chunk.buildResponse(step, rv.get(step));
+                }
+                done.add(chunk);
+                failed = null;
+
+                objects += chunkStatus.steps;
+                final long elapsed = Math.max(1, System.currentTimeMillis() - start);
+                final Map<String, String> params = new HashMap<String, String>();
+                if (status.parameters != null) {
+                    params.putAll(status.parameters);
+                }
+                params.put("chunks", done.size() + "/" + chunks.size());
+                params.put("objects", Long.toString(objects));
+                params.put("objects-per-second",
+                        String.format("%.1f", objects * 1000.0 / elapsed));
+                status.parameters = params; // Replaced as a whole for readers
+                helper.info("Committed chunk %s of %s: %s objects at %s/s",
+                        done.size(), chunks.size(), objects,
+                        params.get("objects-per-second"));
+
+                currentStep.incrementAndGet();
+                if (done.size() < chunks.size()) {
+                    notifyCallbacks();
+                }
+            }
+            state.set(State.FINISHED);
+        } finally {
+            ((IChunkedRequest) req).chunksDone(helper, done, failed);
+        }
+    }
+
     private Map<String, String> mergeContexts() {
 
         final Map<String, String> merged = new HashMap<String, String>();
@@ -415,14 +518,25 @@ public class HandleI implements _HandleOperations, IHandle,
     }
 
     public List<Object> steps(SqlAction sql, Session session, ServiceFactory sf) throws Cancel {
+        // Now that we're in the transaction, replace the helper.
+        helper = new Helper((Request)req, status, sql, session, sf);
+        return steps(req, helper);
+    }
+
+    /**
+     * Runs all the steps of a request, either {@link #req} itself or one of
+     * its chunks, within the current transaction. The callbacks are only
+     * notified of the steps of {@link #req} itself.
+     */
+    private List<Object> steps(IRequest req, Helper helper) throws Cancel {
+        final boolean whole = req == this.req;
+        final Status status = helper.getStatus();
         StopWatch swWhole = new Slf4JStopWatch();
         try {
 
             // Initialize. Any exceptions should cancel the process
             List<Object> rv = new ArrayList<Object>();
             StopWatch swEach = null;
-            // Now that we're in the transaction, replace the helper.
-            helper = new Helper((Request)req, status, sql, session, sf);
             req.init(helper);
 
             int j = 0;
@@ -444,6 +558,11 @@ public class HandleI implements _HandleOperations, IHandle,
                     state.compareAndSet(State.RUNNING, State.READY);
                 }
 
+                if (!whole) {
+                    j++;
+                    continue;
+                }
+
                 j = currentStep.incrementAndGet(); // SOLE INCREMENT
 
                 // The following would probably be better handled by a
@@ -0,0 +1,70 @@
+/*
+ * omero.cmd.IChunkedRequest
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omero.cmd;
+
+import java.util.List;
+import java.util.Map;
+
+import omero.cmd.HandleI.Cancel;
+
+/**
+ * {@link IRequest} which can be split into chunks which {@link HandleI} runs
+ * and commits one after the other, each in a transaction of its own, so that
+ * a long-running command does not have to be repeated from the start if it
+ * fails or is cancelled. Chunking is requested by the client by passing
+ * {@link #CHUNK} in the call context. {@link omero.cmd.basic.DoAllI} is split
+ * between its sub-requests, the graph requests such as
+ * {@link omero.cmd.graphs.DeleteI} between the steps of their graph.
+ *
+ * @since 5.0
+ */
+public interface IChunkedRequest extends IRequest {
+
+    /**
+     * Call context key whose value is the number of sub-requests per chunk,
+     * or for a graph request the least number of steps per chunk. A graph
+     * is only split where what remains can be resumed, so its chunks may be
+     * larger.
+     */
+    String CHUNK = "omero.chunk";
+
+    /**
+     * Call context key whose value is the index of the first sub-request to
+     * run, i.e. the value returned as a parameter of the same name when a
+     * chunked command fails after some chunks have been committed.
+     */
+    String CHUNK_START = "omero.chunk.start";
+
+    /**
+     * Parameter set when a chunked graph request fails after some chunks
+     * have been committed. Its value lists the graphs which remain to be
+     * processed as comma-separated "type:id" pairs, innermost first and the
+     * graph of the request itself last. Submitting one request per pair, in
+     * order and with the options of the failed one, completes it.
+     */
+    String CHUNK_RESUME = "omero.chunk.resume";
+
+    /**
+     * Called within a transaction of its own instead of
+     * {@link #init(Helper)}. Returns the requests to run and commit
+     * separately, in order, or null if this request is to be run as a whole.
+     */
+    List<IRequest> chunks(Helper helper, Map<String, String> callContext)
+            throws Cancel;
+
+    /**
+     * Called outside of any transaction once no more chunks will run to set
+     * the response of this request from those of the chunks.
+     *
+     * @param done
+     *            the chunks which were committed.
+     * @param failed
+     *            the chunk which failed or was cancelled, or null.
+     */
+    void chunksDone(Helper helper, List<IRequest> done, IRequest failed);
+
+}
@@ -18,6 +18,7 @@
 package omero.cmd.basic;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -35,6 +36,7 @@ import omero.cmd.ERR;
 import omero.cmd.GraphModify;
 import omero.cmd.HandleI.Cancel;
 import omero.cmd.Helper;
+import omero.cmd.IChunkedRequest;
 import omero.cmd.IRequest;
 import omero.cmd.Request;
 import omero.cmd.Response;
@@ -47,7 +49,7 @@ import omero.cmd.graphs.Preprocessor;
  * @author Josh Moore, josh at glencoesoftware.com
  * @since 4.4.0
  */
-public class DoAllI extends DoAll implements IRequest {
+public class DoAllI extends DoAll implements IChunkedRequest {
 
     private static final long serialVersionUID = -323423435135556L;
 
@@ -242,6 +244,22 @@ public class DoAllI extends DoAll implements IRequest {
 
     private final OmeroContext ctx;
 
+    //
+    // Chunking
+    //
+
+    /**
+     * Whether {@link #requests} have already been passed through the
+     * {@link Preprocessor}, i.e. whether this is a chunk of another instance.
+     */
+    private boolean preprocessed = false;
+
+    /**
+     * Index in {@link #requests} of the first request of each chunk, and
+     * after the last one the number of requests.
+     */
+    private final List<Integer> chunkStarts = new ArrayList<Integer>();
+
     public DoAllI(OmeroContext ctx) {
         this.ctx = ctx;
     }
@@ -259,15 +277,8 @@ public class DoAllI extends DoAll implements IRequest {
         int steps = 0;
         try {
 
-            Map<String, String> allgroups = new HashMap<String, String>();
-            allgroups.put("omero.group", "-1");
-            ctx.publishMessage(new ContextMessage.Push(this, allgroups));
-            try {
-                // Process within -1 block.
-                Ice.Communicator ic = ctx.getBean(Ice.Communicator.class);
-                new Preprocessor(ic, this.requests, this.helper);
-            } finally {
-                ctx.publishMessage(new ContextMessage.Pop(this, allgroups));
+            if (!preprocessed) {
+                preprocess();
             }
 
             for (int i = 0; i < this.requests.size(); i++) {
@@ -313,6 +324,108 @@ public class DoAllI extends DoAll implements IRequest {
         helper.setSteps(steps);
     }
 
+    /**
+     * Lets the {@link Preprocessor} modify {@link #requests}.
+     */
+    private void preprocess() throws Throwable {
+        Map<String, String> allgroups = new HashMap<String, String>();
+        allgroups.put("omero.group", "-1");
+        ctx.publishMessage(new ContextMessage.Push(this, allgroups));
+        try {
+            // Process within -1 block.
+            Ice.Communicator ic = ctx.getBean(Ice.Communicator.class);
+            new Preprocessor(ic, this.requests, this.helper);
+        } finally {
+            ctx.publishMessage(new ContextMessage.Pop(this, allgroups));
+        }
+        preprocessed = true;
+    }
+
+    //
+    // IChunkedRequest methods
+    //
+
+    /**
+     * Preprocesses all the requests at once, so that the requests which the
+     * {@link Preprocessor} relates, e.g. those for the images of a fileset,
+     * are adjusted together, and then splits them into chunks of
+     * {@link IChunkedRequest#CHUNK} requests, starting at
+     * {@link IChunkedRequest#CHUNK_START} if given.
+     */
+    public List<IRequest> chunks(Helper helper, Map<String, String> callContext) {
+        this.helper = helper;
+        final int size;
+        final int start;
+        try {
+            size = Integer.parseInt(callContext.get(CHUNK));
+            start = callContext.containsKey(CHUNK_START) ? Integer
+                    .parseInt(callContext.get(CHUNK_START)) : 0;
+        } catch (NumberFormatException nfe) {
+            throw helper.cancel(new ERR(), nfe, "bad-chunk", CHUNK,
+                    callContext.get(CHUNK), CHUNK_START,
+                    callContext.get(CHUNK_START));
+        }
+        if (size < 1 || start < 0) {
+            throw helper.cancel(new ERR(), null, "bad-chunk", CHUNK, ""
+                    + size, CHUNK_START, "" + start);
+        }
+
+        try {
+            preprocess();
+        } catch (Cancel c) {
+            throw c;
+        } catch (Throwable t) {
+            throw helper.cancel(new ERR(), t, "bad-init");
+        }
+
+        final List<IRequest> chunks = new ArrayList<IRequest>();
+        for (int i = start; i < requests.size(); i += size) {
+            final int end = Math.min(requests.size(), i + size);
+            final DoAllI chunk = new DoAllI(ctx);
+            chunk.preprocessed = true;
+            chunk.requests = new ArrayList<Request>(requests.subList(i, end));
+            if (contexts != null && contexts.length > i) {
+                chunk.contexts = Arrays.copyOfRange(contexts, i,
+                        Math.min(contexts.length, end));
+            }
+            chunkStarts.add(i);
+            chunks.add(chunk);
+        }
+        chunkStarts.add(requests.size());
+        if (chunks.isEmpty()) {
+            throw helper.cancel(new ERR(), null, "no-steps");
+        }
+        return chunks;
+    }
+
+    /**
+     * Merges the responses and statuses of the committed chunks. If a chunk
+     * failed, its response is used instead and the index of its first
+     * request is put in the {@link Status#parameters} as
+     * {@link IChunkedRequest#CHUNK_START} so that the command can be resumed
+     * from there.
+     */
+    public void chunksDone(Helper helper, List<IRequest> done, IRequest failed) {
+        this.helper = helper;
+        if (failed == null) {
+            for (IRequest chunk : done) {
+                DoAllRsp chunkRsp = (DoAllRsp) chunk.getResponse();
+                responses.addAll(chunkRsp.responses);
+                statuses.addAll(chunkRsp.status);
+            }
+            helper.setResponseIfNull(new DoAllRsp(responses, statuses));
+        } else {
+            final Status status = helper.getStatus();
+            final Map<String, String> params = new HashMap<String, String>();
+            if (status.parameters != null) {
+                params.putAll(status.parameters);
+            }
+            params.put(CHUNK_START, "" + chunkStarts.get(done.size()));
+            status.parameters = params;
+            helper.setResponseIfNull(failed.getResponse());
+        }
+    }
+
     public Object step(int step) {
         helper.assertStep(step);
         final X x = substep(step, true);
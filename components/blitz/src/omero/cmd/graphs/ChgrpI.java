@@ -10,6 +10,7 @@ package omero.cmd.graphs;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import ome.api.local.LocalAdmin;
@@ -27,6 +28,8 @@ import omero.cmd.Chgrp;
 import omero.cmd.ERR;
 import omero.cmd.HandleI.Cancel;
 import omero.cmd.Helper;
+import omero.cmd.IChunkedRequest;
+import omero.cmd.IRequest;
 import omero.cmd.OK;
 import omero.cmd.Response;
 import omero.cmd.Unknown;
@@ -41,7 +44,8 @@ import org.springframework.context.ApplicationContext;
  * @author Josh Moore, josh at glencoesoftware.com
  * @since 4.3.2
  */
-public class ChgrpI extends Chgrp implements IGraphModifyRequest {
+public class ChgrpI extends Chgrp implements IGraphModifyRequest,
+        IChunkedRequest {
 
     private static final long serialVersionUID = -3653081139095111039L;
 
@@ -57,6 +61,12 @@ public class ChgrpI extends Chgrp implements IGraphModifyRequest {
 
     private final Ice.Communicator ic;
 
+    /**
+     * First position and position after the last of the steps which this
+     * instance processes if it is a chunk of another, otherwise null.
+     */
+    private int[] range = null;
+
     public ChgrpI(Ice.Communicator ic, ChgrpStepFactory factory, ApplicationContext specs) {
         this.ic = ic;
         this.factory = factory;
@@ -89,6 +99,12 @@ public class ChgrpI extends Chgrp implements IGraphModifyRequest {
     public void init(Helper helper) {
         this.helper = helper;
 
+        if (range != null) {
+            state.attach(helper.getSql(), helper.getSession(), range[1]);
+            helper.setSteps(range[1] - range[0] + (isLastChunk() ? 1 : 0));
+            return; // EARLY EXIT
+        }
+
         //
         // initial security restrictions.
         //
@@ -164,9 +180,12 @@ public class ChgrpI extends Chgrp implements IGraphModifyRequest {
     @SuppressWarnings("deprecation")
     public Object step(int i) throws Cancel {
         helper.assertStep(i);
+        if (range != null) {
+            i += range[0];
+        }
 
         try {
-            if ((i+1) == helper.getSteps()) {
+            if (i == state.getTotalFoundCount()) {
                 // The dataset was loaded in order to check its permissions.
                 // Since these have been changed "in the background" (via SQL)
                 // it's important that we refresh that object for later cmds.
@@ -198,7 +217,17 @@ public class ChgrpI extends Chgrp implements IGraphModifyRequest {
 
     @Override
     public void finish() throws Cancel {
-        // Replaces ChgrpValidation
+        if (!isLastChunk()) {
+            try {
+                state.checkpoint();
+            } catch (GraphException ge) {
+                throw helper.graphException(ge, range[1] - 1, id);
+            }
+            return; // EARLY EXIT
+        }
+
+        // Replaces ChgrpValidation. For chunks, this is only done once the
+        // last one has been processed and covers the committed ones too.
         int steps = state.validation();
         for (int i = 0; i < steps; i++) {
             try {
@@ -211,7 +240,9 @@ public class ChgrpI extends Chgrp implements IGraphModifyRequest {
 
     public void buildResponse(int step, Object object) {
         helper.assertResponse(step);
-        if (helper.isLast(step)) {
+        if (helper.isLast(step) && !isLastChunk()) {
+            state.committed();
+        } else if (helper.isLast(step)) {
             helper.setResponseIfNull(new OK());
         }
     }
@@ -220,4 +251,43 @@ public class ChgrpI extends Chgrp implements IGraphModifyRequest {
         return helper.getResponse();
     }
 
+    //
+    // IChunkedRequest
+    //
+
+    public List<IRequest> chunks(Helper helper, Map<String, String> callContext) {
+        init(helper);
+        final List<IRequest> chunks = new ArrayList<IRequest>();
+        for (int[] range : GraphChunks.ranges(helper, state, callContext)) {
+            final ChgrpI chunk = new ChgrpI(ic, factory, specs);
+            chunk.type = type;
+            chunk.id = id;
+            chunk.options = options;
+            chunk.grp = grp;
+            chunk.spec = spec;
+            chunk.state = state;
+            chunk.range = range;
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    public void chunksDone(Helper helper, List<IRequest> done, IRequest failed) {
+        this.helper = helper;
+        if (failed == null) {
+            helper.setResponseIfNull(done.get(done.size() - 1).getResponse());
+        } else {
+            GraphChunks.failed(helper, state, ((ChgrpI) failed).range[0],
+                    failed.getResponse());
+        }
+    }
+
+    /**
+     * Whether this instance processes the last steps of the graph, i.e. is
+     * either not a chunk or the last one.
+     */
+    private boolean isLastChunk() {
+        return range == null || range[1] == state.getTotalFoundCount();
+    }
+
 }
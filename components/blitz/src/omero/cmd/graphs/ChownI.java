@@ -7,6 +7,8 @@
 
 package omero.cmd.graphs;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import ome.api.local.LocalAdmin;
@@ -23,6 +25,8 @@ import omero.cmd.Chown;
 import omero.cmd.ERR;
 import omero.cmd.HandleI.Cancel;
 import omero.cmd.Helper;
+import omero.cmd.IChunkedRequest;
+import omero.cmd.IRequest;
 import omero.cmd.OK;
 import omero.cmd.Response;
 import omero.cmd.Unknown;
@@ -36,7 +40,8 @@ import org.springframework.context.ApplicationContext;
  * @author Josh Moore, josh at glencoesoftware.com
  * @since 4.3.2
  */
-public class ChownI extends Chown implements IGraphModifyRequest {
+public class ChownI extends Chown implements IGraphModifyRequest,
+        IChunkedRequest {
 
     private static final long serialVersionUID = -3653063048111039L;
 
@@ -52,6 +57,12 @@ public class ChownI extends Chown implements IGraphModifyRequest {
 
     private final Ice.Communicator ic;
 
+    /**
+     * First position and position after the last of the steps which this
+     * instance processes if it is a chunk of another, otherwise null.
+     */
+    private int[] range = null;
+
     public ChownI(Ice.Communicator ic, ChownStepFactory factory, ApplicationContext specs) {
         this.ic = ic;
         this.factory = factory;
@@ -82,6 +93,12 @@ public class ChownI extends Chown implements IGraphModifyRequest {
     public void init(Helper helper) {
         this.helper = helper;
 
+        if (range != null) {
+            state.attach(helper.getSql(), helper.getSession(), range[1]);
+            helper.setSteps(range[1] - range[0]);
+            return; // EARLY EXIT
+        }
+
         //
         // initial security restrictions.
         //
@@ -144,6 +161,9 @@ public class ChownI extends Chown implements IGraphModifyRequest {
 
     public Object step(int step) throws Cancel {
         helper.assertStep(step);
+        if (range != null) {
+            step += range[0];
+        }
         try {
             return state.execute(step);
         } catch (GraphException ge) {
@@ -155,7 +175,17 @@ public class ChownI extends Chown implements IGraphModifyRequest {
 
     @Override
     public void finish() throws Cancel {
-        // Replaces ChownValidation
+        if (!isLastChunk()) {
+            try {
+                state.checkpoint();
+            } catch (GraphException ge) {
+                throw helper.graphException(ge, range[1] - 1, id);
+            }
+            return; // EARLY EXIT
+        }
+
+        // Replaces ChownValidation. For chunks, this is only done once the
+        // last one has been processed and covers the committed ones too.
         int steps = state.validation();
         for (int i = 0; i < steps; i++) {
             try {
@@ -168,7 +198,9 @@ public class ChownI extends Chown implements IGraphModifyRequest {
 
     public void buildResponse(int step, Object object) {
         helper.assertResponse(step);
-        if (helper.isLast(step)) {
+        if (helper.isLast(step) && !isLastChunk()) {
+            state.committed();
+        } else if (helper.isLast(step)) {
             helper.setResponseIfNull(new OK());
         }
     }
@@ -177,4 +209,43 @@ public class ChownI extends Chown implements IGraphModifyRequest {
         return helper.getResponse();
     }
 
+    //
+    // IChunkedRequest
+    //
+
+    public List<IRequest> chunks(Helper helper, Map<String, String> callContext) {
+        init(helper);
+        final List<IRequest> chunks = new ArrayList<IRequest>();
+        for (int[] range : GraphChunks.ranges(helper, state, callContext)) {
+            final ChownI chunk = new ChownI(ic, factory, specs);
+            chunk.type = type;
+            chunk.id = id;
+            chunk.options = options;
+            chunk.user = user;
+            chunk.spec = spec;
+            chunk.state = state;
+            chunk.range = range;
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    public void chunksDone(Helper helper, List<IRequest> done, IRequest failed) {
+        this.helper = helper;
+        if (failed == null) {
+            helper.setResponseIfNull(done.get(done.size() - 1).getResponse());
+        } else {
+            GraphChunks.failed(helper, state, ((ChownI) failed).range[0],
+                    failed.getResponse());
+        }
+    }
+
+    /**
+     * Whether this instance processes the last steps of the graph, i.e. is
+     * either not a chunk or the last one.
+     */
+    private boolean isLastChunk() {
+        return range == null || range[1] == state.getTotalFoundCount();
+    }
+
 }
@@ -18,7 +18,9 @@
 
 package omero.cmd.graphs;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.hibernate.exception.ConstraintViolationException;
@@ -34,6 +36,8 @@ import omero.cmd.DeleteRsp;
 import omero.cmd.ERR;
 import omero.cmd.HandleI.Cancel;
 import omero.cmd.Helper;
+import omero.cmd.IChunkedRequest;
+import omero.cmd.IRequest;
 import omero.cmd.Response;
 
 /**
@@ -44,7 +48,8 @@ import omero.cmd.Response;
  * @since 4.4.0
  */
 @SuppressWarnings("deprecation")
-public class DeleteI extends Delete implements IGraphModifyRequest {
+public class DeleteI extends Delete implements IGraphModifyRequest,
+        IChunkedRequest {
 
     private static final long serialVersionUID = -3653081139095111039L;
 
@@ -54,6 +59,12 @@ public class DeleteI extends Delete implements IGraphModifyRequest {
 
     private final Ice.Communicator ic;
 
+    /**
+     * First position and position after the last of the steps which this
+     * instance processes if it is a chunk of another, otherwise null.
+     */
+    private int[] range = null;
+
     public DeleteI(Ice.Communicator ic, Deletion delegate) {
         this.ic = ic;
         this.delegate = delegate;
@@ -103,6 +114,11 @@ public class DeleteI extends Delete implements IGraphModifyRequest {
 
     public void init(Helper helper) {
         this.helper = helper;
+        if (range != null) {
+            delegate.attach(helper.getSql(), helper.getSession(), range[1]);
+            helper.setSteps(range[1] - range[0]);
+            return; // EARLY EXIT
+        }
         try {
             EventContext ec = helper.getEventContext();
             int steps = delegate.start(ec, helper.getSql(), helper.getSession(), type, id, options);
@@ -115,6 +131,9 @@ public class DeleteI extends Delete implements IGraphModifyRequest {
 
     public Object step(int i) throws Cancel {
         helper.assertStep(i);
+        if (range != null) {
+            i += range[0];
+        }
 
         try {
             delegate.execute(i);
@@ -133,6 +152,10 @@ public class DeleteI extends Delete implements IGraphModifyRequest {
     @Override
     public void finish() throws Cancel {
         try {
+            if (!isLastChunk()) {
+                delegate.getGraphState().checkpoint();
+                return; // EARLY EXIT
+            }
             delegate.finish();
         } catch (GraphException ge) {
             throw helper.graphException(ge, helper.getSteps()+1, id);
@@ -143,7 +166,9 @@ public class DeleteI extends Delete implements IGraphModifyRequest {
 
     public void buildResponse(int step, Object object) {
         helper.assertResponse(step);
-        if (helper.isLast(step)) {
+        if (helper.isLast(step) && !isLastChunk()) {
+            delegate.getGraphState().committed();
+        } else if (helper.isLast(step)) {
 
             try {
                 // We're outside of the tx now
@@ -168,10 +193,63 @@ public class DeleteI extends Delete implements IGraphModifyRequest {
         return helper.getResponse();
     }
 
+    //
+    // IChunkedRequest
+    //
+
+    /**
+     * Loads the graph to be deleted and splits its steps into chunks. The
+     * binary files are only removed once all of them have been committed.
+     */
+    public List<IRequest> chunks(Helper helper, Map<String, String> callContext) {
+        init(helper);
+        final List<IRequest> chunks = new ArrayList<IRequest>();
+        for (int[] range : GraphChunks.ranges(helper,
+                delegate.getGraphState(), callContext)) {
+            final DeleteI chunk = new DeleteI(ic, delegate);
+            chunk.type = type;
+            chunk.id = id;
+            chunk.options = options;
+            chunk.range = range;
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    /**
+     * Uses the response of the last chunk or, if one failed, removes the
+     * binary files of the chunks which were committed.
+     */
+    public void chunksDone(Helper helper, List<IRequest> done, IRequest failed) {
+        this.helper = helper;
+        if (failed == null) {
+            helper.setResponseIfNull(done.get(done.size() - 1).getResponse());
+            return; // EARLY EXIT
+        }
+        GraphChunks.failed(helper, delegate.getGraphState(),
+                ((DeleteI) failed).range[0], failed.getResponse());
+        if (!done.isEmpty()) {
+            try {
+                delegate.deleteFiles();
+            } finally {
+                delegate.stop();
+            }
+        }
+    }
+
     //
     // Helpers
     //
 
+    /**
+     * Whether this instance processes the last steps of the graph, i.e. is
+     * either not a chunk or the last one.
+     */
+    private boolean isLastChunk() {
+        return range == null
+                || range[1] == delegate.getGraphState().getTotalFoundCount();
+    }
+
     private ERR err() {
         ERR err = new ERR();
         err.parameters = new HashMap<String, String>();
@@ -0,0 +1,83 @@
+/*
+ * omero.cmd.graphs.GraphChunks
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omero.cmd.graphs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ome.services.graphs.GraphState;
+import omero.cmd.ERR;
+import omero.cmd.Helper;
+import omero.cmd.IChunkedRequest;
+import omero.cmd.Response;
+import omero.cmd.Status;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Helpers for the graph requests which implement {@link IChunkedRequest} by
+ * splitting the steps of their {@link GraphState}. Each chunk is an instance
+ * of the same request class which shares the state of the original one and
+ * processes the steps of one range.
+ *
+ * @since 5.0
+ */
+class GraphChunks {
+
+    /**
+     * Returns the first position and the position after the last of the
+     * steps of each chunk, for the number of steps per chunk given by
+     * {@link IChunkedRequest#CHUNK}.
+     */
+    static List<int[]> ranges(Helper helper, GraphState state,
+            Map<String, String> callContext) {
+        final int size;
+        try {
+            size = Integer.parseInt(callContext.get(IChunkedRequest.CHUNK));
+        } catch (NumberFormatException nfe) {
+            throw helper.cancel(new ERR(), nfe, "bad-chunk",
+                    IChunkedRequest.CHUNK,
+                    callContext.get(IChunkedRequest.CHUNK));
+        }
+        if (size < 1) {
+            throw helper.cancel(new ERR(), null, "bad-chunk",
+                    IChunkedRequest.CHUNK, "" + size);
+        }
+
+        final List<int[]> ranges = new ArrayList<int[]>();
+        int from = 0;
+        for (int to : state.chunks(size)) {
+            ranges.add(new int[] { from, to });
+            from = to;
+        }
+        helper.info("%s steps in %s chunks", state.getTotalFoundCount(),
+                ranges.size());
+        return ranges;
+    }
+
+    /**
+     * Forgets the ids of the failed chunk starting at the given step and
+     * uses its response, adding the graphs which remain to be processed to
+     * the {@link Status#parameters} as {@link IChunkedRequest#CHUNK_RESUME}.
+     */
+    static void failed(Helper helper, GraphState state, int from,
+            Response rsp) {
+        state.revert();
+        final Status status = helper.getStatus();
+        final Map<String, String> params = new HashMap<String, String>();
+        if (status.parameters != null) {
+            params.putAll(status.parameters);
+        }
+        params.put(IChunkedRequest.CHUNK_RESUME,
+                StringUtils.join(state.remainder(from), ","));
+        status.parameters = params;
+        helper.setResponseIfNull(rsp);
+    }
+
+}
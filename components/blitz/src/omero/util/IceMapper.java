@@ -974,6 +974,20 @@ public class IceMapper extends ome.util.ModelMapper implements
         return IceMap.OMEtoOMERO;
     }
 
+    /**
+     * Creates the targets of ome.model.* instances through the generated
+     * {@link IceMappers} rather than reflectively, falling back to
+     * {@link IceMap} for proxies and anything else without a mapper.
+     */
+    @Override
+    protected Object createTarget(Object current) {
+        Object target = IceMappers.create(current.getClass());
+        if (target == null) {
+            target = super.createTarget(current);
+        }
+        return target;
+    }
+
     private void fillTarget(Filterable source, ModelBased target) {
         if (source != null && target != null) {
             target.copyObject(source, this);
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2013 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.formats.utests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ome.formats.importer.util.BlockWriter;
+import omero.ApiUsageException;
+import omero.ServerError;
+import omero.api.AMI_RawFileStore_write;
+import omero.api.RawFileStorePrx;
+
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.jmock.core.Invocation;
+import org.jmock.core.Stub;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that a {@link BlockWriter} keeps writes in flight up to its budget
+ * of bytes, completes them in order and reports their failures.
+ *
+ * @since 5.0
+ */
+public class BlockWriterTest extends MockObjectTestCase {
+
+    Mock storeMock;
+
+    RawFileStorePrx store;
+
+    /** The writes sent to the store, in the order in which they were sent */
+    List<Sent> sent;
+
+    /** Lengths passed to {@link BlockWriter#written(int)} */
+    List<Integer> written;
+
+    /** Whether each write is replied to as soon as it is sent */
+    boolean reply;
+
+    /** Offset of the write which fails, or -1 */
+    long failAt;
+
+    static class Sent {
+
+        final AMI_RawFileStore_write cb;
+
+        final byte[] buf;
+
+        final long offset;
+
+        Sent(AMI_RawFileStore_write cb, byte[] buf, long offset) {
+            this.cb = cb;
+            this.buf = buf;
+            this.offset = offset;
+        }
+
+        void reply() {
+            cb.ice_response();
+        }
+
+    }
+
+    class Writes implements Stub {
+
+        public Object invoke(Invocation invocation) throws Throwable {
+            final AMI_RawFileStore_write cb = (AMI_RawFileStore_write)
+                    invocation.parameterValues.get(0);
+            final byte[] buf = (byte[]) invocation.parameterValues.get(1);
+            final long offset = (Long) invocation.parameterValues.get(2);
+            final Sent write = new Sent(cb, buf.clone(), offset);
+            sent.add(write);
+            if (offset == failAt) {
+                cb.ice_exception(new ApiUsageException(null, null,
+                        "write failed"));
+            } else if (reply) {
+                write.reply();
+            }
+            return true;
+        }
+
+        public StringBuffer describeTo(StringBuffer buffer) {
+            return buffer.append("records writes");
+        }
+
+    }
+
+    class Writer extends BlockWriter {
+
+        Writer(long bytesInFlight) {
+            super(store, bytesInFlight);
+        }
+
+        @Override
+        protected void written(int rlen) {
+            written.add(rlen);
+        }
+
+    }
+
+    @BeforeMethod
+    public void setup() {
+        storeMock = mock(RawFileStorePrx.class);
+        store = (RawFileStorePrx) storeMock.proxy();
+        storeMock.stubs().method("write_async").will(new Writes());
+        sent = Collections.synchronizedList(new ArrayList<Sent>());
+        written = Collections.synchronizedList(new ArrayList<Integer>());
+        reply = true;
+        failAt = -1;
+    }
+
+    @AfterMethod
+    public void shutdown() {
+        for (Sent write : new ArrayList<Sent>(sent)) {
+            write.reply();
+        }
+    }
+
+    /**
+     * Writes 18 bytes in blocks of 4, the last one partial, reusing one
+     * buffer.
+     */
+    void writeAll(BlockWriter writer) throws Exception {
+        final byte[] block = new byte[4];
+        long offset = 0;
+        for (int rlen : new int[] { 4, 4, 4, 4, 2 }) {
+            block[0] = (byte) offset;
+            writer.write(block, offset, rlen);
+            offset += rlen;
+        }
+        writer.flush();
+    }
+
+    @Test
+    public void testWritesCompleteInOrder() throws Exception {
+        writeAll(new Writer(8));
+        assertEquals(list(0L, 4L, 8L, 12L, 16L), offsets());
+        assertEquals(list(4, 4, 4, 4, 2), written);
+        for (Sent write : sent) {
+            assertEquals((byte) write.offset, write.buf[0]);
+        }
+        assertEquals(4, sent.get(0).buf.length);
+        assertEquals(2, sent.get(4).buf.length);
+    }
+
+    @Test
+    public void testWritesAreSentUpToTheBudget() throws Exception {
+        reply = false;
+        final BlockWriter writer = new Writer(8);
+        writer.write(new byte[4], 0, 4);
+        writer.write(new byte[4], 4, 4);
+        assertEquals(2, sent.size());
+        assertTrue(written.isEmpty());
+
+        final CountDownLatch third = new CountDownLatch(1);
+        new Thread() {
+            public void run() {
+                try {
+                    writer.write(new byte[4], 8, 4);
+                    third.countDown();
+                } catch (Exception e) {
+                    // Not counted down
+                }
+            }
+        }.start();
+        assertFalse(third.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(2, sent.size());
+        sent.get(0).reply();
+        assertTrue(third.await(10, TimeUnit.SECONDS));
+        assertEquals(3, sent.size());
+        assertEquals(list(4), written);
+    }
+
+    @Test
+    public void testBudgetBelowABlockSendsOneWriteAtATime() throws Exception {
+        reply = false;
+        final BlockWriter writer = new Writer(0);
+        writer.write(new byte[4], 0, 4);
+        assertEquals(1, sent.size());
+        sent.get(0).reply();
+        writer.write(new byte[4], 4, 4);
+        assertEquals(2, sent.size());
+        assertEquals(list(4), written);
+    }
+
+    @Test
+    public void testFailureIsThrownByTheNextCall() throws Exception {
+        failAt = 4;
+        BlockWriter writer = new Writer(4);
+        writer.write(new byte[4], 0, 4);
+        writer.write(new byte[4], 4, 4);
+        try {
+            writer.write(new byte[4], 8, 4);
+            fail("Failed write not reported");
+        } catch (ServerError e) {
+            assertEquals("write failed", e.message);
+        }
+        writer.abandon();
+        assertEquals(list(0L, 4L), offsets());
+        assertEquals(list(4), written);
+    }
+
+    @Test
+    public void testAbandonWaitsForTheWritesInFlight() throws Exception {
+        reply = false;
+        final BlockWriter writer = new Writer(8);
+        writer.write(new byte[4], 0, 4);
+        writer.write(new byte[4], 4, 4);
+
+        final CountDownLatch abandoned = new CountDownLatch(1);
+        new Thread() {
+            public void run() {
+                writer.abandon();
+                abandoned.countDown();
+            }
+        }.start();
+        sent.get(1).reply();
+        assertFalse(abandoned.await(100, TimeUnit.MILLISECONDS));
+        sent.get(0).reply();
+        assertTrue(abandoned.await(10, TimeUnit.SECONDS));
+        assertTrue(written.isEmpty());
+    }
+
+    List<Long> offsets() {
+        List<Long> offsets = new ArrayList<Long>();
+        for (Sent write : sent) {
+            offsets.add(write.offset);
+        }
+        return offsets;
+    }
+
+    static <T> List<T> list(T... values) {
+        List<T> list = new ArrayList<T>();
+        Collections.addAll(list, values);
+        return list;
+    }
+
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2013 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.formats.utests;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import ome.formats.importer.IObservable;
+import ome.formats.importer.IObserver;
+import ome.formats.importer.ImportConfig;
+import ome.formats.importer.ImportContainer;
+import ome.formats.importer.ImportEvent;
+import ome.formats.importer.util.ConcurrentImports;
+import ome.formats.importer.util.ErrorHandler;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that {@link ConcurrentImports} on several threads continues after
+ * or stops on failed imports, reports their throughput and that the
+ * {@link ErrorHandler} keeps every error reported by the threads.
+ *
+ * @since 5.0
+ */
+public class ConcurrentImportsTest extends TestCase {
+
+    ExecutorService executor;
+
+    /** Counted down as each worker finishes */
+    CountDownLatch workerDone;
+
+    Observable observable;
+
+    ErrorHandler handler;
+
+    /** The throughput events in the order in which they were sent */
+    List<ImportEvent.IMPORT_THROUGHPUT> throughput;
+
+    /** Indexes of the containers whose import was started */
+    Set<Integer> started;
+
+    class Observable implements IObservable {
+
+        final List<IObserver> observers = new CopyOnWriteArrayList<IObserver>();
+
+        public boolean addObserver(IObserver object) {
+            return observers.add(object);
+        }
+
+        public boolean deleteObserver(IObserver object) {
+            return observers.remove(object);
+        }
+
+        public void notifyObservers(ImportEvent event) {
+            for (IObserver observer : observers) {
+                observer.update(this, event);
+            }
+        }
+
+    }
+
+    @BeforeMethod
+    public void setup() {
+        workerDone = new CountDownLatch(1);
+        executor = new ThreadPoolExecutor(4, 4, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            protected void afterExecute(Runnable r, Throwable t) {
+                workerDone.countDown();
+            }
+        };
+        throughput = Collections.synchronizedList(
+                new ArrayList<ImportEvent.IMPORT_THROUGHPUT>());
+        started = Collections.synchronizedSet(new HashSet<Integer>());
+        handler = new ErrorHandler(new ImportConfig()) {
+            @Override
+            protected void onUpdate(IObservable importLibrary,
+                    ImportEvent event) {
+                if (event instanceof ImportEvent.IMPORT_THROUGHPUT) {
+                    throughput.add((ImportEvent.IMPORT_THROUGHPUT) event);
+                }
+            }
+        };
+        observable = new Observable();
+        observable.addObserver(handler);
+    }
+
+    @AfterMethod
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    List<ImportContainer> containers(int count) {
+        List<ImportContainer> containers = new ArrayList<ImportContainer>();
+        for (int i = 0; i < count; i++) {
+            String name = "image" + i;
+            containers.add(new ImportContainer(new File(name), null, null,
+                    "reader", new String[] { name, name + ".companion" },
+                    false));
+        }
+        return containers;
+    }
+
+    /**
+     * Reports the failed import to the observers as the import library
+     * does, then throws.
+     */
+    void failImport(ImportContainer ic) throws Exception {
+        Exception e = new Exception("import failed");
+        observable.notifyObservers(new ErrorHandler.INTERNAL_EXCEPTION(
+                ic.getFile().getName(), e, ic.getUsedFiles(), "reader"));
+        throw e;
+    }
+
+    ImportEvent.IMPORT_THROUGHPUT last() {
+        return throughput.get(throughput.size() - 1);
+    }
+
+    @Test
+    public void testContinueOnErrorWithSeveralThreads() throws Exception {
+        final CountDownLatch allRunning = new CountDownLatch(4);
+        boolean completed = ConcurrentImports.importAll(executor, 4, true,
+                containers(40), observable, new ConcurrentImports.Import() {
+                    public void importContainer(ImportContainer ic,
+                            int index, int numDone, int total)
+                            throws Throwable {
+                        assertEquals(40, total);
+                        started.add(index);
+                        // The first imports wait until all threads run
+                        allRunning.countDown();
+                        allRunning.await(10, TimeUnit.SECONDS);
+                        if (index % 2 == 1) {
+                            failImport(ic);
+                        }
+                    }
+                });
+        assertTrue(completed);
+        assertEquals(40, started.size());
+        assertEquals(20, handler.errorCount());
+        // One as each import completes and one once all are done
+        assertEquals(41, throughput.size());
+        assertEquals(20, last().numDone);
+        assertEquals(40, last().total);
+        assertEquals(40, last().files);
+    }
+
+    @Test
+    public void testStopOnErrorWithSeveralThreads() throws Exception {
+        boolean completed = ConcurrentImports.importAll(executor, 2, false,
+                containers(10), observable, new ConcurrentImports.Import() {
+                    public void importContainer(ImportContainer ic,
+                            int index, int numDone, int total)
+                            throws Throwable {
+                        started.add(index);
+                        if (index == 0) {
+                            failImport(ic);
+                        }
+                        // Until the failed worker has stopped
+                        workerDone.await(10, TimeUnit.SECONDS);
+                    }
+                });
+        assertFalse(completed);
+        assertTrue(started.contains(0));
+        assertTrue(started.toString(), started.size() <= 2);
+        assertEquals(1, handler.errorCount());
+        assertEquals(started.size() + 1, throughput.size());
+        assertEquals(started.size() - 1, last().numDone);
+        assertEquals(10, last().total);
+    }
+
+    @Test
+    public void testOneThreadImportsOnTheCallingThread() throws Exception {
+        final String caller = Thread.currentThread().getName();
+        boolean completed = ConcurrentImports.importAll(executor, 1, true,
+                containers(3), observable, new ConcurrentImports.Import() {
+                    public void importContainer(ImportContainer ic,
+                            int index, int numDone, int total) {
+                        assertEquals(caller, Thread.currentThread().getName());
+                        assertEquals(index, numDone);
+                    }
+                });
+        assertTrue(completed);
+        assertEquals(3, last().numDone);
+        assertEquals(4, throughput.size());
+    }
+
+}
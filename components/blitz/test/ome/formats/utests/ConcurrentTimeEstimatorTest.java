@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2013 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.formats.utests;
+
+import junit.framework.TestCase;
+import ome.formats.importer.util.ConcurrentTimeEstimatorImpl;
+
+import org.testng.annotations.Test;
+
+/**
+ * Checks that {@link ConcurrentTimeEstimatorImpl} bases its estimate on the
+ * wall-clock time since the first start, whichever threads upload.
+ *
+ * @since 5.0
+ */
+public class ConcurrentTimeEstimatorTest extends TestCase {
+
+    /** Waits until the clock has moved on by the given milliseconds. */
+    static void elapse(long ms) {
+        final long until = System.currentTimeMillis() + ms;
+        while (System.currentTimeMillis() < until) {
+            Thread.yield();
+        }
+    }
+
+    @Test
+    public void testNoEstimateBeforeBytesAreUploaded() {
+        ConcurrentTimeEstimatorImpl estimator =
+            new ConcurrentTimeEstimatorImpl(1000);
+        assertEquals(0, estimator.getUploadTimeLeft());
+        estimator.start();
+        elapse(5);
+        estimator.stop();
+        assertEquals(0, estimator.getUploadTimeLeft());
+    }
+
+    @Test
+    public void testBytesOfAllThreadsShareTheClock() throws Exception {
+        final ConcurrentTimeEstimatorImpl estimator =
+            new ConcurrentTimeEstimatorImpl(4000);
+        final long begin = System.currentTimeMillis();
+        estimator.start();
+        elapse(20);
+
+        // Later starts do not restart the clock
+        Thread other = new Thread() {
+            public void run() {
+                estimator.start();
+                estimator.stop(1000);
+            }
+        };
+        other.start();
+        other.join();
+        estimator.start();
+        estimator.stop(1000);
+        final long elapsed = System.currentTimeMillis() - begin;
+
+        // Half uploaded, so as long again as the time taken so far
+        final long left = estimator.getUploadTimeLeft();
+        assertTrue("" + left, left >= 20);
+        assertTrue(left + " > " + elapsed, left <= elapsed + 1);
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2013 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.formats.utests;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import ome.formats.importer.util.ConcurrentUploads;
+import omero.ServerError;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks how {@link ConcurrentUploads} shares the files of a fileset among
+ * threads and stops on failure.
+ *
+ * @since 5.0
+ */
+public class ConcurrentUploadsTest extends TestCase {
+
+    ExecutorService executor;
+
+    /** Counted down as each worker finishes */
+    CountDownLatch workerDone;
+
+    @BeforeMethod
+    public void setup() {
+        workerDone = new CountDownLatch(1);
+        executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            protected void afterExecute(Runnable r, Throwable t) {
+                workerDone.countDown();
+            }
+        };
+    }
+
+    @AfterMethod
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testChecksumsAreAtTheIndexOfTheirFile() throws Exception {
+        final Set<String> threads = Collections
+                .synchronizedSet(new HashSet<String>());
+        String[] checksums = new String[5];
+        ConcurrentUploads.upload(executor, 3, 8, checksums,
+                new ConcurrentUploads.Upload() {
+                    public String upload(int index, byte[] buf) {
+                        assertEquals(8, buf.length);
+                        threads.add(Thread.currentThread().getName());
+                        return "checksum" + index;
+                    }
+                });
+        assertEquals(Arrays.asList("checksum0", "checksum1", "checksum2",
+                "checksum3", "checksum4"), Arrays.asList(checksums));
+        assertFalse(threads.contains(Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void testOneThreadUploadsOnTheCallingThread() throws Exception {
+        final String caller = Thread.currentThread().getName();
+        String[] checksums = new String[3];
+        ConcurrentUploads.upload(executor, 1, 8, checksums,
+                new ConcurrentUploads.Upload() {
+                    public String upload(int index, byte[] buf) {
+                        assertEquals(caller, Thread.currentThread().getName());
+                        return "checksum" + index;
+                    }
+                });
+        assertEquals("checksum2", checksums[2]);
+    }
+
+    @Test
+    public void testNoMoreFilesAreStartedAfterAFailure() throws Exception {
+        final Set<Integer> started = Collections
+                .synchronizedSet(new HashSet<Integer>());
+        final AtomicInteger running = new AtomicInteger();
+        String[] checksums = new String[10];
+        try {
+            ConcurrentUploads.upload(executor, 2, 8, checksums,
+                    new ConcurrentUploads.Upload() {
+                        public String upload(int index, byte[] buf)
+                                throws ServerError, IOException {
+                            started.add(index);
+                            running.incrementAndGet();
+                            try {
+                                if (index == 0) {
+                                    throw new IOException("upload failed");
+                                }
+                                // Until the failed worker has stopped
+                                workerDone.await(10, TimeUnit.SECONDS);
+                                return "checksum" + index;
+                            } catch (InterruptedException e) {
+                                throw new RuntimeException(e);
+                            } finally {
+                                running.decrementAndGet();
+                            }
+                        }
+                    });
+            fail("Failure not thrown");
+        } catch (IOException e) {
+            assertEquals("upload failed", e.getMessage());
+        }
+        assertEquals(0, running.get());
+        assertTrue(started.contains(0));
+        assertTrue(started.toString(), started.size() <= 2);
+        assertNull(checksums[0]);
+    }
+
+}
@@ -23,6 +23,7 @@ import static omero.rtypes.rstring;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -36,6 +37,7 @@ import omero.cmd.Chgrp;
 import omero.cmd.DoAllRsp;
 import omero.cmd.HandleI.Cancel;
 import omero.cmd.Helper;
+import omero.cmd.IChunkedRequest;
 import omero.cmd.IRequest;
 import omero.cmd.Request;
 import omero.cmd.Response;
@@ -129,6 +131,60 @@ public class DoAllITest extends AbstractGraphTest {
 
     }
 
+    @Test
+    public void testStepsInChunks() throws Exception {
+        Request cs1 = new CheckSteps("1", 0, 1, 2, 3, 4);
+        Request cs2 = new CheckSteps("2", 0);
+        Request cs3 = new CheckSteps("3", 0);
+        Request cs4 = new CheckSteps("4", 0, 1, 2, 3, 4, 5, 6, 7, 8);
+        Request cs5 = new CheckSteps("5", 0);
+        DoAllI all = new DoAllI(ctx);
+        all.requests = Arrays.asList(cs1, cs2, cs3, cs4, cs5);
+
+        Map<String, String> callContext = new HashMap<String, String>();
+        callContext.put(IChunkedRequest.CHUNK, "2");
+        _HandleTie handle = submit(all, callContext);
+        block(handle, 5, 1000);
+        DoAllRsp rsp = (DoAllRsp) assertSuccess(handle);
+        assertEquals(5, rsp.responses.size());
+        assertEquals("3/3", handle.getStatus().parameters.get("chunks"));
+        assertEquals("17", handle.getStatus().parameters.get("objects"));
+    }
+
+    @Test
+    public void testChunksResumeFromStart() throws Exception {
+        Request cs1 = new CheckSteps("1", 5); // Would fail
+        Request cs2 = new CheckSteps("2", 0);
+        Request cs3 = new CheckSteps("3", 0, 1);
+        DoAllI all = new DoAllI(ctx);
+        all.requests = Arrays.asList(cs1, cs2, cs3);
+
+        Map<String, String> callContext = new HashMap<String, String>();
+        callContext.put(IChunkedRequest.CHUNK, "1");
+        callContext.put(IChunkedRequest.CHUNK_START, "1");
+        _HandleTie handle = submit(all, callContext);
+        block(handle, 5, 1000);
+        DoAllRsp rsp = (DoAllRsp) assertSuccess(handle);
+        assertEquals(2, rsp.responses.size());
+    }
+
+    @Test
+    public void testFailedChunkReportsWhereToResume() throws Exception {
+        Request cs1 = new CheckSteps("1", 0);
+        Request cs2 = new CheckSteps("2", 5); // Fails
+        Request cs3 = new CheckSteps("3", 0);
+        DoAllI all = new DoAllI(ctx);
+        all.requests = Arrays.asList(cs1, cs2, cs3);
+
+        Map<String, String> callContext = new HashMap<String, String>();
+        callContext.put(IChunkedRequest.CHUNK, "1");
+        _HandleTie handle = submit(all, callContext);
+        block(handle, 5, 1000);
+        assertFailure(handle);
+        assertEquals("1", handle.getStatus().parameters
+                .get(IChunkedRequest.CHUNK_START));
+    }
+
     @Test
     public void testSimple() throws Exception {
         EventContext before = user.getCurrentEventContext();
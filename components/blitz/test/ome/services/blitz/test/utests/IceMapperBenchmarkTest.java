@@ -0,0 +1,118 @@
+/*
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.blitz.test.utests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import ome.model.annotations.CommentAnnotation;
+import ome.model.containers.Dataset;
+import ome.model.containers.Project;
+import ome.model.core.Image;
+import ome.model.meta.Experimenter;
+import ome.model.meta.ExperimenterGroup;
+import omero.model.DatasetI;
+import omero.model.ProjectI;
+import omero.util.IceMapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+/**
+ * Compares the mapping of Project, Dataset, Image graphs with annotations
+ * through the generated {@link omero.util.IceMappers} with the reflective
+ * instantiation of the model targets. Only the creation of the targets
+ * differs: both paths copy the fields through the generated copyObject()
+ * methods and track the objects already mapped in the same identity map.
+ * Excluded from the unit suite; run with the "perf" group.
+ */
+@Test(groups = "perf")
+public class IceMapperBenchmarkTest extends TestCase {
+
+    private final static Logger log = LoggerFactory
+            .getLogger(IceMapperBenchmarkTest.class);
+
+    private final static int DATASETS = 10;
+
+    private final static int IMAGES = 1000;
+
+    private final static int ROUNDS = 20;
+
+    /**
+     * Instantiates the targets reflectively, as before the generated
+     * mappers.
+     */
+    static class ReflectiveIceMapper extends IceMapper {
+        @Override
+        protected Object createTarget(Object current) {
+            try {
+                return findClass(current.getClass()).newInstance();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private List<Project> graph() {
+        Experimenter owner = new Experimenter(1L, true);
+        ExperimenterGroup group = new ExperimenterGroup(1L, true);
+        Project project = new Project(1L, true);
+        project.setName("project");
+        project.getDetails().setOwner(owner);
+        project.getDetails().setGroup(group);
+        long id = 1;
+        for (int d = 0; d < DATASETS; d++) {
+            Dataset dataset = new Dataset(id++, true);
+            dataset.setName("dataset " + d);
+            dataset.getDetails().setOwner(owner);
+            project.linkDataset(dataset);
+            for (int i = 0; i < IMAGES / DATASETS; i++) {
+                Image image = new Image(id++, true);
+                image.setName("image " + i);
+                image.getDetails().setOwner(owner);
+                image.getDetails().setGroup(group);
+                CommentAnnotation comment = new CommentAnnotation(id++, true);
+                comment.setTextValue("comment " + i);
+                image.linkAnnotation(comment);
+                dataset.linkImage(image);
+            }
+        }
+        List<Project> projects = new ArrayList<Project>();
+        projects.add(project);
+        return projects;
+    }
+
+    private long time(boolean generated) {
+        long total = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            List<Project> projects = graph();
+            IceMapper mapper = generated ? new IceMapper()
+                    : new ReflectiveIceMapper();
+            long start = System.nanoTime();
+            List<?> mapped = (List<?>) mapper.map(projects);
+            total += System.nanoTime() - start;
+            ProjectI project = (ProjectI) mapped.get(0);
+            assertEquals(DATASETS, project.sizeOfDatasetLinks());
+            DatasetI dataset = (DatasetI) project.linkedDatasetList().get(0);
+            assertEquals(IMAGES / DATASETS, dataset.sizeOfImageLinks());
+        }
+        return total / ROUNDS;
+    }
+
+    @Test
+    public void testGeneratedAgainstReflective() {
+        // Warm up both paths before measuring
+        time(true);
+        time(false);
+        long reflective = time(false);
+        long generated = time(true);
+        log.info(String.format(
+                "Mapped %d images: reflective %.2f ms, generated %.2f ms",
+                IMAGES, reflective / 1e6, generated / 1e6));
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.blitz.test.utests;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import ome.model.ModelBased;
+import ome.model.roi.Ellipse;
+import ome.model.roi.Label;
+import omero.model.SmartEllipseI;
+import omero.model.SmartTextI;
+import omero.util.IceMap;
+import omero.util.IceMapper;
+import omero.util.IceMappers;
+
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the generated {@link IceMappers} create, for every ome.model.*
+ * class, an instance of the omero.model.* class which {@link IceMap} maps it
+ * to, and that neither table has a class which the other lacks.
+ */
+public class IceMappersTest extends TestCase {
+
+    @Test
+    public void testEveryIceMapEntryHasMatchingMapper() {
+        for (Map.Entry<Class, Class> entry : IceMap.OMEtoOMERO.entrySet()) {
+            Class source = entry.getKey();
+            IceMappers.Mapper mapper = IceMappers.MAPPERS.get(source);
+            assertNotNull("No mapper for " + source, mapper);
+            ModelBased target = mapper.create();
+            assertEquals(source.getName(), entry.getValue(), target.getClass());
+        }
+    }
+
+    @Test
+    public void testEveryMapperHasIceMapEntry() {
+        for (Class source : IceMappers.MAPPERS.keySet()) {
+            assertTrue("Not in IceMap: " + source,
+                    IceMap.OMEtoOMERO.containsKey(source));
+        }
+        assertEquals(IceMap.OMEtoOMERO.size(), IceMappers.MAPPERS.size());
+    }
+
+    @Test
+    public void testSmartRoiOverrides() {
+        assertEquals(SmartEllipseI.class,
+                IceMappers.create(Ellipse.class).getClass());
+        assertEquals(SmartTextI.class,
+                IceMappers.create(Label.class).getClass());
+    }
+
+    @Test
+    public void testNoMapperForSubclasses() {
+        // Such as Hibernate proxies, which are left to the reflective path
+        assertNull(IceMappers.create(new Ellipse() {}.getClass()));
+    }
+
+    @Test
+    public void testMapsKeepTheirClass() {
+        Map<String, String> ordered = new LinkedHashMap<String, String>();
+        ordered.put("b", "2");
+        ordered.put("a", "1");
+        Map<?, ?> target = new IceMapper().map(ordered);
+        assertEquals(LinkedHashMap.class, target.getClass());
+        assertEquals(new ArrayList<String>(ordered.keySet()),
+                new ArrayList<Object>(target.keySet()));
+        Map<String, String> plain = new HashMap<String, String>(ordered);
+        target = new IceMapper().map(plain);
+        assertEquals(HashMap.class, target.getClass());
+        assertEquals(plain, target);
+    }
+
+}
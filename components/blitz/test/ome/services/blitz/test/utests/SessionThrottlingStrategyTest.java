@@ -0,0 +1,256 @@
+/*
+ * ome.services.blitz.test.utests.SessionThrottlingStrategyTest
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.blitz.test.utests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import ome.conditions.OverUsageException;
+import ome.security.basic.CurrentDetails;
+import ome.services.throttling.SessionThrottlingStrategy;
+import ome.services.throttling.Task;
+import ome.system.OmeroContext;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the order in which {@link SessionThrottlingStrategy} runs calls.
+ */
+public class SessionThrottlingStrategyTest extends TestCase {
+
+    ExecutorService executor;
+
+    SessionThrottlingStrategy strategy;
+
+    /** Names of the calls in the order in which they started */
+    List<String> started;
+
+    /** Released to let the calls which wait on it finish */
+    CountDownLatch release;
+
+    class Call extends Task {
+
+        final String name;
+
+        final CountDownLatch running = new CountDownLatch(1);
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        /** The exception with which the call was cancelled or rejected */
+        volatile Throwable exception;
+
+        // Those of the test which made the call, so that calls left over
+        // from other tests cannot upset this one.
+        final List<String> started = SessionThrottlingStrategyTest.this.started;
+
+        final CountDownLatch release = SessionThrottlingStrategyTest.this.release;
+
+        Call(String name) {
+            super(null, null, true);
+            this.name = name;
+        }
+
+        @Override
+        public void run(OmeroContext ctx) {
+            started.add(name);
+            running.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // Finish
+            } finally {
+                done.countDown();
+            }
+        }
+
+        @Override
+        protected void exception(Throwable ex, OmeroContext ctx) {
+            exception = ex;
+            done.countDown();
+        }
+
+    }
+
+    void setup(int threads, int perSession, int perService) {
+        setup(threads, perSession, perService, 100);
+    }
+
+    void setup(int threads, int perSession, int perService,
+            int queuedPerSession) {
+        started = Collections.synchronizedList(new ArrayList<String>());
+        release = new CountDownLatch(1);
+        executor = Executors.newFixedThreadPool(threads);
+        strategy = new SessionThrottlingStrategy(new CurrentDetails(),
+                executor, perSession, perService, queuedPerSession,
+                "omero.api.ThumbnailStore");
+    }
+
+    Ice.Current current(String session, String service) {
+        Ice.Current current = new Ice.Current();
+        current.id = new Ice.Identity(session + service, session);
+        current.ctx = new HashMap<String, String>();
+        return current;
+    }
+
+    Call call(String session, String service, String name) {
+        Call call = new Call(name);
+        strategy.runnableCall(current(session, service), call);
+        return call;
+    }
+
+    void await(Call call) throws Exception {
+        assertTrue(call.name, call.done.await(10, TimeUnit.SECONDS));
+    }
+
+    void awaitRunning(Call... calls) throws Exception {
+        for (Call call : calls) {
+            assertTrue(call.name, call.running.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @AfterMethod
+    public void shutdown() {
+        release.countDown();
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSessionLimit() throws Exception {
+        setup(4, 2, 10);
+        List<Call> calls = new ArrayList<Call>();
+        for (int i = 0; i < 5; i++) {
+            calls.add(call("a", "omero.api.IQuery", "a" + i));
+        }
+        Call other = call("b", "omero.api.IQuery", "b0");
+        awaitRunning(calls.get(0), calls.get(1), other);
+        // Session b is not held up behind the calls of session a
+        assertEquals(3, strategy.getRunning());
+        assertEquals(3, strategy.getQueued());
+        assertTrue(started.contains("b0"));
+        release.countDown();
+        for (Call call : calls) {
+            await(call);
+        }
+        await(other);
+        assertTrue(started.subList(0, 3).containsAll(names("a0", "a1", "b0")));
+        assertEquals(6, started.size());
+    }
+
+    @Test
+    public void testServiceLimit() throws Exception {
+        setup(4, 4, 1);
+        Call first = call("a", "omero.api.IQuery", "query0");
+        call("b", "omero.api.IQuery", "query1");
+        Call update = call("c", "omero.api.IUpdate", "update");
+        awaitRunning(first, update);
+        // query1 cannot start until query0 finishes
+        assertEquals(2, started.size());
+        assertTrue(started.containsAll(names("query0", "update")));
+        release.countDown();
+        await(first);
+    }
+
+    @Test
+    public void testSessionsTakeTurns() throws Exception {
+        setup(1, 1, 10);
+        Call blocker = call("z", "omero.api.IQuery", "z");
+        for (int i = 0; i < 3; i++) {
+            call("a", "omero.api.IQuery", "a" + i);
+        }
+        Call last = call("b", "omero.api.IQuery", "b0");
+        release.countDown();
+        await(blocker);
+        await(last);
+        assertEquals("a0", started.get(1));
+        assertEquals("b0", started.get(2));
+    }
+
+    @Test
+    public void testInteractiveFirst() throws Exception {
+        setup(1, 10, 10);
+        Call blocker = call("z", "omero.api.IQuery", "z");
+        Call bulk = call("a", "omero.api.IQuery", "bulk");
+        Call thumbnail = call("b", "omero.api.ThumbnailStore", "thumbnail");
+        assertEquals(1, strategy.getQueuedInteractive());
+        release.countDown();
+        await(blocker);
+        await(thumbnail);
+        await(bulk);
+        assertEquals(names("z", "thumbnail", "bulk"), started);
+    }
+
+    @Test
+    public void testNestedCallRunsInline() throws Exception {
+        setup(1, 1, 1);
+        release.countDown();
+        final Call inner = new Call("inner");
+        final Task outer = new Task(null, null, true) {
+            @Override
+            public void run(OmeroContext ctx) {
+                started.add("outer");
+                strategy.runnableCall(current("a", "omero.api.IQuery"), inner);
+            }
+        };
+        strategy.runnableCall(current("a", "omero.api.IQuery"), outer);
+        await(inner);
+        assertEquals(names("outer", "inner"), started);
+    }
+
+    @Test
+    public void testDestroyCancelsQueued() throws Exception {
+        setup(1, 1, 1);
+        Call blocker = call("a", "omero.api.IQuery", "a0");
+        Call queued = call("a", "omero.api.IQuery", "a1");
+        awaitRunning(blocker);
+        strategy.destroy();
+        assertEquals(0, strategy.getQueued());
+        await(queued);
+        assertNotNull(queued.exception);
+        release.countDown();
+        await(blocker);
+        // The cancelled call was dropped from the queue so cannot run
+        assertEquals(names("a0"), started);
+    }
+
+    @Test
+    public void testSessionQueueLimit() throws Exception {
+        setup(1, 1, 10, 2);
+        Call blocker = call("a", "omero.api.IQuery", "a0");
+        awaitRunning(blocker);
+        Call queued = call("a", "omero.api.IQuery", "a1");
+        call("a", "omero.api.IQuery", "a2");
+        Call rejected = call("a", "omero.api.IQuery", "a3");
+        await(rejected);
+        assertTrue(String.valueOf(rejected.exception),
+                rejected.exception instanceof OverUsageException);
+        assertEquals(1, strategy.getRejected());
+        // Other sessions are still queued
+        Call other = call("b", "omero.api.IQuery", "b0");
+        assertNull(other.exception);
+        assertEquals(3, strategy.getQueued());
+        release.countDown();
+        await(queued);
+        await(other);
+        assertFalse(started.contains("a3"));
+    }
+
+    static List<String> names(String... names) {
+        return Arrays.asList(names);
+    }
+
+}
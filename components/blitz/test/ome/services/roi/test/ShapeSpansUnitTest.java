@@ -0,0 +1,74 @@
+/*
+ * ome.services.roi.test.ShapeSpansUnitTest
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi.test;
+
+import junit.framework.TestCase;
+import ome.services.roi.ShapeSpans;
+
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the points of a shape are gathered into the expected spans.
+ */
+@Test(groups = { "rois" })
+public class ShapeSpansUnitTest extends TestCase {
+
+    @Test
+    public void testEmpty() throws Exception {
+        ShapeSpans spans = new ShapeSpans.Builder().build();
+        assertEquals(0, spans.getPointCount());
+        assertEquals(0, spans.getRowCount());
+    }
+
+    @Test
+    public void testPointsInAnyOrderMakeSortedSpans() throws Exception {
+        ShapeSpans.Builder b = new ShapeSpans.Builder();
+        // Row 3: 5-7 and 9, row -1: 0-1, added out of order and twice
+        int[][] points = { { 9, 3 }, { 6, 3 }, { 1, -1 }, { 5, 3 },
+                { 0, -1 }, { 7, 3 }, { 6, 3 } };
+        for (int[] p : points) {
+            b.add(p[0], p[1]);
+        }
+        ShapeSpans spans = b.build();
+        assertEquals(6, spans.getPointCount());
+        assertEquals(2, spans.getRowCount());
+
+        assertEquals(-1, spans.getY(0));
+        assertEquals(0, spans.getFirstSpan(0));
+        assertEquals(0, spans.getStartX(0));
+        assertEquals(1, spans.getEndX(0));
+
+        assertEquals(3, spans.getY(1));
+        assertEquals(1, spans.getFirstSpan(1));
+        assertEquals(5, spans.getStartX(1));
+        assertEquals(7, spans.getEndX(1));
+        assertEquals(9, spans.getStartX(2));
+        assertEquals(9, spans.getEndX(2));
+        assertEquals(3, spans.getFirstSpan(2));
+    }
+
+    @Test
+    public void testBoxCountsEachPointOnce() throws Exception {
+        ShapeSpans.Builder b = new ShapeSpans.Builder();
+        for (int y = 0; y < 100; y++) {
+            for (int x = -50; x < 50; x++) {
+                b.add(x, y);
+            }
+        }
+        ShapeSpans spans = b.build();
+        assertEquals(10000, spans.getPointCount());
+        assertEquals(100, spans.getRowCount());
+        for (int row = 0; row < 100; row++) {
+            assertEquals(row, spans.getY(row));
+            assertEquals(row, spans.getFirstSpan(row));
+            assertEquals(-50, spans.getStartX(row));
+            assertEquals(49, spans.getEndX(row));
+        }
+    }
+
+}
@@ -12,8 +12,11 @@ import static omero.rtypes.rstring;
 import static omero.rtypes.rtime;
 
 import java.io.FileNotFoundException;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import omero.api.AMD_IRoi_getShapeStats;
 import omero.api.ShapeStats;
@@ -86,6 +89,61 @@ public class ShapeStatsTest extends AbstractRoiITest {
         ShapeStats stats = assertStats(roi.getPrimaryShape(), lcs[0]);
     }
 
+    @Test
+    public void testStatsWithExecutorMatchThoseWithout() throws Exception {
+
+        Pixels p = makeAndLoadPixels();
+        Image i = new ImageI();
+        i.addPixels(p);
+        i.setName(rstring("statsWithExecutor"));
+        i.setAcquisitionDate(rtime(0));
+        Rect r = geomTool.rect(0, 0, 10, 10);
+        Roi roi = createRoi(i, "statsWithExecutor", r);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            geomTool.setStatsExecutor(null);
+            ShapeStats serial = assertStats(roi.getPrimaryShape());
+            geomTool.setStatsExecutor(executor);
+            ShapeStats concurrent = assertStats(roi.getPrimaryShape());
+            assertTrue(Arrays.equals(serial.min, concurrent.min));
+            assertTrue(Arrays.equals(serial.max, concurrent.max));
+            assertTrue(Arrays.equals(serial.sum, concurrent.sum));
+            assertTrue(Arrays.equals(serial.pointsCount,
+                    concurrent.pointsCount));
+        } finally {
+            geomTool.setStatsExecutor((ExecutorService) ctx
+                    .getBean("roiStatsExecutor"));
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testStatsWithExplicitChannelAndExecutor() throws Exception {
+
+        Pixels p = makeAndLoadPixels();
+        LogicalChannel[] lcs = collectLogicalChannels(p);
+
+        Image i = new ImageI();
+        i.addPixels(p);
+        i.setName(rstring("statsOfRectExplicitChannelExecutor"));
+        i.setAcquisitionDate(rtime(0));
+        Rect r = geomTool.rect(0, 0, 10, 10);
+        r.setTheC(rint(0));
+        Roi roi = createRoi(i, "statsOfRect", r);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            geomTool.setStatsExecutor(executor);
+            ShapeStats stats = assertStats(roi.getPrimaryShape(), lcs[0]);
+            assertEquals(1, stats.min.length);
+        } finally {
+            geomTool.setStatsExecutor((ExecutorService) ctx
+                    .getBean("roiStatsExecutor"));
+            executor.shutdown();
+        }
+    }
+
     protected ShapeStats assertStats(final Shape shape,
             final LogicalChannel... lcs) throws Exception {
         final RV rv = new RV();
@@ -72,4 +72,87 @@ public class ImageUtil
 
         return image;
     }
+
+    /**
+     * Scales a rendering engine RGB buffer by averaging, for each pixel of
+     * the scaled image, the pixels of the source which it covers. When the
+     * scaled image is larger than the source along an axis the nearest pixel
+     * is used instead. Only one row of sums is allocated so that scaling down
+     * large planes to thumbnails needs no intermediate image.
+     *
+     * @param src
+     *            the rendering engine packed integer buffer.
+     * @param srcSizeX
+     *            the X-width of the image rendered.
+     * @param srcSizeY
+     *            the Y-width of the image rendered.
+     * @param dst
+     *            the buffer to scale into, reused if it is large enough,
+     *            may be <code>null</code>.
+     * @param sizeX
+     *            the X-width of the scaled image.
+     * @param sizeY
+     *            the Y-width of the scaled image.
+     * @return <i>dst</i> or a new buffer if it was too small.
+     */
+    public static int[] scaleAreaAveraged(int[] src, int srcSizeX,
+            int srcSizeY, int[] dst, int sizeX, int sizeY)
+    {
+        if (dst == null || dst.length < sizeX * sizeY)
+        {
+            dst = new int[sizeX * sizeY];
+        }
+        // Source columns [xStart[x], xEnd[x]) cover the scaled column x.
+        int[] xStart = new int[sizeX];
+        int[] xEnd = new int[sizeX];
+        for (int x = 0; x < sizeX; x++)
+        {
+            xStart[x] = (int) ((long) x * srcSizeX / sizeX);
+            xEnd[x] = Math.max(xStart[x] + 1,
+                    (int) ((long) (x + 1) * srcSizeX / sizeX));
+        }
+        long[] red = new long[sizeX];
+        long[] green = new long[sizeX];
+        long[] blue = new long[sizeX];
+        for (int y = 0; y < sizeY; y++)
+        {
+            int yStart = (int) ((long) y * srcSizeY / sizeY);
+            int yEnd = Math.max(yStart + 1,
+                    (int) ((long) (y + 1) * srcSizeY / sizeY));
+            for (int x = 0; x < sizeX; x++)
+            {
+                red[x] = 0;
+                green[x] = 0;
+                blue[x] = 0;
+            }
+            for (int sy = yStart; sy < yEnd; sy++)
+            {
+                int row = sy * srcSizeX;
+                for (int x = 0; x < sizeX; x++)
+                {
+                    long r = 0, g = 0, b = 0;
+                    for (int sx = row + xStart[x]; sx < row + xEnd[x]; sx++)
+                    {
+                        int v = src[sx];
+                        r += (v >> 16) & 0xFF;
+                        g += (v >> 8) & 0xFF;
+                        b += v & 0xFF;
+                    }
+                    red[x] += r;
+                    green[x] += g;
+                    blue[x] += b;
+                }
+            }
+            int offset = y * sizeX;
+            for (int x = 0; x < sizeX; x++)
+            {
+                long n = (long) (yEnd - yStart) * (xEnd[x] - xStart[x]);
+                long half = n / 2;
+                dst[offset + x] = (int) (((red[x] + half) / n) << 16
+                        | ((green[x] + half) / n) << 8
+                        | ((blue[x] + half) / n));
+            }
+        }
+        return dst;
+    }
 }
@@ -12,9 +12,11 @@ import java.lang.reflect.Array;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -124,7 +126,6 @@ public abstract class ModelMapper extends ContextFilter {
         Object target = model2target.get(current);
         if (null == target) {
             Class currentType = current.getClass();
-            Class targetType = null;
 
             if (currentType.isArray()) {
 
@@ -145,26 +146,37 @@ public abstract class ModelMapper extends ContextFilter {
                 }
 
             } else {
-                targetType = findClass(currentType);
-
-                if (null == targetType) {
-                    throw new InternalException("Cannot handle type:" + current);
-                }
-
-                try {
-                    target = targetType.newInstance();
-                } catch (Exception e) {
-                    log.error("Error creating new instance of target type"
-                            + current, e);
-                    throwOnNewInstanceException(current, targetType, e);
-                }
-
+                target = createTarget(current);
             }
             model2target.put(current, target);
         }
         return target;
     }
 
+    /**
+     * Creates the empty target an object is mapped to, instantiating the
+     * class returned by {@link #c2c()} for its class. Subclasses may create
+     * the targets of known classes directly rather than reflectively.
+     * 
+     * @param current
+     *            the non-null, non-array object to map.
+     * @return the new target.
+     */
+    protected Object createTarget(Object current) {
+        Class targetType = findClass(current.getClass());
+        if (null == targetType) {
+            throw new InternalException("Cannot handle type:" + current);
+        }
+        try {
+            return targetType.newInstance();
+        } catch (Exception e) {
+            log.error("Error creating new instance of target type" + current,
+                    e);
+            throwOnNewInstanceException(current, targetType, e);
+            return null;
+        }
+    }
+
     public Collection findCollection(Collection source) {
         if (source == null) {
             return null;
@@ -192,18 +204,32 @@ public abstract class ModelMapper extends ContextFilter {
 
         Map target = (Map) model2target.get(source);
         if (null == target) {
-            try {
-                target = source.getClass().newInstance();
-                model2target.put(source, target);
-            } catch (InstantiationException ie) {
-                throw new RuntimeException(ie);
-            } catch (IllegalAccessException iae) {
-                throw new RuntimeException(iae);
-            }
+            target = createMap(source);
+            model2target.put(source, target);
         }
         return target;
     }
 
+    /**
+     * Creates an empty map of the same class as the source, directly for the
+     * common map classes and otherwise reflectively.
+     */
+    protected Map createMap(Map source) {
+        final Class type = source.getClass();
+        if (type == HashMap.class) {
+            return new HashMap();
+        } else if (type == LinkedHashMap.class) {
+            return new LinkedHashMap();
+        }
+        try {
+            return (Map) type.newInstance();
+        } catch (InstantiationException ie) {
+            throw new RuntimeException(ie);
+        } catch (IllegalAccessException iae) {
+            throw new RuntimeException(iae);
+        }
+    }
+
     private void fillTarget(Filterable source, ModelBased target) {
         if (source != null && target != null) {
             target.copyObject((source), this);
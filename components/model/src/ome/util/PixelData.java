@@ -426,8 +426,25 @@ public class PixelData
         }
 
         if (this.data instanceof sun.nio.ch.DirectBuffer) {
-            ((sun.nio.ch.DirectBuffer) this.data).cleaner().clean();
+            // Slices of a larger mapping have no cleaner of their own; the
+            // mapping is released by its owner.
+            final sun.nio.ch.DirectBuffer db =
+                (sun.nio.ch.DirectBuffer) this.data;
+            if (db.cleaner() != null) {
+                db.cleaner().clean();
+            }
             this.data = null;
         }
     }
+
+    /**
+     * Returns <code>true</code> if native memory resources are freed
+     * explicitly rather than by garbage collection, as configured by
+     * <code>omero.pixeldata.dispose</code>.
+     *
+     * @see #dispose()
+     */
+    public static boolean isDisposeEnabled() {
+        return DISPOSE;
+    }
 }
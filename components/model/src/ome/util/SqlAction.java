@@ -25,6 +25,8 @@ import java.util.UUID;
 import ome.conditions.InternalException;
 import ome.model.IObject;
 import ome.model.core.Channel;
+import ome.model.display.RenderingDef;
+import ome.model.display.Thumbnail;
 import ome.model.internal.Details;
 import ome.model.internal.Permissions;
 import ome.model.meta.ExperimenterGroup;
@@ -301,6 +303,17 @@ public interface SqlAction {
      */
     List<long[]> nextPixelsDataLogForRepo(String repo, long lastEventId, int howmany);
 
+    /**
+     * Returns arrays of longs for the following SQL return values:
+     * <code>experimenter, eventlog, entityid as pixels</code>
+     *
+     * The newest N eventlogs with action = "PIXELDATA" and entitytype =
+     * "ome.model.core.Pixels" and an id greater than lastEventId are returned,
+     * newest first, so that recently requested pixels can be handled before
+     * older ones. Duplicate pixel ids are stripped.
+     */
+    List<long[]> recentPixelsDataLogForRepo(String repo, long lastEventId, int howmany);
+
     long countFormat(String name);
 
     int insertFormat(String name);
@@ -393,6 +406,16 @@ public interface SqlAction {
 
     long setStatsInfo(Channel ch, StatsInfo si);
 
+    /**
+     * Inserts the metadata of a thumbnail, with the permissions, group,
+     * owner and events of the given rendering settings, so that the
+     * thumbnail is not older than them. The pixels, size and MIME type are
+     * taken from the thumbnail.
+     *
+     * @return the id of the new thumbnail.
+     */
+    long createThumbnail(RenderingDef def, Thumbnail thumb);
+
     // TODO this should probably return an iterator.
     List<Long> getDeletedIds(String entityType);
 
@@ -697,7 +720,32 @@ public interface SqlAction {
                             rm, lastEventId, rows);
                 } else {
                     return _jdbc().query(
-                            _lookup("find_next_pixels_data__per_user_for_repo"), // $NON-NLS-1$
+                            _lookup("find_next_pixels_data_per_user_for_repo"), // $NON-NLS-1$
+                            rm, lastEventId, repo, rows);
+                }
+            } catch (EmptyResultDataAccessException erdae) {
+                return null;
+            }
+        }
+
+        public List<long[]> recentPixelsDataLogForRepo(String repo, long lastEventId, int rows) {
+            final RowMapper<long[]> rm = new RowMapper<long[]>() {
+                public long[] mapRow(ResultSet arg0, int arg1)
+                        throws SQLException {
+                    long[] rv = new long[3];
+                    rv[0] = arg0.getLong(1);
+                    rv[1] = arg0.getLong(2);
+                    rv[2] = arg0.getLong(3);
+                    return rv;
+                }};
+            try {
+                if (repo == null) {
+                    return _jdbc().query(
+                            _lookup("find_recent_pixels_data_for_null_repo"), // $NON-NLS-1$
+                            rm, lastEventId, rows);
+                } else {
+                    return _jdbc().query(
+                            _lookup("find_recent_pixels_data_for_repo"), // $NON-NLS-1$
                             rm, lastEventId, repo, rows);
                 }
             } catch (EmptyResultDataAccessException erdae) {
@@ -832,6 +880,18 @@ public interface SqlAction {
             return id;
         }
 
+        public long createThumbnail(RenderingDef def, Thumbnail thumb) {
+            final Details d = def.getDetails();
+            final long id = nextValue("seq_thumbnail", 1);
+            _jdbc().update(_lookup("thumbnail_creation"), //$NON-NLS-1$
+                    id, Utils.internalForm(d.getPermissions()),
+                    thumb.getMimeType(), thumb.getSizeX(), thumb.getSizeY(),
+                    d.getCreationEvent().getId(), d.getGroup().getId(),
+                    d.getOwner().getId(), d.getUpdateEvent().getId(),
+                    thumb.getPixels().getId());
+            return id;
+        }
+
 
         //
         // CONFIGURATION
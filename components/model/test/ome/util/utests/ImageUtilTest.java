@@ -0,0 +1,59 @@
+/*
+ *   Copyright (C) 2013 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.util.utests;
+
+import ome.util.ImageUtil;
+import junit.framework.TestCase;
+
+public class ImageUtilTest extends TestCase
+{
+	private static int rgb(int r, int g, int b)
+	{
+		return r << 16 | g << 8 | b;
+	}
+
+	public void testScaleAreaAveragedHalves()
+	{
+		int[] src = new int[] {
+				rgb(0, 0, 0), rgb(100, 10, 255), rgb(8, 8, 8), rgb(8, 8, 8),
+				rgb(200, 30, 255), rgb(100, 0, 255), rgb(8, 8, 8), rgb(8, 8, 8)
+		};
+		int[] dst = ImageUtil.scaleAreaAveraged(src, 4, 2, null, 2, 1);
+		assertEquals(2, dst.length);
+		assertEquals(rgb(100, 10, 191), dst[0]);
+		assertEquals(rgb(8, 8, 8), dst[1]);
+	}
+
+	public void testScaleAreaAveragedUnevenFactor()
+	{
+		int[] src = new int[5 * 3];
+		for (int i = 0; i < src.length; i++)
+		{
+			src[i] = rgb(i, 2 * i, 255 - i);
+		}
+		int[] dst = ImageUtil.scaleAreaAveraged(src, 5, 3, null, 2, 2);
+		// Columns [0, 2) and [2, 5), rows [0, 1) and [1, 3).
+		assertEquals(rgb(1, 1, 255), dst[0]);
+		assertEquals(3, (dst[1] >> 16) & 0xFF);
+		assertEquals(11, (dst[3] >> 16) & 0xFF);
+		assertEquals(21, (dst[3] >> 8) & 0xFF);
+	}
+
+	public void testScaleAreaAveragedReusesBuffer()
+	{
+		int[] src = new int[] { rgb(1, 2, 3) };
+		int[] buffer = new int[16];
+		int[] dst = ImageUtil.scaleAreaAveraged(src, 1, 1, buffer, 2, 2);
+		assertSame(buffer, dst);
+		for (int i = 0; i < 4; i++)
+		{
+			assertEquals(rgb(1, 2, 3), dst[i]);
+		}
+		assertNotSame(buffer,
+				ImageUtil.scaleAreaAveraged(src, 1, 1, buffer, 8, 8));
+	}
+}
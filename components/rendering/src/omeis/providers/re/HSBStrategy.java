@@ -14,8 +14,7 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 // Third-party libraries
@@ -44,9 +43,17 @@ import omeis.providers.re.quantum.QuantumStrategy;
  * each wavelength is mapped to a color. All these things are specified by the
  * rendering context.
  * <p>
- * This strategy renders the in "regions", dividing the planar data up based
- * on {@link #maxTasks} and assigning each task to its own thread. This should
- * result in parallel rendering on multi-processor machines.
+ * This strategy renders the in "regions", dividing the planar data up in
+ * bands of rows based on the parallelism of the {@link RenderingExecutor}
+ * shared by the renderers and submitting each task to that executor. This
+ * should result in parallel rendering on multi-processor machines without
+ * creating a thread pool per rendered plane.
+ * </p>
+ * <p>
+ * The contribution of a channel to the color of a pixel only depends on its
+ * quantized value. It is therefore looked up in a color table built once per
+ * channel color by the {@link QuantumManager} rather than computed for every
+ * pixel.
  * </p>
  * <p>
  * Thread-safety relies on the fact that the rendering context is not going to
@@ -70,18 +77,15 @@ class HSBStrategy extends RenderingStrategy {
     
     /**
      * Retrieves the maximum number of reasonable tasks to schedule based on
-     * image size and <i>maxTasks</i>.
+     * the number of rows to render and the parallelism of the rendering
+     * executor.
      * 
      * @param size The width along the X2 axis.
      * @return the number of tasks to schedule.
      */
     private int numTasks(int size) {
-        for (int i = maxTasks; i > 0; i--) {
-            if (size % i == 0) {
-                return i;
-            }
-        }
-        return 1;
+        int parallelism = renderer.getExecutor().getParallelism();
+        return Math.max(1, Math.min(parallelism, size));
     }
 
     /**
@@ -168,6 +172,35 @@ class HSBStrategy extends RenderingStrategy {
         return colors;
     }
 
+    /**
+     * Retrieves the color table for each active channels and overlays. The
+     * tables of the channels are cached by the {@link QuantumManager}, the
+     * ones of the overlays are built for every call.
+     * 
+     * @param colors The color of each active channel and overlay.
+     * @return See above.
+     */
+    private List<int[]> getColorTables(List<int[]> colors) {
+        ChannelBinding[] channelBindings = renderer.getChannelBindings();
+        QuantumManager qManager = renderer.getQuantumManager();
+        boolean alphaless =
+            renderer.getOptimizations().isAlphalessRendering();
+        List<int[]> tables = new ArrayList<int[]>(colors.size());
+
+        int i = 0;
+        for (int w = 0; w < channelBindings.length; w++) {
+            if (channelBindings[w].getActive()) {
+                tables.add(qManager.getColorTableFor(
+                        w, colors.get(i), alphaless));
+                i++;
+            }
+        }
+        for (; i < colors.size(); i++) {
+            tables.add(QuantumManager.makeColorTable(colors.get(i), alphaless));
+        }
+        return tables;
+    }
+
     /**
      * Retrieves the quantum strategy for each active channels
      * 
@@ -215,20 +248,24 @@ class HSBStrategy extends RenderingStrategy {
         //RenderingStats performanceStats = renderer.getStats();
         List<Plane2D> wData = getWavelengthData(def);
         List<int[]> colors = getColors();
+        List<int[]> colorTables = getColorTables(colors);
         List<QuantumStrategy> strategies = getStrategies();
-        // Create a number of rendering tasks.
+        // Create a number of rendering tasks, each one rendering a band of
+        // rows. The remainder rows are spread over the first tasks.
         int taskCount = numTasks(sizeX2);
         int delta = sizeX2/taskCount;
+        int remainder = sizeX2 % taskCount;
         int x1Start = 0;
         int x1End = sizeX1;
-        int x2Start, x2End;
-        log.info("taskCount: "+taskCount+" delta: "+delta);
+        int x2Start = 0;
+        int x2End;
+        log.debug("taskCount: "+taskCount+" delta: "+delta);
         for (int i = 0; i < taskCount; i++) {
-            x2Start = i*delta;
-            x2End = (i+1)*delta;
+            x2End = x2Start + delta + (i < remainder? 1 : 0);
             tasks.add(new RenderHSBRegionTask(buf, wData, strategies, cc,
-            		colors, renderer.getOptimizations(),
+            		colors, colorTables, renderer.getOptimizations(),
             		x1Start, x1End, x2Start, x2End));
+            x2Start = x2End;
         }
 
         // Turn the list into an array an return it.
@@ -305,14 +342,14 @@ class HSBStrategy extends RenderingStrategy {
     private void render(RGBBuffer buf, PlaneDef planeDef) throws IOException,
             QuantizationException {
         RenderingStats performanceStats = renderer.getStats();
-        // Process each active wavelength. If their number N > 1, then
-        // process N-1 async and one in the current thread. If N = 1,
-        // just use the current thread.
+        // Process each region. If their number N > 1, then process N-1
+        // async through the shared rendering executor and one in the current
+        // thread. If N = 1, just use the current thread.
         RenderingTask[] tasks = makeRenderingTasks(planeDef, buf);
         performanceStats.startRendering();
         int n = tasks.length;
         Future[] rndTskFutures = new Future[n]; // [0] unused.
-        ExecutorService processor = Executors.newCachedThreadPool();
+        RenderingExecutor processor = renderer.getExecutor();
 
         while (0 < --n) {
             rndTskFutures[n] = processor.submit(tasks[n]);
@@ -327,17 +364,17 @@ class HSBStrategy extends RenderingStrategy {
         for (n = 1; n < rndTskFutures.length; ++n) {
             try {
                 rndTskFutures[n].get();
-            } catch (Exception e) {
-                if (e instanceof QuantizationException) {
-                    throw (QuantizationException) e;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof QuantizationException) {
+                    throw (QuantizationException) e.getCause();
                 }
+                throw new RuntimeException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
                 throw new RuntimeException(e);
             }
         }
 
-        // Shutdown the task processor
-        processor.shutdown();
-
         // End the performance metrics for this rendering event.
         performanceStats.endRendering();
     }
@@ -50,6 +50,26 @@ class QuantumManager {
     /** A quantum factory instance for looking up enumerations. */
     private final QuantumFactory factory;
 
+    /**
+     * Contains the color table of each wavelength, built lazily by
+     * {@link #getColorTableFor(int, int[], boolean)}. Indexed according to
+     * the wavelength indexes in the <i>OME</i> 5D pixels file.
+     */
+    private final int[][] colorTables;
+
+    /**
+     * The packed color, alpha included, each color table was built for.
+     */
+    private final int[] colorTableKeys;
+
+    /**
+     * Whether or not each color table was built for alphaless rendering.
+     */
+    private final boolean[] colorTableAlphaless;
+
+    /** The number of entries of a color table, one per quantized value. */
+    static final int COLOR_TABLE_SIZE = QuantumStrategy.MAX + 1;
+
     /**
      * Creates a new instance.
      * 
@@ -59,7 +79,91 @@ class QuantumManager {
     QuantumManager(Pixels metadata, QuantumFactory factory) {
         this.factory = factory;
         this.metadata = metadata;
-        wavesStg = new QuantumStrategy[metadata.getSizeC().intValue()];
+        int sizeC = metadata.getSizeC().intValue();
+        wavesStg = new QuantumStrategy[sizeC];
+        colorTables = new int[sizeC][];
+        colorTableKeys = new int[sizeC];
+        colorTableAlphaless = new boolean[sizeC];
+    }
+
+    /**
+     * Builds the table mapping each quantized value onto the contribution of
+     * a channel to the color of a pixel. Each entry holds the red, green and
+     * blue components, alpha pre-multiplied if required, packed as
+     * <code>0x00RRGGBB</code>. The components are computed exactly as the
+     * rendering tasks used to do for every single pixel.
+     * 
+     * @param color
+     *            The color components of the channel.
+     * @param alphaless
+     *            Pass <code>true</code> if the alpha component must be ignored,
+     *            <code>false</code> otherwise.
+     * @return See above.
+     */
+    static int[] makeColorTable(int[] color, boolean alphaless) {
+        double redRatio = color[ColorsFactory.RED_INDEX] > 0 ?
+                color[ColorsFactory.RED_INDEX] / 255.0 : 0.0;
+        double greenRatio = color[ColorsFactory.GREEN_INDEX] > 0 ?
+                color[ColorsFactory.GREEN_INDEX] / 255.0 : 0.0;
+        double blueRatio = color[ColorsFactory.BLUE_INDEX] > 0 ?
+                color[ColorsFactory.BLUE_INDEX] / 255.0 : 0.0;
+        float alpha = new Integer(
+                color[ColorsFactory.ALPHA_INDEX]).floatValue() / 255;
+        int[] table = new int[COLOR_TABLE_SIZE];
+        int r, g, b;
+        for (int v = 0; v < COLOR_TABLE_SIZE; v++) {
+            r = (int) (redRatio * v);
+            g = (int) (greenRatio * v);
+            b = (int) (blueRatio * v);
+            if (!alphaless) {
+                r *= alpha;
+                g *= alpha;
+                b *= alpha;
+            }
+            table[v] = r << 16 | g << 8 | b;
+        }
+        return table;
+    }
+
+    /**
+     * Retrieves the color table of the specified wavelength. The table is
+     * only rebuilt if the color or the alphaless flag differ from the ones the
+     * cached table was built for. As the table is indexed by quantized value,
+     * changes to the input window, the mapping or the codomain interval never
+     * require it to be rebuilt.
+     * 
+     * @param w
+     *            The wavelength index in the <i>OME</i> 5D-pixels file.
+     * @param color
+     *            The current color components of the wavelength.
+     * @param alphaless
+     *            Pass <code>true</code> if the alpha component must be ignored,
+     *            <code>false</code> otherwise.
+     * @return See above.
+     * @see #makeColorTable(int[], boolean)
+     */
+    int[] getColorTableFor(int w, int[] color, boolean alphaless) {
+        int key = (color[ColorsFactory.RED_INDEX] & 0xFF) << 24
+                | (color[ColorsFactory.GREEN_INDEX] & 0xFF) << 16
+                | (color[ColorsFactory.BLUE_INDEX] & 0xFF) << 8
+                | (color[ColorsFactory.ALPHA_INDEX] & 0xFF);
+        if (colorTables[w] == null || colorTableKeys[w] != key
+                || colorTableAlphaless[w] != alphaless) {
+            colorTables[w] = makeColorTable(color, alphaless);
+            colorTableKeys[w] = key;
+            colorTableAlphaless[w] = alphaless;
+        }
+        return colorTables[w];
+    }
+
+    /**
+     * Discards the color table of the specified wavelength.
+     * 
+     * @param w
+     *            The wavelength index in the <i>OME</i> 5D-pixels file.
+     */
+    void invalidateColorTable(int w) {
+        colorTables[w] = null;
     }
 
     /**
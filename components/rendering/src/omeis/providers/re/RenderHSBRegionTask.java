@@ -13,12 +13,12 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 // Application-internal dependencies
-import ome.util.PixelData;
 import omeis.providers.re.codomain.CodomainChain;
 import omeis.providers.re.data.Plane2D;
 import omeis.providers.re.quantum.BinaryMaskQuantizer;
 import omeis.providers.re.quantum.QuantizationException;
 import omeis.providers.re.quantum.QuantumStrategy;
+import omeis.providers.re.quantum.RowQuantizer;
 
 /**
  * A task object to render an image region asynchronously. This task is used by
@@ -54,6 +54,12 @@ class RenderHSBRegionTask implements RenderingTask {
      */
     private List<int[]> colors;
 
+    /**
+     * The color table of each wavelength, mapping a quantized value onto the
+     * color components packed as <code>0x00RRGGBB</code>.
+     */
+    private List<int[]> colorTables;
+
     /** The <i>X1/<i>-axis start */
     private int x1Start;
 
@@ -83,6 +89,10 @@ class RenderHSBRegionTask implements RenderingTask {
      * @param colors
      *            The color components to use when mapping quantized values onto
      *            the color space.
+     * @param colorTables
+     *            The color table of each wavelength.
+     * @param optimizations
+     *            The optimizations that the renderer has turned on.
      * @param x1Start
      *            The <i>X1</i>-axis start
      * @param x1End
@@ -94,13 +104,15 @@ class RenderHSBRegionTask implements RenderingTask {
      */
     RenderHSBRegionTask(RGBBuffer dataBuffer, List<Plane2D> wData,
             List<QuantumStrategy> strategies, CodomainChain cc,
-            List<int[]> colors, Optimizations optimizations,
+            List<int[]> colors, List<int[]> colorTables,
+            Optimizations optimizations,
             int x1Start, int x1End, int x2Start, int x2End) {
         this.dataBuffer = dataBuffer;
         this.wData = wData;
         this.strategies = strategies;
         this.cc = cc;
         this.colors = colors;
+        this.colorTables = colorTables;
         this.optimizations = optimizations;
         this.x1Start = x1Start;
         this.x1End = x1End;
@@ -127,6 +139,46 @@ class RenderHSBRegionTask implements RenderingTask {
         return null;
     }
 
+    /**
+     * Creates the quantizer used to retrieve the quantized values of the
+     * passed plane one row at a time. Only <i>XY</i> planes have contiguous
+     * rows, <code>null</code> is returned for the other planes.
+     * 
+     * @param plane The plane to quantize.
+     * @param qs The quantum strategy for the plane.
+     * @return See above.
+     */
+    private RowQuantizer makeRowQuantizer(Plane2D plane, QuantumStrategy qs) {
+        if (!plane.isXYPlanar()) {
+            return null;
+        }
+        return RowQuantizer.make(qs, plane.getData());
+    }
+
+    /**
+     * Quantizes the pixels intensity values of a row of the region.
+     * 
+     * @param plane The plane to quantize.
+     * @param qs The quantum strategy for the plane.
+     * @param rq The row quantizer or <code>null</code> if the plane is not an
+     *           <i>XY</i> plane.
+     * @param x2 The row to quantize.
+     * @param row The array to fill with the quantized values.
+     * @throws QuantizationException
+     *             if there is an error during pixel value quantization.
+     */
+    private void quantizeRow(Plane2D plane, QuantumStrategy qs,
+            RowQuantizer rq, int x2, int[] row) throws QuantizationException {
+        int width = x1End - x1Start;
+        if (rq != null) {
+            rq.quantize(width * x2 + x1Start, width, row);
+            return;
+        }
+        for (int x1 = x1Start; x1 < x1End; ++x1) {
+            row[x1 - x1Start] = qs.quantize(plane.getPixelValue(x1, x2));
+        }
+    }
+
     /**
      * Renders into a banded byte buffer.
      * 
@@ -143,9 +195,12 @@ class RenderHSBRegionTask implements RenderingTask {
         byte[] r = dataBuffer.getRedBand();
         byte[] g = dataBuffer.getGreenBand();
         byte[] b = dataBuffer.getBlueBand();
+        int[] row = new int[width];
+        boolean isIdentity = cc.isIdentity();
         for (Plane2D plane : wData) {
             int[] color = colors.get(i);
             QuantumStrategy qs = strategies.get(i);
+            RowQuantizer rq = makeRowQuantizer(plane, qs);
             int rColor = color[ColorsFactory.RED_INDEX];
             int gColor = color[ColorsFactory.GREEN_INDEX];
             int bColor = color[ColorsFactory.BLUE_INDEX];
@@ -153,10 +208,13 @@ class RenderHSBRegionTask implements RenderingTask {
             float alpha = new Float(
             		color[ColorsFactory.ALPHA_INDEX]).floatValue() / 65025;// 255*255
             for (int x2 = x2Start; x2 < x2End; ++x2) {
+                quantizeRow(plane, qs, rq, x2, row);
                 for (int x1 = x1Start; x1 < x1End; ++x1) {
                     pix = width * x2 + x1;
-                    discreteValue = qs.quantize(plane.getPixelValue(x1, x2));
-                    discreteValue = cc.transform(discreteValue);
+                    discreteValue = row[x1 - x1Start];
+                    if (!isIdentity) {
+                        discreteValue = cc.transform(discreteValue);
+                    }
 
                     // Pre-multiply the alpha component and add the existing
                     // colour value to the new colour value.
@@ -188,6 +246,28 @@ class RenderHSBRegionTask implements RenderingTask {
         }
     }
 
+    /**
+     * Adds two colors packed as <code>0x00RRGGBB</code>, component by
+     * component. We must make *certain* that values do not wrap over 255
+     * otherwise there will be corruption introduced into the rendered image.
+     * The sum may be over 255 if we have mapped two high intensity channels
+     * to the same color, each component is therefore saturated at 255.
+     * 
+     * @param a The first color.
+     * @param b The second color.
+     * @return The saturated sum packed as <code>0x00RRGGBB</code>.
+     */
+    private static int addSaturated(int a, int b) {
+        // Add the red and blue components on one side and the green ones on
+        // the other so that there is room for the carry of each component.
+        int rb = (a & 0x00FF00FF) + (b & 0x00FF00FF);
+        int g = (a & 0x0000FF00) + (b & 0x0000FF00);
+        // Spread the carry, if any, over the bits of its component.
+        rb |= ((rb >>> 8) & 0x00010001) * 0xFF;
+        g |= ((g >>> 8) & 0x00000100) * 0xFF;
+        return (rb & 0x00FF00FF) | (g & 0x0000FF00);
+    }
+
     /**
      * Renders into a packed integer array.
      * 
@@ -196,47 +276,30 @@ class RenderHSBRegionTask implements RenderingTask {
      */
     private void renderPackedInt() throws QuantizationException {
         int discreteValue, pix;
-        double redRatio, greenRatio, blueRatio;
-        int rValue, gValue, bValue;
-        int newRValue, newGValue, newBValue;
         int colorOffset = 24;  // Only used when we're doing primary color.
 
         int width = x1End - x1Start;
         int i = 0;
         int[] buf = ((RGBIntBuffer) dataBuffer).getDataBuffer();
+        int[] row = new int[width];
         boolean isPrimaryColor = optimizations.isPrimaryColorEnabled();
-        boolean isAlphaless = optimizations.isAlphalessRendering();
         for (Plane2D plane : wData) {
             int[] color = colors.get(i);
+            int[] table = colorTables.get(i);
             QuantumStrategy qs = strategies.get(i);
             boolean isMask = qs instanceof BinaryMaskQuantizer? true : false;
-            redRatio = color[ColorsFactory.RED_INDEX] > 0 ? 
-            		color[ColorsFactory.RED_INDEX] / 255.0 : 0.0;
-            greenRatio = color[ColorsFactory.GREEN_INDEX] > 0 ? 
-            		color[ColorsFactory.GREEN_INDEX] / 255.0 : 0.0;
-            blueRatio = color[ColorsFactory.BLUE_INDEX] > 0 ? 
-            		color[ColorsFactory.BLUE_INDEX] / 255.0 : 0.0;
-            boolean isXYPlanar = plane.isXYPlanar();
-            PixelData data = plane.getData();
-            int bytesPerPixel = data.bytesPerPixel();
+            RowQuantizer rq = makeRowQuantizer(plane, qs);
 
             // Get our color offset if we've got the primary color optimization
             // enabled.
             if (isPrimaryColor)
             	colorOffset = getColorOffset(color);
             
-            float alpha = new Integer(
-            		color[ColorsFactory.ALPHA_INDEX]).floatValue() / 255;
             for (int x2 = x2Start; x2 < x2End; ++x2) {
+                quantizeRow(plane, qs, rq, x2, row);
                 for (int x1 = x1Start; x1 < x1End; ++x1) {
                     pix = width * x2 + x1;
-                    if (isXYPlanar)
-                    	discreteValue = 
-                    		qs.quantize(
-                    			data.getPixelValueDirect(pix * bytesPerPixel));
-                    else
-                    	discreteValue = 
-                    		qs.quantize(plane.getPixelValue(x1, x2));
+                    discreteValue = row[x1 - x1Start];
                     
                     // Right now we have no transforms being used so it's safe to
                     // comment this out for the time being.
@@ -253,19 +316,6 @@ class RenderHSBRegionTask implements RenderingTask {
                     	continue;
                     }
 
-                    newRValue = (int) (redRatio * discreteValue);
-                    newGValue = (int) (greenRatio * discreteValue);
-                    newBValue = (int) (blueRatio * discreteValue);
-                    
-                    // Pre-multiply the alpha for each colour component if the
-                    // image has a non-1.0 alpha component.
-                    if (!isAlphaless)
-                    {
-                    	newRValue *= alpha;
-                    	newGValue *= alpha;
-                    	newBValue *= alpha;
-                    }
-
                     if (isMask && discreteValue == 255) {
                     	// Since the mask is a hard value, we do not want to
                     	// compromise on colour fidelity. Packed each colour
@@ -273,37 +323,17 @@ class RenderHSBRegionTask implements RenderingTask {
                     	// that buffered images that use this buffer can be
                     	// type 1 (3 bands, pre-multiplied alpha) or type 2
                         // (4 bands, alpha component included).
-                        buf[pix] = 0xFF000000 | newRValue << 16
-                                   | newGValue << 8 | newBValue;
+                        buf[pix] = 0xFF000000 | table[discreteValue];
                         continue;
                     }
-                    // Add the existing colour component values to the new
-                    // colour component values.
-                    rValue = ((buf[pix] & 0x00FF0000) >> 16) + newRValue;
-                    gValue = ((buf[pix] & 0x0000FF00) >> 8) + newGValue;
-                    bValue = (buf[pix] & 0x000000FF) + newBValue;
-
-                    // Ensure that each colour component value is between 0 and
-                    // 255 (byte). We must make *certain* that values do not
-                    // wrap over 255 otherwise there will be corruption
-                    // introduced into the rendered image. The value may be over
-                    // 255 if we have mapped two high intensity channels to
-                    // the same color.
-                    if (rValue > 255) {
-                        rValue = 255;
-                    }
-                    if (gValue > 255) {
-                        gValue = 255;
-                    }
-                    if (bValue > 255) {
-                        bValue = 255;
-                    }
-
-                    // Packed each colour component along with a 1.0 alpha into
-                    // the buffer so that buffered images that use this buffer
-                    // can be type 1 (3 bands, pre-multiplied alpha) or type 2
-                    // (4 bands, alpha component included).
-                    buf[pix] = 0xFF000000 | rValue << 16 | gValue << 8 | bValue;
+                    // Add the colour components of the channel, alpha
+                    // pre-multiplied if required, to the existing ones and
+                    // pack them along with a 1.0 alpha into the buffer so
+                    // that buffered images that use this buffer can be type 1
+                    // (3 bands, pre-multiplied alpha) or type 2 (4 bands,
+                    // alpha component included).
+                    buf[pix] = 0xFF000000 | addSaturated(
+                            buf[pix] & 0x00FFFFFF, table[discreteValue]);
                 }
             }
             i++;
@@ -318,45 +348,29 @@ class RenderHSBRegionTask implements RenderingTask {
      */
     private void renderPackedIntAsRGBA() throws QuantizationException {
         int discreteValue, pix;
-        double redRatio, greenRatio, blueRatio;
-        int rValue, gValue, bValue;
-        int newRValue, newGValue, newBValue;
         int colorOffset = 32;  // Only used when we're doing primary color.
 
         int width = x1End - x1Start;
         int i = 0;
         int[] buf = ((RGBAIntBuffer) dataBuffer).getDataBuffer();
+        int[] row = new int[width];
         boolean isPrimaryColor = optimizations.isPrimaryColorEnabled();
-        boolean isAlphaless = optimizations.isAlphalessRendering();
         for (Plane2D plane : wData) {
             int[] color = colors.get(i);
+            int[] table = colorTables.get(i);
             QuantumStrategy qs = strategies.get(i);
-            redRatio = color[ColorsFactory.RED_INDEX] > 0 ? 
-            		color[ColorsFactory.RED_INDEX] / 255.0 : 0.0;
-            greenRatio = color[ColorsFactory.GREEN_INDEX] > 0 ? 
-            		color[ColorsFactory.GREEN_INDEX] / 255.0 : 0.0;
-            blueRatio = color[ColorsFactory.BLUE_INDEX] > 0 ? 
-            		color[ColorsFactory.BLUE_INDEX] / 255.0 : 0.0;
-            boolean isXYPlanar = plane.isXYPlanar();
-            PixelData data = plane.getData();
-            int bytesPerPixel = data.bytesPerPixel();
+            RowQuantizer rq = makeRowQuantizer(plane, qs);
 
             // Get our color offset if we've got the primary color optimization
             // enabled.
             if (isPrimaryColor)
             	colorOffset = getColorOffsetAsRGBA(color);
 
-            float alpha = new Integer(color[ColorsFactory.ALPHA_INDEX]).floatValue() / 255;
             for (int x2 = x2Start; x2 < x2End; ++x2) {
+                quantizeRow(plane, qs, rq, x2, row);
                 for (int x1 = x1Start; x1 < x1End; ++x1) {
                     pix = width * x2 + x1;
-                    if (isXYPlanar)
-                    	discreteValue = 
-                    		qs.quantize(
-                    			data.getPixelValueDirect(pix * bytesPerPixel));
-                    else
-                    	discreteValue = 
-                    		qs.quantize(plane.getPixelValue(x1, x2));
+                    discreteValue = row[x1 - x1Start];
                     // Right now we have no transforms being used so it's safe to
                     // comment this out for the time being.
                     //discreteValue = cc.transform(discreteValue);
@@ -372,46 +386,14 @@ class RenderHSBRegionTask implements RenderingTask {
                     	continue;
                     }
 
-                    newRValue = (int) (redRatio * discreteValue);
-                    newGValue = (int) (greenRatio * discreteValue);
-                    newBValue = (int) (blueRatio * discreteValue);
-
-                    // Pre-multiply the alpha for each colour component if the
-                    // image has a non-1.0 alpha component.
-                    if (!isAlphaless)
-                    {
-                    	newRValue *= alpha;
-                    	newGValue *= alpha;
-                    	newBValue *= alpha;
-                    }
-
-                    // Add the existing colour component values to the new
-                    // colour component values.
-                    rValue = ((buf[pix] & 0xFF000000) >> 24) + newRValue;
-                    gValue = ((buf[pix] & 0x00FF0000) >> 16) + newGValue;
-                    bValue = ((buf[pix] & 0x0000FF00) >>8) + newBValue;
-
-                    // Ensure that each colour component value is between 0 and
-                    // 255 (byte). We must make *certain* that values do not
-                    // wrap over 255 otherwise there will be corruption
-                    // introduced into the rendered image. The value may be over
-                    // 255 if we have mapped two high intensity channels to
-                    // the same color.
-                    if (rValue > 255) {
-                        rValue = 255;
-                    }
-                    if (gValue > 255) {
-                        gValue = 255;
-                    }
-                    if (bValue > 255) {
-                        bValue = 255;
-                    }
-
-                    // Packed each colour component along with a 1.0 alpha into
-                    // the buffer so that buffered images that use this buffer
-                    // can be type 1 (3 bands, pre-multiplied alpha) or type 2
-                    // (4 bands, alpha component included).
-                    buf[pix] = 0x000000FF | rValue << 24 | gValue << 16 | bValue<<8;
+                    // Add the colour components of the channel, alpha
+                    // pre-multiplied if required, to the existing ones and
+                    // pack them along with a 1.0 alpha into the buffer so
+                    // that buffered images that use this buffer can be type 1
+                    // (3 bands, pre-multiplied alpha) or type 2 (4 bands,
+                    // alpha component included).
+                    buf[pix] = 0x000000FF | addSaturated(
+                            buf[pix] >>> 8, table[discreteValue]) << 8;
                 }
             }
 
@@ -138,6 +138,9 @@ public class Renderer {
     /** Map of overlays we've currently been told to render. */
     private Map<byte[], Integer> overlays;
 
+    /** The executor shared by the renderers to render regions in parallel. */
+    private RenderingExecutor executor;
+
     /**
      * Returns a copy of a list of channel bindings with one element removed;
      * the so called "other" channel bindings for the image.
@@ -332,9 +335,33 @@ public class Renderer {
     public Renderer(QuantumFactory quantumFactory,
     		List<RenderingModel> renderingModels, Pixels pixelsObj,
             RenderingDef renderingDefObj, PixelBuffer bufferObj) {
+        this(quantumFactory, renderingModels, pixelsObj, renderingDefObj,
+                bufferObj, null);
+    }
+
+    /**
+     * Creates a new instance to render the specified pixels set and get this
+     * new instance ready for rendering.
+     * 
+     * @param quantumFactory a populated quantum factory.
+     * @param renderingModels an enumerated list of all rendering models.
+     * @param pixelsObj Pixels object.
+     * @param renderingDefObj Rendering definition object.
+     * @param bufferObj PixelBuffer object.
+     * @param executor The executor shared by the renderers. If
+     *                 <code>null</code> the {@link RenderingExecutor#getDefault()
+     *                 default} executor is used.
+     * @throws NullPointerException If <code>null</code> parameters are passed.
+     */
+    public Renderer(QuantumFactory quantumFactory,
+    		List<RenderingModel> renderingModels, Pixels pixelsObj,
+            RenderingDef renderingDefObj, PixelBuffer bufferObj,
+            RenderingExecutor executor) {
         metadata = pixelsObj;
         rndDef = renderingDefObj;
         buffer = bufferObj;
+        this.executor = executor == null?
+                RenderingExecutor.getDefault() : executor;
 
         if (metadata == null) {
             throw new NullPointerException("Expecting not null metadata");
@@ -834,6 +861,7 @@ public class Renderer {
         cb[w].setGreen(Integer.valueOf(green));
         cb[w].setBlue(Integer.valueOf(blue));
         cb[w].setAlpha(Integer.valueOf(alpha));
+        quantumManager.invalidateColorTable(w);
         checkOptimizations();
     }
     
@@ -877,6 +905,16 @@ public class Renderer {
 		}
     }
 
+    /**
+     * Returns the executor used to render regions in parallel.
+     * 
+     * @return See above.
+     */
+    public RenderingExecutor getExecutor()
+    {
+        return executor;
+    }
+
     /**
      * Returns an array  whose ascending indices represent the color
      * components Red, Green and Blue.
@@ -0,0 +1,213 @@
+/*
+ * omeis.providers.re.RenderingExecutor
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re;
+
+// Java imports
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Third-party libraries
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pool of worker threads shared by all the {@link Renderer} instances
+ * of a server. The {@link RenderingStrategy} implementations split a plane
+ * into {@link #getParallelism()} regions and submit all but one of them to
+ * this executor, the last region being rendered by the calling thread.
+ * <p>
+ * A single instance is meant to be created by the container and injected
+ * into the renderers. Renderers which are not given an executor fall back on
+ * the lazily created {@link #getDefault() default} instance so that no
+ * thread pool is ever created per rendering call.
+ * </p>
+ * <p>
+ * Basic metrics are collected for every submitted task: the time spent
+ * waiting in the queue plus the time spent executing is accumulated and can
+ * be retrieved along with the current queue depth.
+ * </p>
+ *
+ * @since 5.0
+ */
+public class RenderingExecutor {
+
+    /** The logger for this particular class */
+    private static Logger log = LoggerFactory.getLogger(RenderingExecutor.class);
+
+    /** The prefix of the name of every rendering thread. */
+    public static final String THREAD_NAME_PREFIX = "Rendering-";
+
+    /** The executor used when none has been injected. */
+    private static RenderingExecutor defaultExecutor;
+
+    /** The pool executing the rendering tasks. */
+    private final ThreadPoolExecutor pool;
+
+    /** The number of threads of the pool. */
+    private final int parallelism;
+
+    /** The number of tasks which have completed. */
+    private final AtomicLong completedTasks = new AtomicLong();
+
+    /** Accumulated latency (queue wait and execution) in nanoseconds. */
+    private final AtomicLong totalLatency = new AtomicLong();
+
+    /** Maximum latency (queue wait and execution) in nanoseconds. */
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    /**
+     * Returns the executor shared by the renderers which have not been
+     * given one explicitly. The executor is sized according to the number of
+     * available processors.
+     *
+     * @return See above.
+     */
+    public static synchronized RenderingExecutor getDefault() {
+        if (defaultExecutor == null) {
+            defaultExecutor = new RenderingExecutor(0);
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param threads The number of rendering threads. If <code>0</code> or
+     *                negative, the number of available processors is used.
+     */
+    public RenderingExecutor(int threads) {
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        parallelism = threads;
+        final AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r,
+                        THREAD_NAME_PREFIX + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), factory);
+        pool.allowCoreThreadTimeOut(true);
+        log.info("Created rendering executor with " + threads + " threads.");
+    }
+
+    /**
+     * Returns the number of tasks which can be executed concurrently. This
+     * is used to decide in how many regions a plane is split.
+     *
+     * @return See above.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Submits a rendering task for asynchronous execution.
+     *
+     * @param task The task to execute.
+     * @return A future representing the pending completion of the task.
+     */
+    public Future<Object> submit(final RenderingTask task) {
+        final long queued = System.nanoTime();
+        return pool.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                try {
+                    return task.call();
+                } finally {
+                    record(System.nanoTime() - queued);
+                }
+            }
+        });
+    }
+
+    /**
+     * Records the latency of a completed task.
+     *
+     * @param latency The latency in nanoseconds.
+     */
+    private void record(long latency) {
+        completedTasks.incrementAndGet();
+        totalLatency.addAndGet(latency);
+        long max = maxLatency.get();
+        while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+            max = maxLatency.get();
+        }
+    }
+
+    /**
+     * Returns the number of tasks waiting for a rendering thread.
+     *
+     * @return See above.
+     */
+    public int getQueueDepth() {
+        return pool.getQueue().size();
+    }
+
+    /**
+     * Returns the number of threads currently rendering.
+     *
+     * @return See above.
+     */
+    public int getActiveCount() {
+        return pool.getActiveCount();
+    }
+
+    /**
+     * Returns the number of tasks which have completed since start-up.
+     *
+     * @return See above.
+     */
+    public long getCompletedTaskCount() {
+        return completedTasks.get();
+    }
+
+    /**
+     * Returns the mean latency, in milliseconds, of the completed tasks.
+     * The latency includes the time spent in the queue.
+     *
+     * @return See above.
+     */
+    public double getMeanTaskLatency() {
+        long count = completedTasks.get();
+        if (count == 0) {
+            return 0;
+        }
+        return totalLatency.get() / (count * 1000000.0);
+    }
+
+    /**
+     * Returns the maximum latency, in milliseconds, of the completed tasks.
+     *
+     * @return See above.
+     */
+    public double getMaxTaskLatency() {
+        return maxLatency.get() / 1000000.0;
+    }
+
+    /**
+     * Stops accepting new tasks. Called by the container on shutdown.
+     */
+    public void destroy() {
+        log.info(String.format(
+                "Shutting down rendering executor: %d tasks, %.3f ms mean " +
+                "latency, %.3f ms max latency.", getCompletedTaskCount(),
+                getMeanTaskLatency(), getMaxTaskLatency()));
+        pool.shutdown();
+    }
+
+}
@@ -66,11 +66,6 @@ abstract class RenderingStrategy {
      * &#151; <i>XZ</i> plane.
      */
     protected int sizeX2;
-    
-    /**
-     * The maximum number of tasks that we will be using during rendering.
-     */
-    protected int maxTasks;
 
     /**
      * Checks if the passed region is valid.
@@ -148,14 +143,6 @@ abstract class RenderingStrategy {
         }
     }
 
-    /**
-     * Constructs a strategy.
-     */
-    protected RenderingStrategy()
-    {
-    	maxTasks = Runtime.getRuntime().availableProcessors();
-    }
-
     /**
      * Returns an RGB buffer for usage. Note that the buffer is reallocated
      * upon each call. Should only be called within the context of a
@@ -69,6 +69,13 @@ public class CodomainChain {
     /** The upper bound of the codomain interval. */
     private int intervalEnd;
 
+    /**
+     * Flag set to <code>true</code> if {@link #transform(int)} returns its
+     * input for every value in <code>[{@link QuantumStrategy#MIN},
+     * {@link QuantumStrategy#MAX}]</code>.
+     */
+    private boolean identity;
+
     /** Builds the lookup table. */
     private void buildLUT() {
         LUT = new int[intervalEnd - intervalStart + 1];
@@ -76,6 +83,8 @@ public class CodomainChain {
         CodomainMapContext ctx;
         int v;
         Iterator i;
+        identity = intervalStart == QuantumStrategy.MIN
+            && intervalEnd == QuantumStrategy.MAX;
         for (int x = intervalStart; x <= intervalEnd; ++x) {
             v = x;
             i = chain.iterator();
@@ -86,6 +95,7 @@ public class CodomainChain {
                 v = map.transform(v);
             }
             LUT[x - intervalStart] = v;
+            identity = identity && v == x;
         }
     }
 
@@ -337,6 +347,17 @@ public class CodomainChain {
         return LUT[y - intervalStart];
     }
 
+    /**
+     * Returns <code>true</code> if the transformation is the identity over
+     * <code>[{@link QuantumStrategy#MIN}, {@link QuantumStrategy#MAX}]</code>
+     * i.e. if the chain can be skipped, <code>false</code> otherwise.
+     * 
+     * @return See above.
+     */
+    public boolean isIdentity() {
+        return identity;
+    }
+
     /**
      * Overrides the toString method.
      * 
@@ -16,6 +16,7 @@ import java.awt.Dimension;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ome.io.nio.ChannelStatistics;
 import ome.io.nio.PixelBuffer;
 import ome.io.nio.TileLoopIteration;
 import ome.io.nio.Utils;
@@ -96,7 +97,7 @@ public class StatsFactory {
      */
     private void computeBins(Plane2D p2D, double gMin, int sizeX2,
             int sizeX1) {
-    	int[] totals = new int[NB_BIN];
+    	double[] totals = new double[NB_BIN];
         /*
          * Segment[] segments = new Segment[NB_BIN]; for (int i = 0; i < NB_BIN;
          * i++) { segments[i] = new Segment( gMin + i * sizeBin, 0, gMin + (i +
@@ -200,7 +201,7 @@ public class StatsFactory {
      * @param total The total value.
      * @param epsilon The error value.
      */
-    private double accumulateCloseToMin(int[] totals, BasicSegment[] segments,
+    private double accumulateCloseToMin(double[] totals, BasicSegment[] segments,
             double total, double epsilon) {
         double e = segments[NB_BIN - 1].x2, sum = 0;
         for (int i = 1; i < totals.length - 1; i++) {
@@ -222,7 +223,7 @@ public class StatsFactory {
      * @param total The total value.
      * @param epsilon The error value.
      */
-    private double accumulateCloseToMax(int[] totals, BasicSegment[] segments,
+    private double accumulateCloseToMax(double[] totals, BasicSegment[] segments,
             double total, double epsilon) {
         double s = segments[0].x2, sum = 0;
         for (int i = totals.length - 2; i > 0; i--) {
@@ -359,6 +360,66 @@ public class StatsFactory {
         }, pixelsData, (int) tileSize.getWidth(), (int) tileSize.getHeight());
     }
 
+    /**
+     * Determines the inputWindow and the noiseReduction flag from the
+     * histogram of a channel saved when its statistics were calculated, so
+     * that no pixel data is read. Unlike
+     * {@link #computeLocationStats(Pixels, PixelBuffer, PlaneDef, int)} the
+     * location of the values of the whole channel is used, which also applies
+     * to big images.
+     * 
+     * @param metadata The pixels to parse.
+     * @param histogram The statistics of the channel.
+     * @param index The channel index.
+     */
+    public void computeLocationStats(final Pixels metadata,
+            final ChannelStatistics histogram, final int index) {
+        log.debug("Computing location stats from histogram for Pixels:"
+                + metadata.getId());
+        final StatsInfo stats = metadata.getChannel(index).getStatsInfo();
+        double gMin, gMax;
+        if (stats == null) {
+            gMin = histogram.getMinimum();
+            gMax = histogram.getMaximum();
+        } else {
+            gMin = stats.getGlobalMin().doubleValue();
+            gMax = stats.getGlobalMax().doubleValue();
+        }
+        inputStart = gMin;
+        inputEnd = gMax;
+        double range = gMax - gMin;
+        if (range <= RANGE_RGB || histogram.getCount() == 0) {
+            return;
+        }
+        sizeBin = range / NB_BIN;
+        epsilon = sizeBin / EPSILON;
+        locationStats = new double[NB_BIN];
+        double[] totals = new double[NB_BIN];
+        BasicSegment[] segments = new BasicSegment[NB_BIN];
+        double total = 0;
+        for (int i = 0; i < NB_BIN; i++) {
+            segments[i] = new BasicSegment(gMin + i * sizeBin, gMin + (i + 1)
+                    * sizeBin);
+            totals[i] = histogram.getCount(segments[i].x1, segments[i].x2);
+            total += totals[i];
+        }
+        if (total == 0) {
+            return;
+        }
+        for (int i = 0; i < totals.length; i++) {
+            locationStats[i] = totals[i] / total;
+        }
+        inputStart = segments[0].x2;
+        inputEnd = segments[NB_BIN - 1].x2;
+        total = total - totals[0] - totals[NB_BIN - 1];
+        if (totals[0] >= totals[NB_BIN - 1]) {
+            inputEnd = accumulateCloseToMin(totals, segments, total, epsilon);
+        } else {
+            inputStart = accumulateCloseToMax(totals, segments, total, epsilon);
+        }
+        noiseReduction = noiseReduction();
+    }
+
     /**
      * Returns the statistics.
      * 
@@ -302,22 +302,25 @@ public class Quantization_8_16_bit extends QuantumStrategy {
      */
     @Override
     public int quantize(double value) throws QuantizationException {
-        int x = (int) value;
-        /*
-        if (x < min || x > max) {
-            throw new QuantizationException("The value " + x
-                    + " is not in the interval [" + min + "," + max + "]");
-        }
-        int i = LUT[x - min];
-        return i & 0xFF; // assumed x in [min, max]
-        */
+        return quantizeValue((int) value);
+    }
+
+    /**
+     * Quantizes an integral pixel intensity value. This is the look-up
+     * performed by {@link #quantize(double)} without the conversion from a
+     * <code>double</code> and is used by the {@link RowQuantizer}
+     * implementations for the integral pixels types.
+     * 
+     * @param x The pixel intensity value.
+     * @return The quantized value in <code>[0, 255]</code>.
+     */
+    public final int quantizeValue(int x) {
         /*
         if (x < lutMin || x > lutMax) {
             throw new QuantizationException("The value " + x
                    + " is not in the interval [" + lutMin + "," + lutMax + "]");
         }
         */
-        int diff;
         if (x < lutMin) {
         	double r = getOriginalGlobalMax()-getOriginalGlobalMin();
         	if (r != 0) {
@@ -0,0 +1,353 @@
+/*
+ * omeis.providers.re.quantum.RowQuantizer
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re.quantum;
+
+// Java imports
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+// Third-party libraries
+
+// Application-internal dependencies
+import ome.util.PixelData;
+
+/**
+ * Quantizes runs of contiguous pixels intensity values. The rendering tasks
+ * use this class to quantize a whole row of a plane at once instead of
+ * retrieving each value as a <code>double</code> through
+ * {@link PixelData#getPixelValue(int)} and then calling
+ * {@link QuantumStrategy#quantize(double)}.
+ * <p>
+ * The {@link #make(QuantumStrategy, PixelData) factory method} returns an
+ * implementation specialized for the pixels type of the data when the
+ * strategy is a {@link Quantization_8_16_bit}. Such an implementation copies
+ * the values in bulk out of a typed view of the backing buffer and applies the
+ * look-up table directly. Any other combination falls back on the generic
+ * per pixel path.
+ * </p>
+ * <p>
+ * Instances keep a scratch array and are therefore not thread-safe. Each
+ * rendering task must use its own instances.
+ * </p>
+ *
+ * @since 5.0
+ */
+public abstract class RowQuantizer {
+
+    /** The data to quantize. */
+    protected final PixelData data;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param data The data to quantize.
+     */
+    protected RowQuantizer(PixelData data) {
+        this.data = data;
+    }
+
+    /**
+     * Returns a duplicate of the buffer backing the data, positioned at the
+     * start of the buffer and with the same byte order.
+     *
+     * @return See above.
+     */
+    protected ByteBuffer duplicate() {
+        ByteBuffer buffer = data.getData().duplicate();
+        buffer.clear();
+        buffer.order(data.getOrder());
+        return buffer;
+    }
+
+    /**
+     * Quantizes <code>length</code> pixels intensity values starting at the
+     * pixel <code>offset</code>.
+     *
+     * @param offset The offset of the first pixel, in pixels.
+     * @param length The number of pixels to quantize.
+     * @param values The array to fill with the quantized values.
+     * @throws QuantizationException If an error occurs while quantizing.
+     */
+    public abstract void quantize(int offset, int length, int[] values)
+        throws QuantizationException;
+
+    /**
+     * Returns a quantizer for the given data and strategy.
+     *
+     * @param qs The strategy to use.
+     * @param data The data to quantize.
+     * @return See above.
+     */
+    public static RowQuantizer make(QuantumStrategy qs, PixelData data) {
+        if (!(qs instanceof Quantization_8_16_bit)) {
+            return new Generic(qs, data);
+        }
+        Quantization_8_16_bit lut = (Quantization_8_16_bit) qs;
+        boolean signed = data.isSigned();
+        switch (data.javaType()) {
+            case PixelData.BYTE:
+                return signed? new Int8(lut, data) : new UInt8(lut, data);
+            case PixelData.SHORT:
+                return signed? new Int16(lut, data) : new UInt16(lut, data);
+            case PixelData.INT:
+                return signed? new Int32(lut, data) : new UInt32(lut, data);
+            case PixelData.FLOAT:
+                return new Float32(lut, data);
+            case PixelData.DOUBLE:
+                return new Float64(lut, data);
+            default:
+                return new Generic(qs, data);
+        }
+    }
+
+    /**
+     * Quantizes through {@link PixelData#getPixelValue(int)} and
+     * {@link QuantumStrategy#quantize(double)}.
+     */
+    static class Generic extends RowQuantizer {
+
+        private final QuantumStrategy qs;
+
+        Generic(QuantumStrategy qs, PixelData data) {
+            super(data);
+            this.qs = qs;
+        }
+
+        @Override
+        public void quantize(int offset, int length, int[] values)
+            throws QuantizationException {
+            for (int i = 0; i < length; i++) {
+                values[i] = qs.quantize(data.getPixelValue(offset + i));
+            }
+        }
+    }
+
+    /** Quantizes <code>uint8</code> data. */
+    static class UInt8 extends RowQuantizer {
+
+        private final Quantization_8_16_bit qs;
+
+        private final ByteBuffer buffer;
+
+        private byte[] row = new byte[0];
+
+        UInt8(Quantization_8_16_bit qs, PixelData data) {
+            super(data);
+            this.qs = qs;
+            buffer = duplicate();
+        }
+
+        @Override
+        public void quantize(int offset, int length, int[] values) {
+            if (row.length < length) {
+                row = new byte[length];
+            }
+            buffer.position(offset);
+            buffer.get(row, 0, length);
+            for (int i = 0; i < length; i++) {
+                values[i] = qs.quantizeValue(row[i] & 0xFF);
+            }
+        }
+    }
+
+    /** Quantizes <code>int8</code> data. */
+    static class Int8 extends RowQuantizer {
+
+        private final Quantization_8_16_bit qs;
+
+        private final ByteBuffer buffer;
+
+        private byte[] row = new byte[0];
+
+        Int8(Quantization_8_16_bit qs, PixelData data) {
+            super(data);
+            this.qs = qs;
+            buffer = duplicate();
+        }
+
+        @Override
+        public void quantize(int offset, int length, int[] values) {
+            if (row.length < length) {
+                row = new byte[length];
+            }
+            buffer.position(offset);
+            buffer.get(row, 0, length);
+            for (int i = 0; i < length; i++) {
+                values[i] = qs.quantizeValue(row[i]);
+            }
+        }
+    }
+
+    /** Quantizes <code>uint16</code> data. */
+    static class UInt16 extends RowQuantizer {
+
+        private final Quantization_8_16_bit qs;
+
+        private final ShortBuffer buffer;
+
+        private short[] row = new short[0];
+
+        UInt16(Quantization_8_16_bit qs, PixelData data) {
+            super(data);
+            this.qs = qs;
+            buffer = duplicate().asShortBuffer();
+        }
+
+        @Override
+        public void quantize(int offset, int length, int[] values) {
+            if (row.length < length) {
+                row = new short[length];
+            }
+            buffer.position(offset);
+            buffer.get(row, 0, length);
+            for (int i = 0; i < length; i++) {
+                values[i] = qs.quantizeValue(row[i] & 0xFFFF);
+            }
+        }
+    }
+
+    /** Quantizes <code>int16</code> data. */
+    static class Int16 extends RowQuantizer {
+
+        private final Quantization_8_16_bit qs;
+
+        private final ShortBuffer buffer;
+
+        private short[] row = new short[0];
+
+        Int16(Quantization_8_16_bit qs, PixelData data) {
+            super(data);
+            this.qs = qs;
+            buffer = duplicate().asShortBuffer();
+        }
+
+        @Override
+        public void quantize(int offset, int length, int[] values) {
+            if (row.length < length) {
+                row = new short[length];
+            }
+            buffer.position(offset);
+            buffer.get(row, 0, length);
+            for (int i = 0; i < length; i++) {
+                values[i] = qs.quantizeValue(row[i]);
+            }
+        }
+    }
+
+    /** Quantizes <code>int32</code> data. */
+    static class Int32 extends RowQuantizer {
+
+        private final Quantization_8_16_bit qs;
+
+        private final IntBuffer buffer;
+
+        Int32(Quantization_8_16_bit qs, PixelData data) {
+            super(data);
+            this.qs = qs;
+            buffer = duplicate().asIntBuffer();
+        }
+
+        @Override
+        public void quantize(int offset, int length, int[] values) {
+            buffer.position(offset);
+            buffer.get(values, 0, length);
+            for (int i = 0; i < length; i++) {
+                values[i] = qs.quantizeValue(values[i]);
+            }
+        }
+    }
+
+    /**
+     * Quantizes <code>uint32</code> data. Values greater than
+     * {@link Integer#MAX_VALUE} are saturated as the <code>double</code> to
+     * <code>int</code> conversion of the generic path does.
+     */
+    static class UInt32 extends RowQuantizer {
+
+        private final Quantization_8_16_bit qs;
+
+        private final IntBuffer buffer;
+
+        UInt32(Quantization_8_16_bit qs, PixelData data) {
+            super(data);
+            this.qs = qs;
+            buffer = duplicate().asIntBuffer();
+        }
+
+        @Override
+        public void quantize(int offset, int length, int[] values) {
+            buffer.position(offset);
+            buffer.get(values, 0, length);
+            int v;
+            for (int i = 0; i < length; i++) {
+                v = values[i];
+                values[i] = qs.quantizeValue(v < 0? Integer.MAX_VALUE : v);
+            }
+        }
+    }
+
+    /** Quantizes <code>float</code> data. */
+    static class Float32 extends RowQuantizer {
+
+        private final Quantization_8_16_bit qs;
+
+        private final FloatBuffer buffer;
+
+        private float[] row = new float[0];
+
+        Float32(Quantization_8_16_bit qs, PixelData data) {
+            super(data);
+            this.qs = qs;
+            buffer = duplicate().asFloatBuffer();
+        }
+
+        @Override
+        public void quantize(int offset, int length, int[] values) {
+            if (row.length < length) {
+                row = new float[length];
+            }
+            buffer.position(offset);
+            buffer.get(row, 0, length);
+            for (int i = 0; i < length; i++) {
+                values[i] = qs.quantizeValue((int) row[i]);
+            }
+        }
+    }
+
+    /** Quantizes <code>double</code> data. */
+    static class Float64 extends RowQuantizer {
+
+        private final Quantization_8_16_bit qs;
+
+        private final DoubleBuffer buffer;
+
+        private double[] row = new double[0];
+
+        Float64(Quantization_8_16_bit qs, PixelData data) {
+            super(data);
+            this.qs = qs;
+            buffer = duplicate().asDoubleBuffer();
+        }
+
+        @Override
+        public void quantize(int offset, int length, int[] values) {
+            if (row.length < length) {
+                row = new double[length];
+            }
+            buffer.position(offset);
+            buffer.get(row, 0, length);
+            for (int i = 0; i < length; i++) {
+                values[i] = qs.quantizeValue((int) row[i]);
+            }
+        }
+    }
+
+}
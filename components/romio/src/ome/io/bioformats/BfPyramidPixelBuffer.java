@@ -18,6 +18,11 @@ import java.nio.channels.OverlappingFileLockException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import loci.formats.FormatException;
 import loci.formats.FormatTools;
@@ -126,6 +131,63 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
 
     public static final String PYR_LOCK_EXT = ".pyr_lock";
 
+    public static final String PYR_PARTIAL_EXT = ".pyr_partial";
+
+    /**
+     * Length to which the partial file is truncated before writing is
+     * resumed. <code>-1</code> if writing is not being resumed.
+     */
+    private long resumeLength = -1;
+
+    // CONCURRENT READS
+
+    /**
+     * Default maximum number of readers which may decode tiles concurrently
+     * for a single instance.
+     */
+    public static final int DEFAULT_MAX_READERS =
+        Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Guards the pooled readers. Tile and region reads hold the read lock
+     * while they use a pooled reader; {@link #close()} holds the write lock
+     * so that no reader is closed underneath a read in progress.
+     */
+    private final ReentrantReadWriteLock readersLock =
+        new ReentrantReadWriteLock();
+
+    /** Pooled readers which are not currently in use. */
+    private final BlockingQueue<BfPixelBuffer> idleReaders =
+        new LinkedBlockingQueue<BfPixelBuffer>();
+
+    /** Number of pooled readers which have been opened. */
+    private final AtomicInteger readerCount = new AtomicInteger();
+
+    /** Maximum number of pooled readers. */
+    private volatile int maxReaders = DEFAULT_MAX_READERS;
+
+    /**
+     * Whether or not the writer has been closed and the pyramid can be read
+     * from without holding the monitor of this instance.
+     */
+    private volatile boolean readable;
+
+    /**
+     * Whether or not {@link #close()} has been called. Set with the write
+     * lock of {@link #readersLock} and the monitor of this instance held, so
+     * that a read which holds either sees it and opens no reader which would
+     * never be closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Resolution level requested via {@link #setResolutionLevel(int)} which
+     * the pooled readers are aligned to before each read. <code>-1</code>
+     * if it has not been set, in which case the readers remain on their
+     * default, the highest resolution.
+     */
+    private volatile int resolutionLevel = -1;
+
     /**
      * We may want a constructor that takes the id of an imported file
      * or that takes a File object?
@@ -189,10 +251,14 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
 
         else
         {
-            final File readerDir = readerFile.getParentFile();
-            writerFile = File.createTempFile("." + readerFile.getName(), ".tmp", readerDir);
-            writerFile.deleteOnExit();
+            // The partial file has a well-known name so that an
+            // interrupted write can be resumed. See resume(long).
             acquireLock();
+            writerFile = partialFile();
+            if (!writerFile.exists())
+            {
+                FileUtils.touch(writerFile);
+            }
         }
     }
 
@@ -404,6 +470,113 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         }
     }
 
+    /**
+     * Returns the file the writer writes to. It is moved to the reader
+     * location once writing is completed.
+     * @return See above.
+     */
+    private File partialFile() {
+        File parent = readerFile.getParentFile();
+        String name = "." + readerFile.getName() + PYR_PARTIAL_EXT;
+        return new File(parent, name);
+    }
+
+    /**
+     * Returns the file that is being written to, or <code>null</code> if
+     * this instance is not in write mode.
+     * @return See above.
+     */
+    public File getPartialFile()
+    {
+        return writerFile;
+    }
+
+    /**
+     * Requests that writing resumes at the given offset of the file left
+     * behind by a previous, interrupted, instance. Must be called before the
+     * first tile is written. The tiles of the planes which were completed
+     * when the offset was retrieved via {@link #checkpoint()} must not be
+     * written again.
+     * @param length Offset as returned by {@link #checkpoint()}.
+     * @throws IOException If the partial file is shorter than
+     * <code>length</code>.
+     */
+    public synchronized void resume(long length) throws IOException
+    {
+        if (!isWrite() || writer != null)
+        {
+            throw new ApiUsageException("Not in write mode or already writing!");
+        }
+        if (writerFile.length() < length)
+        {
+            throw new IOException(String.format(
+                    "Cannot resume %s at %d, only %d bytes written.",
+                    writerFile, length, writerFile.length()));
+        }
+        resumeLength = length;
+    }
+
+    /**
+     * Flushes the tiles written so far and returns the offset at which
+     * writing could be resumed via {@link #resume(long)}. Must only be called
+     * once the last tile of a plane has been written.
+     * @return See above.
+     * @throws IOException If the data cannot be flushed.
+     */
+    public synchronized long checkpoint() throws IOException
+    {
+        if (!isWrite())
+        {
+            throw new ApiUsageException("In read-only mode!");
+        }
+        if (writer == null)
+        {
+            return Math.max(0, resumeLength);
+        }
+        return writer.flushAndGetLength();
+    }
+
+    /**
+     * Stops writing without completing the pyramid. The partial file is kept
+     * so that a later instance may {@link #resume(long)}, and the lock is
+     * released. This instance cannot be used afterwards.
+     * @throws IOException If the writer cannot be closed.
+     */
+    public synchronized void suspend() throws IOException
+    {
+        try
+        {
+            if (writer != null)
+            {
+                writer.abandon();
+                writer = null;
+            }
+        }
+        finally
+        {
+            writerFile = null;
+            releaseLock();
+        }
+    }
+
+    /**
+     * Truncates the partial file to the length writing starts at: zero for
+     * a new pyramid or {@link #resumeLength} when resuming.
+     * @throws IOException If the file cannot be truncated.
+     */
+    private void truncatePartialFile() throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(writerFile, "rw");
+        try
+        {
+            raf.setLength(Math.max(0, resumeLength));
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
     private File lockFile() {
         File parent = readerFile.getParentFile();
         String name = "." + readerFile.getName() + PYR_LOCK_EXT;
@@ -438,6 +611,11 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
             if (writer != null) {
                 writer.close();
                 writer = null;
+            } else if (writerFile != null) {
+                // Nothing was written by this instance: do not publish what
+                // an interrupted instance may have left behind (ticket:5189).
+                resumeLength = -1;
+                truncatePartialFile();
             }
         } finally {
             try {
@@ -492,6 +670,180 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         return delegate;
     }
 
+    /**
+     * Sets the maximum number of readers which may decode tiles concurrently
+     * for this instance. Readers already opened beyond the new maximum are
+     * closed as they are returned.
+     * @param maxReaders The maximum number of readers, at least one.
+     */
+    public void setMaxReaders(int maxReaders)
+    {
+        if (maxReaders < 1)
+        {
+            throw new ApiUsageException("At least one reader is required.");
+        }
+        this.maxReaders = maxReaders;
+    }
+
+    /**
+     * Returns the maximum number of readers which may decode tiles
+     * concurrently for this instance.
+     * @return See above.
+     */
+    public int getMaxReaders()
+    {
+        return maxReaders;
+    }
+
+    /**
+     * Closes the writer, if any, and initializes the reader once so that
+     * subsequent reads do not need to hold the monitor of this instance.
+     */
+    private void ensureReadable()
+    {
+        if (!readable)
+        {
+            synchronized (this)
+            {
+                checkNotClosed();
+                delegate();
+                readable = true;
+            }
+        }
+    }
+
+    /**
+     * Takes the read lock of {@link #readersLock} once the pyramid is
+     * readable. The closed state is checked again after the lock is taken
+     * since {@link #close()} may have run in between, in which case no
+     * pooled reader may be opened.
+     * @throws ApiUsageException If this instance has been closed.
+     */
+    private void lockReaders()
+    {
+        ensureReadable();
+        readersLock.readLock().lock();
+        if (closed)
+        {
+            readersLock.readLock().unlock();
+            checkNotClosed();
+        }
+    }
+
+    private void checkNotClosed()
+    {
+        if (closed)
+        {
+            throw new ApiUsageException(
+                    "Pixel buffer closed: " + readerFile);
+        }
+    }
+
+    /**
+     * Retrieves an idle pooled reader, opening a new one if fewer than
+     * {@link #maxReaders} are open, otherwise waiting for one to be returned.
+     * The reader is aligned to the current resolution level. Must be called
+     * with the read lock of {@link #readersLock} held.
+     * @return See above.
+     * @throws IOException If the reader cannot be opened or the wait is
+     * interrupted.
+     */
+    private BfPixelBuffer borrowReader() throws IOException
+    {
+        BfPixelBuffer reader = idleReaders.poll();
+        while (reader == null)
+        {
+            int count = readerCount.get();
+            if (count < maxReaders)
+            {
+                if (readerCount.compareAndSet(count, count + 1))
+                {
+                    try
+                    {
+                        reader = new BfPixelBuffer(
+                                readerFile.getAbsolutePath(),
+                                new OmeroPixelsPyramidReader());
+                    }
+                    catch (IOException e)
+                    {
+                        readerCount.decrementAndGet();
+                        throw e;
+                    }
+                    catch (FormatException e)
+                    {
+                        readerCount.decrementAndGet();
+                        throw new RuntimeException(e);
+                    }
+                    if (log.isDebugEnabled())
+                    {
+                        log.debug(String.format(
+                                "Opened pooled reader %d for %s",
+                                count + 1, readerFile));
+                    }
+                }
+                continue;
+            }
+            try
+            {
+                reader = idleReaders.poll(100, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException(
+                        "Interrupted waiting for a reader of " + readerFile);
+            }
+        }
+        int level = resolutionLevel;
+        if (level >= 0 && reader.getResolutionLevel() != level)
+        {
+            reader.setResolutionLevel(level);
+        }
+        return reader;
+    }
+
+    /**
+     * Returns a reader retrieved via {@link #borrowReader()} to the pool or
+     * closes it if the pool has shrunk in the meantime.
+     * @param reader The reader to return.
+     */
+    private void returnReader(BfPixelBuffer reader)
+    {
+        if (readerCount.get() > maxReaders)
+        {
+            readerCount.decrementAndGet();
+            closeReader(reader);
+            return;
+        }
+        idleReaders.offer(reader);
+    }
+
+    /**
+     * Closes all pooled readers. Must be called with the write lock of
+     * {@link #readersLock} held.
+     */
+    private void closeReaders()
+    {
+        BfPixelBuffer reader;
+        while ((reader = idleReaders.poll()) != null)
+        {
+            closeReader(reader);
+        }
+        readerCount.set(0);
+    }
+
+    private void closeReader(BfPixelBuffer reader)
+    {
+        try
+        {
+            reader.close();
+        }
+        catch (Exception e)
+        {
+            log.warn("Failed to close pooled reader", e);
+        }
+    }
+
     /* (non-Javadoc)
      * @see ome.io.bioformats.BfPixelBuffer#setTile(byte[], java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
@@ -540,6 +892,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         {
             try
             {
+                truncatePartialFile();
                 initializeWriter(writerFile.getAbsolutePath(),
                         TiffCompression.JPEG_2000.getCodecName(), true, w, h);
             }
@@ -599,7 +952,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
      * @throws IOException If there is a problem with the parameters or a
      * problem checking them.
      */
-    private synchronized void checkTileParameters(int x, int y, int w, int h)
+    private void checkTileParameters(int x, int y, int w, int h)
         throws IOException
     {
         // No-op.
@@ -648,6 +1001,19 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
      */
     public synchronized void close() throws IOException
     {
+        readersLock.writeLock().lock();
+        try
+        {
+            closed = true;
+            readable = false;
+            resolutionLevel = -1;
+            closeReaders();
+        }
+        finally
+        {
+            readersLock.writeLock().unlock();
+        }
+
         try
         {
             if (delegate != null)
@@ -807,7 +1173,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneRegion(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getPlaneRegion(Integer x, Integer y,
+    public PixelData getPlaneRegion(Integer x, Integer y,
             Integer width, Integer height, Integer z, Integer c, Integer t,
             Integer stride)
             throws IOException, DimensionsOutOfBoundsException
@@ -815,23 +1181,56 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        PixelData data =
-            delegate().getPlaneRegion(x, y, width, height, z, c, t, stride);
-        data.setOrder(byteOrder);
-        return data;
+        lockReaders();
+        try
+        {
+            BfPixelBuffer pooled = borrowReader();
+            try
+            {
+                PixelData data = pooled.getPlaneRegion(
+                        x, y, width, height, z, c, t, stride);
+                data.setOrder(byteOrder);
+                return data;
+            }
+            finally
+            {
+                returnReader(pooled);
+            }
+        }
+        finally
+        {
+            readersLock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneRegionDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getPlaneRegionDirect(Integer z, Integer c,
+    public byte[] getPlaneRegionDirect(Integer z, Integer c,
             Integer t, Integer count, Integer offset, byte[] buffer)
         throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return getPlaneRegionDirect(z, c, t, count, offset, buffer);
+        lockReaders();
+        try
+        {
+            BfPixelBuffer pooled = borrowReader();
+            try
+            {
+                return pooled.getPlaneRegionDirect(
+                        z, c, t, count, offset, buffer);
+            }
+            finally
+            {
+                returnReader(pooled);
+            }
+        }
+        finally
+        {
+            readersLock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
@@ -1006,22 +1405,38 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTile(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getTile(Integer z, Integer c, Integer t,
+    public PixelData getTile(Integer z, Integer c, Integer t,
             Integer x, Integer y, Integer w, Integer h) throws IOException
     {
         checkTileParameters(x, y, w, h);
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        PixelData data = delegate().getTile(z, c, t, x, y, w, h);
-        data.setOrder(byteOrder);
-        return data;
+        lockReaders();
+        try
+        {
+            BfPixelBuffer pooled = borrowReader();
+            try
+            {
+                PixelData data = pooled.getTile(z, c, t, x, y, w, h);
+                data.setOrder(byteOrder);
+                return data;
+            }
+            finally
+            {
+                returnReader(pooled);
+            }
+        }
+        finally
+        {
+            readersLock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTileDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getTileDirect(Integer z, Integer c, Integer t,
+    public byte[] getTileDirect(Integer z, Integer c, Integer t,
             Integer x, Integer y, Integer w, Integer h, byte[] buffer)
         throws IOException
     {
@@ -1029,7 +1444,23 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return delegate().getTileDirect(z, c, t, x, y, w, h, buffer);
+        lockReaders();
+        try
+        {
+            BfPixelBuffer pooled = borrowReader();
+            try
+            {
+                return pooled.getTileDirect(z, c, t, x, y, w, h, buffer);
+            }
+            finally
+            {
+                returnReader(pooled);
+            }
+        }
+        finally
+        {
+            readersLock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
@@ -1241,5 +1672,6 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
             throw new ApiUsageException("In write mode!");
         }
         delegate().setResolutionLevel(resolutionLevel);
+        this.resolutionLevel = resolutionLevel;
     }
 }
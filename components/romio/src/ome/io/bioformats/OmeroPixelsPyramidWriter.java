@@ -62,6 +62,35 @@ public class OmeroPixelsPyramidWriter extends TiffWriter {
         }
     }
 
+    /**
+     * Closes the writer <b>without</b> performing the post processing
+     * re-compression, leaving the file as it has been written so far so that
+     * writing may be resumed later.
+     * @throws IOException If the file cannot be closed.
+     */
+    public void abandon() throws IOException
+    {
+        log.debug("abandon(" + currentId + ")");
+        super.close();
+    }
+
+    /**
+     * Flushes all data written so far and returns the length of the file.
+     * When called between two planes, this is the offset at which writing
+     * can be resumed after an {@link #abandon()}.
+     * @return See above.
+     * @throws IOException If the file cannot be flushed.
+     */
+    public long flushAndGetLength() throws IOException
+    {
+        if (out == null)
+        {
+            return 0;
+        }
+        out.flush();
+        return out.length();
+    }
+
     /* (non-Javadoc)
      * @see loci.formats.FormatWriter#setId(java.lang.String)
      */
@@ -0,0 +1,74 @@
+/*
+ * ome.io.messages.PyramidProgressMessage
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.messages;
+
+import ome.util.messages.InternalMessage;
+
+/**
+ * Published while a pixels pyramid is being created to report how many of
+ * its tiles have been written.
+ *
+ * @since 5.0
+ */
+public class PyramidProgressMessage extends InternalMessage {
+
+    private static final long serialVersionUID = -3815226744085360317L;
+
+    final public long pixelsID;
+
+    /** Number of planes completely written. */
+    final public int planes;
+
+    /** Total number of planes. */
+    final public int planeCount;
+
+    /** Number of tiles written. */
+    final public long tiles;
+
+    /** Total number of tiles. */
+    final public long tileCount;
+
+    /** Whether or not the creation resumed from a checkpoint. */
+    final public boolean resumed;
+
+    /**
+     * Whether or not the creation has ended, successfully or not. No further
+     * message is published for the pyramid afterwards.
+     */
+    final public boolean done;
+
+    public PyramidProgressMessage(Object source, long pixelsID, int planes,
+            int planeCount, long tiles, long tileCount, boolean resumed,
+            boolean done) {
+        super(source);
+        this.pixelsID = pixelsID;
+        this.planes = planes;
+        this.planeCount = planeCount;
+        this.tiles = tiles;
+        this.tileCount = tileCount;
+        this.resumed = resumed;
+        this.done = done;
+    }
+
+    /**
+     * Returns <code>true</code> if all the tiles have been written.
+     *
+     * @return See above.
+     */
+    public boolean isComplete() {
+        return tiles >= tileCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PyramidProgressMessage[Pixels:%d %d/%d tiles, "
+                + "%d/%d planes%s%s]", pixelsID, tiles, tileCount, planes,
+                planeCount, resumed? ", resumed" : "", done? ", done" : "");
+    }
+
+}
@@ -0,0 +1,389 @@
+/*
+ * ome.io.nio.ChannelStatistics
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+// Java imports
+import java.nio.ByteBuffer;
+import java.util.Properties;
+
+// Third-party libraries
+
+// Application-internal dependencies
+import ome.util.PixelData;
+
+/**
+ * Statistics of the values of one channel, accumulated one tile at a time:
+ * minimum, maximum, mean and a histogram with a fixed number of bins from
+ * which percentiles are estimated.
+ * <p>
+ * Each tile is read twice straight from its backing buffer with a loop
+ * specialised for its pixel type, once for its minimum, maximum and sum and
+ * once to count its values into the histogram. The bins are all of the same
+ * width; it starts as narrow as the range of the first tile allows (a single
+ * value per bin for integer pixels) and is doubled, merging pairs of bins,
+ * whenever a tile extends the range. The histogram is therefore exact for
+ * integer pixels whose range does not exceed the number of bins.
+ * </p>
+ * <p>
+ * Instances are not thread safe; the tiles of a channel are added under the
+ * lock of its statistics so that channels are accumulated concurrently.
+ * </p>
+ *
+ * @since 5.0
+ */
+public class ChannelStatistics {
+
+    /** Default number of bins of the histogram. */
+    public static final int DEFAULT_BINS = 256;
+
+    /** The counts of the bins. */
+    private long[] bins;
+
+    /** The lower bound of the first bin. */
+    private double origin;
+
+    /** The width of each bin. */
+    private double width;
+
+    /** Number of values added. */
+    private long count;
+
+    /** Sum of the values added. */
+    private double sum;
+
+    /** Minimum of the values added. */
+    private double minimum = Double.MAX_VALUE;
+
+    /** Maximum of the values added. */
+    private double maximum = -Double.MAX_VALUE;
+
+    /**
+     * Creates a new instance with the default number of bins.
+     */
+    public ChannelStatistics()
+    {
+        this(DEFAULT_BINS);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param binCount The number of bins of the histogram, an even number.
+     */
+    public ChannelStatistics(int binCount)
+    {
+        if (binCount < 2 || binCount % 2 != 0)
+        {
+            throw new IllegalArgumentException(
+                    "Invalid number of bins: " + binCount);
+        }
+        bins = new long[binCount];
+    }
+
+    /**
+     * Adds the values of a tile.
+     *
+     * @param data The tile.
+     */
+    public void add(PixelData data)
+    {
+        final int size = data.size();
+        if (size == 0)
+        {
+            return;
+        }
+        final ByteBuffer b = data.getData();
+        final boolean signed = data.isSigned();
+        final int type = data.javaType();
+
+        // First pass: range and sum of the tile.
+        double min = Double.MAX_VALUE, max = -Double.MAX_VALUE, total = 0;
+        double v;
+        for (int i = 0; i < size; i++)
+        {
+            v = value(data, b, type, signed, i);
+            if (v < min)
+            {
+                min = v;
+            }
+            if (v > max)
+            {
+                max = v;
+            }
+            total += v;
+        }
+        include(min, max, data.isFloat());
+
+        // Second pass: histogram of the tile.
+        final long[] counts = bins;
+        final int last = counts.length - 1;
+        final double o = origin, w = width;
+        int index;
+        for (int i = 0; i < size; i++)
+        {
+            index = (int) ((value(data, b, type, signed, i) - o) / w);
+            counts[index > last? last : index]++;
+        }
+
+        count += size;
+        sum += total;
+        minimum = Math.min(minimum, min);
+        maximum = Math.max(maximum, max);
+    }
+
+    private static double value(PixelData data, ByteBuffer b, int type,
+            boolean signed, int i)
+    {
+        switch (type)
+        {
+            case PixelData.BYTE:
+                return signed? b.get(i) : b.get(i) & 0xFF;
+            case PixelData.SHORT:
+                return signed? b.getShort(i << 1) : b.getShort(i << 1) & 0xFFFF;
+            case PixelData.INT:
+                return signed? b.getInt(i << 2)
+                        : b.getInt(i << 2) & 0xFFFFFFFFL;
+            case PixelData.FLOAT:
+                return b.getFloat(i << 2);
+            case PixelData.DOUBLE:
+                return b.getDouble(i << 3);
+            default:
+                return data.getPixelValue(i);
+        }
+    }
+
+    /**
+     * Makes the histogram cover a range of values, placing it on the first
+     * call and then doubling the width of the bins until it fits.
+     */
+    private void include(double min, double max, boolean floating)
+    {
+        final int n = bins.length;
+        if (count == 0)
+        {
+            if (floating)
+            {
+                origin = min;
+                width = (max - min) / n;
+                if (width <= 0)
+                {
+                    width = Math.max(Math.abs(min) / n, Double.MIN_NORMAL);
+                }
+                // The maximum itself falls in the last bin.
+                width = Math.nextUp(width);
+            }
+            else
+            {
+                origin = Math.floor(min);
+                width = 1;
+                while (origin + n * width <= max)
+                {
+                    width *= 2;
+                }
+            }
+            return;
+        }
+        while (min < origin || max >= origin + n * width)
+        {
+            // Extends downwards by keeping the current range as the upper
+            // half of the new one; bin boundaries stay aligned either way.
+            final int shift = min < origin? n : 0;
+            final long[] merged = new long[n];
+            for (int i = 0; i < n; i++)
+            {
+                merged[(i + shift) / 2] += bins[i];
+            }
+            bins = merged;
+            origin -= shift * width;
+            width *= 2;
+        }
+    }
+
+    /**
+     * Returns the estimated value below which a given fraction of the values
+     * lie, interpolated linearly within the bin it falls in.
+     *
+     * @param fraction The fraction, between 0 and 1.
+     * @return See above or {@link Double#NaN} if no value was added.
+     */
+    public double getPercentile(double fraction)
+    {
+        if (count == 0)
+        {
+            return Double.NaN;
+        }
+        final double rank = Math.max(0, Math.min(1, fraction)) * count;
+        long seen = 0;
+        for (int i = 0; i < bins.length; i++)
+        {
+            if (bins[i] > 0 && seen + bins[i] >= rank)
+            {
+                final double value =
+                    origin + width * (i + (rank - seen) / bins[i]);
+                return Math.max(minimum, Math.min(maximum, value));
+            }
+            seen += bins[i];
+        }
+        return maximum;
+    }
+
+    /**
+     * Returns the number of values of the histogram within a range.
+     * The values of the bins overlapping either bound are pro-rated.
+     *
+     * @param from The inclusive lower bound of the range.
+     * @param to The exclusive upper bound of the range.
+     * @return See above.
+     */
+    public double getCount(double from, double to)
+    {
+        double total = 0;
+        for (int i = 0; i < bins.length; i++)
+        {
+            if (bins[i] == 0)
+            {
+                continue;
+            }
+            final double lower = origin + i * width;
+            final double overlap = Math.min(to, lower + width)
+                - Math.max(from, lower);
+            if (overlap > 0)
+            {
+                total += bins[i] * Math.min(1, overlap / width);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns the counts of the bins of the histogram.
+     *
+     * @return See above.
+     */
+    public long[] getBins()
+    {
+        return bins.clone();
+    }
+
+    /**
+     * Returns the lower bound of the first bin.
+     *
+     * @return See above.
+     */
+    public double getOrigin()
+    {
+        return origin;
+    }
+
+    /**
+     * Returns the width of the bins.
+     *
+     * @return See above.
+     */
+    public double getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Returns the number of values added.
+     *
+     * @return See above.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the minimum of the values added.
+     *
+     * @return See above or {@link Double#NaN} if no value was added.
+     */
+    public double getMinimum()
+    {
+        return count == 0? Double.NaN : minimum;
+    }
+
+    /**
+     * Returns the maximum of the values added.
+     *
+     * @return See above or {@link Double#NaN} if no value was added.
+     */
+    public double getMaximum()
+    {
+        return count == 0? Double.NaN : maximum;
+    }
+
+    /**
+     * Returns the mean of the values added.
+     *
+     * @return See above or {@link Double#NaN} if no value was added.
+     */
+    public double getMean()
+    {
+        return count == 0? Double.NaN : sum / count;
+    }
+
+    /**
+     * Saves the statistics as properties.
+     *
+     * @param p The properties to add to.
+     * @param prefix The prefix of the keys, e.g. the channel.
+     */
+    public void store(Properties p, String prefix)
+    {
+        p.setProperty(prefix + "count", Long.toString(count));
+        p.setProperty(prefix + "sum", Double.toString(sum));
+        p.setProperty(prefix + "min", Double.toString(minimum));
+        p.setProperty(prefix + "max", Double.toString(maximum));
+        p.setProperty(prefix + "origin", Double.toString(origin));
+        p.setProperty(prefix + "width", Double.toString(width));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < bins.length; i++)
+        {
+            if (i > 0)
+            {
+                sb.append(',');
+            }
+            sb.append(bins[i]);
+        }
+        p.setProperty(prefix + "bins", sb.toString());
+    }
+
+    /**
+     * Restores statistics saved by {@link #store(Properties, String)}.
+     *
+     * @param p The properties to read from.
+     * @param prefix The prefix of the keys.
+     * @return See above or <code>null</code> if there are none.
+     * @throws NumberFormatException If the statistics are corrupt.
+     */
+    public static ChannelStatistics load(Properties p, String prefix)
+    {
+        String values = p.getProperty(prefix + "bins");
+        if (values == null)
+        {
+            return null;
+        }
+        String[] counts = values.split(",");
+        ChannelStatistics stats = new ChannelStatistics(counts.length);
+        for (int i = 0; i < counts.length; i++)
+        {
+            stats.bins[i] = Long.parseLong(counts[i]);
+        }
+        stats.count = Long.parseLong(p.getProperty(prefix + "count"));
+        stats.sum = Double.parseDouble(p.getProperty(prefix + "sum"));
+        stats.minimum = Double.parseDouble(p.getProperty(prefix + "min"));
+        stats.maximum = Double.parseDouble(p.getProperty(prefix + "max"));
+        stats.origin = Double.parseDouble(p.getProperty(prefix + "origin"));
+        stats.width = Double.parseDouble(p.getProperty(prefix + "width"));
+        return stats;
+    }
+
+}
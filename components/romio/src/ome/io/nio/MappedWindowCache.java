@@ -0,0 +1,231 @@
+/*
+ * ome.io.nio.MappedWindowCache
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+// Java imports
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Third-party libraries
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Application-internal dependencies
+
+/**
+ * Small least recently used cache of large read-only windows mapped over a
+ * file. Regions of the file are served as slices of the windows, so that
+ * repeated reads of rows, planes or stacks share a few mappings rather than
+ * each creating their own {@link MappedByteBuffer}.
+ * <p>
+ * Windows start on a multiple of half the window size, so any region of up
+ * to half the window size fits in a single window. Regions which are larger
+ * than a window or which extend past the end of the file are not served.
+ * </p>
+ * <p>
+ * Windows evicted from the cache are left to the garbage collector since
+ * slices of them may still be in use. Those still cached when the cache is
+ * {@link #clear(boolean) cleared} can be unmapped explicitly.
+ * </p>
+ *
+ * @since 5.0
+ */
+public class MappedWindowCache {
+
+    /** The logger for this class. */
+    private static Logger log = LoggerFactory.getLogger(MappedWindowCache.class);
+
+    /** Default size of a window. (32MB) */
+    public static final int DEFAULT_WINDOW_SIZE = 32 * 1024 * 1024;
+
+    /** Default maximum number of windows kept mapped. */
+    public static final int DEFAULT_MAX_WINDOWS = 4;
+
+    /** The size of a window. */
+    private final int windowSize;
+
+    /** The maximum number of windows kept mapped. */
+    private final int maxWindows;
+
+    /** The mapped windows keyed by file offset, in access order. */
+    private final LinkedHashMap<Long, MappedByteBuffer> windows;
+
+    /** Number of regions served from an already mapped window. */
+    private long hits;
+
+    /** Number of windows mapped. */
+    private long mapped;
+
+    /**
+     * Creates a new instance with the default window size and count.
+     */
+    public MappedWindowCache()
+    {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MAX_WINDOWS);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param windowSize The size of a window, in bytes.
+     * @param maxWindows The maximum number of windows kept mapped.
+     */
+    public MappedWindowCache(int windowSize, int maxWindows)
+    {
+        if (windowSize < 2 || maxWindows < 1)
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid window size %d or count %d.",
+                    windowSize, maxWindows));
+        }
+        this.windowSize = windowSize;
+        this.maxWindows = maxWindows;
+        windows = new LinkedHashMap<Long, MappedByteBuffer>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Long, MappedByteBuffer> eldest)
+            {
+                return size() > MappedWindowCache.this.maxWindows;
+            }
+        };
+    }
+
+    /**
+     * Returns a region of the file as a slice of a mapped window, mapping a
+     * new window if none holds the region yet. The slice is positioned at 0
+     * and its limit is the size of the region.
+     *
+     * @param channel The channel of the file.
+     * @param offset The offset of the region in the file.
+     * @param size The size of the region.
+     * @return See above or <code>null</code> if the region is larger than a
+     * window or extends past the end of the file.
+     * @throws IOException If the window cannot be mapped.
+     */
+    public synchronized ByteBuffer slice(FileChannel channel, long offset,
+            int size) throws IOException
+    {
+        if (size > windowSize)
+        {
+            return null;
+        }
+        long fileSize = channel.size();
+        if (offset < 0 || offset + size > fileSize)
+        {
+            return null;
+        }
+
+        for (Map.Entry<Long, MappedByteBuffer> entry : windows.entrySet())
+        {
+            long start = entry.getKey();
+            MappedByteBuffer window = entry.getValue();
+            if (offset >= start && offset + size <= start + window.capacity())
+            {
+                hits++;
+                windows.get(start); // Marks the window as recently used.
+                return slice(window, (int) (offset - start), size);
+            }
+        }
+
+        long half = windowSize / 2;
+        long start = (offset / half) * half;
+        if (offset + size > start + windowSize)
+        {
+            start = offset;
+        }
+        long length = Math.min(windowSize, fileSize - start);
+        MappedByteBuffer window =
+            channel.map(MapMode.READ_ONLY, start, length);
+        mapped++;
+        windows.put(start, window);
+        if (log.isDebugEnabled())
+        {
+            log.debug(String.format("Mapped window %d-%d", start,
+                    start + length));
+        }
+        return slice(window, (int) (offset - start), size);
+    }
+
+    private ByteBuffer slice(MappedByteBuffer window, int position, int size)
+    {
+        ByteBuffer b = window.duplicate();
+        b.limit(position + size);
+        b.position(position);
+        return b.slice();
+    }
+
+    /**
+     * Drops all the windows.
+     *
+     * @param unmap Whether or not the windows should be unmapped rather than
+     * left to the garbage collector. No slice of them may be accessed
+     * afterwards if <code>true</code>.
+     */
+    public synchronized void clear(boolean unmap)
+    {
+        List<MappedByteBuffer> dropped =
+            new ArrayList<MappedByteBuffer>(windows.values());
+        windows.clear();
+        if (!unmap)
+        {
+            return;
+        }
+        for (MappedByteBuffer window : dropped)
+        {
+            try
+            {
+                ((sun.nio.ch.DirectBuffer) window).cleaner().clean();
+            }
+            catch (Exception e)
+            {
+                log.warn("Failed to unmap window", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of windows currently mapped.
+     *
+     * @return See above.
+     */
+    public synchronized int getWindowCount()
+    {
+        return windows.size();
+    }
+
+    /**
+     * Returns the number of regions served from an already mapped window.
+     *
+     * @return See above.
+     */
+    public synchronized long getHitCount()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the number of windows mapped so far.
+     *
+     * @return See above.
+     */
+    public synchronized long getMappedCount()
+    {
+        return mapped;
+    }
+
+}
@@ -9,12 +9,25 @@ package ome.io.nio;
 
 import java.awt.Dimension;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import loci.formats.ChannelFiller;
 import loci.formats.ChannelSeparator;
@@ -31,6 +44,7 @@ import ome.io.bioformats.BfPixelBuffer;
 import ome.io.bioformats.BfPyramidPixelBuffer;
 import ome.io.messages.MissingPyramidMessage;
 import ome.io.messages.MissingStatsInfoMessage;
+import ome.io.messages.PyramidProgressMessage;
 import ome.model.core.Pixels;
 import ome.model.stats.StatsInfo;
 import ome.util.PixelData;
@@ -65,12 +79,18 @@ public class PixelsService extends AbstractFileSystemService
 	/** Suffix for an the image pyramid of a given pixels set. */
 	public static final String PYRAMID_SUFFIX = "_pyramid";
 
+	/** Suffix for the channel statistics of a given pixels set. */
+	public static final String STATS_SUFFIX = "_stats";
+
 	/** Null plane size constant. */
 	public static final int NULL_PLANE_SIZE = 64;
 
 	/** Default of 100 ms for {@link #memoizerWait} */
 	public static final long MEMOIZER_WAIT = 100;
 
+	/** Default of 1 for {@link #pyramidWorkers} */
+	public static final int PYRAMID_WORKERS = 1;
+
 	/** Resolver of archived original file paths for pixels sets. */
 	protected FilePathResolver resolver;
 
@@ -90,6 +110,12 @@ public class PixelsService extends AbstractFileSystemService
 	 */
 	protected final long memoizerWait;
 
+	/**
+	 * Number of threads reading tiles from the source of a pyramid, each
+	 * with its own reader, while the pyramid is being written.
+	 */
+	protected int pyramidWorkers = PYRAMID_WORKERS;
+
 	/** Null plane byte array. */
 	public static final byte[] nullPlane = new byte[] { -128, 127, -128, 127,
 			-128, 127, -128, 127, -128, 127, // 10
@@ -184,6 +210,23 @@ public class PixelsService extends AbstractFileSystemService
         return memoizerDirectory;
     }
 
+    public int getPyramidWorkers() {
+        return pyramidWorkers;
+    }
+
+    /**
+     * Sets the number of threads reading tiles from the source of a pyramid
+     * while it is being written by {@link #makePyramid(Pixels)}.
+     * @param pyramidWorkers The number of threads, at least one.
+     */
+    public void setPyramidWorkers(int pyramidWorkers) {
+        if (pyramidWorkers < 1) {
+            throw new IllegalArgumentException(
+                    "At least one pyramid worker is required.");
+        }
+        this.pyramidWorkers = pyramidWorkers;
+    }
+
 	public void setApplicationEventPublisher(ApplicationEventPublisher pub) {
 	    if (this.pub != null) {
 	        throw new FatalBeanException("Publisher already set.");
@@ -238,30 +281,14 @@ public class PixelsService extends AbstractFileSystemService
         if (!requirePyramid)
         {
             log.debug("Creating only StatsInfo.");
-            int series = getSeries(pixels);
-            final PixelsPyramidMinMaxStore minMaxStore =
-                new PixelsPyramidMinMaxStore(pixels.getSizeC());
-            BfPixelBuffer bfPixelBuffer = createMinMaxBfPixelBuffer(
-                    originalFilePath, series, minMaxStore);
-            try
-            {
-                for (int t = 0; t < pixels.getSizeT(); t++)
-                {
-                    for (int c = 0; c < pixels.getSizeC(); c++)
-                    {
-                        for (int z = 0; z < pixels.getSizeZ(); z++)
-                        {
-                            bfPixelBuffer.getPlane(z, c, t);
-                        }
-                    }
-                }
-                return minMaxStore.createStatsInfo();
-            }
-            catch (IOException e)
+            PixelsPyramidMinMaxStore minMaxStore = computeStatistics(pixels,
+                    pixelsFile.exists(), pixelsFilePath, originalFilePath);
+            if (minMaxStore == null)
             {
-                log.error("I/O exception while calculating min/max.", e);
                 return null;
             }
+            saveChannelStatistics(pixels, minMaxStore.getStatistics());
+            return minMaxStore.createStatsInfo();
         }
 
         final BfPyramidPixelBuffer pixelsPyramid = createPyramidPixelBuffer(
@@ -287,6 +314,10 @@ public class PixelsService extends AbstractFileSystemService
                     pixelsFile, pixelsFilePath, originalFilePath);
             if (minMaxStore != null)
             {
+                if (minMaxStore.isComplete())
+                {
+                    saveChannelStatistics(pixels, minMaxStore.getStatistics());
+                }
                 return minMaxStore.createStatsInfo();
             }
             return null;
@@ -316,6 +347,7 @@ public class PixelsService extends AbstractFileSystemService
         final PixelBuffer source;
         final Dimension tileSize;
         final PixelsPyramidMinMaxStore minMaxStore;
+        final int series = getSeries(pixels);
 
         if (pixelsFile.exists())
         {
@@ -328,10 +360,12 @@ public class PixelsService extends AbstractFileSystemService
         }
         else
         {
+            // The minimum and maximum are calculated from the tiles rather
+            // than by a MinMaxCalculator since the planes are split between
+            // several readers and may be resumed from a checkpoint.
             minMaxStore = new PixelsPyramidMinMaxStore(pixels.getSizeC());
-            int series = getSeries(pixels);
-            BfPixelBuffer bfPixelBuffer = createMinMaxBfPixelBuffer(
-                    originalFilePath, series, minMaxStore);
+            BfPixelBuffer bfPixelBuffer = createBfPixelBuffer(
+                    originalFilePath, series);
             pixelsPyramid.setByteOrder(
                     bfPixelBuffer.isLittleEndian()? ByteOrder.LITTLE_ENDIAN
                             : ByteOrder.BIG_ENDIAN);
@@ -371,61 +405,566 @@ public class PixelsService extends AbstractFileSystemService
         }
         log.info("Destination pyramid tile size: " + tileSize);
 
+        final PyramidSources sources = new PyramidSources(source,
+                pixels, pixelsFile.exists(), pixelsFilePath, originalFilePath,
+                series);
+        final PyramidCheckpoint checkpoint =
+            new PyramidCheckpoint(pixelsPyramidFile);
+        final ExecutorService workers = Executors.newFixedThreadPool(
+                pyramidWorkers);
+        int planeCount = 0;
+        int planesDone = 0;
+        long totalTiles = 0;
+        long tileCount = 0;
+        boolean resumed = false;
         try
         {
-            final double totalTiles =
-                source.getSizeZ() * source.getSizeC() * source.getSizeT() *
-                (Math.ceil(source.getSizeX() / tileSize.getWidth())) *
-                (Math.ceil(source.getSizeY() / tileSize.getHeight()));
-            final int tenPercent = Math.max((int) totalTiles / 10, 1);
+            final int sizeX = source.getSizeX();
+            final int sizeY = source.getSizeY();
+            final int sizeZ = source.getSizeZ();
+            final int sizeC = source.getSizeC();
+            planeCount = sizeZ * sizeC * source.getSizeT();
+            final int tileWidth = (int) tileSize.getWidth();
+            final int tileHeight = (int) tileSize.getHeight();
+            final int tilesPerPlane =
+                ((sizeX + tileWidth - 1) / tileWidth) *
+                ((sizeY + tileHeight - 1) / tileHeight);
+            totalTiles = (long) planeCount * tilesPerPlane;
+            final long tenPercent = Math.max(totalTiles / 10, 1);
+            // Bounds the number of tiles held in memory while they wait for
+            // the writer.
+            final int window = 2 * pyramidWorkers;
+
+            final int firstPlane = resumeFromCheckpoint(checkpoint,
+                    pixelsPyramid, minMaxStore, tileWidth, tileHeight,
+                    planeCount);
+            planesDone = firstPlane;
+            resumed = firstPlane > 0;
+            checkpoint.setTileSize(tileWidth, tileHeight);
+            if (minMaxStore == null)
+            {
+                checkpoint.setMinMax(null);
+            }
+
+            final List<int[]> tiles = new ArrayList<int[]>(tilesPerPlane);
             Utils.forEachTile(new TileLoopIteration() {
                 public void run(int z, int c, int t, int x, int y, int w,
-                            int h, int tileCount)
-            {
-                if (log.isInfoEnabled()
-                    && tileCount % tenPercent == 0)
+                                int h, int tileCount)
                 {
-                    log.info(String.format(
-                            "Pyramid creation for Pixels:%d %d/%d (%d%%).",
-                            pixels.getId(), tileCount + 1, (int) totalTiles,
-                            (int) (tileCount / totalTiles * 100)));
+                    tiles.add(new int[] { x, y, w, h });
                 }
-                try
+            }, sizeX, sizeY, 1, 1, 1, tileWidth, tileHeight);
+
+            final LinkedList<Future<PixelData>> pending =
+                new LinkedList<Future<PixelData>>();
+            tileCount = (long) firstPlane * tilesPerPlane;
+            for (int plane = firstPlane; plane < planeCount; plane++)
+            {
+                if (Thread.interrupted())
                 {
-                    PixelData tile = source.getTile(z, c, t, x, y, w, h);
-                    pixelsPyramid.setTile(
-                            tile.getData().array(), z, c, t, x, y, w, h);
-                    tile.dispose();
+                    // Stop between planes, the last one is checkpointed.
+                    throw new InterruptedException();
                 }
-                catch (IOException e1)
+                // Same order as Utils.forEachTile() and the rasterized
+                // timepoints of the pyramid.
+                final int z = plane % sizeZ;
+                final int c = (plane / sizeZ) % sizeC;
+                final int t = plane / (sizeZ * sizeC);
+                int next = 0;
+                for (int written = 0; written < tiles.size(); written++)
                 {
-                    log.error("FAIL -- Error during tile population", e1);
+                    while (next < tiles.size() && next - written < window)
+                    {
+                        final int[] tile = tiles.get(next++);
+                        pending.add(workers.submit(new Callable<PixelData>() {
+                            public PixelData call() throws Exception
+                            {
+                                return sources.getTile(z, c, t, tile,
+                                        minMaxStore);
+                            }
+                        }));
+                    }
+                    if (tileCount % tenPercent == 0)
+                    {
+                        log.info(String.format(
+                                "Pyramid creation for Pixels:%d %d/%d (%d%%).",
+                                pixels.getId(), tileCount + 1, totalTiles,
+                                (int) (tileCount * 100 / totalTiles)));
+                        publishProgress(pixels, planesDone, planeCount,
+                                tileCount, totalTiles, resumed, false);
+                    }
+                    final int[] tile = tiles.get(written);
+                    final PixelData data;
                     try
                     {
-                        pixelsPyramidFile.delete();
-                        FileUtils.touch(pixelsPyramidFile); // ticket:5189
+                        data = pending.removeFirst().get();
                     }
-                    catch (Exception e2)
+                    catch (ExecutionException e)
                     {
-                        log.warn("Error clearing empty or incomplete pixel " +
-                                 "buffer.", e2);
+                        Throwable cause = e.getCause();
+                        if (cause instanceof IOException)
+                        {
+                            throw (IOException) cause;
+                        }
+                        if (cause instanceof RuntimeException)
+                        {
+                            throw (RuntimeException) cause;
+                        }
+                        if (cause instanceof Error)
+                        {
+                            throw (Error) cause;
+                        }
+                        throw new ResourceError(cause.getMessage());
                     }
-                    return;
+                    pixelsPyramid.setTile(data.getData().array(), z, c, t,
+                            tile[0], tile[1], tile[2], tile[3]);
+                    data.dispose();
+                    tileCount++;
+                }
+                checkpoint.setPlanes(plane + 1);
+                checkpoint.setLength(pixelsPyramid.checkpoint());
+                if (minMaxStore != null)
+                {
+                    checkpoint.setMinMax(minMaxStore.getChannelMinMax());
+                    checkpoint.setStatistics(minMaxStore.isComplete()?
+                            minMaxStore.getStatistics() : null);
+                }
+                try
+                {
+                    checkpoint.save();
                 }
+                catch (IOException e)
+                {
+                    log.warn("Failed to save pyramid checkpoint.", e);
+                }
+                planesDone = plane + 1;
+                publishProgress(pixels, planesDone, planeCount, tileCount,
+                        totalTiles, resumed, false);
             }
-            }, source, (int) tileSize.getWidth(), (int) tileSize.getHeight());
 
+            // Closing runs the re-compression and moves the pyramid into
+            // place; the checkpoint is only removed once this succeeded.
+            try
+            {
+                pixelsPyramid.close();
+                checkpoint.delete();
+            }
+            catch (IOException e)
+            {
+                log.error("Error closing pixel pyramid.", e);
+                return null;
+            }
+            if (resumed && !verifyPyramid(pixels, pixelsPyramidFile))
+            {
+                return null;
+            }
             log.info("SUCCESS -- Pyramid created for pixels id:" + pixels.getId());
+        }
+        catch (InterruptedException e)
+        {
+            log.warn("Pyramid creation interrupted for pixels id:"
+                    + pixels.getId() + ", it will resume from the last "
+                    + "completed plane.");
+            Thread.currentThread().interrupt();
+            try
+            {
+                pixelsPyramid.suspend();
+            }
+            catch (IOException e1)
+            {
+                log.error("Error suspending pixel pyramid.", e1);
+            }
+            return null;
+        }
+        catch (IOException e)
+        {
+            log.error("FAIL -- Error during tile population", e);
+            abandonPyramid(pixelsPyramidFile, pixelsPyramid, checkpoint);
+            return null;
+        }
+        catch (RuntimeException e)
+        {
+            // Nothing says that the failure is transient, so the next
+            // attempt starts from scratch rather than from the checkpoint.
+            discardPartialPyramid(pixelsPyramid, checkpoint);
+            throw e;
+        }
+        finally
+        {
+            workers.shutdownNow();
+            sources.close();
+            publishProgress(pixels, planesDone, planeCount, tileCount,
+                    totalTiles, resumed, true);
+        }
+        return minMaxStore;
+    }
 
+    /**
+     * Resumes writing the pyramid from the checkpoint left behind by an
+     * interrupted creation, if there is one and it matches the current
+     * parameters. A checkpoint which cannot be used is deleted.
+     * @param checkpoint The checkpoint of the pyramid.
+     * @param pixelsPyramid The pyramid being written.
+     * @param minMaxStore The store to restore the minimum and maximum to or
+     * <code>null</code> if they are not calculated.
+     * @param tileWidth The width of the tiles to write.
+     * @param tileHeight The height of the tiles to write.
+     * @param planeCount The number of planes to write.
+     * @return The first plane to write.
+     */
+    private int resumeFromCheckpoint(PyramidCheckpoint checkpoint,
+            BfPyramidPixelBuffer pixelsPyramid,
+            PixelsPyramidMinMaxStore minMaxStore, int tileWidth,
+            int tileHeight, int planeCount)
+    {
+        if (!checkpoint.load())
+        {
+            return 0;
+        }
+        double[][] minMax = checkpoint.getMinMax();
+        if (checkpoint.getTileWidth() != tileWidth
+            || checkpoint.getTileHeight() != tileHeight
+            || checkpoint.getPlanes() <= 0
+            || checkpoint.getPlanes() >= planeCount
+            || (minMaxStore == null) != (minMax == null)
+            || (minMax != null && minMax.length != minMaxStore.sizeC))
+        {
+            log.info("Discarding stale checkpoint " + checkpoint.getFile());
+            checkpoint.delete();
+            return 0;
         }
+        try
+        {
+            pixelsPyramid.resume(checkpoint.getLength());
+        }
+        catch (IOException e)
+        {
+            log.warn("Discarding checkpoint " + checkpoint.getFile(), e);
+            checkpoint.delete();
+            return 0;
+        }
+        if (minMaxStore != null)
+        {
+            minMaxStore.setChannelMinMax(minMax);
+            ChannelStatistics[] statistics = checkpoint.getStatistics();
+            if (statistics != null && statistics.length == minMax.length)
+            {
+                minMaxStore.setStatistics(statistics);
+            }
+        }
+        log.info(String.format("Resuming pyramid creation at plane %d/%d.",
+                checkpoint.getPlanes() + 1, planeCount));
+        return checkpoint.getPlanes();
+    }
 
+    /**
+     * Calculates the statistics of the channels of a pixels set which does
+     * not need a pyramid. Each channel is read one tile at a time by one of
+     * up to {@link #pyramidWorkers} threads, each with its own source.
+     * @param pixels The pixels set.
+     * @param romio Whether the pixels are read from the ROMIO pixels file
+     * rather than from the original file.
+     * @param pixelsFilePath The path of the ROMIO pixels file.
+     * @param originalFilePath The path of the original file.
+     * @return The statistics or <code>null</code> if they could not be read.
+     */
+    private PixelsPyramidMinMaxStore computeStatistics(final Pixels pixels,
+            final boolean romio, final String pixelsFilePath,
+            final String originalFilePath)
+    {
+        final int sizeC = pixels.getSizeC();
+        final int series = getSeries(pixels);
+        final PixelsPyramidMinMaxStore minMaxStore =
+            new PixelsPyramidMinMaxStore(sizeC);
+        final Queue<Integer> channels = new ConcurrentLinkedQueue<Integer>();
+        for (int c = 0; c < sizeC; c++)
+        {
+            channels.add(c);
+        }
+        final int workerCount = Math.max(1, Math.min(sizeC, pyramidWorkers));
+        final ExecutorService workers =
+            Executors.newFixedThreadPool(workerCount);
+        final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        try
+        {
+            for (int i = 0; i < workerCount; i++)
+            {
+                futures.add(workers.submit(new Callable<Object>() {
+                    public Object call() throws Exception
+                    {
+                        PixelBuffer source = romio?
+                            createRomioPixelBuffer(pixelsFilePath, pixels,
+                                    false)
+                            : createBfPixelBuffer(originalFilePath, series);
+                        try
+                        {
+                            Integer c;
+                            while ((c = channels.poll()) != null)
+                            {
+                                computeStatistics(source, c, minMaxStore);
+                            }
+                        }
+                        finally
+                        {
+                            source.close();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures)
+            {
+                future.get();
+            }
+            return minMaxStore;
+        }
+        catch (InterruptedException e)
+        {
+            log.warn("Statistics calculation interrupted for pixels id:"
+                    + pixels.getId());
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                log.error("I/O exception while calculating min/max.", cause);
+                return null;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new ResourceError(cause.getMessage());
+        }
         finally
         {
-            if (source != null)
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Adds all the tiles of a channel to its statistics.
+     * @param source The buffer to read from.
+     * @param c The channel.
+     * @param minMaxStore The statistics to update.
+     */
+    private void computeStatistics(PixelBuffer source, int c,
+            PixelsPyramidMinMaxStore minMaxStore) throws IOException
+    {
+        final int sizeX = source.getSizeX();
+        final int sizeY = source.getSizeY();
+        Dimension tileSize = source.getTileSize();
+        if (tileSize == null)
+        {
+            tileSize = new Dimension(sizes.getTileWidth(),
+                    sizes.getTileHeight());
+        }
+        final int tileWidth = Math.min(sizeX, (int) tileSize.getWidth());
+        final int tileHeight = Math.min(sizeY, (int) tileSize.getHeight());
+        for (int t = 0; t < source.getSizeT(); t++)
+        {
+            for (int z = 0; z < source.getSizeZ(); z++)
+            {
+                for (int y = 0; y < sizeY; y += tileHeight)
+                {
+                    final int h = Math.min(tileHeight, sizeY - y);
+                    for (int x = 0; x < sizeX; x += tileWidth)
+                    {
+                        final int w = Math.min(tileWidth, sizeX - x);
+                        final PixelData data = source.getTile(z, c, t, x, y,
+                                w, h);
+                        try
+                        {
+                            minMaxStore.updateChannelMinMax(c, data);
+                        }
+                        finally
+                        {
+                            data.dispose();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the statistics of the channels of a pixels set next to its
+     * pixels file, where {@link #getChannelStatistics(Pixels)} finds them.
+     * Failures are only logged since the statistics are optional.
+     * @param pixels The pixels set.
+     * @param statistics The statistics, one per channel.
+     */
+    public void saveChannelStatistics(Pixels pixels,
+            ChannelStatistics[] statistics)
+    {
+        final String path = getPixelsPath(pixels.getId()) + STATS_SUFFIX;
+        final Properties p = new Properties();
+        p.setProperty("channels", Integer.toString(statistics.length));
+        for (int c = 0; c < statistics.length; c++)
+        {
+            statistics[c].store(p, c + ".");
+        }
+        try
+        {
+            createSubpath(path);
+            final FileOutputStream out = new FileOutputStream(path);
+            try
+            {
+                p.store(out, null);
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        catch (IOException e)
+        {
+            log.warn("Failed to save statistics: " + path, e);
+        }
+    }
+
+    /**
+     * Returns the statistics of the channels of a pixels set, as saved when
+     * its pyramid or its minimum and maximum were calculated.
+     * @param pixels The pixels set.
+     * @return See above or <code>null</code> if there are none or they do
+     * not match the channels of the pixels set.
+     */
+    public ChannelStatistics[] getChannelStatistics(Pixels pixels)
+    {
+        final File file =
+            new File(getPixelsPath(pixels.getId()) + STATS_SUFFIX);
+        if (!file.exists())
+        {
+            return null;
+        }
+        final Properties p = new Properties();
+        try
+        {
+            final FileInputStream in = new FileInputStream(file);
+            try
+            {
+                p.load(in);
+            }
+            finally
+            {
+                in.close();
+            }
+            final String channels = p.getProperty("channels");
+            if (channels == null
+                || Integer.parseInt(channels) != pixels.getSizeC())
+            {
+                return null;
+            }
+            final ChannelStatistics[] statistics =
+                new ChannelStatistics[pixels.getSizeC()];
+            for (int c = 0; c < statistics.length; c++)
+            {
+                statistics[c] = ChannelStatistics.load(p, c + ".");
+                if (statistics[c] == null)
+                {
+                    return null;
+                }
+            }
+            return statistics;
+        }
+        catch (Exception e)
+        {
+            log.warn("Ignoring unreadable statistics: " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stops writing a pyramid which cannot be created and replaces it by an
+     * empty one so that further calls get an exception rather than being
+     * told to try indefinitely (see ticket:5189).
+     * @param pixelsPyramidFile The pyramid file.
+     * @param pixelsPyramid The pyramid being written.
+     * @param checkpoint The checkpoint of the pyramid.
+     */
+    private void abandonPyramid(File pixelsPyramidFile,
+            BfPyramidPixelBuffer pixelsPyramid, PyramidCheckpoint checkpoint)
+    {
+        discardPartialPyramid(pixelsPyramid, checkpoint);
+        try
+        {
+            pixelsPyramidFile.delete();
+            FileUtils.touch(pixelsPyramidFile); // ticket:5189
+        }
+        catch (Exception e2)
+        {
+            log.warn("Error clearing empty or incomplete pixel " +
+                     "buffer.", e2);
+        }
+    }
+
+    /**
+     * Stops writing a pyramid and deletes its partial file and checkpoint so
+     * that its creation is not resumed.
+     * @param pixelsPyramid The pyramid being written.
+     * @param checkpoint The checkpoint of the pyramid.
+     */
+    private void discardPartialPyramid(BfPyramidPixelBuffer pixelsPyramid,
+            PyramidCheckpoint checkpoint)
+    {
+        checkpoint.delete();
+        try
+        {
+            File partial = pixelsPyramid.getPartialFile();
+            pixelsPyramid.suspend();
+            if (partial != null)
+            {
+                partial.delete();
+            }
+        }
+        catch (Exception e)
+        {
+            log.warn("Error clearing incomplete pixel buffer.", e);
+        }
+    }
+
+    /**
+     * Checks that a pyramid whose creation was resumed can be read. If it
+     * cannot, the pyramid is deleted so that it is created again from
+     * scratch.
+     * @param pixels The pixels set.
+     * @param pixelsPyramidFile The pyramid file.
+     * @return <code>true</code> if the pyramid can be read,
+     * <code>false</code> otherwise.
+     */
+    private boolean verifyPyramid(Pixels pixels, File pixelsPyramidFile)
+    {
+        BfPyramidPixelBuffer pyramid = null;
+        try
+        {
+            pyramid = createPyramidPixelBuffer(pixels,
+                    pixelsPyramidFile.getAbsolutePath(), false);
+            pyramid.getTile(pixels.getSizeZ() - 1, pixels.getSizeC() - 1,
+                    pixels.getSizeT() - 1, 0, 0, 1, 1);
+            return true;
+        }
+        catch (Exception e)
+        {
+            log.error("FAIL -- Resumed pyramid cannot be read, deleting: "
+                    + pixelsPyramidFile, e);
+            pixelsPyramidFile.delete();
+            return false;
+        }
+        finally
+        {
+            if (pyramid != null)
             {
                 try
                 {
-                    source.close();
+                    pyramid.close();
                 }
                 catch (IOException e)
                 {
@@ -433,7 +972,19 @@ public class PixelsService extends AbstractFileSystemService
                 }
             }
         }
-        return minMaxStore;
+    }
+
+    /**
+     * Publishes a {@link PyramidProgressMessage} if a publisher is set.
+     */
+    private void publishProgress(Pixels pixels, int planes, int planeCount,
+            long tiles, long tileCount, boolean resumed, boolean done)
+    {
+        if (pub != null)
+        {
+            pub.publishEvent(new PyramidProgressMessage(this, pixels.getId(),
+                    planes, planeCount, tiles, tileCount, resumed, done));
+        }
     }
 
     /**
@@ -861,16 +1412,140 @@ public class PixelsService extends AbstractFileSystemService
 		}
 	}
 
+    /**
+     * Source pixel buffers of a pyramid being written, one per worker. The
+     * first one is created by the caller and the others opened on demand.
+     */
+    class PyramidSources
+    {
+        private final BlockingQueue<PixelBuffer> idle =
+            new LinkedBlockingQueue<PixelBuffer>();
+
+        private final List<PixelBuffer> all = new ArrayList<PixelBuffer>();
+
+        private final Pixels pixels;
+
+        private final boolean romio;
+
+        private final String pixelsFilePath;
+
+        private final String originalFilePath;
+
+        private final int series;
+
+        PyramidSources(PixelBuffer first, Pixels pixels, boolean romio,
+                String pixelsFilePath, String originalFilePath, int series)
+        {
+            this.pixels = pixels;
+            this.romio = romio;
+            this.pixelsFilePath = pixelsFilePath;
+            this.originalFilePath = originalFilePath;
+            this.series = series;
+            all.add(first);
+            idle.add(first);
+        }
+
+        /**
+         * Reads a tile through an idle source and adds its values to the
+         * minimum and maximum of its channel.
+         * @param tile The x, y, width and height of the tile.
+         * @param minMaxStore The store to update or <code>null</code>.
+         */
+        PixelData getTile(int z, int c, int t, int[] tile,
+                PixelsPyramidMinMaxStore minMaxStore)
+            throws IOException, InterruptedException
+        {
+            PixelBuffer source = borrow();
+            try
+            {
+                PixelData data = source.getTile(
+                        z, c, t, tile[0], tile[1], tile[2], tile[3]);
+                if (minMaxStore != null)
+                {
+                    minMaxStore.updateChannelMinMax(c, data);
+                }
+                return data;
+            }
+            finally
+            {
+                idle.add(source);
+            }
+        }
+
+        private PixelBuffer borrow() throws InterruptedException
+        {
+            PixelBuffer source = idle.poll();
+            if (source != null)
+            {
+                return source;
+            }
+            synchronized (all)
+            {
+                if (all.size() < pyramidWorkers)
+                {
+                    source = romio?
+                        createRomioPixelBuffer(pixelsFilePath, pixels, false)
+                        : createBfPixelBuffer(originalFilePath, series);
+                    all.add(source);
+                    return source;
+                }
+            }
+            return idle.take();
+        }
+
+        void close()
+        {
+            synchronized (all)
+            {
+                for (PixelBuffer source : all)
+                {
+                    try
+                    {
+                        source.close();
+                    }
+                    catch (IOException e)
+                    {
+                        log.error("Error closing pixel pyramid.", e);
+                    }
+                }
+                all.clear();
+            }
+        }
+    }
+
+    /**
+     * Minimum and maximum of the channels of a pixels set, along with their
+     * {@link ChannelStatistics}. The tiles of different channels are added
+     * concurrently, each under the lock of the statistics of its channel.
+     */
     class PixelsPyramidMinMaxStore implements IMinMaxStore
     {
         final double[][] channelGlobalMinMax;
 
+        /** Whether or not any value has been seen for each channel. */
+        final boolean[] seen;
+
         final int sizeC;
 
+        /** The statistics of each channel. */
+        ChannelStatistics[] statistics;
+
+        /**
+         * Whether or not the statistics hold all the values seen, i.e. they
+         * were not lost when resuming from a checkpoint.
+         */
+        boolean complete = true;
+
         public PixelsPyramidMinMaxStore(int sizeC)
         {
             this.sizeC = sizeC;
             channelGlobalMinMax = new double[sizeC][2];
+            seen = new boolean[sizeC];
+            statistics = new ChannelStatistics[sizeC];
+            for (int c = 0; c < sizeC; c++)
+            {
+                statistics[c] = new ChannelStatistics();
+            }
         }
 
         /* (non-Javadoc)
@@ -883,6 +1558,102 @@ public class PixelsService extends AbstractFileSystemService
             channelGlobalMinMax[channel][1] = maximum;
         }
 
+        /**
+         * Adds the values of a tile to the statistics of a channel and widens
+         * its minimum and maximum. May be called concurrently.
+         */
+        public void updateChannelMinMax(int channel, PixelData data)
+        {
+            if (data.size() == 0)
+            {
+                return;
+            }
+            final ChannelStatistics stats = statistics[channel];
+            final double min, max;
+            synchronized (stats)
+            {
+                stats.add(data);
+                min = stats.getMinimum();
+                max = stats.getMaximum();
+            }
+            synchronized (this)
+            {
+                if (!seen[channel])
+                {
+                    seen[channel] = true;
+                    channelGlobalMinMax[channel][0] = min;
+                    channelGlobalMinMax[channel][1] = max;
+                }
+                else
+                {
+                    channelGlobalMinMax[channel][0] =
+                        Math.min(channelGlobalMinMax[channel][0], min);
+                    channelGlobalMinMax[channel][1] =
+                        Math.max(channelGlobalMinMax[channel][1], max);
+                }
+            }
+        }
+
+        /**
+         * Returns a copy of the values found so far by
+         * {@link #updateChannelMinMax(int, PixelData)}, with
+         * {@link Double#NaN} for the channels without any.
+         */
+        public synchronized double[][] getChannelMinMax()
+        {
+            double[][] copy = new double[sizeC][];
+            for (int c = 0; c < sizeC; c++)
+            {
+                copy[c] = seen[c]? channelGlobalMinMax[c].clone()
+                        : new double[] { Double.NaN, Double.NaN };
+            }
+            return copy;
+        }
+
+        /**
+         * Restores values returned by {@link #getChannelMinMax()}. The
+         * statistics are incomplete until {@link #setStatistics} restores
+         * them as well.
+         */
+        public synchronized void setChannelMinMax(double[][] minMax)
+        {
+            for (int c = 0; c < sizeC; c++)
+            {
+                seen[c] = !Double.isNaN(minMax[c][0]);
+                channelGlobalMinMax[c][0] = seen[c]? minMax[c][0] : 0;
+                channelGlobalMinMax[c][1] = seen[c]? minMax[c][1] : 0;
+            }
+            complete = false;
+        }
+
+        /**
+         * Returns the statistics of the channels. They must not be modified
+         * while tiles are being added.
+         */
+        public synchronized ChannelStatistics[] getStatistics()
+        {
+            return statistics.clone();
+        }
+
+        /**
+         * Restores statistics saved along with the values returned by
+         * {@link #getChannelMinMax()}.
+         */
+        public synchronized void setStatistics(ChannelStatistics[] statistics)
+        {
+            this.statistics = statistics.clone();
+            complete = true;
+        }
+
+        /**
+         * Returns <code>true</code> if the statistics hold all the values
+         * added to the minimum and maximum.
+         */
+        public synchronized boolean isComplete()
+        {
+            return complete;
+        }
+
         public StatsInfo[] createStatsInfo()
         {
             StatsInfo[] statsInfo = new StatsInfo[sizeC];
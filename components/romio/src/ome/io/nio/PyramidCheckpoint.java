@@ -0,0 +1,344 @@
+/*
+ * ome.io.nio.PyramidCheckpoint
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+// Java imports
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+// Third-party libraries
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Application-internal dependencies
+
+/**
+ * Progress of a pyramid being written by
+ * {@link PixelsService#makePyramid(ome.model.core.Pixels)}, saved after each
+ * completed plane next to the pyramid so that an interrupted build resumes
+ * from the last completed plane rather than starting over.
+ * <p>
+ * The checkpoint holds the number of completed planes, the length of the
+ * partial pyramid file once they were written, the tile size they were
+ * written with and, when the global minimum and maximum of the channels are
+ * calculated while writing, the values found so far along with the
+ * {@link ChannelStatistics} of the channels.
+ * </p>
+ *
+ * @since 5.0
+ */
+public class PyramidCheckpoint {
+
+    /** The logger for this class. */
+    private static Logger log =
+        LoggerFactory.getLogger(PyramidCheckpoint.class);
+
+    /** Extension of the checkpoint file. */
+    public static final String PYR_CHECKPOINT_EXT = ".pyr_checkpoint";
+
+    /** The checkpoint file. */
+    private final File file;
+
+    /** Number of planes completely written. */
+    private int planes;
+
+    /** Length of the partial pyramid file after {@link #planes} planes. */
+    private long length;
+
+    /** Width of the tiles written. */
+    private int tileWidth;
+
+    /** Height of the tiles written. */
+    private int tileHeight;
+
+    /**
+     * Minimum and maximum per channel found so far, <code>null</code> if not
+     * calculated.
+     */
+    private double[][] minMax;
+
+    /**
+     * Statistics per channel accumulated so far, <code>null</code> if not
+     * calculated.
+     */
+    private ChannelStatistics[] statistics;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param pyramidFile The pyramid the checkpoint is for.
+     */
+    public PyramidCheckpoint(File pyramidFile)
+    {
+        file = new File(pyramidFile.getParentFile(),
+                "." + pyramidFile.getName() + PYR_CHECKPOINT_EXT);
+    }
+
+    /**
+     * Loads the checkpoint if any.
+     *
+     * @return <code>true</code> if a checkpoint was found and could be read,
+     * <code>false</code> otherwise.
+     */
+    public boolean load()
+    {
+        if (!file.exists())
+        {
+            return false;
+        }
+        Properties p = new Properties();
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream(file);
+            p.load(in);
+            planes = Integer.parseInt(p.getProperty("planes"));
+            length = Long.parseLong(p.getProperty("length"));
+            tileWidth = Integer.parseInt(p.getProperty("tileWidth"));
+            tileHeight = Integer.parseInt(p.getProperty("tileHeight"));
+            minMax = null;
+            statistics = null;
+            String channels = p.getProperty("channels");
+            if (channels != null)
+            {
+                minMax = new double[Integer.parseInt(channels)][2];
+                for (int c = 0; c < minMax.length; c++)
+                {
+                    minMax[c][0] = Double.parseDouble(p.getProperty("min." + c));
+                    minMax[c][1] = Double.parseDouble(p.getProperty("max." + c));
+                }
+                statistics = new ChannelStatistics[minMax.length];
+                for (int c = 0; c < statistics.length; c++)
+                {
+                    statistics[c] =
+                        ChannelStatistics.load(p, "stats." + c + ".");
+                    if (statistics[c] == null)
+                    {
+                        statistics = null;
+                        break;
+                    }
+                }
+            }
+            return true;
+        }
+        catch (Exception e)
+        {
+            log.warn("Ignoring unreadable checkpoint " + file, e);
+            return false;
+        }
+        finally
+        {
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                }
+                catch (IOException e)
+                {
+                    log.warn("Failed to close " + file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the checkpoint. The file is written next to the checkpoint and
+     * then renamed so that an interruption never leaves a truncated
+     * checkpoint behind.
+     *
+     * @throws IOException If the checkpoint cannot be written.
+     */
+    public void save() throws IOException
+    {
+        Properties p = new Properties();
+        p.setProperty("planes", Integer.toString(planes));
+        p.setProperty("length", Long.toString(length));
+        p.setProperty("tileWidth", Integer.toString(tileWidth));
+        p.setProperty("tileHeight", Integer.toString(tileHeight));
+        if (minMax != null)
+        {
+            p.setProperty("channels", Integer.toString(minMax.length));
+            for (int c = 0; c < minMax.length; c++)
+            {
+                p.setProperty("min." + c, Double.toString(minMax[c][0]));
+                p.setProperty("max." + c, Double.toString(minMax[c][1]));
+            }
+        }
+        if (statistics != null)
+        {
+            for (int c = 0; c < statistics.length; c++)
+            {
+                statistics[c].store(p, "stats." + c + ".");
+            }
+        }
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try
+        {
+            p.store(out, null);
+        }
+        finally
+        {
+            out.close();
+        }
+        if (!tmp.renameTo(file))
+        {
+            file.delete();
+            if (!tmp.renameTo(file))
+            {
+                throw new IOException("Failed to save checkpoint " + file);
+            }
+        }
+    }
+
+    /**
+     * Deletes the checkpoint, if any.
+     */
+    public void delete()
+    {
+        if (file.exists() && !file.delete())
+        {
+            log.warn("Failed to delete checkpoint " + file);
+        }
+    }
+
+    /**
+     * Returns the checkpoint file.
+     *
+     * @return See above.
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Returns the number of planes completely written.
+     *
+     * @return See above.
+     */
+    public int getPlanes()
+    {
+        return planes;
+    }
+
+    /**
+     * Sets the number of planes completely written.
+     *
+     * @param planes The value to set.
+     */
+    public void setPlanes(int planes)
+    {
+        this.planes = planes;
+    }
+
+    /**
+     * Returns the length of the partial pyramid file once the planes were
+     * written.
+     *
+     * @return See above.
+     */
+    public long getLength()
+    {
+        return length;
+    }
+
+    /**
+     * Sets the length of the partial pyramid file once the planes were
+     * written.
+     *
+     * @param length The value to set.
+     */
+    public void setLength(long length)
+    {
+        this.length = length;
+    }
+
+    /**
+     * Returns the width of the tiles written.
+     *
+     * @return See above.
+     */
+    public int getTileWidth()
+    {
+        return tileWidth;
+    }
+
+    /**
+     * Returns the height of the tiles written.
+     *
+     * @return See above.
+     */
+    public int getTileHeight()
+    {
+        return tileHeight;
+    }
+
+    /**
+     * Sets the size of the tiles written.
+     *
+     * @param tileWidth The width of the tiles.
+     * @param tileHeight The height of the tiles.
+     */
+    public void setTileSize(int tileWidth, int tileHeight)
+    {
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+    }
+
+    /**
+     * Returns the minimum and maximum per channel found so far,
+     * <code>null</code> if they are not calculated while writing.
+     *
+     * @return See above.
+     */
+    public double[][] getMinMax()
+    {
+        return minMax;
+    }
+
+    /**
+     * Sets the minimum and maximum per channel found so far.
+     *
+     * @param minMax The values to set or <code>null</code>.
+     */
+    public void setMinMax(double[][] minMax)
+    {
+        this.minMax = minMax;
+    }
+
+    /**
+     * Returns the statistics per channel accumulated so far,
+     * <code>null</code> if they are not calculated while writing or were not
+     * saved with the checkpoint.
+     *
+     * @return See above.
+     */
+    public ChannelStatistics[] getStatistics()
+    {
+        return statistics;
+    }
+
+    /**
+     * Sets the statistics per channel accumulated so far. They are only
+     * saved along with the minimum and maximum.
+     *
+     * @param statistics The values to set or <code>null</code>.
+     */
+    public void setStatistics(ChannelStatistics[] statistics)
+    {
+        this.statistics = statistics;
+    }
+
+}
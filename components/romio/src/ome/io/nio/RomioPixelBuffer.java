@@ -55,6 +55,9 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
 
     private FileChannel channel;
 
+    /** Windows mapped over the file which regions are sliced from. */
+    private final MappedWindowCache windows = new MappedWindowCache();
+
     /** The size of a row. */
     private Integer rowSize;
     
@@ -178,6 +181,8 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
      *             if an I/O error occurs.
      */
     public void close() throws IOException {
+        windows.clear(PixelData.isDisposeEnabled());
+
         if (channel != null) {
             try {
                 channel.close();
@@ -342,9 +347,44 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
          * there happens to be an error.
          */
 
-        MappedByteBuffer b = fileChannel.map(MapMode.READ_ONLY, offset, size);
+        ByteBuffer b = windows.slice(fileChannel, offset, size);
+        if (b == null) {
+            // Larger than a window or past the end of the file.
+            b = fileChannel.map(MapMode.READ_ONLY, offset, size);
+        }
         return new PixelData(pixels.getPixelsType().getValue(), b);
     }
+
+    /**
+     * Returns the data of a plane, sliced from the mapped windows, without
+     * checking whether the plane was filled.
+     */
+    private ByteBuffer getPlaneData(Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException {
+        Long offset = getPlaneOffset(z, c, t);
+        Integer size = safeLongToInteger(getPlaneSize());
+        return getRegion(size, offset).getData();
+    }
+
+    /**
+     * Copies <code>count</code> chunks of <code>chunkSize</code> bytes, taken
+     * every <code>srcStride</code> bytes of <code>src</code> from
+     * <code>srcOffset</code>, one after the other into <code>dst</code>.
+     *
+     * @return The offset in <code>dst</code> following the last chunk.
+     */
+    private static int copyStrided(ByteBuffer src, int srcOffset,
+            int srcStride, int chunkSize, int count, byte[] dst,
+            int dstOffset) {
+        final ByteBuffer b = src.duplicate();
+        for (int i = 0; i < count; i++) {
+            b.position(srcOffset);
+            b.get(dst, dstOffset, chunkSize);
+            srcOffset += srcStride;
+            dstOffset += chunkSize;
+        }
+        return dstOffset;
+    }
     
     /**
      * Implemented as specified by {@link PixelBuffer} I/F.
@@ -380,22 +420,9 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
 	 */
     public PixelData getCol(Integer x, Integer z, Integer c, Integer t)
             throws IOException, DimensionsOutOfBoundsException {
-    	//Dimension check in plane.
-        PixelData plane = getPlane(z, c, t);
-        Integer sizeY = getSizeY();
-        Integer sizeX = getSizeX();
-        Integer colSize = getColSize();
-        ByteBuffer buf = ByteBuffer.wrap(new byte[colSize]);
-        PixelData column = new PixelData(pixels.getPixelsType().getValue(), buf);
-        int offset;
-        double value;
-        for (int i = 0; i < sizeY; i++) {
-            offset = (i * sizeX) + x;
-            value = plane.getPixelValue(offset);
-            column.setPixelValue(i, value);
-        }
-        plane.dispose();
-        return column;
+        byte[] buffer = getColDirect(x, z, c, t, new byte[getColSize()]);
+        return new PixelData(pixels.getPixelsType().getValue(),
+                ByteBuffer.wrap(buffer));
     }
     
     /**
@@ -420,19 +447,10 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
     public byte[] getColDirect(Integer x, Integer z, Integer c, Integer t, 
             byte[] buffer) throws IOException, DimensionsOutOfBoundsException
     {
-        PixelData plane = getPlane(z, c, t);
-        Integer sizeY = getSizeY();
-        Integer sizeX = getSizeX();
-        ByteBuffer buf = ByteBuffer.wrap(buffer);
-        PixelData column = new PixelData(pixels.getPixelsType().getValue(), buf);
-        int offset;
-        double value;
-        for (int i = 0; i < sizeY; i++) {
-            offset = (i * sizeX) + x;
-            value = plane.getPixelValue(offset);
-            column.setPixelValue(i, value);
-        }
-        plane.dispose();
+        checkBounds(x, null, z, c, t);
+        int byteWidth = getByteWidth();
+        copyStrided(getPlaneData(z, c, t), x * byteWidth, getRowSize(),
+                byteWidth, getSizeY(), buffer, 0);
         return buffer;
     }
 
@@ -515,43 +533,30 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
     	checkBounds(x, y, z, c, t);
     	checkBounds(x+width-1, y+height-1, null, null, null);
     	
-    	PixelData plane = getPlane(z, c, t);
-    	Integer size;
-    	ByteBuffer buf;
-    	PixelData region = null;
-    	int offset;
-    	
+    	ByteBuffer plane = getPlaneData(z, c, t);
+    	int byteWidth = getByteWidth();
+    	int rowSize = getRowSize();
+    	byte[] buf;
+
     	if (stride == 0) {
-    		size =  width*height*getByteWidth();
-            buf = ByteBuffer.wrap(new byte[size]);
-            region = new PixelData(pixels.getPixelsType().getValue(), buf);
-            for (int i = 0; i < height; i++) {
-            	for (int j = 0; j < width; j++) {
-            		offset = (i+y)*getSizeX()+x+j;
-            		region.setPixelValue(i*width+j, plane.getPixelValue(offset));
-            	}
-            }
-            plane.dispose();
-            return region;
+    		buf = new byte[width*height*byteWidth];
+    		copyStrided(plane, y*rowSize+x*byteWidth, rowSize,
+    				width*byteWidth, height, buf, 0);
+    		return new PixelData(pixels.getPixelsType().getValue(),
+    				ByteBuffer.wrap(buf));
     	}
     	stride++;
     	int w = width/stride;
-    	size = width*height*getByteWidth()/(stride*stride);
-        buf = ByteBuffer.wrap(new byte[size]);
-        region = new PixelData(pixels.getPixelsType().getValue(), buf);
+    	buf = new byte[width*height*byteWidth/(stride*stride)];
     	int k = 0;
-    	int l = 0;
     	for (int i = 0; i < height; i = i+stride) {
-    		l = 0;
-        	for (int j = 0; j < width; j = j+stride) {
-        		offset = (i+y)*getSizeX()+x+j;
-        		region.setPixelValue(k*w+l, plane.getPixelValue(offset));
-        		l++;
-        	}
-        	k++;
-        }
-        plane.dispose();
-        return region;
+    		int count = (width+stride-1)/stride;
+    		copyStrided(plane, (i+y)*rowSize+x*byteWidth, stride*byteWidth,
+    				byteWidth, count, buf, k*w*byteWidth);
+    		k++;
+    	}
+    	return new PixelData(pixels.getPixelsType().getValue(),
+    			ByteBuffer.wrap(buf));
     }
     
     /**
@@ -984,42 +989,36 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
      * This code is repeated in bfPixelWrapper and so needs refactoring.
      */
     private byte[] getWholeHypercube(List<Integer> offset, List<Integer> size,
-            List<Integer> step, byte[] cube) throws IOException {
+            List<Integer> step, byte[] cube)
+            throws IOException, DimensionsOutOfBoundsException {
         int cubeOffset = 0;
         int xStripes = (size.get(0) + step.get(0) - 1) / step.get(0);
+        int yStripes = (size.get(1) + step.get(1) - 1) / step.get(1);
         int pixelSize = getByteWidth();
+        int rowSize = getRowSize();
         int tileRowSize = pixelSize * xStripes;
-        byte[] plane = new byte[safeLongToInteger(getPlaneSize())];
         for(int t = offset.get(4); t < size.get(4)+offset.get(4); t += step.get(4))
         {
             for(int c = offset.get(3); c < size.get(3)+offset.get(3); c += step.get(3))
             {
                 for(int z = offset.get(2); z < size.get(2)+offset.get(2); z += step.get(2))
                 {
-                    getPlaneDirect(z,c,t,plane);
-                    int rowOffset = offset.get(1)*getRowSize();
+                    ByteBuffer plane = getPlaneData(z,c,t);
+                    int byteOffset = offset.get(1)*rowSize + offset.get(0)*pixelSize;
                     if(step.get(0)==1)
                     {
-                        int byteOffset = rowOffset + offset.get(0)*pixelSize;
-                        for(int y = offset.get(1); y < size.get(1)+offset.get(1); y += step.get(1))
-                        {
-                            System.arraycopy(plane, byteOffset, cube, cubeOffset, tileRowSize);
-                            cubeOffset += tileRowSize;
-                            byteOffset += getRowSize()*step.get(1);
-                        }
+                        cubeOffset = copyStrided(plane, byteOffset,
+                                rowSize*step.get(1), tileRowSize, yStripes,
+                                cube, cubeOffset);
                     }
                     else
                     {
-                        for(int y = offset.get(1); y < size.get(1)+offset.get(1); y += step.get(1))
+                        for(int y = 0; y < yStripes; y++)
                         {
-                            int byteOffset = offset.get(0)*pixelSize;
-                            for(int x = offset.get(0); x < size.get(0)+offset.get(0); x += step.get(0))
-                            {
-                                System.arraycopy(plane, rowOffset+byteOffset, cube, cubeOffset, pixelSize);
-                                cubeOffset += pixelSize;
-                                byteOffset += step.get(0)*pixelSize;
-                            }
-                            rowOffset += getRowSize()*step.get(1);
+                            cubeOffset = copyStrided(plane, byteOffset,
+                                    pixelSize*step.get(0), pixelSize, xStripes,
+                                    cube, cubeOffset);
+                            byteOffset += rowSize*step.get(1);
                         }
                     }
 
@@ -0,0 +1,130 @@
+/*
+ * ome.io.nio.utests.ChannelStatisticsUnitTest
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Properties;
+
+import ome.io.nio.ChannelStatistics;
+import ome.util.PixelData;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the accumulation, percentiles and saving of
+ * {@link ChannelStatistics}.
+ * @since 5.0
+ */
+public class ChannelStatisticsUnitTest {
+
+    private PixelData tile(String type, double... values) {
+        PixelData data = new PixelData(type, ByteBuffer.allocate(
+                values.length * PixelData.getBitDepth(type) / 8));
+        for (int i = 0; i < values.length; i++) {
+            data.setPixelValue(i, values[i]);
+        }
+        return data;
+    }
+
+    private long sum(long[] bins) {
+        long total = 0;
+        for (long bin : bins) {
+            total += bin;
+        }
+        return total;
+    }
+
+    @Test
+    public void testEmpty() {
+        ChannelStatistics stats = new ChannelStatistics();
+        assertEquals(stats.getCount(), 0);
+        assertTrue(Double.isNaN(stats.getMinimum()));
+        assertTrue(Double.isNaN(stats.getMean()));
+        assertTrue(Double.isNaN(stats.getPercentile(0.5)));
+    }
+
+    @Test
+    public void testExactIntegerHistogram() {
+        ChannelStatistics stats = new ChannelStatistics(16);
+        stats.add(tile("uint8", 3, 4, 4, 10));
+        stats.add(tile("uint8", 5, 7));
+        assertEquals(stats.getMinimum(), 3.0);
+        assertEquals(stats.getMaximum(), 10.0);
+        assertEquals(stats.getMean(), 33 / 6.0, 1e-9);
+        assertEquals(stats.getWidth(), 1.0);
+        assertEquals(stats.getCount(4, 5), 2.0);
+        assertEquals(stats.getCount(0, 256), 6.0);
+        assertEquals(stats.getPercentile(0.5), 5.0);
+        assertEquals(stats.getPercentile(0), 3.0);
+        assertEquals(stats.getPercentile(1), 10.0);
+    }
+
+    @Test
+    public void testRangeExtendedBothWays() {
+        ChannelStatistics stats = new ChannelStatistics(4);
+        stats.add(tile("int16", 10, 11));
+        stats.add(tile("int16", 40));
+        stats.add(tile("int16", -100, 12));
+        assertEquals(stats.getMinimum(), -100.0);
+        assertEquals(stats.getMaximum(), 40.0);
+        assertEquals(sum(stats.getBins()), 5);
+        assertTrue(stats.getOrigin() <= -100);
+        assertTrue(stats.getOrigin() + 4 * stats.getWidth() > 40);
+        assertEquals(stats.getCount(-1000, 1000), 5.0);
+        assertEquals(stats.getPercentile(0), -100.0);
+    }
+
+    @Test
+    public void testFloatingPoint() {
+        ChannelStatistics stats = new ChannelStatistics();
+        double[] values = new double[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i / 1000.0;
+        }
+        stats.add(tile("double", values));
+        stats.add(tile("float", 0.25f, 0.75f));
+        assertEquals(stats.getCount(), 1002);
+        assertEquals(sum(stats.getBins()), 1002);
+        assertEquals(stats.getMaximum(), 0.999);
+        assertEquals(stats.getPercentile(0.5), 0.5, 0.01);
+        assertEquals(stats.getPercentile(0.9), 0.9, 0.01);
+    }
+
+    @Test
+    public void testConstant() {
+        ChannelStatistics stats = new ChannelStatistics();
+        stats.add(tile("float", 2.5, 2.5, 2.5));
+        assertEquals(stats.getPercentile(0.5), 2.5);
+        assertEquals(stats.getMean(), 2.5);
+    }
+
+    @Test
+    public void testStoreAndLoad() {
+        ChannelStatistics stats = new ChannelStatistics(8);
+        stats.add(tile("uint16", 100, 200, 65535));
+        Properties p = new Properties();
+        stats.store(p, "1.");
+        assertNull(ChannelStatistics.load(p, "0."));
+        ChannelStatistics loaded = ChannelStatistics.load(p, "1.");
+        assertEquals(loaded.getBins(), stats.getBins());
+        assertEquals(loaded.getOrigin(), stats.getOrigin());
+        assertEquals(loaded.getWidth(), stats.getWidth());
+        assertEquals(loaded.getMean(), stats.getMean());
+        assertEquals(loaded.getMinimum(), 100.0);
+        assertEquals(loaded.getMaximum(), 65535.0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testOddBinCount() {
+        new ChannelStatistics(7);
+    }
+
+}
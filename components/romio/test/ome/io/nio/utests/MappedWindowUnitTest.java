@@ -0,0 +1,189 @@
+/*
+ * ome.io.nio.utests.MappedWindowUnitTest
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+import ome.io.nio.MappedWindowCache;
+import ome.io.nio.RomioPixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link MappedWindowCache} and the reads of a
+ * {@link RomioPixelBuffer} which are sliced from it, comparing them with the
+ * bytes of the pixels file.
+ * @since 5.0
+ */
+public class MappedWindowUnitTest {
+
+    private static final int SIZE_X = 20, SIZE_Y = 16, SIZE_Z = 3,
+            SIZE_C = 2, SIZE_T = 2, BYTE_WIDTH = 2;
+
+    private File root;
+
+    private File file;
+
+    private byte[] data;
+
+    private RomioPixelBuffer buffer;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        root = new File(PathUtil.getInstance().getTemporaryDataFilePath());
+        file = new File(root, "1");
+        data = new byte[SIZE_X * SIZE_Y * SIZE_Z * SIZE_C * SIZE_T
+                * BYTE_WIDTH];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31 + i / 251);
+        }
+        FileUtils.writeByteArrayToFile(file, data);
+
+        PixelsType type = new PixelsType();
+        type.setValue("uint16");
+        Pixels pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(SIZE_Z);
+        pixels.setSizeC(SIZE_C);
+        pixels.setSizeT(SIZE_T);
+        pixels.setPixelsType(type);
+        buffer = new RomioPixelBuffer(file.getAbsolutePath(), pixels);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        buffer.close();
+        FileUtils.deleteDirectory(root);
+    }
+
+    private int index(int x, int y, int z, int c, int t) {
+        return ((((t * SIZE_C + c) * SIZE_Z + z) * SIZE_Y + y) * SIZE_X + x)
+            * BYTE_WIDTH;
+    }
+
+    private byte[] expected(int x0, int y0, int z0, int c0, int t0,
+            int w, int h, int d, int sc, int st, int stepX, int stepY) {
+        ByteBuffer b = ByteBuffer.allocate(data.length);
+        for (int t = t0; t < t0 + st; t++) {
+            for (int c = c0; c < c0 + sc; c++) {
+                for (int z = z0; z < z0 + d; z++) {
+                    for (int y = y0; y < y0 + h; y += stepY) {
+                        for (int x = x0; x < x0 + w; x += stepX) {
+                            b.put(data, index(x, y, z, c, t), BYTE_WIDTH);
+                        }
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(b.array(), b.position());
+    }
+
+    private byte[] bytes(ByteBuffer b) {
+        byte[] rv = new byte[b.remaining()];
+        b.get(rv);
+        return rv;
+    }
+
+    @Test
+    public void testWindowReuse() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedWindowCache cache = new MappedWindowCache(1024, 2);
+            ByteBuffer b = cache.slice(channel, 10, 100);
+            assertEquals(bytes(b), Arrays.copyOfRange(data, 10, 110));
+            cache.slice(channel, 300, 200);
+            assertEquals(cache.getMappedCount(), 1);
+            assertEquals(cache.getHitCount(), 1);
+            // Spans the first window; mapped from the half window boundary.
+            b = cache.slice(channel, 1000, 100);
+            assertEquals(bytes(b), Arrays.copyOfRange(data, 1000, 1100));
+            assertEquals(cache.getMappedCount(), 2);
+            cache.slice(channel, 2100, 10);
+            assertEquals(cache.getWindowCount(), 2);
+            assertEquals(cache.getMappedCount(), 3);
+            cache.clear(true);
+            assertEquals(cache.getWindowCount(), 0);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void testRegionsNotServed() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedWindowCache cache = new MappedWindowCache(1024, 2);
+            assertNull(cache.slice(channel, 0, 1025));
+            assertNull(cache.slice(channel, data.length - 10, 11));
+            assertEquals(cache.getMappedCount(), 0);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void testRowsAndPlanes() throws Exception {
+        assertEquals(bytes(buffer.getRow(3, 1, 1, 0).getData()),
+                expected(0, 3, 1, 1, 0, SIZE_X, 1, 1, 1, 1, 1, 1));
+        assertEquals(bytes(buffer.getPlane(2, 0, 1).getData()),
+                expected(0, 0, 2, 0, 1, SIZE_X, SIZE_Y, 1, 1, 1, 1, 1));
+        assertEquals(bytes(buffer.getStack(1, 1).getData()),
+                expected(0, 0, 0, 1, 1, SIZE_X, SIZE_Y, SIZE_Z, 1, 1, 1, 1));
+    }
+
+    @Test
+    public void testColumns() throws Exception {
+        assertEquals(bytes(buffer.getCol(7, 2, 1, 1).getData()),
+                expected(7, 0, 2, 1, 1, 1, SIZE_Y, 1, 1, 1, 1, 1));
+        byte[] col = new byte[buffer.getColSize()];
+        buffer.getColDirect(SIZE_X - 1, 0, 0, 0, col);
+        assertEquals(col,
+                expected(SIZE_X - 1, 0, 0, 0, 0, 1, SIZE_Y, 1, 1, 1, 1, 1));
+    }
+
+    @Test
+    public void testPlaneRegions() throws Exception {
+        assertEquals(bytes(buffer.getPlaneRegion(3, 2, 5, 4, 1, 0, 1, 0)
+                .getData()), expected(3, 2, 1, 0, 1, 5, 4, 1, 1, 1, 1, 1));
+        assertEquals(bytes(buffer.getPlaneRegion(2, 4, 8, 6, 0, 1, 0, 1)
+                .getData()), expected(2, 4, 0, 1, 0, 8, 6, 1, 1, 1, 2, 2));
+        byte[] tile = new byte[6 * 5 * BYTE_WIDTH];
+        buffer.getTileDirect(2, 1, 1, 4, 9, 6, 5, tile);
+        assertEquals(tile, expected(4, 9, 2, 1, 1, 6, 5, 1, 1, 1, 1, 1));
+    }
+
+    @Test
+    public void testHypercubes() throws Exception {
+        List<Integer> offset = Arrays.asList(1, 2, 0, 0, 1);
+        List<Integer> size = Arrays.asList(10, 9, 3, 2, 1);
+        List<Integer> step = Arrays.asList(1, 2, 1, 1, 1);
+        assertEquals(bytes(buffer.getHypercube(offset, size, step).getData()),
+                expected(1, 2, 0, 0, 1, 10, 9, 3, 2, 1, 1, 2));
+        step = Arrays.asList(3, 1, 1, 1, 1);
+        assertEquals(bytes(buffer.getHypercube(offset, size, step).getData()),
+                expected(1, 2, 0, 0, 1, 10, 9, 3, 2, 1, 3, 1));
+    }
+
+}
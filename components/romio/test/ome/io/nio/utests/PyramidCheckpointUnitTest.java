@@ -0,0 +1,96 @@
+/*
+ * ome.io.nio.utests.PyramidCheckpointUnitTest
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import ome.io.nio.PyramidCheckpoint;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the saving and loading of {@link PyramidCheckpoint} instances.
+ * @since 5.0
+ */
+public class PyramidCheckpointUnitTest {
+
+    private File root;
+
+    private File pyramid;
+
+    @BeforeMethod
+    public void setup() {
+        root = new File(PathUtil.getInstance().getTemporaryDataFilePath());
+        pyramid = new File(root, "1_pyramid");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+
+    @Test
+    public void testNoCheckpoint() {
+        assertFalse(new PyramidCheckpoint(pyramid).load());
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        PyramidCheckpoint checkpoint = new PyramidCheckpoint(pyramid);
+        checkpoint.setPlanes(3);
+        checkpoint.setLength(1L << 33);
+        checkpoint.setTileSize(256, 128);
+        checkpoint.setMinMax(new double[][] {
+                { -1.5, 4095 }, { Double.NaN, Double.NaN } });
+        checkpoint.save();
+        assertTrue(checkpoint.getFile().getName().startsWith("."));
+
+        PyramidCheckpoint loaded = new PyramidCheckpoint(pyramid);
+        assertTrue(loaded.load());
+        assertEquals(loaded.getPlanes(), 3);
+        assertEquals(loaded.getLength(), 1L << 33);
+        assertEquals(loaded.getTileWidth(), 256);
+        assertEquals(loaded.getTileHeight(), 128);
+        double[][] minMax = loaded.getMinMax();
+        assertEquals(minMax.length, 2);
+        assertEquals(minMax[0][0], -1.5);
+        assertEquals(minMax[0][1], 4095.0);
+        assertTrue(Double.isNaN(minMax[1][0]));
+
+        loaded.delete();
+        assertFalse(checkpoint.getFile().exists());
+        assertFalse(new PyramidCheckpoint(pyramid).load());
+    }
+
+    @Test
+    public void testWithoutMinMax() throws Exception {
+        PyramidCheckpoint checkpoint = new PyramidCheckpoint(pyramid);
+        checkpoint.setPlanes(1);
+        checkpoint.setTileSize(256, 256);
+        checkpoint.save();
+        PyramidCheckpoint loaded = new PyramidCheckpoint(pyramid);
+        assertTrue(loaded.load());
+        assertNull(loaded.getMinMax());
+    }
+
+    @Test
+    public void testUnreadableCheckpointIgnored() throws Exception {
+        PyramidCheckpoint checkpoint = new PyramidCheckpoint(pyramid);
+        FileUtils.writeStringToFile(checkpoint.getFile(), "planes=x\n");
+        assertFalse(checkpoint.load());
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * ome.io.nio.utests.PyramidConcurrentReadUnitTest
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ome.io.bioformats.BfPyramidPixelBuffer;
+import ome.io.nio.TileLoopIteration;
+import ome.io.nio.Utils;
+import ome.util.PixelData;
+import ome.util.checksum.ChecksumProviderFactory;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
+
+import org.perf4j.LoggingStopWatch;
+import org.perf4j.StopWatch;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Reads the tiles of a {@link BfPyramidPixelBuffer} from an increasing
+ * number of threads, checking that every thread sees the same data as a
+ * single threaded read and logging the time taken for each thread count.
+ * @since 5.0
+ */
+public class PyramidConcurrentReadUnitTest
+    extends AbstractPyramidPixelBufferUnitTest {
+
+    private static final int[] THREAD_COUNTS = new int[] { 1, 2, 4, 8 };
+
+    private final List<int[]> tiles = new ArrayList<int[]>();
+
+    private final List<String> expected = new ArrayList<String>();
+
+    @BeforeClass
+    public void setup() throws IOException {
+        createService();
+        pixelBuffer = service.getPixelBuffer(pixels);
+        writeTiles(new ArrayList<String>());
+        pixelBuffer.close();
+        pixelBuffer = service.getPixelBuffer(pixels);
+        pixelBuffer.setResolutionLevel(pixelBuffer.getResolutionLevels() - 1);
+        Utils.forEachTile(new TileLoopIteration() {
+            public void run(int z, int c, int t, int x, int y, int tileWidth,
+                            int tileHeight, int tileCount) {
+                tiles.add(new int[] { z, c, t, x, y, tileWidth, tileHeight });
+            }
+        }, pixelBuffer, tileWidth, tileHeight);
+        for (int[] tile : tiles) {
+            expected.add(readTile(tile));
+        }
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        if (pixelBuffer != null) {
+            pixelBuffer.close();
+        }
+        deleteRoot();
+    }
+
+    private String readTile(int[] tile) throws IOException {
+        ChecksumProviderFactory cpf = new ChecksumProviderFactoryImpl();
+        PixelData data = pixelBuffer.getTile(tile[0], tile[1], tile[2],
+                tile[3], tile[4], tile[5], tile[6]);
+        return cpf.getProvider(ChecksumType.MD5).putBytes(
+                data.getData()).checksumAsString();
+    }
+
+    private void readAll(int threads) throws Exception {
+        ((BfPyramidPixelBuffer) pixelBuffer).setMaxReaders(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> digests = new ArrayList<Future<String>>();
+            StopWatch stopWatch = new LoggingStopWatch();
+            for (final int[] tile : tiles) {
+                digests.add(executor.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        return readTile(tile);
+                    }
+                }));
+            }
+            for (int i = 0; i < digests.size(); i++) {
+                assertEquals(digests.get(i).get(), expected.get(i),
+                        "Tile " + i + " with " + threads + " threads");
+            }
+            stopWatch.stop("testConcurrentReadTiles.threads." + threads,
+                    String.format("%.1f tiles/s", tiles.size() * 1000.0
+                            / Math.max(1, stopWatch.getElapsedTime())));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentReadTiles() throws Exception {
+        assertEquals(tiles.size(), 768);
+        for (int threads : THREAD_COUNTS) {
+            readAll(threads);
+        }
+    }
+
+    @Test
+    public void testConcurrentReadsFollowResolutionLevel() throws Exception {
+        pixelBuffer.setResolutionLevel(pixelBuffer.getResolutionLevels() - 2);
+        try {
+            ((BfPyramidPixelBuffer) pixelBuffer).setMaxReaders(4);
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<Integer>> sizes = new ArrayList<Future<Integer>>();
+                for (int i = 0; i < 16; i++) {
+                    sizes.add(executor.submit(new Callable<Integer>() {
+                        public Integer call() throws Exception {
+                            return pixelBuffer.getTile(0, 0, 0, 0, 0,
+                                    tileWidth, tileHeight).size();
+                        }
+                    }));
+                }
+                for (Future<Integer> size : sizes) {
+                    assertEquals(size.get().intValue(),
+                            tileWidth * tileHeight);
+                }
+            } finally {
+                executor.shutdown();
+            }
+        } finally {
+            pixelBuffer.setResolutionLevel(
+                    pixelBuffer.getResolutionLevels() - 1);
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * ome.io.nio.utests.PyramidResumeUnitTest
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.io.bioformats.BfPyramidPixelBuffer;
+import ome.io.messages.PyramidProgressMessage;
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.io.nio.PyramidCheckpoint;
+import ome.io.nio.RomioPixelBuffer;
+import ome.io.nio.TileLoopIteration;
+import ome.io.nio.Utils;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+import org.apache.commons.io.FileUtils;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Interrupts the creation of a pyramid part way through, resumes it from
+ * its checkpoint and checks that every tile of the resumed pyramid matches
+ * the pixels it was made from.
+ * @since 5.0
+ */
+public class PyramidResumeUnitTest {
+
+    private static final int sizeX = 1000;
+
+    private static final int sizeY = 1010;
+
+    private static final int sizeZ = 2;
+
+    private static final int sizeT = 2;
+
+    private static final int tileSize = 256;
+
+    /** Tiles per plane for the default tile size of 256x256. */
+    private static final int tilesPerPlane = 4 * 4;
+
+    private String root;
+
+    private Pixels pixels;
+
+    /** Planes after whose checkpoint the creation is interrupted, or -1. */
+    private int interruptAfter;
+
+    private final AtomicInteger tilesRead = new AtomicInteger();
+
+    private PixelsService service;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        root = PathUtil.getInstance().getTemporaryDataFilePath();
+        pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(sizeX);
+        pixels.setSizeY(sizeY);
+        pixels.setSizeZ(sizeZ);
+        pixels.setSizeC(1);
+        pixels.setSizeT(sizeT);
+        PixelsType type = new PixelsType();
+        type.setValue("uint16");
+        pixels.setPixelsType(type);
+
+        service = new PixelsService(root) {
+            public boolean requiresPixelsPyramid(Pixels pixels) {
+                return true;
+            }
+            protected PixelBuffer createRomioPixelBuffer(String path,
+                    Pixels pixels, boolean allowModification) {
+                return new RomioPixelBuffer(path, pixels, allowModification) {
+                    public PixelData getTile(Integer z, Integer c,
+                            Integer t, Integer x, Integer y, Integer w,
+                            Integer h) throws IOException {
+                        tilesRead.incrementAndGet();
+                        return super.getTile(z, c, t, x, y, w, h);
+                    }
+                };
+            }
+        };
+        service.setPyramidWorkers(2);
+        // Progress is published on the thread making the pyramid once a
+        // plane is checkpointed, which is checked before the next plane.
+        service.setApplicationEventPublisher(new ApplicationEventPublisher() {
+            public void publishEvent(ApplicationEvent event) {
+                if (event instanceof PyramidProgressMessage) {
+                    PyramidProgressMessage m = (PyramidProgressMessage) event;
+                    if (!m.done && m.planes == interruptAfter) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+
+        // Every plane different so that misplaced planes are noticed.
+        PixelBuffer romio = service.createPixelBuffer(pixels);
+        Random random = new Random(5189);
+        byte[] plane = new byte[sizeX * sizeY * 2];
+        for (int t = 0; t < sizeT; t++) {
+            for (int z = 0; z < sizeZ; z++) {
+                random.nextBytes(plane);
+                romio.setPlane(plane, z, 0, t);
+            }
+        }
+        romio.close();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        Thread.interrupted();
+        FileUtils.deleteDirectory(new File(root));
+    }
+
+    @Test
+    public void testResumedPyramidMatchesSource() throws Exception {
+        File pyramid = new File(service.getPixelsPath(pixels.getId())
+                + PixelsService.PYRAMID_SUFFIX);
+        File partial = new File(pyramid.getParentFile(),
+                "." + pyramid.getName() + BfPyramidPixelBuffer.PYR_PARTIAL_EXT);
+
+        // Interrupted after the second of the four planes
+        interruptAfter = 2;
+        service.makePyramid(pixels);
+        assertTrue(Thread.interrupted());
+        assertFalse(pyramid.exists());
+        assertTrue(partial.exists());
+        PyramidCheckpoint checkpoint = new PyramidCheckpoint(pyramid);
+        assertTrue(checkpoint.load());
+        int planesDone = checkpoint.getPlanes();
+        assertEquals(planesDone, 2);
+        assertEquals(tilesRead.get(), planesDone * tilesPerPlane);
+
+        // Only the planes not checkpointed are read again
+        interruptAfter = -1;
+        tilesRead.set(0);
+        service.makePyramid(pixels);
+        assertEquals(tilesRead.get(),
+                (sizeZ * sizeT - planesDone) * tilesPerPlane);
+        assertTrue(pyramid.exists());
+        assertFalse(partial.exists());
+        assertFalse(checkpoint.getFile().exists());
+
+        final PixelBuffer source = new RomioPixelBuffer(
+                service.getPixelsPath(pixels.getId()), pixels, false);
+        final PixelBuffer resumed = service.getPixelBuffer(pixels);
+        try {
+            resumed.setResolutionLevel(resumed.getResolutionLevels() - 1);
+            final AtomicInteger compared = new AtomicInteger();
+            Utils.forEachTile(new TileLoopIteration() {
+                public void run(int z, int c, int t, int x, int y, int w,
+                        int h, int tileCount) {
+                    try {
+                        byte[] expected =
+                            bytes(source.getTile(z, c, t, x, y, w, h));
+                        byte[] actual =
+                            bytes(resumed.getTile(z, c, t, x, y, w, h));
+                        assertTrue(Arrays.equals(expected, actual), String
+                                .format("Tile z=%d t=%d x=%d y=%d", z, t, x, y));
+                        compared.incrementAndGet();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }, resumed, tileSize, tileSize);
+            assertEquals(compared.get(), sizeZ * sizeT * tilesPerPlane);
+        } finally {
+            source.close();
+            resumed.close();
+        }
+    }
+
+    /** Copies the bytes of a tile, which may be mapped from its file. */
+    private static byte[] bytes(PixelData tile) {
+        ByteBuffer data = tile.getData().duplicate();
+        data.rewind();
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        tile.dispose();
+        return bytes;
+    }
+
+}
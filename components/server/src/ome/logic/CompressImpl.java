@@ -10,17 +10,31 @@ package ome.logic;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 
 import ome.api.local.LocalCompress;
 
 public class CompressImpl implements LocalCompress {
 
+    /** The maximum number of idle JPEG writers kept for reuse. */
+    private static final int MAX_IDLE_WRITERS = 8;
+
+    /**
+     * Idle JPEG writers, shared by all the instances since one is created
+     * per service. Looking up and creating a writer for each image costs
+     * more than compressing a thumbnail.
+     */
+    private static final BlockingQueue<ImageWriter> writers =
+        new ArrayBlockingQueue<ImageWriter>(MAX_IDLE_WRITERS);
+
 	/** The default compression quality in fractional percent. */
     private float quality = 0.85F;
 	
@@ -31,23 +45,39 @@ public class CompressImpl implements LocalCompress {
     	throws IOException
     {
         // Get a JPEG image writer
-        ImageWriter jpegWriter =
-        	ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriter jpegWriter = writers.poll();
+        if (jpegWriter == null) {
+            jpegWriter = ImageIO.getImageWritersByFormatName("jpeg").next();
+        }
 
         // Setup the compression value from (0.05, 0.75 and 0.95)
         ImageWriteParam iwp = jpegWriter.getDefaultWriteParam();
         iwp.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
         iwp.setCompressionQuality(quality);
 
-        // Write the JPEG to our ByteArray stream
-    	ImageOutputStream imageOutputStream = null;
+        // Write the JPEG to our stream, buffering in memory rather than in
+        // a temporary file as ImageIO.createImageOutputStream() may do.
+        ImageOutputStream imageOutputStream =
+            new MemoryCacheImageOutputStream(outputStream);
+        boolean reusable = false;
         try {
-        	imageOutputStream = ImageIO.createImageOutputStream(outputStream);
         	jpegWriter.setOutput(imageOutputStream);
         	jpegWriter.write(null, new IIOImage(image, null, null), iwp);
+        	reusable = true;
         } finally {
-        	if (imageOutputStream != null)
-        		imageOutputStream.close();
+        	imageOutputStream.close();
+        	release(jpegWriter, reusable);
+        }
+    }
+
+    /**
+     * Returns a writer to the idle ones, or disposes of it if it failed or
+     * enough are idle.
+     */
+    private void release(ImageWriter jpegWriter, boolean reusable) {
+        jpegWriter.reset();
+        if (!reusable || !writers.offer(jpegWriter)) {
+            jpegWriter.dispose();
         }
     }
 
@@ -418,6 +418,11 @@ public class QueryImpl extends AbstractLevel1Service implements LocalQuery {
                         values.copy(params);
                         FullText fullText = new FullText(values, query,
                                 analyzer);
+                        // Only the hits within offset and limit are loaded.
+                        // Without either, every hit is loaded as before.
+                        fullText.setPaged(params != null
+                                && (params.getLimit() != null
+                                        || params.getOffset() != null));
                         return (List<IObject>) fullText.doWork(session, null);
                     }
                 });
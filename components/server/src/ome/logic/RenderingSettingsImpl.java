@@ -9,6 +9,7 @@ package ome.logic;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -33,6 +34,7 @@ import ome.conditions.ConcurrencyException;
 import ome.conditions.ResourceError;
 import ome.conditions.ValidationException;
 import ome.io.nio.PixelBuffer;
+import ome.io.nio.ChannelStatistics;
 import ome.io.nio.PixelsService;
 import ome.model.IObject;
 import ome.model.acquisition.Filter;
@@ -56,6 +58,7 @@ import ome.model.screen.Screen;
 import ome.model.screen.Plate;
 import ome.model.stats.StatsInfo;
 import ome.parameters.Parameters;
+import ome.services.RenderedTileCache;
 import omeis.providers.re.ColorsFactory;
 import omeis.providers.re.Renderer;
 import omeis.providers.re.data.PlaneDef;
@@ -95,6 +98,24 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
 
     /** Reference to the service used to retrieve the pixels metadata. */
     protected transient IPixels pixelsMetadata;
+
+    /** Reference to the cache of rendered tiles, may be <code>null</code>. */
+    protected transient RenderedTileCache tileCache;
+
+    /**
+     * Releases the rendered tiles of the passed pixels sets whose settings
+     * have been replaced.
+     * 
+     * @param pixels The pixels sets whose settings have been saved.
+     */
+    private void invalidateRenderedTiles(Collection<Pixels> pixels)
+    {
+    	if (tileCache == null) return;
+    	for (Pixels p : pixels)
+    	{
+    		tileCache.invalidate(p.getId());
+    	}
+    }
  
     /**
      * Returns the min/max depending on the pixels type if the values
@@ -523,6 +544,7 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
             {
             	log.info("Saving settings: " + settings);
                 pixelsMetadata.saveRndSettings(settings);
+                if (tileCache != null) tileCache.invalidate(pixels.getId());
             }
             return settings;
         } 
@@ -650,6 +672,7 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
         	RenderingDef[] toSaveArray = 
         		toSave.toArray(new RenderingDef[toSave.size()]);
         	iUpdate.saveAndReturnArray(toSaveArray);
+        	invalidateRenderedTiles(pixels);
         }
         s2.stop();
         s1.stop();
@@ -895,6 +918,10 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
         double min, max;
         QuantumStrategy qs;
         PixelsType pt = pixels.getPixelsType();
+        // Histograms saved with the global minimum and maximum spare us
+        // reading the pixel data.
+        ChannelStatistics[] histograms =
+            pixelsData.getChannelStatistics(pixels);
         for (int w = 0; w < pixels.sizeOfChannels(); w++) {
             // FIXME: This is where we need to have the ChannelBinding -->
             // Channel linkage. Without it, we have to assume that the order in
@@ -902,7 +929,11 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
             // of the channels linked to the pixels set.
         	
             cb = cbs.get(w);
-            sf.computeLocationStats(pixels, buf, planeDef, w);
+            if (histograms != null) {
+                sf.computeLocationStats(pixels, histograms[w], w);
+            } else {
+                sf.computeLocationStats(pixels, buf, planeDef, w);
+            }
             cb.setNoiseReduction(sf.isNoiseReduction());
             min = sf.getInputStart();
             max = sf.getInputEnd();
@@ -1094,6 +1125,17 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
         pixelsData = dataService;
     }
 
+    /**
+     * Sets injector. For use during configuration. Can only be called once.
+     * 
+     * @param tileCache
+     *            The value to set.
+     */
+    public void setTileCache(RenderedTileCache tileCache) {
+        getBeanHelper().throwIfAlreadySet(this.tileCache, tileCache);
+        this.tileCache = tileCache;
+    }
+
     /**
      * Returns the interface this implementation is for.
      * @see AbstractLevel2Service#getServiceInterface()
@@ -1187,6 +1229,7 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
         RenderingDef[] toSaveArray = 
         	toSave.toArray(new RenderingDef[toSave.size()]);
         iUpdate.saveAndReturnArray(toSaveArray);
+        invalidateRenderedTiles(pixels);
         s2.stop();
         s1.stop();
         
@@ -1272,6 +1315,7 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
         	return false;
         }
         iUpdate.saveObject(settingsTo);
+        if (tileCache != null) tileCache.invalidate(to);
         return true;
     }
 
@@ -1426,6 +1470,7 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
             }
         }
         if (toSave.size() > 0) iUpdate.saveCollection(toSave);
+        invalidateRenderedTiles(pixelsList);
         return toReturn;
     }
 
@@ -1508,6 +1553,7 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
             settings.setVersion(settings.getVersion() + 1);
         }
         if (toSave.size() > 0) iUpdate.saveCollection(toSave);
+        invalidateRenderedTiles(pixelsList);
         s1.stop();
         return toReturn;
     }
@@ -9,7 +9,9 @@ package ome.security.basic;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -466,14 +468,23 @@ public class BasicSecuritySystem implements SecuritySystem,
         }
 
         boolean foundAdminType = false;
+        boolean foundMembership = false;
+        Set<Long> foundExperimenters = new HashSet<Long>();
+        Set<Long> foundGroups = new HashSet<Long>();
         List<EventLog> foundShapes = new ArrayList<EventLog>();
         for (EventLog log : getLogs()) {
             String t = log.getEntityType();
             String a = log.getAction();
-            if (Experimenter.class.getName().equals(t)
-                    || ExperimenterGroup.class.getName().equals(t)
-                    || GroupExperimenterMap.class.getName().equals(t)) {
+            if (Experimenter.class.getName().equals(t)) {
                 foundAdminType = true;
+                foundExperimenters.add(log.getEntityId());
+            } else if (ExperimenterGroup.class.getName().equals(t)) {
+                foundAdminType = true;
+                foundGroups.add(log.getEntityId());
+            } else if (GroupExperimenterMap.class.getName().equals(t)) {
+                // The users and groups of a link are not in the log
+                foundAdminType = true;
+                foundMembership = true;
             }
             try {
                 if (Shape.class.isAssignableFrom(Class.forName(t))) {
@@ -490,7 +501,12 @@ public class BasicSecuritySystem implements SecuritySystem,
             if (ctx == null) {
                 log.error("No context found for publishing");
             } else {
-                this.ctx.publishEvent(new UserGroupUpdateEvent(this));
+                if (foundMembership) {
+                    this.ctx.publishEvent(new UserGroupUpdateEvent(this));
+                } else {
+                    this.ctx.publishEvent(new UserGroupUpdateEvent(this,
+                            foundExperimenters, foundGroups));
+                }
             }
         }
         // publish message if shape is created or updated
@@ -30,7 +30,6 @@ import ome.io.nio.FileBuffer;
 import ome.io.nio.OriginalFilesService;
 import ome.model.core.OriginalFile;
 import ome.util.ShallowCopy;
-import ome.util.checksum.ChecksumProvider;
 import ome.util.checksum.ChecksumProviderFactory;
 import ome.util.checksum.ChecksumType;
 
@@ -104,6 +103,12 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
     /** is file service checking for disk overflow */
     private transient boolean diskSpaceChecking;
 
+    /**
+     * The checksum of the file as written so far, if it was empty when
+     * opened for writing and has only been written since; otherwise null.
+     */
+    private transient RunningChecksum runningChecksum;
+
     /**
      * default constructor
      */
@@ -195,14 +200,25 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
             }
 
             try {
+                File f = new File(path);
+                long size = f.length();
+
                 if (file.getHasher() != null) {
-                    final ChecksumType checksumType = checksumAlgorithms.get(file.getHasher().getValue());
-                    file.setHash(this.checksumProviderFactory
-                            .getProvider(checksumType).putFile(path).checksumAsString());
+                    // Only read the file back if its checksum could not be
+                    // kept up to date as it was written.
+                    String hash = null;
+                    if (runningChecksum != null) {
+                        hash = runningChecksum.checksumAsString(size);
+                        runningChecksum = null;
+                    }
+                    if (hash == null) {
+                        final ChecksumType checksumType = checksumAlgorithms.get(file.getHasher().getValue());
+                        hash = this.checksumProviderFactory
+                                .getProvider(checksumType).putFile(path).checksumAsString();
+                    }
+                    file.setHash(hash);
                 }
 
-                File f = new File(path);
-                long size = f.length();
                 file.setSize(size);
                 file.setMtime(new java.sql.Timestamp(f.lastModified()));
 
@@ -250,6 +266,7 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
     public void clean() {
         ioService = null;
         file = null;
+        runningChecksum = null;
         closeFileBuffer();
         buffer = null;
     }
@@ -305,6 +322,7 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
             file = null;
             closeFileBuffer();
             this.buffer = null;
+            runningChecksum = null;
 
             modified = false;
             file = iQuery.get(OriginalFile.class, fileId);
@@ -341,6 +359,18 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
             } else {
                 this.buffer = buffer;
             }
+
+            if ("rw".equals(mode) && file.getHasher() != null) {
+                final ChecksumType checksumType = checksumAlgorithms.get(file.getHasher().getValue());
+                try {
+                    if (checksumType != null && this.buffer.size() == 0) {
+                        runningChecksum = new RunningChecksum(
+                                checksumProviderFactory.getProvider(checksumType));
+                    }
+                } catch (IOException e) {
+                    log.debug("Cannot size new buffer; checksum on save", e);
+                }
+            }
         }
     }
 
@@ -392,6 +422,7 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
         try {
             if (length < buffer.size()) {
                 buffer.truncate(length);
+                runningChecksum = null;
                 modified();
                 return true;
             }
@@ -422,7 +453,7 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
     }
 
     @RolesAllowed("user")
-    public void write(byte[] buf, long position, int length) {
+    public synchronized void write(byte[] buf, long position, int length) {
         errorIfNotLoaded();
         ByteBuffer nioBuffer = MappedByteBuffer.wrap(buf);
         nioBuffer.limit(length);
@@ -432,10 +463,15 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
         }
 
         try {
+            final long start = position;
             do {
                 position += buffer.write(nioBuffer, position);
             } while (nioBuffer.hasRemaining());
             // Write was successful, update state.
+            final RunningChecksum checksum = runningChecksum;
+            if (checksum != null) {
+                checksum.written(buf, start, length);
+            }
             modified();
         } catch (NonWritableChannelException nwce) {
             throw new SecurityViolation("File not writeable!");
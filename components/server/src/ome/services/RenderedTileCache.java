@@ -0,0 +1,564 @@
+/*
+ * ome.services.RenderedTileCache
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services;
+
+// Java imports
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Third-party libraries
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server-wide cache of rendered tiles, shared by all the {@link RenderingBean}
+ * instances so that viewers panning across the same image with the same
+ * rendering settings do not cause the same regions to be read and rendered
+ * over and over again.
+ * <p>
+ * Entries are either packed integer arrays or encoded (JPEG) byte arrays.
+ * They are kept in a memory tier bounded in bytes and, if a disk budget is
+ * configured, spilled to an on-disk tier under the binary repository when
+ * they are evicted from memory. Both tiers evict the least recently used
+ * entries first. The on-disk tier is only indexed in memory and is therefore
+ * emptied on start-up.
+ * </p>
+ * <p>
+ * Keys are built by the callers with {@link #makeKey(long, String)} and must
+ * capture everything the rendered output depends on. As the rendering
+ * settings are part of the key, stale entries can never be returned; the
+ * {@link #invalidate(long)} method only exists to release the space held by
+ * the entries of a pixels set whose settings have been replaced.
+ * </p>
+ *
+ * @since 5.0
+ */
+public class RenderedTileCache {
+
+    /** The logger for this particular class */
+    private static Logger log = LoggerFactory.getLogger(RenderedTileCache.class);
+
+    /** The name of the cache directory under the binary repository. */
+    public static final String DIRECTORY = "RenderedTiles";
+
+    /** Tag identifying a byte array on disk. */
+    private static final byte BYTES = 'B';
+
+    /** Tag identifying an integer array on disk. */
+    private static final byte INTS = 'I';
+
+    /** The maximum number of bytes held in memory. */
+    private final long maxMemoryBytes;
+
+    /** The maximum number of bytes held on disk. */
+    private final long maxDiskBytes;
+
+    /** The root of the on-disk tier or <code>null</code> if disabled. */
+    private final File root;
+
+    /** The memory tier, in access order. */
+    private final LinkedHashMap<String, Object> memory =
+        new LinkedHashMap<String, Object>(16, 0.75f, true);
+
+    /** The size of each entry of the disk tier, in access order. */
+    private final LinkedHashMap<String, Long> disk =
+        new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    /** The number of bytes currently held in memory. */
+    private long memoryBytes;
+
+    /** The number of bytes currently held on disk. */
+    private long diskBytes;
+
+    /** The number of lookups which found an entry. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** The number of lookups which found an entry on disk. */
+    private final AtomicLong diskHits = new AtomicLong();
+
+    /** The number of lookups which did not find an entry. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** The number of entries evicted from either tier. */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxMemoryBytes The maximum number of bytes held in memory. If
+     *                       <code>0</code> or negative, nothing is cached.
+     * @param maxDiskBytes The maximum number of bytes held on disk. If
+     *                     <code>0</code> or negative, the on-disk tier is
+     *                     disabled.
+     * @param path The root of the binary repository.
+     */
+    public RenderedTileCache(long maxMemoryBytes, long maxDiskBytes,
+            String path) {
+        this.maxMemoryBytes = Math.max(0, maxMemoryBytes);
+        this.maxDiskBytes = Math.max(0, maxDiskBytes);
+        if (this.maxDiskBytes > 0) {
+            root = new File(path, DIRECTORY);
+            try {
+                if (root.exists()) {
+                    FileUtils.cleanDirectory(root);
+                }
+            } catch (IOException e) {
+                log.warn("Could not clean " + root, e);
+            }
+        } else {
+            root = null;
+        }
+        log.info(String.format("Rendered tile cache: %d bytes in memory, " +
+                "%d bytes on disk.", this.maxMemoryBytes, this.maxDiskBytes));
+    }
+
+    /**
+     * Returns <code>true</code> if the cache can hold any entry,
+     * <code>false</code> otherwise.
+     *
+     * @return See above.
+     */
+    public boolean isEnabled() {
+        return maxMemoryBytes > 0;
+    }
+
+    /**
+     * Builds the key of a tile. The key starts with the identifier of the
+     * pixels set so that the entries of a pixels set can be invalidated.
+     *
+     * @param pixelsId The identifier of the pixels set.
+     * @param description A description of everything else the rendered
+     *                    output depends on, i.e. the plane, region, resolution
+     *                    level, output format and rendering settings.
+     * @return See above.
+     */
+    public static String makeKey(long pixelsId, String description) {
+        return pixelsId + "/" + digest(description);
+    }
+
+    /**
+     * Returns the hexadecimal SHA-1 digest of the passed string.
+     *
+     * @param s The string to digest.
+     * @return See above.
+     */
+    public static String digest(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] d = md.digest(s.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(d.length * 2);
+            for (byte b : d) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Retrieves the packed integers cached under the passed key.
+     *
+     * @param key The key built by {@link #makeKey(long, String)}.
+     * @return A copy of the cached array or <code>null</code>.
+     */
+    public int[] getInts(String key) {
+        Object value = get(key);
+        return value instanceof int[]? ((int[]) value).clone() : null;
+    }
+
+    /**
+     * Retrieves the encoded bytes cached under the passed key.
+     *
+     * @param key The key built by {@link #makeKey(long, String)}.
+     * @return A copy of the cached array or <code>null</code>.
+     */
+    public byte[] getBytes(String key) {
+        Object value = get(key);
+        return value instanceof byte[]? ((byte[]) value).clone() : null;
+    }
+
+    /**
+     * Caches a copy of the passed packed integers.
+     *
+     * @param key The key built by {@link #makeKey(long, String)}.
+     * @param value The value to cache.
+     */
+    public void put(String key, int[] value) {
+        store(key, value.clone());
+    }
+
+    /**
+     * Caches a copy of the passed encoded bytes.
+     *
+     * @param key The key built by {@link #makeKey(long, String)}.
+     * @param value The value to cache.
+     */
+    public void put(String key, byte[] value) {
+        store(key, value.clone());
+    }
+
+    /**
+     * Removes all the entries of the specified pixels set from both tiers.
+     *
+     * @param pixelsId The identifier of the pixels set.
+     */
+    public void invalidate(long pixelsId) {
+        if (!isEnabled()) {
+            return;
+        }
+        String prefix = pixelsId + "/";
+        int removed = 0;
+        synchronized (this) {
+            Iterator<Map.Entry<String, Object>> i =
+                memory.entrySet().iterator();
+            Map.Entry<String, Object> e;
+            while (i.hasNext()) {
+                e = i.next();
+                if (e.getKey().startsWith(prefix)) {
+                    memoryBytes -= sizeOf(e.getValue());
+                    i.remove();
+                    removed++;
+                }
+            }
+            Iterator<Map.Entry<String, Long>> j = disk.entrySet().iterator();
+            Map.Entry<String, Long> f;
+            while (j.hasNext()) {
+                f = j.next();
+                if (f.getKey().startsWith(prefix)) {
+                    diskBytes -= f.getValue();
+                    j.remove();
+                    removed++;
+                }
+            }
+        }
+        if (root != null) {
+            FileUtils.deleteQuietly(new File(root, String.valueOf(pixelsId)));
+        }
+        if (removed > 0 && log.isDebugEnabled()) {
+            log.debug("Invalidated " + removed + " tiles of Pixels:"
+                    + pixelsId);
+        }
+    }
+
+    /**
+     * Looks up an entry, first in memory and then on disk. An entry found on
+     * disk is promoted to the memory tier.
+     *
+     * @param key The key of the entry.
+     * @return See above.
+     */
+    private Object get(String key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        boolean onDisk;
+        synchronized (this) {
+            Object value = memory.get(key);
+            if (value != null) {
+                hits.incrementAndGet();
+                return value;
+            }
+            onDisk = disk.get(key) != null;
+        }
+        if (onDisk) {
+            Object value = read(key);
+            if (value != null) {
+                hits.incrementAndGet();
+                diskHits.incrementAndGet();
+                store(key, value);
+                return value;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Adds an entry to the memory tier, evicting the least recently used
+     * entries as required. The evicted entries are written to the disk tier
+     * if enabled.
+     *
+     * @param key The key of the entry.
+     * @param value The entry, not shared with the caller.
+     */
+    private void store(String key, Object value) {
+        if (!isEnabled()) {
+            return;
+        }
+        long size = sizeOf(value);
+        List<Map.Entry<String, Object>> evicted =
+            new ArrayList<Map.Entry<String, Object>>();
+        synchronized (this) {
+            Object previous = memory.put(key, value);
+            if (previous != null) {
+                memoryBytes -= sizeOf(previous);
+            }
+            memoryBytes += size;
+            Iterator<Map.Entry<String, Object>> i =
+                memory.entrySet().iterator();
+            Map.Entry<String, Object> e;
+            while (memoryBytes > maxMemoryBytes && i.hasNext()) {
+                e = i.next();
+                memoryBytes -= sizeOf(e.getValue());
+                evicted.add(e);
+                i.remove();
+                evictions.incrementAndGet();
+            }
+        }
+        if (root == null) {
+            return;
+        }
+        for (Map.Entry<String, Object> e : evicted) {
+            write(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Returns the file holding the passed entry on disk.
+     *
+     * @param key The key of the entry.
+     * @return See above.
+     */
+    private File fileOf(String key) {
+        int slash = key.indexOf('/');
+        return new File(new File(root, key.substring(0, slash)),
+                key.substring(slash + 1));
+    }
+
+    /**
+     * Writes an entry evicted from memory to the disk tier, evicting the least
+     * recently used entries of the disk tier as required.
+     *
+     * @param key The key of the entry.
+     * @param value The entry.
+     */
+    private void write(String key, Object value) {
+        long size = sizeOf(value);
+        if (size > maxDiskBytes) {
+            return;
+        }
+        synchronized (this) {
+            if (disk.containsKey(key)) {
+                return; // Promoted from disk, still there.
+            }
+        }
+        File file = fileOf(key);
+        File tmp = null;
+        DataOutputStream out = null;
+        try {
+            file.getParentFile().mkdirs();
+            // Unique so that writers of the same entry cannot mix their bytes
+            tmp = File.createTempFile(file.getName(), ".tmp",
+                    file.getParentFile());
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)));
+            if (value instanceof int[]) {
+                int[] ints = (int[]) value;
+                out.writeByte(INTS);
+                out.writeInt(ints.length);
+                for (int v : ints) {
+                    out.writeInt(v);
+                }
+            } else {
+                byte[] bytes = (byte[]) value;
+                out.writeByte(BYTES);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not rename " + tmp);
+            }
+        } catch (IOException e) {
+            log.warn("Could not write rendered tile " + file, e);
+            FileUtils.deleteQuietly(tmp);
+            return;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    log.warn("Could not close " + tmp, e);
+                }
+            }
+        }
+        List<String> evicted = new ArrayList<String>();
+        synchronized (this) {
+            Long previous = disk.put(key, size);
+            if (previous != null) {
+                diskBytes -= previous; // Written by another thread too
+            }
+            diskBytes += size;
+            Iterator<Map.Entry<String, Long>> i = disk.entrySet().iterator();
+            Map.Entry<String, Long> e;
+            while (diskBytes > maxDiskBytes && i.hasNext()) {
+                e = i.next();
+                diskBytes -= e.getValue();
+                evicted.add(e.getKey());
+                i.remove();
+                evictions.incrementAndGet();
+            }
+        }
+        for (String k : evicted) {
+            FileUtils.deleteQuietly(fileOf(k));
+        }
+    }
+
+    /**
+     * Reads an entry from the disk tier.
+     *
+     * @param key The key of the entry.
+     * @return The entry or <code>null</code> if it could not be read.
+     */
+    private Object read(String key) {
+        File file = fileOf(key);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            byte tag = in.readByte();
+            int length = in.readInt();
+            if (tag == INTS) {
+                int[] ints = new int[length];
+                for (int i = 0; i < length; i++) {
+                    ints[i] = in.readInt();
+                }
+                return ints;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        } catch (IOException e) {
+            log.warn("Could not read rendered tile " + file, e);
+            synchronized (this) {
+                Long size = disk.remove(key);
+                if (size != null) {
+                    diskBytes -= size;
+                }
+            }
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    log.warn("Could not close " + file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the size in bytes of an entry.
+     *
+     * @param value The entry.
+     * @return See above.
+     */
+    private static long sizeOf(Object value) {
+        if (value instanceof int[]) {
+            return 4L * ((int[]) value).length;
+        }
+        return ((byte[]) value).length;
+    }
+
+    /**
+     * Returns the number of lookups which found an entry.
+     *
+     * @return See above.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups which found an entry on disk.
+     *
+     * @return See above.
+     */
+    public long getDiskHitCount() {
+        return diskHits.get();
+    }
+
+    /**
+     * Returns the number of lookups which did not find an entry.
+     *
+     * @return See above.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries evicted from either tier.
+     *
+     * @return See above.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of bytes currently held in memory.
+     *
+     * @return See above.
+     */
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * Returns the number of bytes currently held on disk.
+     *
+     * @return See above.
+     */
+    public synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+
+    /**
+     * Logs the counters and empties the disk tier. Called by the container on
+     * shutdown.
+     */
+    public void destroy() {
+        log.info(String.format("Shutting down rendered tile cache: %d hits " +
+                "(%d from disk), %d misses, %d evictions, %d bytes in " +
+                "memory, %d bytes on disk.", getHitCount(), getDiskHitCount(),
+                getMissCount(), getEvictionCount(), getMemoryBytes(),
+                getDiskBytes()));
+        synchronized (this) {
+            memory.clear();
+            memoryBytes = 0;
+            disk.clear();
+            diskBytes = 0;
+        }
+        if (root != null) {
+            FileUtils.deleteQuietly(root);
+        }
+    }
+
+}
@@ -32,6 +32,7 @@ import ome.conditions.ValidationException;
 import ome.io.nio.InMemoryPlanarPixelBuffer;
 import ome.io.nio.PixelBuffer;
 import ome.io.nio.PixelsService;
+import ome.model.IEnum;
 import ome.model.IObject;
 import ome.model.core.Channel;
 import ome.model.core.Pixels;
@@ -41,6 +42,7 @@ import ome.model.display.RenderingDef;
 import ome.model.enums.Family;
 import ome.model.enums.RenderingModel;
 import ome.model.internal.Permissions;
+import ome.model.stats.StatsInfo;
 import ome.security.SecuritySystem;
 import ome.services.util.Executor;
 import ome.system.EventContext;
@@ -50,6 +52,7 @@ import ome.util.ImageUtil;
 import ome.util.ShallowCopy;
 import omeis.providers.re.RGBBuffer;
 import omeis.providers.re.Renderer;
+import omeis.providers.re.RenderingExecutor;
 import omeis.providers.re.RenderingEngine;
 import omeis.providers.re.codomain.CodomainMapContext;
 import omeis.providers.re.data.PlaneDef;
@@ -156,6 +159,12 @@ public class RenderingBean implements RenderingEngine, Serializable {
     /** The resolution level to be used by the pixel buffer. */
     private Integer resolutionLevel;
 
+    /** The executor shared by the renderers. */
+    private transient RenderingExecutor renderingExecutor;
+
+    /** The cache of rendered tiles shared by the rendering engines. */
+    private transient RenderedTileCache tileCache;
+
     /**
      * Compression service Bean injector.
      * 
@@ -170,6 +179,26 @@ public class RenderingBean implements RenderingEngine, Serializable {
         this.compressionSrv = compress;
     }
 
+    /**
+     * Rendering executor Bean injector.
+     * 
+     * @param renderingExecutor
+     *            the executor shared by the renderers.
+     */
+    public void setRenderingExecutor(RenderingExecutor renderingExecutor) {
+        this.renderingExecutor = renderingExecutor;
+    }
+
+    /**
+     * Rendered tile cache Bean injector.
+     * 
+     * @param tileCache
+     *            the cache of rendered tiles shared by the rendering engines.
+     */
+    public void setTileCache(RenderedTileCache tileCache) {
+        this.tileCache = tileCache;
+    }
+
     @RolesAllowed("user")
     public long getRenderingDefId() {
         if (rendDefObj == null || rendDefObj.getId() == null) {
@@ -392,7 +421,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
             // Loading last to try to ensure that the buffer will get closed.
             PixelBuffer buffer = getPixelBuffer();
             renderer = new Renderer(quantumFactory, renderingModels, pixelsObj,
-                    rendDefObj, buffer);
+                    rendDefObj, buffer, renderingExecutor);
         } finally {
             rwl.writeLock().unlock();
         }
@@ -466,6 +495,19 @@ public class RenderingBean implements RenderingEngine, Serializable {
      */
     @RolesAllowed("user")
     public int[] renderAsPackedInt(PlaneDef pd) {
+        return renderAsPackedInt(pd, true);
+    }
+
+    /**
+     * Renders the passed plane, looking it up in the rendered tile cache
+     * first if requested.
+     * 
+     * @param pd The plane to render.
+     * @param cache Pass <code>true</code> to look up and store the rendered
+     *              plane in the cache, <code>false</code> otherwise.
+     * @return See above.
+     */
+    private int[] renderAsPackedInt(PlaneDef pd, boolean cache) {
         rwl.writeLock().lock();
 
         try {
@@ -475,7 +517,15 @@ public class RenderingBean implements RenderingEngine, Serializable {
             {
                 renderer.setResolutionLevel(resolutionLevel);
             }
-            return renderer.renderAsPackedInt(pd, null);
+            String key = cache? tileKey(pd, "packed") : null;
+            int[] buf = key == null? null : tileCache.getInts(key);
+            if (buf == null) {
+                buf = renderer.renderAsPackedInt(pd, null);
+                if (key != null) {
+                    tileCache.put(key, buf);
+                }
+            }
+            return buf;
         } catch (IOException e) {
             log.error("IO error while rendering.", e);
             throw new ResourceError(e.getMessage());
@@ -503,7 +553,15 @@ public class RenderingBean implements RenderingEngine, Serializable {
             {
                 renderer.setResolutionLevel(resolutionLevel);
             }
-    		return renderer.renderAsPackedIntAsRGBA(pd, null);
+            String key = tileKey(pd, "rgba");
+            int[] buf = key == null? null : tileCache.getInts(key);
+            if (buf == null) {
+                buf = renderer.renderAsPackedIntAsRGBA(pd, null);
+                if (key != null) {
+                    tileCache.put(key, buf);
+                }
+            }
+            return buf;
     	} catch (IOException e) {
     	    log.error("IO error while rendering.", e);
     	    throw new ResourceError(e.getMessage());
@@ -526,10 +584,22 @@ public class RenderingBean implements RenderingEngine, Serializable {
 
         ByteArrayOutputStream byteStream = null;
         try {
+            errorIfInvalidState();
+            checkPlaneDef(pd);
+            if (resolutionLevel != null)
+            {
+                renderer.setResolutionLevel(resolutionLevel);
+            }
+            String key = tileKey(pd,
+                    "jpeg:" + compressionSrv.getCompressionLevel());
+            byte[] cached = key == null? null : tileCache.getBytes(key);
+            if (cached != null) {
+                return cached;
+            }
         	int stride = pd.getStride();
         	if (stride < 0) stride = 0;
         	stride++;
-            int[] buf = renderAsPackedInt(pd);
+            int[] buf = renderAsPackedInt(pd, false);
             int sizeX = pixelsObj.getSizeX();
             int sizeY = pixelsObj.getSizeY();
             RegionDef region = pd.getRegion();
@@ -543,7 +613,11 @@ public class RenderingBean implements RenderingEngine, Serializable {
                     sizeY);
             byteStream = new ByteArrayOutputStream();
             compressionSrv.compressToStream(image, byteStream);
-            return byteStream.toByteArray();
+            byte[] bytes = byteStream.toByteArray();
+            if (key != null) {
+                tileCache.put(key, bytes);
+            }
+            return bytes;
         } catch (IOException e) {
             log.error("Could not compress rendered image.", e);
             throw new ResourceError(e.getMessage());
@@ -825,6 +899,12 @@ public class RenderingBean implements RenderingEngine, Serializable {
                             return null;
                         }});
             rendDefObj = retrieveRndSettings(pixelsObj.getId());
+
+            // The tiles rendered with the previous settings are unlikely to
+            // be requested again, release them.
+            if (tileCache != null) {
+                tileCache.invalidate(pixelsObj.getId());
+            }
             
             // Unload the linked pixels set to avoid transactional headaches on
             // the next save.
@@ -1531,6 +1611,89 @@ public class RenderingBean implements RenderingEngine, Serializable {
         }
     }
 
+    /**
+     * Builds the key under which the passed plane is stored in the rendered
+     * tile cache. The key captures the plane, region, resolution level and
+     * output format along with the current rendering settings and the
+     * statistics the quantum strategies are configured with. Must be called
+     * once the plane definition has been checked and the resolution level
+     * set.
+     * 
+     * @param pd The plane to render.
+     * @param format The output format.
+     * @return The key or <code>null</code> if the plane cannot be cached,
+     *         i.e. the cache is disabled, overlays are rendered or codomain
+     *         maps are in use.
+     */
+    private String tileKey(PlaneDef pd, String format) {
+        if (tileCache == null || !tileCache.isEnabled()
+                || renderer.getOverlays() != null
+                || rendDefObj.sizeOfSpatialDomainEnhancement() > 0) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(format);
+        sb.append("|level=").append(renderer.getResolutionLevel());
+        sb.append("|slice=").append(pd.getSlice());
+        sb.append(",x=").append(pd.getX());
+        sb.append(",y=").append(pd.getY());
+        sb.append(",z=").append(pd.getZ());
+        sb.append(",t=").append(pd.getT());
+        sb.append(",stride=").append(pd.getStride());
+        RegionDef region = pd.getRegion();
+        if (region != null) {
+            sb.append("|region=").append(region.getX());
+            sb.append(",").append(region.getY());
+            sb.append(",").append(region.getWidth());
+            sb.append(",").append(region.getHeight());
+        }
+        sb.append("|model=").append(enumKey(rendDefObj.getModel()));
+        QuantumDef qd = rendDefObj.getQuantization();
+        sb.append("|qd=").append(qd.getBitResolution());
+        sb.append(",").append(qd.getCdStart());
+        sb.append(",").append(qd.getCdEnd());
+        for (ChannelBinding cb : renderer.getChannelBindings()) {
+            sb.append("|cb=").append(cb.getActive());
+            if (!cb.getActive()) {
+                continue;
+            }
+            sb.append(",").append(cb.getRed());
+            sb.append(",").append(cb.getGreen());
+            sb.append(",").append(cb.getBlue());
+            sb.append(",").append(cb.getAlpha());
+            sb.append(",").append(enumKey(cb.getFamily()));
+            sb.append(",").append(cb.getCoefficient());
+            sb.append(",").append(cb.getNoiseReduction());
+            sb.append(",").append(cb.getInputStart());
+            sb.append(",").append(cb.getInputEnd());
+        }
+        StatsInfo stats;
+        for (int i = 0; i < pixelsObj.sizeOfChannels(); i++) {
+            stats = pixelsObj.getChannel(i).getStatsInfo();
+            if (stats != null && stats.isLoaded()) {
+                sb.append("|stats=").append(stats.getGlobalMin());
+                sb.append(",").append(stats.getGlobalMax());
+            }
+        }
+        return RenderedTileCache.makeKey(pixelsObj.getId(), sb.toString());
+    }
+
+    /**
+     * Returns a stable representation of an enumeration, whether it is loaded
+     * or not.
+     * 
+     * @param e The enumeration.
+     * @return See above.
+     */
+    private static String enumKey(IEnum e) {
+        if (e == null) {
+            return "";
+        }
+        if (e.getId() != null) {
+            return String.valueOf(e.getId());
+        }
+        return e.isLoaded()? e.getValue() : "";
+    }
+
     /**
      * Close the active renderer, cleaning up any potential messes left by the
      * included pixel buffer.
@@ -0,0 +1,89 @@
+/*
+ * ome.services.RunningChecksum
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ome.util.checksum.ChecksumProvider;
+
+/**
+ * Checksum of a file kept up to date as its bytes are written in order
+ * from its start, so that {@link RawFileBean#save()} need not read the
+ * file back. Writes which arrive ahead of the bytes checksummed so far,
+ * e.g. from a client with several writes in flight, are held until the
+ * gap is filled, up to {@link #MAX_PENDING} bytes. Any other write makes
+ * the checksum unusable, and the file is then read back on save as
+ * before.
+ */
+public class RunningChecksum {
+
+    /** The most bytes held for writes which arrived ahead of others. */
+    public static final long MAX_PENDING = 64L * 1024 * 1024;
+
+    private final ChecksumProvider provider;
+
+    private final TreeMap<Long, byte[]> pending = new TreeMap<Long, byte[]>();
+
+    private long checksummed = 0;
+
+    private long pendingBytes = 0;
+
+    private boolean usable = true;
+
+    public RunningChecksum(ChecksumProvider provider) {
+        this.provider = provider;
+    }
+
+    public synchronized void written(byte[] buf, long position, int length) {
+        if (!usable) {
+            return;
+        }
+        if (position == checksummed) {
+            provider.putBytes(buf, 0, length);
+            checksummed += length;
+            while (!pending.isEmpty() && pending.firstKey() <= checksummed) {
+                final Map.Entry<Long, byte[]> next = pending.pollFirstEntry();
+                pendingBytes -= next.getValue().length;
+                if (next.getKey() != checksummed) {
+                    unusable(); // Overlapping writes
+                    return;
+                }
+                provider.putBytes(next.getValue());
+                checksummed += next.getValue().length;
+            }
+        } else if (position > checksummed
+                && pendingBytes + length <= MAX_PENDING
+                && !pending.containsKey(position)) {
+            pending.put(position, Arrays.copyOf(buf, length));
+            pendingBytes += length;
+        } else {
+            unusable();
+        }
+    }
+
+    /**
+     * Returns the checksum if every byte of a file of the given size has
+     * been checksummed exactly once, in order, otherwise null.
+     */
+    public synchronized String checksumAsString(long size) {
+        if (!usable || !pending.isEmpty() || checksummed != size) {
+            return null;
+        }
+        usable = false;
+        return provider.checksumAsString();
+    }
+
+    private void unusable() {
+        usable = false;
+        pending.clear();
+        pendingBytes = 0;
+    }
+
+}
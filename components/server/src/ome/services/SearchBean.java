@@ -25,9 +25,11 @@ import ome.model.annotations.Annotation;
 import ome.model.internal.Details;
 import ome.parameters.Parameters;
 import ome.services.search.AnnotatedWith;
+import ome.services.search.Combination;
 import ome.services.search.Complement;
 import ome.services.search.FullText;
 import ome.services.search.HqlQuery;
+import ome.services.search.IdSetCache;
 import ome.services.search.Intersection;
 import ome.services.search.SearchAction;
 import ome.services.search.SearchValues;
@@ -63,6 +65,12 @@ public class SearchBean extends AbstractStatefulBean implements Search {
 
     private final List<List<IObject>> results = new ArrayList<List<IObject>>();
 
+    /**
+     * Ids found by the actions recently combined by {@link #and()},
+     * {@link #or()} and {@link #not()} in this session.
+     */
+    private final IdSetCache combined = new IdSetCache(100, 60 * 1000L);
+
     private/* final */transient Executor executor;
 
     private/* final */transient Class<? extends Analyzer> analyzer;
@@ -259,8 +267,21 @@ public class SearchBean extends AbstractStatefulBean implements Search {
             return false;
         }
         SearchAction action = actions.popFirst();
+        FullText paged = null;
+        if (action instanceof FullText) {
+            // Full text searches are only run for the hits of one batch at a
+            // time and put back in front of the queue until all are returned.
+            paged = (FullText) action;
+            paged.setPaged(true);
+        } else if (action instanceof Combination) {
+            ((Combination) action).setExecutor(executor, combined,
+                    getCurrentEventContext());
+        }
         List<IObject> list = (List<IObject>) executor.execute(null, action);
         results.add(list);
+        if (paged != null && paged.hasMoreHits()) {
+            actions.pushFirst(paged);
+        }
         return hasNext(); // recursive call
     }
 
@@ -738,6 +759,10 @@ public class SearchBean extends AbstractStatefulBean implements Search {
             actions.clear();
         }
 
+        synchronized void pushFirst(SearchAction a) {
+            actions.add(0, a);
+        }
+
         synchronized SearchAction popFirst() {
             assertNonZero();
             return actions.remove(0);
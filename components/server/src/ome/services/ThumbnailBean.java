@@ -19,9 +19,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import ome.annotations.RolesAllowed;
@@ -42,7 +45,10 @@ import ome.io.nio.PixelBuffer;
 import ome.io.nio.PixelsService;
 import ome.io.nio.ThumbnailService;
 import ome.logic.AbstractLevel2Service;
+import ome.model.core.Channel;
 import ome.model.core.Pixels;
+import ome.model.display.ChannelBinding;
+import ome.model.display.CodomainMapContext;
 import ome.model.display.RenderingDef;
 import ome.model.display.Thumbnail;
 import ome.model.enums.Family;
@@ -53,7 +59,9 @@ import ome.services.ThumbnailCtx.NoThumbnail;
 import ome.system.EventContext;
 import ome.system.SimpleEventContext;
 import ome.util.ImageUtil;
+import ome.util.ShallowCopy;
 import omeis.providers.re.Renderer;
+import omeis.providers.re.RenderingExecutor;
 import omeis.providers.re.data.PlaneDef;
 import omeis.providers.re.quantum.QuantizationException;
 import omeis.providers.re.quantum.QuantumFactory;
@@ -95,6 +103,14 @@ public class ThumbnailBean extends AbstractLevel2Service
     /** The scaling service will be used to scale buffered images. */
     private transient IScale iScale;
 
+    /**
+     * Buffer of each rendering thread which thumbnails are scaled into. The
+     * images wrapping it are only valid until the next thumbnail is rendered
+     * by the same thread.
+     */
+    private static final ThreadLocal<int[]> thumbnailBuffer =
+        new ThreadLocal<int[]>();
+
     /** The pixels service, will be used to load pixels and settings. */
     private transient IPixels iPixels;
 
@@ -113,6 +129,15 @@ public class ThumbnailBean extends AbstractLevel2Service
     /** The rendering settings service. */
     private transient IRenderingSettings settingsService;
 
+    /** The executor shared by the renderers. */
+    private transient RenderingExecutor renderingExecutor;
+
+    /**
+     * The executor rendering the missing thumbnails of a thumbnail set. If
+     * <code>null</code>, they are rendered on the calling thread.
+     */
+    private transient ExecutorService thumbnailExecutor;
+
     /** The list of all families supported by the {@link Renderer}. */
     private transient List<Family> families;
 
@@ -340,7 +365,7 @@ public class ThumbnailBean extends AbstractLevel2Service
         // Loading last to try to ensure that the buffer will get closed.
         PixelBuffer buffer = pixelDataService.getPixelBuffer(pixels, false);
         renderer = new Renderer(quantumFactory, renderingModels, pixels,
-                settings, buffer);
+                settings, buffer, renderingExecutor);
         dirty = false;
     }
 
@@ -448,6 +473,31 @@ public class ThumbnailBean extends AbstractLevel2Service
         this.settingsService = settingsService;
     }
 
+    /**
+     * Rendering executor Bean injector.
+     *
+     * @param renderingExecutor
+     *            the executor shared by the renderers.
+     */
+    public void setRenderingExecutor(RenderingExecutor renderingExecutor) {
+        getBeanHelper().throwIfAlreadySet(this.renderingExecutor,
+                renderingExecutor);
+        this.renderingExecutor = renderingExecutor;
+    }
+
+    /**
+     * Thumbnail executor Bean injector.
+     *
+     * @param thumbnailExecutor
+     *            the executor rendering the missing thumbnails of the
+     *            thumbnail sets.
+     */
+    public void setThumbnailExecutor(ExecutorService thumbnailExecutor) {
+        getBeanHelper().throwIfAlreadySet(this.thumbnailExecutor,
+                thumbnailExecutor);
+        this.thumbnailExecutor = thumbnailExecutor;
+    }
+
     /**
      * Compresses a buffered image thumbnail to disk.
      *
@@ -567,6 +617,30 @@ public class ThumbnailBean extends AbstractLevel2Service
             return null;
         }
 
+        return renderScaledImage(renderer, pixels, settings,
+                thumbnailMetadata, theZ, theT);
+    }
+
+    /**
+     * Renders a plane with a given renderer and scales it to the size of the
+     * thumbnail. Only uses its arguments so that it can be called from the
+     * workers rendering thumbnail sets.
+     *
+     * @param renderer The renderer to use.
+     * @param pixels The Pixels set the renderer was created for.
+     * @param settings The rendering settings the renderer was created for.
+     * @param thumbnailMetadata The thumbnail to render.
+     * @param theZ the optical section (offset across the Z-axis) requested.
+     * <pre>null</pre> signifies the rendering engine default.
+     * @param theT the timepoint (offset across the T-axis) requested.
+     * <pre>null</pre> signifies the rendering engine default.
+     * @return a scaled buffered image, only valid until the calling thread
+     * renders another one.
+     */
+    private BufferedImage renderScaledImage(Renderer renderer, Pixels pixels,
+            RenderingDef settings, Thumbnail thumbnailMetadata,
+            Integer theZ, Integer theT)
+    {
         // Retrieve our rendered data
         if (theZ == null)
             theZ = settings.getDefaultZ();
@@ -574,33 +648,36 @@ public class ThumbnailBean extends AbstractLevel2Service
             theT = settings.getDefaultT();
         PlaneDef pd = new PlaneDef(PlaneDef.XY, theT);
         pd.setZ(theZ);
-        // Use a resolution level that matches our requested size if we can
+        // Use the smallest resolution level which is at least as large as
+        // the thumbnail if we can
         PixelBuffer pixelBuffer = renderer.getPixels();
         int originalSizeX = pixels.getSizeX();
         int originalSizeY = pixels.getSizeY();
+        int sizeX = thumbnailMetadata.getSizeX();
+        int sizeY = thumbnailMetadata.getSizeY();
         int pixelBufferSizeX = pixelBuffer.getSizeX();
         int pixelBufferSizeY = pixelBuffer.getSizeY();
-        if (pixelBuffer.getResolutionLevels() > 1)
+        int resolutionLevels = pixelBuffer.getResolutionLevels();
+        if (resolutionLevels > 1)
         {
-            int resolutionLevel = pixelBuffer.getResolutionLevels();
-            while (resolutionLevel > 0)
+            int resolutionLevel = 0;
+            for (; resolutionLevel < resolutionLevels; resolutionLevel++)
             {
-                resolutionLevel--;
                 renderer.setResolutionLevel(resolutionLevel);
                 pixelBufferSizeX = pixelBuffer.getSizeX();
                 pixelBufferSizeY = pixelBuffer.getSizeY();
-                if (pixelBufferSizeX <= thumbnailMetadata.getSizeX()
-                    || pixelBufferSizeY <= thumbnailMetadata.getSizeY())
+                if (pixelBufferSizeX >= sizeX && pixelBufferSizeY >= sizeY)
                 {
                     break;
                 }
             }
+            resolutionLevel = pixelBuffer.getResolutionLevel();
             log.debug(String.format("Using resolution level %d -- %dx%d",
                     resolutionLevel, pixelBufferSizeX, pixelBufferSizeY));
-            renderer.setResolutionLevel(resolutionLevel);
         }
 
-        // Render the planes and translate to a buffered image
+        // Render the plane and average it down into the thumbnail buffer of
+        // this thread, wrapped without copying.
         Pixels rendererPixels = renderer.getMetadata();
         try
         {
@@ -609,17 +686,12 @@ public class ThumbnailBean extends AbstractLevel2Service
             rendererPixels.setSizeX(pixelBufferSizeX);
             rendererPixels.setSizeY(pixelBufferSizeY);
             int[] buf = renderer.renderAsPackedInt(pd, null);
-            BufferedImage image = ImageUtil.createBufferedImage(
-                    buf, pixelBufferSizeX, pixelBufferSizeY);
-
-            // Finally, scale our image using scaling factors (percentage).
-            float xScale = (float)
-                    thumbnailMetadata.getSizeX() / pixelBufferSizeX;
-            float yScale = (float)
-                    thumbnailMetadata.getSizeY() / pixelBufferSizeY;
-            log.debug(String.format("Using scaling factors x:%f y:%f",
-                    xScale, yScale));
-            return iScale.scaleBufferedImage(image, xScale, yScale);
+            log.debug(String.format("Scaling %dx%d to %dx%d",
+                    pixelBufferSizeX, pixelBufferSizeY, sizeX, sizeY));
+            int[] scaled = ImageUtil.scaleAreaAveraged(buf, pixelBufferSizeX,
+                    pixelBufferSizeY, thumbnailBuffer.get(), sizeX, sizeY);
+            thumbnailBuffer.set(scaled);
+            return ImageUtil.createBufferedImage(scaled, sizeX, sizeY);
         }
         catch (IOException e)
         {
@@ -909,7 +981,11 @@ public class ThumbnailBean extends AbstractLevel2Service
     }
 
     /**
-     * Performs the logic of retrieving a set of thumbnails.
+     * Performs the logic of retrieving a set of thumbnails. Cached thumbnails
+     * are returned straight away while the missing ones are rendered by the
+     * {@link #thumbnailExecutor}, each with its own {@link Renderer}. The
+     * database work and the opening of the pixel buffers stay on the calling
+     * thread, a few thumbnails ahead of the workers.
      * @param pixelsIds The Pixels IDs to retrieve thumbnails for.
      * @return Map of Pixels ID vs. thumbnail bytes.
      */
@@ -919,6 +995,11 @@ public class ThumbnailBean extends AbstractLevel2Service
         Map<Long, byte[]> toReturn = new HashMap<Long, byte[]>();
 
         List<Thumbnail> toSave = new ArrayList<Thumbnail>();
+        ThumbnailWorkers workers = null;
+        if (thumbnailExecutor != null)
+        {
+            workers = new ThumbnailWorkers(thumbnailExecutor, toReturn);
+        }
         for (Long pixelsId : pixelsIds)
         {
             // Ensure that the renderer has been made dirty otherwise the
@@ -948,8 +1029,21 @@ public class ThumbnailBean extends AbstractLevel2Service
                 thumbnailMetadata = ctx.getMetadata(pixelsId);
                 try
                 {
-                    byte[] thumbnail = retrieveThumbnail();
-                    toReturn.put(pixelsId, thumbnail);
+                    Callable<byte[]> job = null;
+                    if (workers != null && !inProgress
+                        && !ctx.isThumbnailCached(pixelsId))
+                    {
+                        job = prepareThumbnailJob();
+                    }
+                    if (job != null)
+                    {
+                        workers.submit(pixelsId, job);
+                    }
+                    else
+                    {
+                        byte[] thumbnail = retrieveThumbnail();
+                        toReturn.put(pixelsId, thumbnail);
+                    }
                     if (dirtyMetadata)
                     {
                         toSave.add(thumbnailMetadata);
@@ -967,6 +1061,10 @@ public class ThumbnailBean extends AbstractLevel2Service
                 toReturn.put(pixelsId, null);
             }
         }
+        if (workers != null)
+        {
+            workers.drain();
+        }
         // We're doing the update or creation and save as a two step
         // process due to the possible unloaded Pixels. If we do not,
         // Pixels will be unloaded and we will hit
@@ -979,6 +1077,169 @@ public class ThumbnailBean extends AbstractLevel2Service
         return toReturn;
     }
 
+    /**
+     * Prepares the creation of the current thumbnail by a worker. The
+     * Pixels set, its rendering settings and its pixel buffer are loaded here
+     * since they require the calling thread. The worker is handed copies
+     * which are not attached to the Hibernate session: it changes the size of
+     * the Pixels set while rendering and must neither have that flushed nor
+     * load anything through the session of the calling thread.
+     * @return The job rendering, caching and returning the thumbnail or
+     * <code>null</code> if the pixel data is not available yet, in which case
+     * {@link #inProgress} is set.
+     */
+    private Callable<byte[]> prepareThumbnailJob() throws IOException
+    {
+        final Pixels loadedPixels =
+            iPixels.retrievePixDescription(pixels.getId());
+        final PixelBuffer buffer;
+        try
+        {
+            buffer = pixelDataService.getPixelBuffer(loadedPixels, false);
+        }
+        catch (ConcurrencyException e)
+        {
+            log.info("ConcurrencyException on prepareThumbnailJob");
+            inProgress = true;
+            return null;
+        }
+
+        // As in _createThumbnail()
+        if (ctx.dirtyMetadata(pixels.getId()))
+        {
+            thumbnailMetadata.setVersion(thumbnailMetadata.getVersion() + 1);
+            Pixels unloadedPixels = new Pixels(pixels.getId(), false);
+            thumbnailMetadata.setPixels(unloadedPixels);
+            dirtyMetadata = true;
+        }
+        if (diskSpaceChecking)
+        {
+            iRepositoryInfo.sanityCheckRepository();
+        }
+
+        final Pixels jobPixels = copyPixels(loadedPixels);
+        final RenderingDef jobSettings =
+            copySettings(iPixels.loadRndSettings(settings.getId()));
+        final Thumbnail jobMetadata = new ShallowCopy().copy(thumbnailMetadata);
+        final QuantumFactory quantumFactory = new QuantumFactory(getFamilies());
+        final List<RenderingModel> renderingModels = getRenderingModels();
+        return new Callable<byte[]>()
+        {
+            public byte[] call() throws Exception
+            {
+                Renderer jobRenderer = null;
+                try
+                {
+                    jobRenderer = new Renderer(quantumFactory,
+                            renderingModels, jobPixels, jobSettings, buffer,
+                            renderingExecutor);
+                    return createThumbnail(jobRenderer, jobPixels,
+                            jobSettings, jobMetadata);
+                }
+                finally
+                {
+                    if (jobRenderer != null)
+                    {
+                        jobRenderer.close();
+                    }
+                    else
+                    {
+                        buffer.close();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Copies a Pixels set as loaded by
+     * {@link IPixels#retrievePixDescription(long)} for a worker.
+     * @param pixels The Pixels set to copy.
+     * @return See above.
+     */
+    private Pixels copyPixels(Pixels pixels)
+    {
+        ShallowCopy copier = new ShallowCopy();
+        Pixels copy = copier.copy(pixels);
+        copy.setPixelsType(copier.copy(pixels.getPixelsType()));
+        copy.putAt(Pixels.CHANNELS, new ArrayList<Channel>());
+        Iterator<Channel> channels = pixels.iterateChannels();
+        while (channels.hasNext())
+        {
+            Channel channel = channels.next();
+            Channel channelCopy = copier.copy(channel);
+            channelCopy.setLogicalChannel(
+                    copier.copy(channel.getLogicalChannel()));
+            if (channel.getStatsInfo() != null)
+            {
+                channelCopy.setStatsInfo(copier.copy(channel.getStatsInfo()));
+            }
+            copy.addChannel(channelCopy);
+        }
+        return copy;
+    }
+
+    /**
+     * Copies rendering settings as loaded by
+     * {@link IPixels#loadRndSettings(long)} for a worker.
+     * @param settings The rendering settings to copy.
+     * @return See above.
+     */
+    private RenderingDef copySettings(RenderingDef settings)
+    {
+        ShallowCopy copier = new ShallowCopy();
+        RenderingDef copy = copier.copy(settings);
+        copy.setModel(copier.copy(settings.getModel()));
+        copy.setQuantization(copier.copy(settings.getQuantization()));
+        copy.putAt(RenderingDef.WAVERENDERING,
+                new ArrayList<ChannelBinding>());
+        Iterator<ChannelBinding> bindings = settings.iterateWaveRendering();
+        while (bindings.hasNext())
+        {
+            ChannelBinding binding = bindings.next();
+            ChannelBinding bindingCopy = copier.copy(binding);
+            bindingCopy.setFamily(copier.copy(binding.getFamily()));
+            copy.addChannelBinding(bindingCopy);
+        }
+        copy.putAt(RenderingDef.SPATIALDOMAINENHANCEMENT,
+                new ArrayList<CodomainMapContext>());
+        Iterator<CodomainMapContext> contexts =
+            settings.iterateSpatialDomainEnhancement();
+        while (contexts.hasNext())
+        {
+            copy.addCodomainMapContext(copier.copy(contexts.next()));
+        }
+        return copy;
+    }
+
+    /**
+     * Renders, compresses and caches a thumbnail on a worker.
+     * @return The thumbnail bytes.
+     */
+    private byte[] createThumbnail(Renderer jobRenderer, Pixels jobPixels,
+            RenderingDef jobSettings, Thumbnail jobMetadata)
+        throws IOException
+    {
+        StopWatch s1 = new Slf4JStopWatch("omero._createThumbnail");
+        BufferedImage image = renderScaledImage(jobRenderer, jobPixels,
+                jobSettings, jobMetadata, null, null);
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        compressionService.compressToStream(image, byteStream);
+        byte[] thumbnail = byteStream.toByteArray();
+        FileOutputStream stream = ioService.getThumbnailOutputStream(
+                jobMetadata);
+        try
+        {
+            stream.write(thumbnail);
+        }
+        finally
+        {
+            stream.close();
+        }
+        s1.stop();
+        return thumbnail;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -555,7 +555,7 @@ public class ThumbnailCtx
      * requested.
      * @return The calculated width (X) and height (Y).
      */
-    public Dimension calculateXYWidths(Pixels pixels, int longestSide)
+    public static Dimension calculateXYWidths(Pixels pixels, int longestSide)
     {
         int sizeX = pixels.getSizeX();
         int sizeY = pixels.getSizeY();
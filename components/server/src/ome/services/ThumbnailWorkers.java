@@ -0,0 +1,143 @@
+/*
+ * ome.services.ThumbnailWorkers
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import ome.conditions.InternalException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Renders the missing thumbnails of a thumbnail set on an executor for
+ * {@link ThumbnailBean}. At most twice as many jobs as the executor has
+ * threads are rendering or waiting for a thread at any time, since each
+ * holds an open pixel buffer; submitting another first waits for one of
+ * them. The thumbnails are put into the results of the set as they are
+ * taken, by the thread which submits the jobs. A job which fails gives a
+ * <code>null</code> thumbnail, as a thumbnail of the set which cannot be
+ * retrieved on the calling thread does.
+ *
+ * @since 5.0
+ */
+public class ThumbnailWorkers
+{
+
+    private final static Logger log =
+        LoggerFactory.getLogger(ThumbnailWorkers.class);
+
+    private final CompletionService<byte[]> workers;
+
+    /** The Pixels set of each job which has not been taken yet. */
+    private final Map<Future<byte[]>, Long> rendering =
+        new HashMap<Future<byte[]>, Long>();
+
+    private final Map<Long, byte[]> results;
+
+    private final int maxJobs;
+
+    /**
+     * @param executor The executor to render on.
+     * @param results The thumbnails of the set by Pixels ID, to which the
+     * rendered ones are added.
+     */
+    public ThumbnailWorkers(ExecutorService executor,
+            Map<Long, byte[]> results)
+    {
+        this.workers = new ExecutorCompletionService<byte[]>(executor);
+        this.results = results;
+        int threads = 2;
+        if (executor instanceof ThreadPoolExecutor)
+        {
+            threads = ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+        }
+        this.maxJobs = 2 * threads;
+    }
+
+    /**
+     * Returns the maximum number of jobs rendering or waiting for a thread
+     * at any time.
+     * @return See above.
+     */
+    public int getMaxJobs()
+    {
+        return maxJobs;
+    }
+
+    /**
+     * Submits the job rendering the thumbnail of a Pixels set once fewer
+     * than {@link #getMaxJobs()} jobs are outstanding.
+     * @param pixelsId The Pixels set the thumbnail is for.
+     * @param job The job returning the thumbnail.
+     */
+    public void submit(long pixelsId, Callable<byte[]> job)
+    {
+        while (rendering.size() >= maxJobs)
+        {
+            take();
+        }
+        rendering.put(workers.submit(job), pixelsId);
+    }
+
+    /**
+     * Waits for all the jobs which have been submitted.
+     */
+    public void drain()
+    {
+        while (!rendering.isEmpty())
+        {
+            take();
+        }
+    }
+
+    /**
+     * Waits for the next thumbnail rendered and adds it to the results.
+     */
+    private void take()
+    {
+        Future<byte[]> future;
+        try
+        {
+            future = workers.take();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InternalException(
+                    "Interrupted while waiting for thumbnails.");
+        }
+        Long pixelsId = rendering.remove(future);
+        byte[] thumbnail = null;
+        try
+        {
+            thumbnail = future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InternalException(
+                    "Interrupted while waiting for thumbnails.");
+        }
+        catch (ExecutionException e)
+        {
+            log.warn("Retrieving thumbnail in set for " +
+                    "Pixels ID " + pixelsId + " failed.", e.getCause());
+        }
+        results.put(pixelsId, thumbnail);
+    }
+
+}
@@ -9,11 +9,16 @@ package ome.services.delete;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
 import ome.model.IObject;
 import ome.services.graphs.AnnotationGraphSpec;
+import ome.services.graphs.GraphConstraintException;
 import ome.services.graphs.GraphEntry;
 import ome.services.graphs.GraphException;
 import ome.services.graphs.GraphOpts;
@@ -42,13 +47,75 @@ public class DeleteStep extends GraphStep {
 
     final private static Logger log = LoggerFactory.getLogger(DeleteStep.class);
 
+    /**
+     * Steps which delete rows of the same table from the same place in the
+     * graph, possibly for different parents, grouped by
+     * {@link DeleteStepFactory}. The first of these steps to be executed
+     * deletes the rows of all the steps of the batch which are still to be
+     * executed with a single set-based delete. The other steps then only
+     * record their ids.
+     */
+    static class Batch {
+
+        /**
+         * Largest number of rows deleted by one statement, which keeps the
+         * list of ids within the number of parameters a statement may bind.
+         */
+        final static int MAX_SIZE = 1000;
+
+        final List<DeleteStep> steps = new ArrayList<DeleteStep>();
+
+        /**
+         * Position of the first of {@link #steps} in the list of all steps.
+         */
+        final int position;
+
+        /**
+         * Ids deleted by the set-based delete, or null if it has not been
+         * attempted yet. Empty if it failed or could not delete all rows, in
+         * which case each step deletes its own row.
+         */
+        Set<Long> deleted = null;
+
+        /**
+         * Step which attempted the set-based delete.
+         */
+        DeleteStep owner = null;
+
+        /**
+         * Position of the first step which was not processed in the same
+         * transaction as the set-based delete. The later steps attempt
+         * another one.
+         */
+        int limit = 0;
+
+        Batch(DeleteStep first, int position) {
+            this.position = position;
+            add(first);
+        }
+
+        void add(DeleteStep step) {
+            steps.add(step);
+            step.batch = this;
+        }
+
+    }
+
     final private OmeroContext ctx;
 
     /**
      * IDs of fileset a related fileset which must be guaranteed to have also
      * been deleted later in the transaction.
      */
-    private Long filesetId = null;
+    private final Set<Long> filesetIds = new HashSet<Long>();
+
+    private Batch batch = null;
+
+    /**
+     * Ids checked by {@link #graphValidation(Session)} during a set-based
+     * delete, otherwise null.
+     */
+    private Collection<Long> bulkIds = null;
 
     public DeleteStep(ExtendedMetadata em, OmeroContext ctx, int idx, List<GraphStep> stack,
             GraphSpec spec, GraphEntry entry, long[] ids) {
@@ -56,13 +123,83 @@ public class DeleteStep extends GraphStep {
         this.ctx = ctx;
     }
 
-    public Long getFilesetId() {
-        return filesetId;
+    public Set<Long> getFilesetIds() {
+        return Collections.unmodifiableSet(filesetIds);
+    }
+
+    /**
+     * Returns the number of steps whose rows may be deleted together with
+     * the row of this step.
+     */
+    public int getBatchSize() {
+        return batch == null ? 1 : batch.steps.size();
+    }
+
+    void setBatch(Batch batch) {
+        this.batch = batch;
+    }
+
+    /**
+     * Whether this step may share a set-based delete with other steps at
+     * all, i.e. whether it deletes a row. Top-level annotations are excluded
+     * since their links are deleted first, one annotation at a time.
+     */
+    boolean isBatchable() {
+        return getIds() != null
+                && !(stack.size() <= 1 && spec instanceof AnnotationGraphSpec);
+    }
+
+    /**
+     * Returns a key which is equal for the steps which delete rows of the
+     * same table from the same place in the graph.
+     */
+    List<Object> batchKey() {
+        final List<Object> key = new ArrayList<Object>();
+        key.add(spec);
+        key.add(entry);
+        for (GraphStep parent : stack) {
+            key.add(parent.entry);
+        }
+        return key;
+    }
+
+    /**
+     * Whether this step may join the given batch, whose steps have the same
+     * {@link #batchKey()}. None of the containers of this step which the
+     * first step of the batch does not share may be SOFT, since rolling one
+     * of those back on its own would not undo the set-based delete.
+     */
+    boolean mayJoin(Batch batch) {
+        if (batch.steps.size() >= Batch.MAX_SIZE) {
+            return false;
+        }
+        final DeleteStep first = batch.steps.get(0);
+        boolean shared = true;
+        for (int i = 0; i < stack.size(); i++) {
+            final GraphStep parent = stack.get(i);
+            shared = shared && parent == first.stack.get(i);
+            if (!shared && parent.entry.isSoft()) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public void action(Callback cb, Session session, SqlAction sql, GraphOpts opts)
             throws GraphException {
 
+        if (batch != null) {
+            if (batch.deleted == null || idx >= batch.limit) {
+                batch.owner = this;
+                batch.limit = cb.getLimit();
+                batch.deleted = bulkAction(cb, session, sql, opts);
+            }
+            if (batch.deleted.contains(id) && !isBulkRolledBack()) {
+                cb.addGraphIds(this);
+                return; // EARLY EXIT
+            }
+        }
+
         // Phase 1: top-levels
         if (stack.size() <= 1) {
             // If this is a top-level annotation delete then the first thing we
@@ -87,7 +224,10 @@ public class DeleteStep extends GraphStep {
             QueryBuilder fsQb = new QueryBuilder();
             fsQb.select("i.fileset.id").from("Image", "i");
             fsQb.where().and("i.id = :id").param("id", id);
-            filesetId = (Long) fsQb.query(session).uniqueResult();
+            Long filesetId = (Long) fsQb.query(session).uniqueResult();
+            if (filesetId != null) {
+                filesetIds.add(filesetId);
+            }
         }
 
         // Phase 4: primary action
@@ -104,19 +244,141 @@ public class DeleteStep extends GraphStep {
 
     }
 
+    /**
+     * Performs phases 2 to 4 of {@link #action(Callback, Session, SqlAction, GraphOpts)}
+     * for the rows of this step and of all the following steps of its
+     * {@link Batch} at once which are processed in the same transaction,
+     * passing their ids as a list. This takes place
+     * within a savepoint of its own, which is rolled back if any row is
+     * improperly linked, violates a constraint or is missing, so that each
+     * step then processes its row as usual and fails or is skipped exactly
+     * as it would have without the batch.
+     *
+     * @return the ids deleted, or an empty set on failure.
+     */
+    private Set<Long> bulkAction(Callback cb, Session session, SqlAction sql,
+            GraphOpts opts) {
+
+        final Set<Long> batchIds = new LinkedHashSet<Long>();
+        for (int i = batch.steps.indexOf(this); i < batch.steps.size(); i++) {
+            final DeleteStep step = batch.steps.get(i);
+            if (step.idx >= cb.getLimit()) {
+                break; // Committed separately
+            }
+            if (!step.isRollbackOnly()) {
+                batchIds.add(step.id);
+            }
+        }
+        if (batchIds.size() < 2) {
+            return Collections.emptySet();
+        }
+
+        final StopWatch sw = new Slf4JStopWatch();
+        final String savepoint = "bulk" + Integer.toHexString(idx) + "_"
+                + Long.toHexString(System.nanoTime());
+        sql.createSavepoint(savepoint);
+        try {
+            bulkIds = batchIds;
+
+            // Phase 2: NULL
+            final QueryBuilder nullOp = optionalNullBuilder();
+            if (nullOp != null) {
+                final QueryBuilder bulkNullOp = new QueryBuilder();
+                bulkNullOp.update(table);
+                bulkNullOp.append("set relatedTo = null ");
+                bulkNullOp.where();
+                bulkNullOp.and("relatedTo.id in (:ids)");
+                bulkNullOp.paramList("ids", batchIds);
+                bulkNullOp.query(session).executeUpdate();
+            }
+
+            // Phase 3: validation
+            graphValidation(session);
+            final Set<Long> filesets = new HashSet<Long>();
+            if ("Image".equals(table)) {
+                QueryBuilder fsQb = new QueryBuilder();
+                fsQb.select("i.fileset.id").from("Image", "i");
+                fsQb.where().and("i.id in (:ids)").paramList("ids", batchIds);
+                for (Object fsId : fsQb.query(session).list()) {
+                    if (fsId != null) {
+                        filesets.add((Long) fsId);
+                    }
+                }
+            }
+
+            // Phase 4: primary action
+            final QueryBuilder qb = spec.bulkDeleteQuery(ec, table, opts);
+            qb.paramList("ids", batchIds);
+            final int count = qb.query(session).executeUpdate();
+            if (count != batchIds.size()) {
+                log.debug(String.format(
+                        "Deleted %s of %s %s rows at once; deleting singly",
+                        count, batchIds.size(), table));
+                sql.rollbackSavepoint(savepoint);
+                return Collections.emptySet();
+            }
+
+            sql.releaseSavepoint(savepoint);
+            filesetIds.addAll(filesets);
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Deleted %s %s rows at once from %s",
+                        count, table, pathMsg));
+            }
+            return batchIds;
+        } catch (GraphConstraintException gce) {
+            log.debug("Improper links in bulk delete of " + table
+                    + "; deleting singly: " + gce.message);
+            sql.rollbackSavepoint(savepoint);
+            return Collections.emptySet();
+        } catch (RuntimeException rt) {
+            // e.g. ConstraintViolationException
+            log.debug("Failed bulk delete of " + table
+                    + "; deleting singly: " + rt);
+            sql.rollbackSavepoint(savepoint);
+            return Collections.emptySet();
+        } finally {
+            bulkIds = null;
+            sw.stop("omero.deletestep.bulk." + table + "." + batchIds.size());
+        }
+    }
+
+    /**
+     * Whether a container of the step which performed the set-based delete,
+     * but not of this step, has been rolled back since, undoing the deletion
+     * of the row of this step as well.
+     */
+    private boolean isBulkRolledBack() {
+        for (GraphStep parent : batch.owner.stack) {
+            if (parent.isRollbackOnly() && !stack.contains(parent)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @SuppressWarnings("unchecked")
     protected List<Long> findImproperIncomingLinks(Session session, String[] lock) {
         StopWatch sw = new Slf4JStopWatch();
-        String str = String.format(
-                "select source.%s.id from %s source where source.%s.id = ?",
-                lock[1], lock[0], lock[1]);
-
-        Query q = session.createQuery(str);
-        q.setLong(0, id);
-        List<Long> rv = q.list();
+        final List<Long> rv;
+        if (bulkIds == null) {
+            String str = String.format(
+                    "select source.%s.id from %s source where source.%s.id = ?",
+                    lock[1], lock[0], lock[1]);
+            Query q = session.createQuery(str);
+            q.setLong(0, id);
+            rv = q.list();
+        } else {
+            String str = String.format(
+                    "select source.%s.id from %s source where source.%s.id in "
+                    + "(:ids)", lock[1], lock[0], lock[1]);
+            Query q = session.createQuery(str);
+            q.setParameterList("ids", bulkIds);
+            rv = q.list();
+        }
 
         if (log.isDebugEnabled()) {
-            log.debug(String.format("%s<==%s, id=%s", rv.size(), str, id));
+            log.debug(String.format("%s<==%s.%s, id=%s", rv.size(), lock[0],
+                    lock[1], bulkIds == null ? id : bulkIds));
         }
 
         sw.stop("omero.delete.step." + lock[0] + "." + lock[1]);
@@ -7,7 +7,13 @@
 
 package ome.services.delete;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import ome.api.IDelete;
 import ome.services.graphs.AbstractStepFactory;
@@ -41,4 +47,98 @@ public class DeleteStepFactory extends AbstractStepFactory {
         return new DeleteStep(em, ctx, idx, stack, spec, entry, ids);
     }
 
+    /**
+     * Groups the {@link DeleteStep}s which delete rows of the same table from
+     * the same place in the graph into {@link DeleteStep.Batch}es so that
+     * their rows can be deleted with one statement, also across parents. As
+     * the rows of a batch are all deleted at the position of its first step,
+     * a step only joins a batch if every row which it may depend on, i.e.
+     * the rows below its own parent and the rows directly below its other
+     * ancestors, is deleted by then. Rows which occur more than once in the
+     * graph are left to be deleted singly.
+     */
+    @Override
+    protected void onPostProcess(List<GraphStep> steps) {
+
+        final Set<String> seen = new HashSet<String>();
+        final Set<String> repeated = new HashSet<String>();
+        for (GraphStep step : steps) {
+            if (step.getIds() != null && !seen.add(step.table + ":" + step.id)) {
+                repeated.add(step.table + ":" + step.id);
+            }
+        }
+
+        // Latest position at which a row below or directly below each
+        // container, or below the root, is deleted.
+        final Map<GraphStep, Integer> below = new IdentityHashMap<GraphStep, Integer>();
+        final Map<GraphStep, Integer> directlyBelow = new IdentityHashMap<GraphStep, Integer>();
+        int belowRoot = -1;
+        int directlyBelowRoot = -1;
+
+        final Map<List<Object>, DeleteStep.Batch> open = new HashMap<List<Object>, DeleteStep.Batch>();
+        final List<DeleteStep.Batch> batches = new ArrayList<DeleteStep.Batch>();
+        for (int i = 0; i < steps.size(); i++) {
+            if (!(steps.get(i) instanceof DeleteStep)
+                    || steps.get(i).getIds() == null) {
+                continue;
+            }
+            final DeleteStep current = (DeleteStep) steps.get(i);
+            final List<GraphStep> stack = current.stack;
+            int position = i;
+
+            if (current.isBatchable()
+                    && !repeated.contains(current.table + ":" + current.id)) {
+                final List<Object> key = current.batchKey();
+                DeleteStep.Batch batch = open.get(key);
+                if (batch != null && current.mayJoin(batch)) {
+                    int latest = stack.isEmpty() ? belowRoot : Math.max(
+                            directlyBelowRoot,
+                            latest(below, stack.get(stack.size() - 1)));
+                    for (int j = 0; j < stack.size() - 1; j++) {
+                        latest = Math.max(latest,
+                                latest(directlyBelow, stack.get(j)));
+                    }
+                    if (latest > batch.position) {
+                        batch = null;
+                    }
+                } else {
+                    batch = null;
+                }
+                if (batch == null) {
+                    batch = new DeleteStep.Batch(current, i);
+                    open.put(key, batch);
+                    batches.add(batch);
+                } else {
+                    batch.add(current);
+                    position = batch.position;
+                }
+            }
+
+            belowRoot = Math.max(belowRoot, position);
+            if (stack.isEmpty()) {
+                directlyBelowRoot = Math.max(directlyBelowRoot, position);
+            } else {
+                final GraphStep parent = stack.get(stack.size() - 1);
+                directlyBelow.put(parent,
+                        Math.max(latest(directlyBelow, parent), position));
+            }
+            for (GraphStep container : stack) {
+                below.put(container,
+                        Math.max(latest(below, container), position));
+            }
+        }
+
+        for (DeleteStep.Batch batch : batches) {
+            if (batch.steps.size() == 1) {
+                batch.steps.get(0).setBatch(null);
+            }
+        }
+    }
+
+    private static int latest(Map<GraphStep, Integer> positions,
+            GraphStep container) {
+        final Integer position = positions.get(container);
+        return position == null ? -1 : position;
+    }
+
 }
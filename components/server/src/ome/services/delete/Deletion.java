@@ -27,10 +27,14 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ome.io.bioformats.BfPyramidPixelBuffer;
 import ome.io.nio.AbstractFileSystemService;
 import ome.io.nio.PixelsService;
+import ome.io.nio.PyramidCheckpoint;
 import ome.services.graphs.GraphException;
 import ome.services.graphs.GraphSpec;
 import ome.services.graphs.GraphState;
@@ -88,11 +92,17 @@ public class Deletion {
 
         protected ExtendedMetadata em;
 
+        protected Executor binaryExecutor;
+
         public Builder(AbstractFileSystemService afs, ExtendedMetadata em) {
             this.afs = afs;
             this.em = em;
         }
 
+        public void setBinaryExecutor(Executor binaryExecutor) {
+            this.binaryExecutor = binaryExecutor;
+        }
+
         /* @Override - JDK6 only */
         public void setApplicationContext(ApplicationContext ctx)
             throws BeansException {
@@ -105,7 +115,9 @@ public class Deletion {
             ClassPathXmlApplicationContext specs = new ClassPathXmlApplicationContext(
                 new String[]{"classpath:ome/services/spec.xml"}, this.ctx);
             DeleteStepFactory dsf = new DeleteStepFactory(this.ctx, em);
-            return new Deletion(specs, dsf, afs, this.ctx);
+            Deletion deletion = new Deletion(specs, dsf, afs, this.ctx);
+            deletion.setBinaryExecutor(binaryExecutor);
+            return deletion;
         }
 
         @Override
@@ -120,6 +132,13 @@ public class Deletion {
     private static final List<String> fileTypeList = Collections.unmodifiableList(
             Arrays.asList( "OriginalFile", "Pixels", "Thumbnail"));
 
+    /**
+     * Number of slices of the deleted ids whose binary files are removed in
+     * parallel when a {@link #setBinaryExecutor(Executor) binary executor}
+     * is set.
+     */
+    private static final int BINARY_SLICES = 4;
+
     //
     // Ctor/injection state
     //
@@ -132,6 +151,8 @@ public class Deletion {
 
     private final ApplicationContext specs;
 
+    private Executor binaryExecutor;
+
     //
     // Command state (on start)
     //
@@ -166,10 +187,6 @@ public class Deletion {
 
     private long stop;
 
-    private long bytesFailed = 0;
-
-    private long filesFailed = 0;
-
     private long actualDeletes = 0;
 
     private HashMap<String, long[]> undeletedFiles;
@@ -184,6 +201,14 @@ public class Deletion {
 
     }
 
+    /**
+     * Sets the executor on which {@link #deleteFiles()} removes binary files
+     * in the background, or null to remove them on the calling thread.
+     */
+    public void setBinaryExecutor(Executor binaryExecutor) {
+        this.binaryExecutor = binaryExecutor;
+    }
+
     //
     // Getters
     //
@@ -298,6 +323,22 @@ public class Deletion {
         return error.length() > 0;
     }
 
+    /**
+     * Returns the graph being deleted, e.g. to split it into chunks.
+     */
+    public GraphState getGraphState() {
+        return state;
+    }
+
+    /**
+     * Continues the delete in the current transaction, which ends before the
+     * given step. See {@link GraphState#attach(SqlAction, Session, int)}.
+     */
+    public void attach(SqlAction sql, Session session, int limit) {
+        this.session = session;
+        state.attach(sql, session, limit);
+    }
+
     public void execute(int step) throws Throwable {
         final StopWatch sw = new Slf4JStopWatch();
         try {
@@ -330,10 +371,7 @@ public class Deletion {
         Set<Long> filesets = new HashSet<Long>();
         for (int i = 0; i < state.getTotalFoundCount(); i++) {
             DeleteStep step = (DeleteStep) state.getStep(i);
-            Long fsId = step.getFilesetId();
-            if (fsId != null) {
-                filesets.add(fsId);
-            }
+            filesets.addAll(step.getFilesetIds());
         }
         if (filesets.size() > 0) {
             QueryBuilder qb = new QueryBuilder();
@@ -353,7 +391,14 @@ public class Deletion {
      * For each Report use the map of tables to deleted ids to remove the files
      * under Files, Pixels and Thumbnails if the ids no longer exist in the db.
      * Create a map of failed ids (not yet passed back to client).
-      */
+     *
+     * If an executor has been {@link #setBinaryExecutor(Executor) set} the ids
+     * are split into {@link #BINARY_SLICES} slices whose files are removed in
+     * parallel on the executor after this method has returned. The files
+     * which could not be removed are then only logged, once the last slice
+     * is done: {@link #getUndeletedFiles()} holds no ids and no warning is
+     * added.
+     */
     public void deleteFiles() {
         StopWatch sw = new Slf4JStopWatch();
         try {
@@ -365,94 +410,108 @@ public class Deletion {
 
     private void _deleteFiles() {
 
-        File file;
-        String filePath;
-
-        HashMap<String, ArrayList<Long>> failedMap = new HashMap<String, ArrayList<Long>>();
-
-        bytesFailed = 0;
-        filesFailed = 0;
+        final int slices = binaryExecutor == null ? 1 : BINARY_SLICES;
+        final List<BinaryRemoval> removals = new ArrayList<BinaryRemoval>();
+        for (int i = 0; i < slices; i++) {
+            removals.add(new BinaryRemoval(type, id));
+        }
+        int next = 0;
         for (String fileType : fileTypeList) {
             Set<Long> deletedIds = state.getProcessedIds(fileType);
-            failedMap.put(fileType, new ArrayList<Long>());
-            if (deletedIds != null && deletedIds.size() > 0) {
-                log.debug(String.format("Binary delete of %s for %s:%s: %s",
-                        fileType, type, id,
-                        deletedIds));
-                for (Long id : deletedIds) {
-                    file = null; // Clear
-                    if (fileType.equals("OriginalFile")) {
-                        // First we give the repositories a chance to delete
-                        // FS-based files.
-                        DeleteLogMessage dlm = new DeleteLogMessage(this, id);
-                        try {
-                            ctx.publishMessage(dlm);
-                        }
-                        catch (Throwable e) {
-                            log.warn("Error on DeleteLogMessage", e);
-                            filesFailed++;
-                            failedMap.get(fileType).add(id);
-                            // No way to calculate size!
-                        }
-                        // Regardless of what type of exception may have been
-                        // thrown above, if no logs were found via the publish
-                        // message, we have to assume that the files are local.
-                        // This may just log that the file doesn't exist.
-                        if (dlm.count() == 0) {
-                            filePath = afs.getFilesPath(id);
-                            file = new File(filePath);
-                        }
-                    } else if (fileType.equals("Thumbnail")) {
-                        filePath = afs.getThumbnailPath(id);
-                        file = new File(filePath);
-                    } else { // Pixels
-                        filePath = afs.getPixelsPath(id);
-                        file = new File(filePath);
-                        // Try to remove a _pyramid file if it exists
-                        File pyrFile = new File(filePath + PixelsService.PYRAMID_SUFFIX);
-                        deleteSingleFile(pyrFile, fileType, id, failedMap);
-
-                        File dir = file.getParentFile();
-                        // Now any lock file
-                        File lockFile = new File(dir, "." + id + PixelsService.PYRAMID_SUFFIX
-                                + BfPyramidPixelBuffer.PYR_LOCK_EXT);
-                        deleteSingleFile(lockFile, fileType, id, failedMap);
-
-                        // Now any tmp files
-                        FileFilter tmpFileFilter = new WildcardFileFilter("."
-                                + id + PixelsService.PYRAMID_SUFFIX + "*.tmp");
-                        File[] tmpFiles = dir.listFiles(tmpFileFilter);
-                        if(tmpFiles != null) {
-                            for (int i = 0; i < tmpFiles.length; i++) {
-                                deleteSingleFile(tmpFiles[i], fileType, id, failedMap);
-                            }
+            if (deletedIds != null) {
+                for (Long deletedId : deletedIds) {
+                    removals.get(next++ % slices).add(fileType, deletedId);
+                }
+            }
+        }
+
+        if (binaryExecutor == null) {
+            removals.get(0).run();
+            undeletedFiles = report(removals, this.warning);
+            return; // EARLY EXIT
+        }
+
+        final List<BinaryRemoval> started = new ArrayList<BinaryRemoval>();
+        for (BinaryRemoval removal : removals) {
+            if (!removal.isEmpty()) {
+                started.add(removal);
+            }
+        }
+        final AtomicInteger remaining = new AtomicInteger(started.size());
+        for (final BinaryRemoval removal : started) {
+            Runnable task = new Runnable() {
+                public void run() {
+                    try {
+                        removal.run();
+                    } catch (Throwable t) {
+                        log.error("Failed to remove binaries of " + removal, t);
+                        removal.failed = true;
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            report(started, new StringBuilder());
                         }
                     }
+                }
+            };
+            try {
+                binaryExecutor.execute(task);
+            } catch (RejectedExecutionException ree) {
+                task.run();
+            }
+        }
+        undeletedFiles = new HashMap<String, long[]>();
+        for (String fileType : fileTypeList) {
+            undeletedFiles.put(fileType, new long[0]);
+        }
+    }
 
-                    // File will be null, for example if this is a repository
-                    // file.
-                    if (file != null) {
-                        // Finally delete main file for any type.
-                        deleteSingleFile(file, fileType, id, failedMap);
-                    }
+    /**
+     * Collects the ids whose files could not be removed by the given
+     * removals, all of which are done, and logs them.
+     *
+     * @param warning to which a warning is appended if any file could not be
+     *            removed.
+     * @return the ids per file type.
+     */
+    private HashMap<String, long[]> report(List<BinaryRemoval> removals,
+            StringBuilder warning) {
+        final HashMap<String, ArrayList<Long>> failedMap = new HashMap<String, ArrayList<Long>>();
+        for (String fileType : fileTypeList) {
+            failedMap.put(fileType, new ArrayList<Long>());
+        }
+        long bytesFailed = 0;
+        long filesFailed = 0;
+        for (BinaryRemoval removal : removals) {
+            for (String fileType : fileTypeList) {
+                // Without the outcome of a slice, none of its files is
+                // known to have been removed.
+                List<Long> failed = removal.failed ? removal.deletedIds.get(fileType)
+                        : removal.failedMap.get(fileType);
+                failedMap.get(fileType).addAll(failed);
+                if (removal.failed) {
+                    filesFailed += failed.size();
                 }
             }
+            if (!removal.failed) {
+                bytesFailed += removal.bytesFailed;
+                filesFailed += removal.filesFailed;
+            }
         }
 
-        undeletedFiles = new HashMap<String, long[]>();
+        final HashMap<String, long[]> undeleted = new HashMap<String, long[]>();
         for (String key : failedMap.keySet()) {
             List<Long> ids = failedMap.get(key);
             long[] array = new long[ids.size()];
             for (int i = 0; i < array.length; i++) {
                 array[i] = ids.get(i);
             }
-            undeletedFiles.put(key, array);
+            undeleted.put(key, array);
         }
         if (filesFailed > 0) {
-            String warning = "Warning: " + Long.toString(filesFailed) + " file(s) comprising "
+            String msg = "Warning: " + Long.toString(filesFailed) + " file(s) comprising "
                     + Long.toString(bytesFailed) + " bytes were not removed.";
-            this.warning.append(warning);
-            log.warn(warning);
+            warning.append(msg);
+            log.warn(msg);
         }
         if (log.isDebugEnabled()) {
             for (String table : failedMap.keySet()) {
@@ -460,27 +519,167 @@ public class Deletion {
                         + failedMap.get(table).toString());
             }
         }
+        return undeleted;
     }
 
     /**
-     * Helper to delete and log
+     * Removal of the binary files of some of the rows deleted by a single
+     * deletion, independent of the state of the {@link Deletion} so that it
+     * may run on another thread.
      */
-    private void deleteSingleFile(File file, String fileType, Long id,
-            HashMap<String, ArrayList<Long>> failedMap)
-    {
-        if (file.exists()) {
-            if (file.delete()) {
-                log.debug("DELETED: " + file.getAbsolutePath());
+    private class BinaryRemoval implements Runnable {
+
+        private final String type;
+
+        private final long id;
+
+        /**
+         * Ids of the deleted rows per file type.
+         */
+        private final Map<String, List<Long>> deletedIds = new HashMap<String, List<Long>>();
+
+        private final HashMap<String, ArrayList<Long>> failedMap = new HashMap<String, ArrayList<Long>>();
+
+        private long bytesFailed = 0;
+
+        private long filesFailed = 0;
+
+        /**
+         * Whether the removal failed part way, so that none of its files is
+         * known to have been removed.
+         */
+        private volatile boolean failed = false;
+
+        BinaryRemoval(String type, long id) {
+            this.type = type;
+            this.id = id;
+            for (String fileType : fileTypeList) {
+                deletedIds.put(fileType, new ArrayList<Long>());
+                failedMap.put(fileType, new ArrayList<Long>());
+            }
+        }
+
+        void add(String fileType, Long deletedId) {
+            deletedIds.get(fileType).add(deletedId);
+        }
+
+        boolean isEmpty() {
+            for (List<Long> ids : deletedIds.values()) {
+                if (!ids.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public void run() {
+
+            File file;
+            String filePath;
+
+            for (String fileType : fileTypeList) {
+                List<Long> deletedIds = this.deletedIds.get(fileType);
+                if (deletedIds.size() > 0) {
+                    log.debug(String.format("Binary delete of %s for %s:%s: %s",
+                            fileType, type, id,
+                            deletedIds));
+                    for (Long id : deletedIds) {
+                        file = null; // Clear
+                        if (fileType.equals("OriginalFile")) {
+                            // First we give the repositories a chance to delete
+                            // FS-based files.
+                            DeleteLogMessage dlm = new DeleteLogMessage(Deletion.this, id);
+                            try {
+                                ctx.publishMessage(dlm);
+                            }
+                            catch (Throwable e) {
+                                log.warn("Error on DeleteLogMessage", e);
+                                filesFailed++;
+                                failedMap.get(fileType).add(id);
+                                // No way to calculate size!
+                            }
+                            // Regardless of what type of exception may have been
+                            // thrown above, if no logs were found via the publish
+                            // message, we have to assume that the files are local.
+                            // This may just log that the file doesn't exist.
+                            if (dlm.count() == 0) {
+                                filePath = afs.getFilesPath(id);
+                                file = new File(filePath);
+                            }
+                        } else if (fileType.equals("Thumbnail")) {
+                            filePath = afs.getThumbnailPath(id);
+                            file = new File(filePath);
+                        } else { // Pixels
+                            filePath = afs.getPixelsPath(id);
+                            file = new File(filePath);
+                            // Try to remove a _pyramid file if it exists
+                            File pyrFile = new File(filePath + PixelsService.PYRAMID_SUFFIX);
+                            deleteSingleFile(pyrFile, fileType, id);
+                            // and the statistics of the channels
+                            File statsFile = new File(filePath + PixelsService.STATS_SUFFIX);
+                            deleteSingleFile(statsFile, fileType, id);
+
+                            File dir = file.getParentFile();
+                            // Now any lock file
+                            File lockFile = new File(dir, "." + id + PixelsService.PYRAMID_SUFFIX
+                                    + BfPyramidPixelBuffer.PYR_LOCK_EXT);
+                            deleteSingleFile(lockFile, fileType, id);
+
+                            // the partial file and checkpoint of a pyramid
+                            // whose generation was interrupted
+                            File partialFile = new File(dir, "." + id + PixelsService.PYRAMID_SUFFIX
+                                    + BfPyramidPixelBuffer.PYR_PARTIAL_EXT);
+                            deleteSingleFile(partialFile, fileType, id);
+                            File checkpointFile = new File(dir, "." + id + PixelsService.PYRAMID_SUFFIX
+                                    + PyramidCheckpoint.PYR_CHECKPOINT_EXT);
+                            deleteSingleFile(checkpointFile, fileType, id);
+
+                            // Now any tmp files
+                            FileFilter tmpFileFilter = new WildcardFileFilter("."
+                                    + id + PixelsService.PYRAMID_SUFFIX + "*.tmp");
+                            File[] tmpFiles = dir.listFiles(tmpFileFilter);
+                            if(tmpFiles != null) {
+                                for (int i = 0; i < tmpFiles.length; i++) {
+                                    deleteSingleFile(tmpFiles[i], fileType, id);
+                                }
+                            }
+                        }
+
+                        // File will be null, for example if this is a repository
+                        // file.
+                        if (file != null) {
+                            // Finally delete main file for any type.
+                            deleteSingleFile(file, fileType, id);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Helper to delete and log
+         */
+        private void deleteSingleFile(File file, String fileType, Long id)
+        {
+            if (file.exists()) {
+                if (file.delete()) {
+                    log.debug("DELETED: " + file.getAbsolutePath());
+                } else {
+                    log.debug("Failed to delete " + file.getAbsolutePath());
+                    failedMap.get(fileType).add(id);
+                    filesFailed++;
+                    bytesFailed += file.length();
+                }
             } else {
-                log.debug("Failed to delete " + file.getAbsolutePath());
-                failedMap.get(fileType).add(id);
-                filesFailed++;
-                bytesFailed += file.length();
+                log.debug("File " + file.getAbsolutePath() + " does not exist.");
             }
-        } else {
-            log.debug("File " + file.getAbsolutePath() + " does not exist.");
         }
-    }
 
+        @Override
+        public String toString() {
+            return type + ":" + id;
+        }
+
+    }
 
 }
@@ -342,12 +342,26 @@ public class BaseGraphSpec implements GraphSpec, BeanNameAware {
     }
 
     public QueryBuilder deleteQuery(EventContext ec, String table, GraphOpts opts) {
-        final QueryBuilder qb = new QueryBuilder();
+        return deleteQuery(ec, table, opts, false, "id = :id");
+    }
+
+    public QueryBuilder bulkDeleteQuery(EventContext ec, String table,
+            GraphOpts opts) {
+        return deleteQuery(ec, table, opts, false, "id in (:ids)");
+    }
+
+    /**
+     * Builds the delete queries with the given restriction on the ids,
+     * either as SQL or as HQL.
+     */
+    protected QueryBuilder deleteQuery(EventContext ec, String table,
+            GraphOpts opts, boolean sqlQuery, String idClause) {
+        final QueryBuilder qb = new QueryBuilder(sqlQuery);
         qb.delete(table);
         qb.where();
-        qb.and("id = :id");
+        qb.and(idClause);
         if (!opts.isForce()) {
-            permissionsClause(ec, qb, false);
+            permissionsClause(ec, qb, sqlQuery);
         }
         return qb;
     }
@@ -184,6 +184,14 @@ public interface GraphSpec {
 
     QueryBuilder deleteQuery(EventContext ec, String table, GraphOpts opts);
 
+    /**
+     * Return a {@link QueryBuilder} like
+     * {@link #deleteQuery(EventContext, String, GraphOpts)} but which deletes
+     * all the rows whose ids are in the "ids" list parameter rather than the
+     * single row given by the "id" parameter.
+     */
+    QueryBuilder bulkDeleteQuery(EventContext ec, String table, GraphOpts opts);
+
     /**
      * Returns an iterator over all subspecs and their subspecs, depth-first.
      */
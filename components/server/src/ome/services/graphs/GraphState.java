@@ -85,9 +85,30 @@ public class GraphState implements GraphStep.Callback {
 
     private final GraphOpts opts = new GraphOpts();
 
-    private final Session session;
+    /**
+     * Not final. Replaced by {@link #attach(SqlAction, Session, int)} when
+     * the steps are processed in chunks, one transaction per chunk.
+     */
+    private Session session;
+
+    private SqlAction sql;
+
+    /**
+     * Position of the first step which will not be processed in the current
+     * transaction. See {@link #getLimit()}.
+     */
+    private int limit;
 
-    private final SqlAction sql;
+    /**
+     * {@link GraphSpec} at the root of the graph.
+     */
+    private final GraphSpec spec;
+
+    /**
+     * Copy of the ids processed up to the last {@link #committed()} chunk,
+     * or null if no chunk has been committed yet.
+     */
+    private Map<String, Set<Long>> committedIds = null;
 
     /**
      *
@@ -156,6 +177,8 @@ public class GraphState implements GraphStep.Callback {
         for (GraphStep step : this.steps) {
             step.setEventContext(gec);
         }
+        this.limit = this.steps.size();
+        this.spec = spec;
     }
 
     //
@@ -485,6 +508,199 @@ public class GraphState implements GraphStep.Callback {
         }
     }
 
+    //
+    // Chunks
+    //
+
+    /**
+     * Returns the positions at which the steps can be split into chunks of
+     * at least the given number of steps, each of which may be committed
+     * in a transaction of its own, ending with the number of steps. A chunk
+     * may only end where no SOFT container is open, since rolling it back
+     * would no longer undo what has been committed, and where the objects
+     * at the root of the graph and of each open container have not been
+     * processed yet, so that {@link #remainder(int)} can describe the rest.
+     */
+    public List<Integer> chunks(int size) {
+        final Map<GraphStep, Integer> roots = roots();
+        final List<Integer> ends = new ArrayList<Integer>();
+        int start = 0;
+        for (int j = 0; j < steps.size() - 1; j++) {
+            if (j + 1 - start >= size && isCommittable(j, roots)) {
+                ends.add(j + 1);
+                start = j + 1;
+            }
+        }
+        ends.add(steps.size());
+        return ends;
+    }
+
+    /**
+     * Continues the processing in the current transaction, which ends
+     * before the step at the given position, using its session.
+     */
+    public void attach(SqlAction sql, Session session, int limit) {
+        this.sql = sql;
+        this.session = session;
+        this.limit = limit;
+    }
+
+    /**
+     * Returns the position of the first step which will not be processed in
+     * the current transaction. Steps may not act on the rows of later steps
+     * since those may not be committed together with their own.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Releases the savepoints of the containers which are still open after
+     * the last step of the current transaction, innermost first, so that
+     * their ids are counted and their {@link EventLogMessage}s raised before
+     * the transaction is committed. Their later steps are then processed
+     * without a savepoint for the container.
+     */
+    public void checkpoint() throws GraphException {
+        final GraphStep last = steps.get(limit - 1);
+        for (int i = last.stack.size() - 1; i >= 0; i--) {
+            final GraphStep parent = last.stack.get(i);
+            if (parent.hasSavepoint()) {
+                parent.release(this);
+            }
+        }
+    }
+
+    /**
+     * Records the ids processed so far as committed. To be called once the
+     * transaction of a chunk has been committed.
+     */
+    public void committed() {
+        committedIds = copy(actualIds.getFirst());
+    }
+
+    /**
+     * Forgets the ids processed since the last {@link #committed()} chunk,
+     * i.e. those of a chunk which was rolled back.
+     */
+    public void revert() {
+        actualIds.clear();
+        actualIds.add(committedIds == null ? new HashMap<String, Set<Long>>()
+                : copy(committedIds));
+    }
+
+    /**
+     * Returns the graphs which still have to be processed, innermost first,
+     * if the steps up to the given position have been committed but no
+     * later ones. Each is given as the name of its {@link GraphSpec} and the
+     * id of its root object, separated by a colon. The last is the graph of
+     * this instance itself.
+     */
+    public List<String> remainder(int from) {
+        final List<String> graphs = new ArrayList<String>();
+        if (from > 0 && from < steps.size()) {
+            final Map<GraphStep, Integer> roots = roots();
+            final GraphStep last = steps.get(from - 1);
+            final GraphStep next = steps.get(from);
+            for (int i = last.stack.size() - 1; i >= 0; i--) {
+                final GraphStep container = last.stack.get(i);
+                if (!next.stack.contains(container)) {
+                    continue; // Completed
+                }
+                // Its containers which have not been started may no longer
+                // be reachable from it.
+                for (int j = from; steps.get(j) != container; j++) {
+                    final GraphStep step = steps.get(j);
+                    if (step.getIds() == null && step.parent == container) {
+                        graphs.add(graph(step, roots));
+                    }
+                }
+                graphs.add(graph(container, roots));
+            }
+        }
+        graphs.add(spec.getName() + ":" + rootId());
+        return graphs;
+    }
+
+    /**
+     * Whether the steps up to and including the given one can be committed
+     * on their own.
+     */
+    private boolean isCommittable(int j, Map<GraphStep, Integer> roots) {
+        final Integer root = roots.get(null);
+        if (root == null || root <= j) {
+            return false;
+        }
+        final GraphStep next = steps.get(j + 1);
+        for (GraphStep container : steps.get(j).stack) {
+            if (next.stack.contains(container)) {
+                final Integer position = roots.get(container);
+                if (container.entry.isSoft() || position == null
+                        || position <= j) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Maps each container to the position of the step which processes the
+     * object at its root, i.e. the step directly below it whose entry is
+     * named after the container's {@link GraphSpec}, and null to the
+     * position of the step which processes the object at the root of the
+     * whole graph.
+     */
+    private Map<GraphStep, Integer> roots() {
+        final Map<GraphStep, Integer> roots = new HashMap<GraphStep, Integer>();
+        final String rootTable = spec.getName() == null ? null
+                : new GraphEntry(spec, spec.getName()).path(null)[0];
+        final long rootId = rootId();
+        for (int j = 0; j < steps.size(); j++) {
+            final GraphStep step = steps.get(j);
+            if (step.getIds() == null) {
+                continue;
+            }
+            if (step.id == rootId && step.table.equals(rootTable)
+                    && !roots.containsKey(null)) {
+                roots.put(null, j);
+            }
+            if (step.parent != null && step.parent.entry.getSubSpec() != null
+                    && step.entry.getName().equals(
+                            step.parent.entry.getSubSpec().getName())) {
+                roots.put(step.parent, j);
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * Returns the id of the object at the root of the graph, which is the
+     * first of the ids of each step since these are given from the root
+     * down.
+     */
+    private long rootId() {
+        for (GraphStep step : steps) {
+            if (step.getIds() != null) {
+                return step.getIds()[0];
+            }
+        }
+        return -1;
+    }
+
+    private String graph(GraphStep container, Map<GraphStep, Integer> roots) {
+        return container.entry.getSubSpec().getName() + ":"
+                + steps.get(roots.get(container)).id;
+    }
+
+    private static Map<String, Set<Long>> copy(Map<String, Set<Long>> ids) {
+        final Map<String, Set<Long>> copy = new HashMap<String, Set<Long>>();
+        for (Map.Entry<String, Set<Long>> entry : ids.entrySet()) {
+            copy.put(entry.getKey(), new HashSet<Long>(entry.getValue()));
+        }
+        return copy;
+    }
+
     /**
      * Finds all {@link GraphStep} instances in {@link #steps} which have the
      * given {@link GraphStep} argument in their {@link GraphStep#stack} which
@@ -59,6 +59,12 @@ public abstract class GraphStep {
 
         Iterable<Map.Entry<String, Set<Long>>> entrySet();
 
+        /**
+         * Position of the first step which will not be processed in the
+         * current transaction.
+         */
+        int getLimit();
+
     }
 
     private static Logger log = LoggerFactory.getLogger(GraphStep.class);
@@ -264,6 +270,13 @@ public abstract class GraphStep {
         rollbackOnly = true;
     }
 
+    /**
+     * Whether this step has been rolled back or is to be skipped.
+     */
+    public boolean isRollbackOnly() {
+        return rollbackOnly;
+    }
+
     public boolean hasSavepoint() {
         return savepoint != null;
     }
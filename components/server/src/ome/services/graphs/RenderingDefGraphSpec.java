@@ -58,15 +58,13 @@ public class RenderingDefGraphSpec extends BaseGraphSpec {
      */
     @Override
     public QueryBuilder deleteQuery(EventContext ec, String table, GraphOpts opts) {
-        // Copied from BaseGraphSpec
-        final QueryBuilder qb = new QueryBuilder(true); // SQL QUERY #9496
-        qb.delete(table);
-        qb.where();
-        qb.and("id = :id");
-        if (!opts.isForce()) {
-            permissionsClause(ec, qb, true);
-        }
-        return qb;
+        return deleteQuery(ec, table, opts, true, "id = :id"); // SQL QUERY #9496
+    }
+
+    @Override
+    public QueryBuilder bulkDeleteQuery(EventContext ec, String table,
+            GraphOpts opts) {
+        return deleteQuery(ec, table, opts, true, "id in (:ids)");
     }
 
 }
@@ -35,6 +35,12 @@ public class PersistentEventLogLoader extends ome.services.eventlogs.PersistentE
 
     protected List<long[]> dataPerUser = null;
 
+    /**
+     * The highest event log id returned by {@link #recent()}. Not persisted,
+     * since recent event logs are also found by {@link #query()}.
+     */
+    protected long recentId = -1;
+
     public PersistentEventLogLoader(String repo, int numThreads) {
         this.repo = repo;
         this.numThreads = numThreads;
@@ -91,6 +97,28 @@ public class PersistentEventLogLoader extends ome.services.eventlogs.PersistentE
         return null;
     }
 
+    /**
+     * Returns the newest PIXELDATA event logs, up to {@link #numThreads}, that
+     * were added since the last call, as <code>experimenter, eventlog,
+     * pixels</code> arrays. These are usually pixels which a viewer is waiting
+     * for and they can be handled ahead of the older event logs returned by
+     * {@link #query()}, which will return them again later on.
+     */
+    public List<long[]> recent() {
+        final long last = Math.max(recentId, getCurrentId());
+        List<long[]> rv = sql.recentPixelsDataLogForRepo(repo, last, numThreads);
+        if (rv == null) {
+            return new ArrayList<long[]>();
+        }
+        for (long[] data : rv) {
+            if (data[1] > recentId) {
+                recentId = data[1];
+            }
+            log.debug("Recent: " + Arrays.toString(data));
+        }
+        return rv;
+    }
+
     protected boolean available() {
         return dataPerUser != null && dataPerUser.size() > 0;
     }
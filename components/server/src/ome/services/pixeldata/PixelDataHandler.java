@@ -41,8 +41,12 @@ public class PixelDataHandler extends SimpleWork {
 
     final protected PixelsService pixelsService;
 
+    final protected PixelDataQueue queue = new PixelDataQueue();
+
     protected int reps = 5;
 
+    protected ThumbnailGenerator thumbnailGenerator;
+
     /**
      * Spring injector. Sets the number of indexing runs will be made if there
      * is a substantial backlog.
@@ -52,6 +56,14 @@ public class PixelDataHandler extends SimpleWork {
         ;
     }
 
+    /**
+     * Spring injector. Sets the generator of the thumbnails created once a
+     * pyramid is made; none are created if null.
+     */
+    public void setThumbnailGenerator(ThumbnailGenerator thumbnailGenerator) {
+        this.thumbnailGenerator = thumbnailGenerator;
+    }
+
     public PixelDataHandler(PersistentEventLogLoader ll, PixelsService pixelsService) {
         super("PixelDataHandler", "process");
         this.loader = ll;
@@ -70,47 +82,94 @@ public class PixelDataHandler extends SimpleWork {
     }
 
     /**
-     * Handles only single elements from the {@link PersistentEventLogLoader}
-     * in order to keep transactions short and safe.
+     * Handles only single elements from the {@link PixelDataQueue} in order to
+     * keep transactions short and safe. Concurrent workers each claim their
+     * own pixels set from the queue.
      *
+     * @return {@link Boolean#TRUE} if a pixels set was handled,
+     *         {@link Boolean#FALSE} if one was skipped and null if there was
+     *         nothing to process.
      * @see ticket:5814
      */
     @Transactional(readOnly = false)
     public Object doWork(Session session, ServiceFactory sf) {
 
-        EventLog eventLog = loadNext();
-        if (eventLog == null)
+        final PixelDataQueue.Entry entry = claimNext();
+        if (entry == null)
         {
             return null;
         }
 
-        final long start = System.currentTimeMillis();
-        final boolean handled = process(eventLog.getEntityId(), sf, session);
-        final String msg = String.format("EventLog:%s(entityId=%s) [%s ms.]",
-                eventLog.getId(), eventLog.getEntityId(),
-                (System.currentTimeMillis() - start));
+        try {
+            final long start = System.currentTimeMillis();
+            final boolean handled = process(entry.pixelsId, sf, session);
+            final String msg = String.format("EventLog:%s(entityId=%s%s) [%s ms.]",
+                    entry.eventLogId, entry.pixelsId,
+                    entry.priority ? ", priority" : "",
+                    (System.currentTimeMillis() - start));
 
-        if (handled) {
-            log.info("HANDLED "+ msg);
-        } else {
-            log.debug("SKIPPED "+ msg);
+            if (handled) {
+                log.info("HANDLED "+ msg);
+            } else {
+                log.debug("SKIPPED "+ msg);
+            }
+            return handled;
+        } finally {
+            queue.done(entry);
         }
+    }
 
-        return null;
+    /**
+     * Claims the next pixels set from the queue, refilling the queue from the
+     * event logs if it is empty.
+     */
+    private PixelDataQueue.Entry claimNext()
+    {
+        PixelDataQueue.Entry entry = queue.poll();
+        if (entry == null) {
+            refill();
+            entry = queue.poll();
+        }
+        return entry;
     }
 
     /**
      * Synchronized loading since the event log loader infrastructure assumes
-     * a single threaded environment.
+     * a single threaded environment. The most recent event logs are queued
+     * with priority on every call; the backlog only when the queue is empty.
      */
-    private synchronized EventLog loadNext()
+    private synchronized void refill()
     {
-        if (!loader.hasNext()) {
-            log.debug("No objects indexed");
-            return null;
+        for (long[] data : loader.recent()) {
+            queue.offerPriority(data[2], data[1]);
+        }
+
+        if (queue.getPrioritySize() > 0 || queue.getBacklogSize() > 0) {
+            return; // Filled by another worker meanwhile
+        }
+
+        while (loader.hasNext()) {
+            final EventLog eventLog = loader.next();
+            if (queue.offerBacklog(eventLog.getEntityId(), eventLog.getId())) {
+                return;
+            }
         }
+        log.debug("No objects indexed");
+    }
+
+    /**
+     * Returns the queue of the pixels sets waiting to be processed.
+     */
+    public PixelDataQueue getQueue() {
+        return queue;
+    }
 
-        return loader.next();
+    /**
+     * Returns the maximum number of pixels sets a single worker processes
+     * per run while there is a backlog.
+     */
+    public int getRepetitions() {
+        return reps;
     }
 
     /**
@@ -155,9 +214,33 @@ public class PixelDataHandler extends SimpleWork {
             return false;
         }
 
+        generateThumbnails(pixels, sf, s);
         return true;
     }
 
+    /**
+     * Creates the standard thumbnails of pixels whose pyramid was just made.
+     * Failures are only logged, within a savepoint, so that they never undo
+     * the statistics.
+     */
+    protected void generateThumbnails(Pixels pixels, ServiceFactory sf, Session s) {
+        if (thumbnailGenerator == null) {
+            return;
+        }
+        final SqlAction sql = getSqlAction();
+        final String savepoint = "thumbnails" + pixels.getId();
+        sql.createSavepoint(savepoint);
+        try {
+            final int count = thumbnailGenerator.generate(pixels, sf, s, sql);
+            sql.releaseSavepoint(savepoint);
+            log.info(String.format("Created %s thumbnails for pixels %s",
+                    count, pixels.getId()));
+        } catch (Exception t) {
+            sql.rollbackSavepoint(savepoint);
+            log.warn("Failed to create thumbnails for pixels " + pixels.getId(), t);
+        }
+    }
+
     protected Pixels getPixels(Long id, ServiceFactory sf)
     {
         final IQuery iQuery = sf.getQueryService();
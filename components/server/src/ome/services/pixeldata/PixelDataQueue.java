@@ -0,0 +1,205 @@
+/*
+ * ome.services.pixeldata.PixelDataQueue
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.pixeldata;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue of the pixels sets waiting for their pyramid and statistics to be
+ * created, shared by the workers of a {@link PixelDataThread}.
+ *
+ * Pixels sets are queued in one of two lanes: the priority lane, for pixels
+ * which were just requested by a viewer, and the backlog lane, for pixels
+ * found by walking the PIXELDATA event logs. {@link #poll()} always drains
+ * the priority lane first. A pixels set is queued at most once and offering
+ * it with priority while it waits in the backlog moves it ahead. Each entry
+ * is claimed atomically so that no two workers ever process the same pixels
+ * set at the same time.
+ *
+ * @since 5.0
+ */
+public class PixelDataQueue {
+
+    /**
+     * A queued pixels set.
+     */
+    public static class Entry {
+
+        final public long pixelsId;
+
+        /** The event log the pixels were found by, null if none. */
+        final public Long eventLogId;
+
+        final public boolean priority;
+
+        /** When the entry was queued, in milliseconds. */
+        final public long queued;
+
+        Entry(long pixelsId, Long eventLogId, boolean priority) {
+            this.pixelsId = pixelsId;
+            this.eventLogId = eventLogId;
+            this.priority = priority;
+            this.queued = System.currentTimeMillis();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Entry[Pixels:%s EventLog:%s%s]", pixelsId,
+                    eventLogId, priority ? " priority" : "");
+        }
+    }
+
+    private final Queue<Entry> priority = new ConcurrentLinkedQueue<Entry>();
+
+    private final Queue<Entry> backlog = new ConcurrentLinkedQueue<Entry>();
+
+    /**
+     * The live entry of each queued or claimed pixels set. Entries which are
+     * still in a lane but no longer in this map have been superseded and are
+     * dropped when polled.
+     */
+    private final ConcurrentMap<Long, Entry> entries =
+        new ConcurrentHashMap<Long, Entry>();
+
+    /** The pixels sets currently claimed by a worker. */
+    private final ConcurrentMap<Long, Entry> claimed =
+        new ConcurrentHashMap<Long, Entry>();
+
+    private final AtomicInteger prioritySize = new AtomicInteger();
+
+    private final AtomicInteger backlogSize = new AtomicInteger();
+
+    private final AtomicLong waitMillis = new AtomicLong();
+
+    private final AtomicLong polled = new AtomicLong();
+
+    /**
+     * Queues pixels which a viewer is waiting for.
+     *
+     * @return true if the pixels were queued or moved ahead, false if they
+     *         are already waiting with priority or being processed.
+     */
+    public boolean offerPriority(long pixelsId, Long eventLogId) {
+        final Entry entry = new Entry(pixelsId, eventLogId, true);
+        while (true) {
+            final Entry old = entries.putIfAbsent(pixelsId, entry);
+            if (old == null) {
+                break;
+            }
+            if (old.priority || claimed.containsKey(pixelsId)) {
+                return false;
+            }
+            if (entries.replace(pixelsId, old, entry)) {
+                break;
+            }
+        }
+        prioritySize.incrementAndGet();
+        priority.add(entry);
+        return true;
+    }
+
+    /**
+     * Queues pixels found in the backlog of PIXELDATA event logs.
+     *
+     * @return true if the pixels were queued, false if they are already
+     *         queued or being processed.
+     */
+    public boolean offerBacklog(long pixelsId, Long eventLogId) {
+        final Entry entry = new Entry(pixelsId, eventLogId, false);
+        if (entries.putIfAbsent(pixelsId, entry) != null) {
+            return false;
+        }
+        backlogSize.incrementAndGet();
+        backlog.add(entry);
+        return true;
+    }
+
+    /**
+     * Claims the next pixels set to process, favoring the priority lane.
+     * The returned entry must be passed to {@link #done(Entry)} once
+     * processed.
+     *
+     * @return the claimed entry or null if the queue is empty.
+     */
+    public Entry poll() {
+        Entry entry = claim(priority, prioritySize);
+        if (entry == null) {
+            entry = claim(backlog, backlogSize);
+        }
+        if (entry != null) {
+            polled.incrementAndGet();
+            waitMillis.addAndGet(System.currentTimeMillis() - entry.queued);
+        }
+        return entry;
+    }
+
+    private Entry claim(Queue<Entry> lane, AtomicInteger size) {
+        Entry entry;
+        while ((entry = lane.poll()) != null) {
+            size.decrementAndGet();
+            // Only the live entry can be claimed; superseded ones are dropped.
+            if (entries.get(entry.pixelsId) == entry
+                    && claimed.putIfAbsent(entry.pixelsId, entry) == null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Releases a claimed entry so that the pixels can be queued again.
+     */
+    public void done(Entry entry) {
+        claimed.remove(entry.pixelsId, entry);
+        entries.remove(entry.pixelsId, entry);
+    }
+
+    /**
+     * Returns the number of pixels sets waiting in the priority lane.
+     */
+    public int getPrioritySize() {
+        return prioritySize.get();
+    }
+
+    /**
+     * Returns the number of entries in the backlog lane, including those
+     * which were moved to the priority lane and not dropped yet.
+     */
+    public int getBacklogSize() {
+        return backlogSize.get();
+    }
+
+    /**
+     * Returns the number of pixels sets currently being processed.
+     */
+    public int getClaimedSize() {
+        return claimed.size();
+    }
+
+    /**
+     * Returns the average time, in milliseconds, that the claimed entries
+     * waited in the queue.
+     */
+    public long getAverageWaitMillis() {
+        final long count = polled.get();
+        return count == 0 ? 0 : waitMillis.get() / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PixelDataQueue[priority=%s, backlog=%s, "
+                + "processing=%s, wait=%s ms]", getPrioritySize(),
+                getBacklogSize(), getClaimedSize(), getAverageWaitMillis());
+    }
+
+}
@@ -8,16 +8,20 @@
 package ome.services.pixeldata;
 
 import java.sql.Timestamp;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import ome.conditions.InternalException;
 import ome.io.messages.MissingPyramidMessage;
+import ome.io.messages.PyramidProgressMessage;
 import ome.model.core.Pixels;
 import ome.model.enums.EventType;
 import ome.model.meta.Event;
@@ -31,6 +35,7 @@ import ome.services.util.Executor;
 import ome.system.EventContext;
 import ome.system.Principal;
 import ome.system.ServiceFactory;
+import ome.util.messages.InternalMessage;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,7 +48,7 @@ import org.springframework.transaction.annotation.Transactional;
  * @author Josh Moore, josh at glencoesoftware.com
  * @since Beta4.3
  */
-public class PixelDataThread extends ExecutionThread implements ApplicationListener<MissingPyramidMessage> {
+public class PixelDataThread extends ExecutionThread implements ApplicationListener<InternalMessage> {
 
     private final static Logger log = LoggerFactory.getLogger(PixelDataThread.class);
 
@@ -67,6 +72,19 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
      */
     private final boolean performProcessing;
 
+    /** The handler shared by all workers, holding their queue. */
+    private final PixelDataHandler handler;
+
+    /** Metrics of each worker, indexed by worker. */
+    private final WorkerMetrics[] metrics;
+
+    /**
+     * Latest {@link PyramidProgressMessage} for each pyramid being created
+     * by this process, keyed by pixels id.
+     */
+    private final Map<Long, PyramidProgressMessage> progress =
+        new ConcurrentHashMap<Long, PyramidProgressMessage>();
+
     /**
      * Uses default {@link Principal} for processing
      */
@@ -106,6 +124,11 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
         this.performProcessing = performProcessing;
         this.uuid = uuid;
         this.numThreads = numThreads;
+        this.handler = handler;
+        this.metrics = new WorkerMetrics[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            metrics[i] = new WorkerMetrics(i);
+        }
     }
 
     /**
@@ -123,6 +146,9 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
     }
 
     /**
+     * Starts {@link #numThreads} workers which each claim and process pixels
+     * sets from the {@link PixelDataQueue} until it is drained or they reach
+     * the handler's repetitions.
      */
     @Override
     public void doRun() {
@@ -130,7 +156,8 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
 
             // Single-threaded simplification
             if (numThreads == 1) {
-                executor.execute(getPrincipal(), work);
+                runWorker(metrics[0]);
+                logMetrics();
                 return;
             }
 
@@ -138,12 +165,14 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
                 new ExecutorCompletionService<Object>(executor.getService());
 
             for (int i = 0; i < numThreads; i++) {
+                final WorkerMetrics m = metrics[i];
                 ecs.submit(new Callable<Object>(){
                     /* Java5 does not support - @Override */
                     public Object call()
                         throws Exception
                     {
-                        return executor.execute(getPrincipal(), work);
+                        runWorker(m);
+                        return null;
                     }
                 });
             }
@@ -162,6 +191,33 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
 				        "Other threads may not have been successfully completed.",
                         ie); // slf4j migration: fatal() to error()
             }
+            logMetrics();
+        }
+    }
+
+    /**
+     * Processes one pixels set per transaction until the queue is drained or
+     * the repetitions are reached.
+     */
+    private void runWorker(WorkerMetrics m) {
+        final int reps = Math.max(1, handler.getRepetitions());
+        for (int i = 0; i < reps; i++) {
+            final long start = System.currentTimeMillis();
+            final Object rv = executor.execute(getPrincipal(), work);
+            if (rv == null) {
+                break;
+            }
+            m.record(Boolean.TRUE.equals(rv),
+                    System.currentTimeMillis() - start);
+        }
+    }
+
+    private void logMetrics() {
+        if (log.isDebugEnabled()) {
+            for (WorkerMetrics m : metrics) {
+                log.debug(m.toString());
+            }
+            log.debug(handler.getQueue().toString());
         }
     }
 
@@ -180,9 +236,55 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
         log.info("Shutting down PixelDataThread");
     }
 
-    public void onApplicationEvent(final MissingPyramidMessage mpm) {
+    /**
+     * Returns the progress of the pyramids currently being created by this
+     * process, keyed by pixels id.
+     */
+    public Map<Long, PyramidProgressMessage> getPyramidProgress() {
+        return Collections.unmodifiableMap(
+                new HashMap<Long, PyramidProgressMessage>(progress));
+    }
+
+    /**
+     * Returns the metrics of each worker.
+     */
+    public WorkerMetrics[] getWorkerMetrics() {
+        return metrics.clone();
+    }
+
+    /**
+     * Returns the queue of the pixels sets waiting to be processed.
+     */
+    public PixelDataQueue getQueue() {
+        return handler.getQueue();
+    }
+
+    public void onApplicationEvent(final InternalMessage msg) {
+        if (msg instanceof MissingPyramidMessage) {
+            onMissingPyramid((MissingPyramidMessage) msg);
+        } else if (msg instanceof PyramidProgressMessage) {
+            onPyramidProgress((PyramidProgressMessage) msg);
+        }
+    }
+
+    private void onPyramidProgress(final PyramidProgressMessage ppm) {
+        if (ppm.done) {
+            progress.remove(ppm.pixelsID);
+        } else {
+            progress.put(ppm.pixelsID, ppm);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Received: " + ppm);
+        }
+    }
+
+    private void onMissingPyramid(final MissingPyramidMessage mpm) {
 
         log.info("Received: " + mpm);
+        if (performProcessing) {
+            // A viewer is waiting on this process: jump the backlog.
+            handler.getQueue().offerPriority(mpm.pixelsID, null);
+        }
         // #5232. If this is called without an active event, then throw
         // an exception since a call to Executor should wrap whatever the
         // invoker is doing.
@@ -252,4 +354,62 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
             }
         });
     }
+
+    /**
+     * Counts the pixels sets processed by a single worker and the time it
+     * spent on them.
+     */
+    public static class WorkerMetrics {
+
+        final public int worker;
+
+        private final AtomicLong handled = new AtomicLong();
+
+        private final AtomicLong skipped = new AtomicLong();
+
+        private final AtomicLong millis = new AtomicLong();
+
+        WorkerMetrics(int worker) {
+            this.worker = worker;
+        }
+
+        void record(boolean wasHandled, long elapsed) {
+            if (wasHandled) {
+                handled.incrementAndGet();
+            } else {
+                skipped.incrementAndGet();
+            }
+            millis.addAndGet(elapsed);
+        }
+
+        public long getHandled() {
+            return handled.get();
+        }
+
+        public long getSkipped() {
+            return skipped.get();
+        }
+
+        /**
+         * Returns the total time spent processing, in milliseconds.
+         */
+        public long getMillis() {
+            return millis.get();
+        }
+
+        /**
+         * Returns the number of pixels sets processed per minute of work.
+         */
+        public double getThroughput() {
+            final long ms = getMillis();
+            return ms == 0 ? 0 : (getHandled() + getSkipped()) * 60000.0 / ms;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("PixelDataWorker-%s[handled=%s, skipped=%s, "
+                    + "%s ms, %.1f/min]", worker, getHandled(), getSkipped(),
+                    getMillis(), getThroughput());
+        }
+    }
 }
@@ -0,0 +1,227 @@
+/*
+ * ome.services.pixeldata.ThumbnailGenerator
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.pixeldata;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import ome.api.IPixels;
+import ome.api.local.LocalCompress;
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.io.nio.ThumbnailService;
+import ome.model.core.Channel;
+import ome.model.core.Pixels;
+import ome.model.display.RenderingDef;
+import ome.model.display.Thumbnail;
+import ome.model.enums.Family;
+import ome.model.enums.RenderingModel;
+import ome.parameters.Parameters;
+import ome.services.ThumbnailBean;
+import ome.services.ThumbnailCtx;
+import ome.system.ServiceFactory;
+import ome.util.ImageUtil;
+import ome.util.SqlAction;
+import omeis.providers.re.Renderer;
+import omeis.providers.re.RenderingExecutor;
+import omeis.providers.re.data.PlaneDef;
+import omeis.providers.re.quantum.QuantizationException;
+import omeis.providers.re.quantum.QuantumFactory;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the thumbnails of the standard sizes of a pixels set once its
+ * pyramid has been made, so that the first browse after a large import reads
+ * them from the thumbnail cache instead of rendering them all at once.
+ *
+ * Thumbnails are rendered with the rendering settings of the owner of the
+ * pixels set, each from the smallest pyramid level which is at least as large
+ * as the thumbnail, and are stored through the {@link ThumbnailService}.
+ * Missing thumbnail metadata is created with the events of the rendering
+ * settings so that the thumbnail service does not consider the thumbnails
+ * out of date. A pixels set whose owner has no rendering settings yet is
+ * skipped and logged; its thumbnails are created on first access.
+ *
+ * @since 5.0
+ */
+public class ThumbnailGenerator {
+
+    private final static Logger log = LoggerFactory.getLogger(ThumbnailGenerator.class);
+
+    /** The longest sides of the thumbnails created by default. */
+    public final static int[] DEFAULT_SIZES = { 48, 96, 256 };
+
+    final protected PixelsService pixelsService;
+
+    final protected ThumbnailService thumbnailService;
+
+    final protected LocalCompress compressionService;
+
+    final protected RenderingExecutor renderingExecutor;
+
+    protected int[] sizes = DEFAULT_SIZES;
+
+    public ThumbnailGenerator(PixelsService pixelsService,
+            ThumbnailService thumbnailService,
+            LocalCompress compressionService,
+            RenderingExecutor renderingExecutor) {
+        this.pixelsService = pixelsService;
+        this.thumbnailService = thumbnailService;
+        this.compressionService = compressionService;
+        this.renderingExecutor = renderingExecutor;
+    }
+
+    /**
+     * Spring injector. Sets the longest sides of the thumbnails to create.
+     * An empty array disables the generation.
+     */
+    public void setSizes(int[] sizes) {
+        this.sizes = sizes;
+    }
+
+    /**
+     * Creates or replaces the thumbnails of the pixels set. Must be called
+     * after its statistics have been set and within the same transaction.
+     *
+     * @param loaded the pixels set as loaded in the session.
+     * @return the number of thumbnails written.
+     */
+    public int generate(Pixels loaded, ServiceFactory sf, Session session,
+            SqlAction sql) throws IOException, QuantizationException {
+
+        if (sizes == null || sizes.length == 0) {
+            return 0;
+        }
+
+        // The statistics were set with SQL; evict the stale pixels and
+        // channels so that they are reloaded with them.
+        final long pixelsId = loaded.getId();
+        final Iterator<Channel> channels = loaded.iterateChannels();
+        while (channels.hasNext()) {
+            session.evict(channels.next());
+        }
+        session.evict(loaded);
+        final IPixels iPixels = sf.getPixelsService();
+        final Pixels pixels = iPixels.retrievePixDescription(pixelsId);
+        final long ownerId = pixels.getDetails().getOwner().getId();
+        final RenderingDef settings =
+            iPixels.retrieveRndSettingsFor(pixelsId, ownerId);
+        if (settings == null) {
+            // Settings made here would belong to the user running the
+            // pixel data thread rather than to the owner.
+            log.info("Owner " + ownerId + " has no rendering settings for " +
+                    "pixels " + pixelsId + "; its thumbnails will be " +
+                    "created on first access");
+            return 0;
+        }
+
+        final List<Thumbnail> thumbnails = sf.getQueryService().findAllByQuery(
+                "select t from Thumbnail as t where t.pixels.id = :id " +
+                "and t.details.owner.id = :o_id",
+                new Parameters().addId(pixelsId).addLong("o_id", ownerId));
+        final List<Dimension> done = new ArrayList<Dimension>();
+
+        final PixelBuffer buffer = pixelsService.getPixelBuffer(pixels, false);
+        final Renderer renderer = new Renderer(
+                new QuantumFactory(iPixels.getAllEnumerations(Family.class)),
+                iPixels.getAllEnumerations(RenderingModel.class),
+                pixels, settings, buffer, renderingExecutor);
+        try {
+            for (int size : sizes) {
+                final Dimension dimensions =
+                    ThumbnailCtx.calculateXYWidths(pixels, size);
+                if (done.contains(dimensions)) {
+                    continue;
+                }
+                final byte[] thumbnail =
+                    render(renderer, settings, dimensions);
+                Thumbnail metadata = find(thumbnails, dimensions);
+                if (metadata == null) {
+                    metadata = new Thumbnail();
+                    metadata.setPixels(new Pixels(pixelsId, false));
+                    metadata.setMimeType(ThumbnailBean.DEFAULT_MIME_TYPE);
+                    metadata.setSizeX((int) dimensions.getWidth());
+                    metadata.setSizeY((int) dimensions.getHeight());
+                    metadata.setId(sql.createThumbnail(settings, metadata));
+                }
+                thumbnailService.createThumbnail(metadata, thumbnail);
+                done.add(dimensions);
+            }
+        } finally {
+            renderer.close();
+        }
+        return done.size();
+    }
+
+    private Thumbnail find(List<Thumbnail> thumbnails, Dimension dimensions) {
+        for (Thumbnail thumbnail : thumbnails) {
+            if (thumbnail.getSizeX() == dimensions.getWidth()
+                    && thumbnail.getSizeY() == dimensions.getHeight()) {
+                return thumbnail;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Renders the default plane from the smallest resolution level which is
+     * at least as large as the thumbnail, or from the full resolution, and
+     * averages it down to the thumbnail.
+     */
+    private byte[] render(Renderer renderer, RenderingDef settings,
+            Dimension dimensions)
+        throws IOException, QuantizationException {
+
+        final PixelBuffer buffer = renderer.getPixels();
+        final int levels = buffer.getResolutionLevels();
+        for (int level = 0; levels > 1 && level < levels; level++) {
+            renderer.setResolutionLevel(level);
+            if (buffer.getSizeX() >= dimensions.getWidth()
+                    && buffer.getSizeY() >= dimensions.getHeight()) {
+                break;
+            }
+        }
+        final int sizeX = buffer.getSizeX();
+        final int sizeY = buffer.getSizeY();
+        log.debug(String.format("Using resolution level %d -- %dx%d",
+                buffer.getResolutionLevel(), sizeX, sizeY));
+
+        final PlaneDef pd = new PlaneDef(PlaneDef.XY, settings.getDefaultT());
+        pd.setZ(settings.getDefaultZ());
+        final Pixels rendererPixels = renderer.getMetadata();
+        final int originalSizeX = rendererPixels.getSizeX();
+        final int originalSizeY = rendererPixels.getSizeY();
+        final int[] rendered;
+        try {
+            rendererPixels.setSizeX(sizeX);
+            rendererPixels.setSizeY(sizeY);
+            rendered = renderer.renderAsPackedInt(pd, null);
+        } finally {
+            rendererPixels.setSizeX(originalSizeX);
+            rendererPixels.setSizeY(originalSizeY);
+        }
+
+        final int width = (int) dimensions.getWidth();
+        final int height = (int) dimensions.getHeight();
+        final BufferedImage scaled = ImageUtil.createBufferedImage(
+                ImageUtil.scaleAreaAveraged(rendered, sizeX, sizeY, null,
+                        width, height), width, height);
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        compressionService.compressToStream(scaled, stream);
+        return stream.toByteArray();
+    }
+
+}
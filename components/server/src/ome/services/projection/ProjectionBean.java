@@ -7,9 +7,20 @@
 
 package ome.services.projection;
 
+import java.awt.Dimension;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,6 +62,12 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
     
     /** Reference to the service used to retrieve the pixels data. */
     protected transient PixelsService pixelsService;
+
+    /**
+     * The executor projecting the stacks of a Pixels set concurrently. If
+     * <code>null</code>, they are projected on the calling thread.
+     */
+    protected transient ExecutorService projectionExecutor;
     
     /**
      * Returns the interface this implementation is for.
@@ -80,6 +97,17 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         getBeanHelper().throwIfAlreadySet(this.pixelsService, pixelsService);
         this.pixelsService = pixelsService;
     }
+
+    /**
+     * Projection executor bean injector. For use during configuration. Can
+     * only be called once.
+     */
+    public void setProjectionExecutor(ExecutorService projectionExecutor)
+    {
+        getBeanHelper().throwIfAlreadySet(this.projectionExecutor,
+                projectionExecutor);
+        this.projectionExecutor = projectionExecutor;
+    }
     
     /* (non-Javadoc)
      * @see ome.api.IProjection#projectStack(long, ome.model.enums.PixelsType, int, int, int, int, int, int)
@@ -89,61 +117,48 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
                                int algorithm, int timepoint, int channelIndex, 
                                int stepping, int start, int end)
     {
-        ProjectionContext ctx = new ProjectionContext();
-        ctx.pixels = iQuery.get(Pixels.class, pixelsId);
+        Pixels pixels = iQuery.get(Pixels.class, pixelsId);
         PixelBuffer pixelBuffer = pixelsService.getPixelBuffer(
-                ctx.pixels, false);
-        zIntervalBoundsCheck(start, end, ctx.pixels.getSizeZ());
+                pixels, false);
+        zIntervalBoundsCheck(start, end, pixels.getSizeZ());
         outOfBoundsStepping(stepping);
         outOfBoundsCheck(channelIndex, "channel");
         outOfBoundsCheck(timepoint, "timepoint");
-        Integer v = ctx.pixels.getSizeT();
+        Integer v = pixels.getSizeT();
         if (timepoint >= v)
             throw new ValidationException("timepoint must be <"+v);
-        v = ctx.pixels.getSizeC();
+        v = pixels.getSizeC();
         if (channelIndex >= v)
             throw new ValidationException("channel index must be <"+v);
         try
         {
-
+            StackProjector projector = new StackProjector(algorithm);
             if (pixelsType == null)
             {
-                pixelsType = ctx.pixels.getPixelsType();
+                pixelsType = pixels.getPixelsType();
             }
             else
             {
                 pixelsType = iQuery.get(PixelsType.class, pixelsType.getId());
             }
 
-            ctx.planeSizeInPixels = 
-                ctx.pixels.getSizeX() * ctx.pixels.getSizeY();
-            int planeSize = 
-                ctx.planeSizeInPixels * (iPixels.getBitDepth(pixelsType) / 8);
+            int sizeX = pixels.getSizeX();
+            int sizeY = pixels.getSizeY();
+            int planeSize =
+                sizeX * sizeY * (iPixels.getBitDepth(pixelsType) / 8);
             byte[] buf = new byte[planeSize];
-            ctx.from = pixelBuffer.getStack(channelIndex, timepoint);
-            ctx.to = new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf));
-
-            switch (algorithm)
+            PixelData to =
+                new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf));
+            Dimension tileSize = getTileSize(pixelBuffer, sizeX, sizeY);
+            for (int y = 0; y < sizeY; y += tileSize.height)
             {
-                case IProjection.MAXIMUM_INTENSITY:
-                {
-                    projectStackMax(ctx, stepping, start, end, false);
-                    break;
-                }
-                case IProjection.MEAN_INTENSITY:
-                {
-                    projectStackMean(ctx, stepping, start, end, false);
-                    break;
-                }
-                case IProjection.SUM_INTENSITY:
-                {
-                    projectStackSum(ctx, stepping, start, end, false);
-                    break;
-                }
-                default:
+                int h = Math.min(tileSize.height, sizeY - y);
+                for (int x = 0; x < sizeX; x += tileSize.width)
                 {
-                    throw new IllegalArgumentException(
-                            "Unknown algorithm: " + algorithm);
+                    int w = Math.min(tileSize.width, sizeX - x);
+                    projectRegion(pixelBuffer, projector, channelIndex,
+                            timepoint, x, y, w, h, stepping, start, end);
+                    projector.write(to, x, y, w, sizeX);
                 }
             }
             return buf;
@@ -160,25 +175,13 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         {
             String error = String.format(
                     "C=%d or T=%d out of range for Pixels Id %d: %s",
-                    channelIndex, timepoint, ctx.pixels.getId(), e.getMessage());
+                    channelIndex, timepoint, pixels.getId(), e.getMessage());
             log.error(error, e);
             throw new ValidationException(error);
         }
         finally
         {
-            try
-            {
-                pixelBuffer.close();
-            }
-            catch (IOException e)
-            {
-                log.error("Buffer did not close successfully.", e);
-                throw new ResourceError(
-                        e.getMessage() + " Please check server log.");
-            }
-            if (ctx.from != null) {
-                ctx.from.dispose();
-            }
+            close(pixelBuffer);
         }
     }
 
@@ -193,14 +196,15 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
                               int zStart, int zEnd, String name)
     {
         // First, copy and resize our image with sizeZ = 1.
-        ProjectionContext ctx = new ProjectionContext();
-        ctx.pixels = iQuery.get(Pixels.class, pixelsId);
-        Image image = ctx.pixels.getImage();
+        Pixels pixels = iQuery.get(Pixels.class, pixelsId);
+        Image image = pixels.getImage();
         name = name == null? image.getName() + " Projection" : name;
         //size of the new buffer.
         //Add control for z
-        zIntervalBoundsCheck(zStart, zEnd, ctx.pixels.getSizeZ());
+        zIntervalBoundsCheck(zStart, zEnd, pixels.getSizeZ());
         outOfBoundsStepping(stepping);
+        // Fails before anything is created if the algorithm is unknown.
+        new StackProjector(algorithm);
 
         Integer sizeT = tEnd-tStart+1;
         if (tStart > tEnd)
@@ -215,123 +219,332 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         Pixels newPixels = newImage.getPixels(0);
         if (pixelsType == null)
         {
-            pixelsType = ctx.pixels.getPixelsType();
+            pixelsType = pixels.getPixelsType();
         }
         else
         {
             pixelsType = iQuery.get(PixelsType.class, pixelsType.getId());
         }
         newPixels.setPixelsType(pixelsType);
-        
-        // Project each stack for each channel and each timepoint in the
-        // entire image, copying into the pixel buffer the projected pixels.
-        PixelBuffer sourceBuffer = pixelsService.getPixelBuffer(
-                ctx.pixels, false);
+
+        // Each stack of each channel and timepoint is a task.
+        List<ProjectionTask> tasks = new ArrayList<ProjectionTask>();
+        int newC = 0;
+        for (Integer c : channels)
+        {
+            for (int t = tStart; t <= tEnd; t++)
+            {
+                tasks.add(new ProjectionTask(c, newC, t, t - tStart));
+            }
+            newC++;
+        }
+
+        // Pyramids must be written plane after plane, otherwise the tasks
+        // are shared by workers, each reading from its own pixel buffer.
+        // All the buffers are opened here since it requires the database.
+        int workers = 1;
+        if (projectionExecutor != null
+            && !pixelsService.requiresPixelsPyramid(newPixels))
+        {
+            workers = Math.max(1, Math.min(tasks.size(),
+                    getProjectionWorkers()));
+        }
+        List<PixelBuffer> sourceBuffers = new ArrayList<PixelBuffer>();
         try {
+            for (int i = 0; i < workers; i++)
+            {
+                sourceBuffers.add(pixelsService.getPixelBuffer(pixels, false));
+            }
             PixelBuffer destinationBuffer = pixelsService.getPixelBuffer(
                     newPixels, true);
             try
             {
-                ctx.planeSizeInPixels = ctx.pixels.getSizeX() * ctx.pixels.getSizeY();
-                int planeSize =
-                    ctx.planeSizeInPixels * (iPixels.getBitDepth(pixelsType) / 8);
-                byte[] buf = new byte[planeSize];
-                ctx.to = new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf));
-                int newC = 0;
-                for (Integer c : channels)
+                project(tasks, sourceBuffers, destinationBuffer,
+                        pixelsType.getValue(), algorithm, stepping,
+                        zStart, zEnd);
+            }
+            finally
+            {
+                close(destinationBuffer);
+            }
+        } finally {
+            for (PixelBuffer sourceBuffer : sourceBuffers)
+            {
+                close(sourceBuffer);
+            }
+        }
+
+        // Handle the change of minimum and maximum for each channel.
+        for (newC = 0; newC < channels.size(); newC++)
+        {
+            double minimum = Double.MAX_VALUE;
+            double maximum = -Double.MAX_VALUE;
+            for (ProjectionTask task : tasks)
+            {
+                if (task.newC == newC)
+                {
+                    minimum = Math.min(minimum, task.minimum);
+                    maximum = Math.max(maximum, task.maximum);
+                }
+            }
+            if (minimum > maximum)
+            {
+                continue; // No timepoint projected.
+            }
+            Channel channel = newPixels.getChannel(newC);
+            StatsInfo si = new StatsInfo();
+            si.setGlobalMin(minimum);
+            si.setGlobalMax(maximum);
+            channel.setStatsInfo(si);
+        }
+        // Set our methodology
+        if (!channels.isEmpty())
+        {
+            newPixels.setMethodology(
+                    IProjection.METHODOLOGY_STRINGS[algorithm]);
+        }
+        newImage = iUpdate.saveAndReturnObject(newImage);
+        return newImage.getId();
+    }
+
+    /**
+     * Runs the projection tasks, concurrently if there is more than one
+     * source buffer, and waits for them to complete.
+     */
+    private void project(final List<ProjectionTask> tasks,
+            List<PixelBuffer> sourceBuffers,
+            final PixelBuffer destinationBuffer, final String pixelsType,
+            final int algorithm, final int stepping, final int zStart,
+            final int zEnd)
+    {
+        final Queue<ProjectionTask> queue =
+            new ConcurrentLinkedQueue<ProjectionTask>(tasks);
+        if (sourceBuffers.size() == 1)
+        {
+            StackProjector projector = new StackProjector(algorithm);
+            ProjectionTask task;
+            while ((task = queue.poll()) != null)
+            {
+                projectTask(task, projector, sourceBuffers.get(0),
+                        destinationBuffer, pixelsType, stepping, zStart, zEnd);
+            }
+            return;
+        }
+        // Each worker is claimed either by itself when it starts or by this
+        // thread if interrupted first, in which case it never reads.
+        final List<AtomicBoolean> claims = new ArrayList<AtomicBoolean>();
+        final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (final PixelBuffer sourceBuffer : sourceBuffers)
+        {
+            final AtomicBoolean claim = new AtomicBoolean();
+            claims.add(claim);
+            futures.add(projectionExecutor.submit(new Callable<Object>()
+            {
+                public Object call()
                 {
-                    ctx.minimum = Double.MAX_VALUE;
-                    ctx.maximum = Double.MIN_VALUE;
-                    for (int t = tStart; t <= tEnd; t++)
+                    if (!claim.compareAndSet(false, true))
                     {
-                        try
-                        {
-                            ctx.from = sourceBuffer.getStack(c, t);
-                            switch (algorithm)
-                            {
-                                case IProjection.MAXIMUM_INTENSITY:
-                                {
-                                    projectStackMax(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                case IProjection.MEAN_INTENSITY:
-                                {
-                                    projectStackMean(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                case IProjection.SUM_INTENSITY:
-                                {
-                                    projectStackSum(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                default:
-                                {
-                                    throw new IllegalArgumentException(
-                                            "Unknown algorithm: " + algorithm);
-                                }
-                            }
-                            destinationBuffer.setPlane(buf, 0, newC, t);
-                        }
-                        catch (IOException e)
-                        {
-                            String error = String.format(
-                                    "I/O error retrieving stack C=%d T=%d: %s",
-                                    c, t, e.getMessage());
-                            log.error(error, e);
-                            throw new ResourceError(error);
-                        }
-                        catch (DimensionsOutOfBoundsException e)
-                        {
-                            String error = String.format(
-                                    "C=%d or T=%d out of range for Pixels Id %d: %s",
-                                    c, t, ctx.pixels.getId(), e.getMessage());
-                            log.error(error, e);
-                            throw new ValidationException(error);
-                        } finally {
-                            if (ctx.from != null) {
-                                ctx.from.dispose();
-                            }
-                        }
+                        return null; // Abandoned
+                    }
+                    StackProjector projector = new StackProjector(algorithm);
+                    ProjectionTask task;
+                    while ((task = queue.poll()) != null)
+                    {
+                        projectTask(task, projector, sourceBuffer,
+                                destinationBuffer, pixelsType, stepping,
+                                zStart, zEnd);
                     }
-                    // Handle the change of minimum and maximum for this channel.
-                    Channel channel = newPixels.getChannel(newC);
-                    StatsInfo si = new StatsInfo();
-                    si.setGlobalMin(ctx.minimum);
-                    si.setGlobalMax(ctx.maximum);
-                    channel.setStatsInfo(si);
-                    // Set our methodology
-                    newPixels.setMethodology(
-                            IProjection.METHODOLOGY_STRINGS[algorithm]);
-                    newC++;
+                    return null;
                 }
-            }
-            finally
+            }));
+        }
+        // The source buffers are closed once this returns, so the workers
+        // which have started are waited for even if interrupted.
+        RuntimeException failure = null;
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++)
+        {
+            while (true)
             {
                 try
                 {
-                    destinationBuffer.close();
+                    futures.get(i).get();
+                    break;
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                    queue.clear();
+                    for (int j = i; j < futures.size(); j++)
+                    {
+                        if (claims.get(j).compareAndSet(false, true))
+                        {
+                            futures.get(j).cancel(false);
+                        }
+                    }
+                    if (failure == null)
+                    {
+                        failure = new ResourceError(
+                                "Interrupted while projecting.");
+                    }
+                }
+                catch (CancellationException e)
+                {
+                    break; // Never started
                 }
-                catch (IOException e)
+                catch (ExecutionException e)
                 {
-                    log.error("Buffer did not close successfully: " + destinationBuffer , e);
-                    throw new ResourceError(
-                            e.getMessage() + " Please check server log.");
+                    queue.clear();
+                    if (failure == null
+                            && e.getCause() instanceof RuntimeException)
+                    {
+                        failure = (RuntimeException) e.getCause();
+                    }
+                    else if (failure == null)
+                    {
+                        failure = new ResourceError(e.getCause().getMessage());
+                    }
+                    break;
                 }
             }
-        } finally {
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    /**
+     * Projects the stack of a task tile by tile, following the tiles of the
+     * destination buffer, and records the minimum and the maximum of the
+     * projected pixels in the task.
+     */
+    private void projectTask(ProjectionTask task, StackProjector projector,
+            PixelBuffer sourceBuffer, PixelBuffer destinationBuffer,
+            String pixelsType, int stepping, int zStart, int zEnd)
+    {
+        int sizeX = destinationBuffer.getSizeX();
+        int sizeY = destinationBuffer.getSizeY();
+        int bytesPerPixel = PixelData.getBitDepth(pixelsType) / 8;
+        Dimension tileSize = getTileSize(destinationBuffer, sizeX, sizeY);
+        projector.resetStatistics();
+        try
+        {
+            for (int y = 0; y < sizeY; y += tileSize.height)
+            {
+                int h = Math.min(tileSize.height, sizeY - y);
+                for (int x = 0; x < sizeX; x += tileSize.width)
+                {
+                    int w = Math.min(tileSize.width, sizeX - x);
+                    projectRegion(sourceBuffer, projector, task.c, task.t,
+                            x, y, w, h, stepping, zStart, zEnd);
+                    byte[] buf = new byte[w * h * bytesPerPixel];
+                    projector.write(new PixelData(
+                            pixelsType, ByteBuffer.wrap(buf)), 0, 0, w, w);
+                    synchronized (destinationBuffer)
+                    {
+                        destinationBuffer.setTile(
+                                buf, 0, task.newC, task.newT, x, y, w, h);
+                    }
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            String error = String.format(
+                    "I/O error retrieving stack C=%d T=%d: %s",
+                    task.c, task.t, e.getMessage());
+            log.error(error, e);
+            throw new ResourceError(error);
+        }
+        catch (DimensionsOutOfBoundsException e)
+        {
+            String error = String.format(
+                    "C=%d or T=%d out of range for Pixels Id %d: %s",
+                    task.c, task.t, sourceBuffer.getId(), e.getMessage());
+            log.error(error, e);
+            throw new ValidationException(error);
+        }
+        task.minimum = projector.getMinimum();
+        task.maximum = projector.getMaximum();
+    }
+
+    /**
+     * Projects the same region of the planes of a stack, reading one plane
+     * of the region at a time.
+     * @param stepping Stepping value to use while calculating the projection.
+     * For example, <code>stepping=1</code> will use every optical section from
+     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
+     * use every other section from <code>start</code> to <code>end</code> to
+     * perform the projection.
+     * @param start Optical section to start projecting from.
+     * @param end Optical section to finish projecting.
+     */
+    private void projectRegion(PixelBuffer buffer, StackProjector projector,
+            int c, int t, int x, int y, int w, int h, int stepping,
+            int start, int end) throws IOException
+    {
+        projector.reset(w * h);
+        for (int z = start; z <= end; z += stepping)
+        {
+            PixelData data = buffer.getTile(z, c, t, x, y, w, h);
             try
             {
-                sourceBuffer.close();
+                projector.add(data);
             }
-            catch (IOException e)
+            finally
             {
-                log.error("Buffer did not close successfully: " + sourceBuffer, e);
-                throw new ResourceError(
-                        e.getMessage() + " Please check server log.");
+                data.dispose();
             }
         }
-        newImage = iUpdate.saveAndReturnObject(newImage);
-        return newImage.getId();
+    }
+
+    /**
+     * Returns the tile size of a pixel buffer or the whole plane if the
+     * buffer is not tiled.
+     */
+    private Dimension getTileSize(PixelBuffer buffer, int sizeX, int sizeY)
+    {
+        Dimension tileSize = buffer.getTileSize();
+        if (tileSize == null)
+        {
+            return new Dimension(sizeX, sizeY);
+        }
+        return tileSize;
+    }
+
+    /**
+     * Returns the number of stacks projected concurrently.
+     */
+    private int getProjectionWorkers()
+    {
+        if (projectionExecutor instanceof ThreadPoolExecutor)
+        {
+            return ((ThreadPoolExecutor) projectionExecutor)
+                    .getMaximumPoolSize();
+        }
+        return 2;
+    }
+
+    /**
+     * Closes a pixel buffer.
+     */
+    private void close(PixelBuffer buffer)
+    {
+        try
+        {
+            buffer.close();
+        }
+        catch (IOException e)
+        {
+            log.error("Buffer did not close successfully: " + buffer, e);
+            throw new ResourceError(
+                    e.getMessage() + " Please check server log.");
+        }
     }
     
     /**
@@ -379,176 +592,30 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
     }
     
     /**
-     * Projects a stack based on the maximum intensity at each XY coordinate.
-     * @param ctx The context of our projection.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
+     * A stack to project: the source channel and timepoint and their offsets
+     * in the projected Pixels set. The minimum and the maximum of the
+     * projected pixels are set once projected.
      */
-    private void projectStackMax(ProjectionContext ctx, int stepping,
-                                 int start, int end, boolean doMinMax)
+    private static class ProjectionTask
     {
-        int currentPlaneStart;
-        double projectedValue, stackValue;
-        double minimum = ctx.minimum;
-        double maximum = ctx.maximum;
-        for (int i = 0; i < ctx.planeSizeInPixels; i++)
-        {
-            projectedValue = 0;
-            for (int z = start; z <= end; z += stepping)
-            {
-                currentPlaneStart = ctx.planeSizeInPixels * z;
-                stackValue = ctx.from.getPixelValue(currentPlaneStart + i);
-                if (stackValue > projectedValue)
-                {
-                    projectedValue = stackValue;
-                }
-            }
-            ctx.to.setPixelValue(i, projectedValue);
-            if (doMinMax)
-            {
-                minimum = projectedValue < minimum? projectedValue : minimum;
-                maximum = projectedValue > maximum? projectedValue : maximum;
-            }
-        }
-        ctx.minimum = minimum;
-        ctx.maximum = maximum;
-    }
-    
-    /**
-     * Projects a stack based on the mean intensity at each XY coordinate.
-     * @param from The raw pixel data from the stack to project from.
-     * @param ctx The context of our projection.
-     * source Pixels set pixels type will be used.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
-     */
-    private void projectStackMean(ProjectionContext ctx, int stepping, 
-                                  int start, int end, boolean doMinMax)
-    {
-        projectStackMeanOrSum(ctx, stepping, start, end, true, doMinMax);
-    }
-    
-    /**
-     * Projects a stack based on the sum intensity at each XY coordinate.
-     * @param ctx The context of our projection.
-     * @param pixelsType The destination Pixels type. If <code>null</code>, the
-     * source Pixels set pixels type will be used.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
-     */
-    private void projectStackSum(ProjectionContext ctx, int stepping, 
-                                 int start, int end, boolean doMinMax)
-    {
-        projectStackMeanOrSum(ctx, stepping, start, end, false, doMinMax);
-    }
-    
-    /**
-     * Projects a stack based on the sum intensity at each XY coordinate with
-     * the option to also average the sum intensity.
-     * @param ctx The context of our projection.
-     * @param pixelsType The destination Pixels type. If <code>null</code>, the
-     * source Pixels set pixels type will be used.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param mean Whether or not we're performing an average post sum
-     * intensity projection.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
-     */
-    private void projectStackMeanOrSum(ProjectionContext ctx, int stepping,
-                                       int start, int end, 
-                                       boolean mean, boolean doMinMax)
-    {
-        double planeMaximum = ctx.to.getMaximum();
+        final int c;
+
+        final int newC;
+
+        final int t;
+
+        final int newT;
+
+        double minimum = Double.MAX_VALUE;
 
-        int currentPlaneStart;
-        double projectedValue, stackValue;
-        double minimum = ctx.minimum;
-        double maximum = ctx.maximum;
-        for (int i = 0; i < ctx.planeSizeInPixels; i++)
+        double maximum = -Double.MAX_VALUE;
+
+        ProjectionTask(int c, int newC, int t, int newT)
         {
-            projectedValue = 0;
-            int projectedPlaneCount = 0;
-            for (int z = start; z < end; z += stepping)
-            {
-                currentPlaneStart = ctx.planeSizeInPixels * z;
-                stackValue = ctx.from.getPixelValue(currentPlaneStart + i);
-                projectedValue += stackValue;
-                projectedPlaneCount++;
-            }
-            if (mean)
-            {
-                projectedValue = projectedValue / projectedPlaneCount;
-            }
-            if (projectedValue > planeMaximum)
-            {
-                projectedValue = planeMaximum;
-            }
-            ctx.to.setPixelValue(i, projectedValue);
-            if (doMinMax)
-            {
-                minimum = projectedValue < minimum? projectedValue : minimum;
-                maximum = projectedValue > maximum? projectedValue : maximum;
-            }
+            this.c = c;
+            this.newC = newC;
+            this.t = t;
+            this.newT = newT;
         }
-        ctx.minimum = minimum;
-        ctx.maximum = maximum;
-    }
-    
-    /**
-     * Stores the context of a projection operation.
-     * 
-     * Class is static to prevent any instances from holding onto
-     * {@link ProjectionBean} instances.
-     *
-     * @author Chris Allan &nbsp;&nbsp;&nbsp;&nbsp; <a
-     *         href="mailto:callan@blackcat.ca">callan@blackcat.ca</a>
-     * @since OMERO-Beta3.1
-     */
-    private static class ProjectionContext
-    {
-        /** The Pixels set we're currently working on. */
-        public Pixels pixels;
-        
-        /** Count of the number of pixels per plane for <code>pixels</code>. */
-        public int planeSizeInPixels;
-        
-        /** Current minimum for the projected pixel data. */
-        public double minimum = Double.MAX_VALUE;
-        
-        /** Current maximum for the projected pixel data. */
-        public double maximum = Double.MIN_VALUE;
-        
-        /** The raw pixel data from the stack to project from. */
-        public PixelData from;
-        
-        /** The raw pixel data buffer to project into. */
-        public PixelData to;
     }
 }
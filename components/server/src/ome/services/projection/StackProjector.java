@@ -0,0 +1,288 @@
+/*
+ * ome.services.projection.StackProjector
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.projection;
+
+import java.nio.ByteBuffer;
+
+import ome.api.IProjection;
+import ome.util.PixelData;
+
+/**
+ * Projects a stack one plane, or one region of a plane, at a time. Each plane
+ * is added to primitive accumulators with a loop specialised for its pixel
+ * type: integer pixels are accumulated as <code>long</code> values straight
+ * from the backing buffer and floating point pixels as <code>double</code>
+ * values. Only the accumulators and the plane being added are ever held in
+ * memory.
+ *
+ * The minimum and the maximum of the projected values are computed while they
+ * are written out. Instances are not thread safe, concurrent projections each
+ * use their own.
+ *
+ * @since 5.0
+ */
+public class StackProjector
+{
+    /** The projection algorithm, as defined by {@link IProjection}. */
+    private final int algorithm;
+
+    /** Accumulators for integer pixel types. */
+    private long[] integral = new long[0];
+
+    /** Accumulators for floating point and bit pixel types. */
+    private double[] real = new double[0];
+
+    /** Whether or not the planes are accumulated in {@link #real}. */
+    private boolean floating;
+
+    /** The number of pixels of the region being projected. */
+    private int size;
+
+    /** The number of planes added since the last {@link #reset(int)}. */
+    private int count;
+
+    /** The minimum of the values written since the last reset. */
+    private double minimum;
+
+    /** The maximum of the values written since the last reset. */
+    private double maximum;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param algorithm One of {@link IProjection#MAXIMUM_INTENSITY},
+     * {@link IProjection#MEAN_INTENSITY} or
+     * {@link IProjection#SUM_INTENSITY}.
+     */
+    public StackProjector(int algorithm)
+    {
+        switch (algorithm)
+        {
+            case IProjection.MAXIMUM_INTENSITY:
+            case IProjection.MEAN_INTENSITY:
+            case IProjection.SUM_INTENSITY:
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown algorithm: " + algorithm);
+        }
+        this.algorithm = algorithm;
+        resetStatistics();
+    }
+
+    /**
+     * Starts the projection of a new region.
+     *
+     * @param size The number of pixels of the region.
+     */
+    public void reset(int size)
+    {
+        this.size = size;
+        count = 0;
+    }
+
+    /**
+     * Resets the minimum and the maximum of the written values.
+     */
+    public void resetStatistics()
+    {
+        minimum = Double.MAX_VALUE;
+        maximum = -Double.MAX_VALUE;
+    }
+
+    /**
+     * Adds the region of one plane of the stack to the projection.
+     *
+     * @param data The pixels of the region, in the same order as written.
+     */
+    public void add(PixelData data)
+    {
+        final boolean first = count == 0;
+        final boolean max = algorithm == IProjection.MAXIMUM_INTENSITY;
+        final ByteBuffer b = data.getData();
+        if (first)
+        {
+            floating = data.isFloat() || data.javaType() == PixelData.BIT;
+            if (floating && real.length < size)
+            {
+                real = new double[size];
+            }
+            else if (!floating && integral.length < size)
+            {
+                integral = new long[size];
+            }
+        }
+
+        if (floating)
+        {
+            final double[] acc = real;
+            switch (data.javaType())
+            {
+                case PixelData.FLOAT:
+                    for (int i = 0; i < size; i++)
+                    {
+                        accumulate(acc, i, b.getFloat(i << 2), first, max);
+                    }
+                    break;
+                case PixelData.DOUBLE:
+                    for (int i = 0; i < size; i++)
+                    {
+                        accumulate(acc, i, b.getDouble(i << 3), first, max);
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < size; i++)
+                    {
+                        accumulate(acc, i, data.getPixelValue(i), first, max);
+                    }
+            }
+        }
+        else
+        {
+            final long[] acc = integral;
+            final boolean signed = data.isSigned();
+            switch (data.javaType())
+            {
+                case PixelData.BYTE:
+                    for (int i = 0; i < size; i++)
+                    {
+                        final byte v = b.get(i);
+                        accumulate(acc, i, signed ? v : v & 0xFF, first, max);
+                    }
+                    break;
+                case PixelData.SHORT:
+                    for (int i = 0; i < size; i++)
+                    {
+                        final short v = b.getShort(i << 1);
+                        accumulate(acc, i, signed ? v : v & 0xFFFF, first, max);
+                    }
+                    break;
+                case PixelData.INT:
+                    for (int i = 0; i < size; i++)
+                    {
+                        final int v = b.getInt(i << 2);
+                        accumulate(acc, i, signed ? v : v & 0xFFFFFFFFL,
+                                first, max);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                            "Unsupported pixel data: " + data.javaType());
+            }
+        }
+        count++;
+    }
+
+    private static void accumulate(long[] acc, int i, long value,
+            boolean first, boolean max)
+    {
+        if (first)
+        {
+            acc[i] = value;
+        }
+        else if (max)
+        {
+            if (value > acc[i])
+            {
+                acc[i] = value;
+            }
+        }
+        else
+        {
+            acc[i] += value;
+        }
+    }
+
+    private static void accumulate(double[] acc, int i, double value,
+            boolean first, boolean max)
+    {
+        if (first)
+        {
+            acc[i] = value;
+        }
+        else if (max)
+        {
+            if (value > acc[i])
+            {
+                acc[i] = value;
+            }
+        }
+        else
+        {
+            acc[i] += value;
+        }
+    }
+
+    /**
+     * Writes the projected region into a plane or a larger region. Sum and
+     * mean intensities are clipped to the maximum of the destination type.
+     *
+     * @param to The destination.
+     * @param x The X offset of the region within the destination.
+     * @param y The Y offset of the region within the destination.
+     * @param width The width of the region.
+     * @param toWidth The width of the destination.
+     */
+    public void write(PixelData to, int x, int y, int width, int toWidth)
+    {
+        if (count == 0)
+        {
+            throw new IllegalStateException("No plane projected.");
+        }
+        final boolean clip = algorithm != IProjection.MAXIMUM_INTENSITY;
+        final boolean mean = algorithm == IProjection.MEAN_INTENSITY;
+        final double planeMaximum = to.getMaximum();
+        double min = minimum;
+        double max = maximum;
+        int i = 0;
+        for (int row = 0; i < size; row++)
+        {
+            final int offset = (y + row) * toWidth + x;
+            for (int column = 0; column < width; column++, i++)
+            {
+                double value = floating ? real[i] : integral[i];
+                if (mean)
+                {
+                    value = value / count;
+                }
+                if (clip && value > planeMaximum)
+                {
+                    value = planeMaximum;
+                }
+                to.setPixelValue(offset + column, value);
+                min = value < min ? value : min;
+                max = value > max ? value : max;
+            }
+        }
+        minimum = min;
+        maximum = max;
+    }
+
+    /**
+     * Returns the minimum of the values written since the last reset of the
+     * statistics.
+     *
+     * @return See above.
+     */
+    public double getMinimum()
+    {
+        return minimum;
+    }
+
+    /**
+     * Returns the maximum of the values written since the last reset of the
+     * statistics.
+     *
+     * @return See above.
+     */
+    public double getMaximum()
+    {
+        return maximum;
+    }
+
+}
@@ -12,6 +12,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,4 +50,28 @@ public class ThreadPool {
         return queue.size();
     }
 
+    /**
+     * Creates a pool of at most the given number of threads for one kind of
+     * work, as configured by one of the omero.threads.*_threads properties.
+     * Its threads are named after the work and stop once idle for the
+     * timeout, so the pool costs nothing until used. Such work waits on its
+     * tasks, possibly from a thread of the shared pool, and so may not be
+     * queued on the shared pool itself.
+     */
+    public static ExecutorService newBoundedExecutor(final String name,
+            int threads, long msTimeout) {
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads,
+                threads, msTimeout, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, name + "-"
+                                + count.incrementAndGet());
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        log.info("Created pool of {} {} threads", threads, name);
+        return executor;
+    }
+
 }
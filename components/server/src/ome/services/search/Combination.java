@@ -0,0 +1,245 @@
+/*
+ * ome.services.search.Combination
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import ome.model.IAnnotated;
+import ome.model.IObject;
+import ome.services.util.Executor;
+import ome.system.EventContext;
+import ome.system.Principal;
+import ome.system.ServiceFactory;
+
+import org.hibernate.Criteria;
+import org.hibernate.Session;
+import org.hibernate.criterion.Restrictions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.Assert;
+
+/**
+ * Base class of the {@link SearchAction}s which combine two other search
+ * actions into one logical unit.
+ * <p>
+ * When an {@link #setExecutor(Executor, IdSetCache, EventContext) executor}
+ * is available, the second action is run in its own session on another
+ * thread while the first is run in the current one, unless it uses the
+ * results of the first (see {@link SearchAction#isChained()}). The results
+ * are combined as {@link IdSet}s, and only the combined ids which are not
+ * among the objects already loaded in the current session are loaded. The id
+ * sets of both actions are kept in the {@link IdSetCache} of the search, if
+ * any, so that an action which is combined again in the same context is not
+ * run again.
+ * </p>
+ *
+ * @since 5.0
+ */
+public abstract class Combination extends SearchAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger log = LoggerFactory.getLogger(Combination.class);
+
+    protected final SearchAction a;
+
+    protected final SearchAction b;
+
+    private transient Executor executor;
+
+    private transient IdSetCache cache;
+
+    private transient EventContext ec;
+
+    public Combination(SearchValues values, SearchAction a, SearchAction b) {
+        super(values);
+        Assert.notNull(a);
+        Assert.notNull(b);
+        this.a = a;
+        this.b = b;
+    }
+
+    /**
+     * Combines the ids found by both actions.
+     */
+    protected abstract IdSet combine(IdSet idsA, IdSet idsB);
+
+    /**
+     * Sets the executor used to run the second action concurrently and the
+     * cache of the search, both of which may be null, on this action and on
+     * any combination it is made of, along with the context the search is
+     * run in, which the cached ids are kept for.
+     */
+    public void setExecutor(Executor executor, IdSetCache cache,
+            EventContext ec) {
+        this.executor = executor;
+        this.cache = ec == null ? null : cache;
+        this.ec = ec;
+        if (a instanceof Combination) {
+            ((Combination) a).setExecutor(executor, cache, ec);
+        }
+        if (b instanceof Combination) {
+            ((Combination) b).setExecutor(executor, cache, ec);
+        }
+    }
+
+    @Override
+    public String cacheKey() {
+        final String keyA = a.cacheKey();
+        final String keyB = b.cacheKey();
+        if (keyA == null || keyB == null) {
+            return null;
+        }
+        return getClass().getName() + "(" + keyA + "," + keyB + ")";
+    }
+
+    @Transactional(readOnly = true)
+    public Object doWork(Session session, ServiceFactory sf) {
+
+        IdSet idsA = cached(a);
+        IdSet idsB = cached(b);
+        List<IObject> rvA = null;
+        List<IObject> rvB = null;
+
+        Future<IdSet> futureB = null;
+        if (idsB == null && !b.isChained()) {
+            futureB = submit(b);
+        }
+
+        try {
+            if (idsA == null) {
+                rvA = list(a.doWork(session, sf));
+                idsA = IdSet.of(rvA);
+                cache(a, idsA);
+            }
+        } catch (RuntimeException rt) {
+            if (futureB != null) {
+                futureB.cancel(true);
+            }
+            throw rt;
+        }
+
+        if (idsB == null) {
+            if (futureB != null && !futureB.cancel(false)) {
+                idsB = executor.get(futureB);
+            } else {
+                // Not started yet, so running it here rather than waiting
+                // for a free thread.
+                if (b.isChained()) {
+                    if (rvA == null) {
+                        rvA = load(session, idsA);
+                    }
+                    b.chainedSearch(rvA);
+                }
+                rvB = list(b.doWork(session, sf));
+                idsB = IdSet.of(rvB);
+            }
+            if (!b.isChained()) {
+                cache(b, idsB);
+            }
+        }
+
+        final IdSet ids = combine(idsA, idsB);
+        final List<IObject> rv = new ArrayList<IObject>(ids.size());
+        final Set<IObject> found = Collections
+                .newSetFromMap(new IdentityHashMap<IObject, Boolean>());
+        // Objects already loaded in this session first, in their order
+        if (rvA != null) {
+            for (IObject object : rvA) {
+                if (ids.contains(object) && found.add(object)) {
+                    rv.add(object);
+                }
+            }
+        }
+        if (rvB != null) {
+            final IdSet added = IdSet.of(rv);
+            for (IObject object : rvB) {
+                if (ids.contains(object) && !added.contains(object)
+                        && found.add(object)) {
+                    rv.add(object);
+                }
+            }
+        }
+        final IdSet missing = ids.andNot(IdSet.of(rv));
+        if (!missing.isEmpty()) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Loading %s of %s combined results",
+                        missing.size(), ids.size()));
+            }
+            rv.addAll(load(session, missing));
+        }
+        return rv;
+    }
+
+    /**
+     * Runs an action in its own session on another thread, logged in as the
+     * current user. Returns null if no executor is available.
+     */
+    private Future<IdSet> submit(final SearchAction action) {
+        if (executor == null) {
+            return null;
+        }
+        final Principal principal = executor.principal();
+        if (principal == null) {
+            return null;
+        }
+        return executor.submit(new Callable<IdSet>() {
+            public IdSet call() throws Exception {
+                return IdSet.of(list(executor.execute(principal, action)));
+            }
+        });
+    }
+
+    /**
+     * Loads the objects with the given ids in pages of at most 1000 ids per
+     * class, fetching the annotations requested by the search values.
+     */
+    private List<IObject> load(Session session, IdSet ids) {
+        final List<IObject> rv = new ArrayList<IObject>(ids.size());
+        for (Class<?> cls : ids.getTypes()) {
+            final long[] array = ids.getIds(cls);
+            for (int from = 0; from < array.length; from += 1000) {
+                final List<Long> page = new ArrayList<Long>();
+                for (int i = from; i < array.length && i < from + 1000; i++) {
+                    page.add(array[i]);
+                }
+                Criteria criteria = session.createCriteria(cls);
+                if (IAnnotated.class.isAssignableFrom(cls)) {
+                    new AnnotationCriteria(criteria, values.fetchAnnotations);
+                }
+                criteria.add(Restrictions.in("id", page));
+                criteria.setResultTransformer(Criteria.DISTINCT_ROOT_ENTITY);
+                rv.addAll(list(criteria.list()));
+            }
+        }
+        return rv;
+    }
+
+    private IdSet cached(SearchAction action) {
+        return cache == null ? null : cache.get(ec, action);
+    }
+
+    private void cache(SearchAction action, IdSet ids) {
+        if (cache != null) {
+            cache.put(ec, action, ids);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<IObject> list(Object rv) {
+        return rv == null ? new ArrayList<IObject>() : (List<IObject>) rv;
+    }
+
+}
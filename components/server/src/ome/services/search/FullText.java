@@ -11,7 +11,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -61,6 +60,16 @@ public class FullText extends SearchAction {
 
     private final Class<? extends Analyzer> analyzer;
 
+    private boolean paged = false;
+
+    /**
+     * Index of the next Lucene hit to be returned by a
+     * {@link #setPaged(boolean) paged} action.
+     */
+    private int firstResult;
+
+    private int totalSize = -1;
+
     public FullText(SearchValues values, String query,
             Class<? extends Analyzer> analyzer) {
         super(values);
@@ -90,6 +99,7 @@ public class FullText extends SearchAction {
         }
 
         this.queryStr = query;
+        this.firstResult = Math.max(0, values.offset);
         try {
             final Analyzer a = analyzer.newInstance();
             final QueryParser parser = new /*Analyzing*/QueryParser("combined_fields", a);
@@ -179,16 +189,141 @@ public class FullText extends SearchAction {
                 ProjectionConstants.ID);
     }
 
+    @Override
+    public String cacheKey() {
+        return getClass().getName() + ":" + analyzer.getName() + ":"
+                + values.cacheKey() + ":" + queryStr;
+    }
+
+    /**
+     * Restricts each execution of this action to a page of at most
+     * {@link SearchValues#batchSize} objects, starting at the
+     * {@link SearchValues#offset offset}-th Lucene hit, so that only the top
+     * hits of the page are collected and loaded from the database. After each
+     * execution, {@link #hasMoreHits()} tells whether the action must be
+     * executed again for the following page. Unpaged actions, e.g. those
+     * combined by {@link Union}, return all hits at once.
+     */
+    public void setPaged(boolean paged) {
+        this.paged = paged;
+    }
+
+    public boolean isPaged() {
+        return paged;
+    }
+
+    /**
+     * Returns true if the last execution of a {@link #setPaged(boolean) paged}
+     * action left hits which have not yet been returned.
+     */
+    public boolean hasMoreHits() {
+        return paged && totalSize >= 0 && firstResult < totalSize;
+    }
+
+    /**
+     * Returns the number of hits found by Lucene on the last execution,
+     * before the database restrictions are applied, or -1 if the action has
+     * not yet been executed. The count is taken from the top hits collected
+     * and so costs no loading.
+     */
+    public int getTotalSize() {
+        return totalSize;
+    }
+
     @Transactional(readOnly = true)
     public Object doWork(Session s, ServiceFactory sf) {
 
         final Class<?> cls = values.onlyTypes.get(0);
-        FullTextSession session = Search.createFullTextSession(s);
+        final FullTextSession session = Search.createFullTextSession(s);
         Criteria criteria = criteria(session);
         if (criteria == null) {
             return null; // EARLY EXIT. See criteria method.
         }
 
+        // Main query
+        final FullTextQuery ftQuery = session.createFullTextQuery(this.q, cls);
+        initializeQuery(ftQuery);
+
+        if (!paged) {
+            List<?> result = ftQuery.list();
+            totalSize = ftQuery.getResultSize();
+            if (result.size() == 0) {
+                // EARLY EXIT
+                return result; // of wrong type but with generics it doesn't matter
+            }
+            return load(session, cls, result);
+        }
+
+        return page(new Hits() {
+            public List<?> list(int first, int max) {
+                ftQuery.setFirstResult(first);
+                ftQuery.setMaxResults(max);
+                return ftQuery.list();
+            }
+            public int size() {
+                return ftQuery.getResultSize();
+            }
+            public List<IObject> load(List<?> hits) {
+                return FullText.this.load(session, cls, hits);
+            }
+        });
+    }
+
+    /**
+     * The Lucene hits of a {@link #setPaged(boolean) paged} execution and the
+     * loading of their objects.
+     */
+    protected interface Hits {
+
+        /**
+         * Returns the projections of at most <code>max</code> hits, starting
+         * at the <code>first</code>-th.
+         */
+        List<?> list(int first, int max);
+
+        /**
+         * Returns the number of hits found by the last call to
+         * {@link #list(int, int)}.
+         */
+        int size();
+
+        /**
+         * Loads the objects of the hits which pass the database restrictions.
+         */
+        List<IObject> load(List<?> hits);
+
+    }
+
+    /**
+     * Returns the next page of at most {@link SearchValues#batchSize}
+     * objects. Lucene only collects the top hits of the page. Hits filtered
+     * out by the database restrictions are replaced by those which follow
+     * them.
+     */
+    protected List<IObject> page(Hits hits) {
+        final int limit = Math.max(1, values.batchSize);
+        final List<IObject> rv = new ArrayList<IObject>();
+        do {
+            List<?> result = hits.list(firstResult, limit - rv.size());
+            totalSize = hits.size();
+            if (result.size() == 0) {
+                firstResult = totalSize;
+                break;
+            }
+            firstResult += result.size();
+            rv.addAll(hits.load(result));
+        } while (rv.size() < limit && firstResult < totalSize);
+        return rv;
+    }
+
+    /**
+     * Loads the objects for the given hits, which are the projections of
+     * {@link #initializeQuery(FullTextQuery)}, in pages of at most 1000 ids,
+     * and returns them in the order of the hits.
+     */
+    private List<IObject> load(FullTextSession session, Class<?> cls,
+            List<?> result) {
+
         final String ticket975 = "ticket:975 - Wrong return type: %s instead of %s\n"
                 + "Under some circumstances, byFullText and related methods \n"
                 + "like bySomeMustNone can return instances of the wrong \n"
@@ -196,43 +331,26 @@ public class FullText extends SearchAction {
                 + "If you are recieving this error, please try using the \n"
                 + "intersection/union methods to achieve the same results.";
 
-        // Main query
-        FullTextQuery ftQuery = session.createFullTextQuery(this.q, cls);
-        initializeQuery(ftQuery);
-        List<?> result = ftQuery.list();
-        int totalSize = ftQuery.getResultSize();
-
-        if (result.size() == 0) {
-            // EARLY EXIT 
-            return result; // of wrong type but with generics it doesn't matter
-        }
-
-        final Map<Long, Integer> order = new HashMap<Long, Integer>();
-        final Map<Long, Float> scores = new HashMap<Long, Float>();
-        final Map<Long, Object[]> projections = new HashMap<Long, Object[]>();
+        // Position of each hit, from which its score and projections are found
+        final Map<Long, Integer> order = new HashMap<Long, Integer>(
+                result.size() * 4 / 3 + 1);
+        final List<Long> ids = new ArrayList<Long>(result.size());
         for (int i = 0; i < result.size(); i++) {
             Object[] parts = (Object[]) result.get(i);
-            scores.put((Long) parts[1], (Float) parts[0]);
-            order.put((Long) parts[1], i);
-            projections.put((Long) parts[1], parts);
+            if (order.put((Long) parts[1], i) == null) {
+                ids.add((Long) parts[1]);
+            }
         }
 
         // TODO Could add a performance optimization here on returnUnloaded
 
-        final LinkedList<Long> ids = new LinkedList<Long>(scores.keySet());
-        final List<IObject> check975 = new ArrayList<IObject>();
-
-        while (ids.size() > 0) {
-            final List<Long> page = new ArrayList<Long>();
-            for (int i = 0; i < 1000 && ids.size() > 0; i++) {
-                page.add(ids.removeFirst());
-            }
-            if (criteria == null) {
-                criteria = criteria(session);
-            }
+        final List<IObject> check975 = new ArrayList<IObject>(ids.size());
+        for (int from = 0; from < ids.size(); from += 1000) {
+            final List<Long> page = ids.subList(from,
+                    Math.min(from + 1000, ids.size()));
+            Criteria criteria = criteria(session);
             criteria.add(Restrictions.in("id", page));
             check975.addAll(criteria.list());
-            criteria = null;
         }
 
         for (IObject object : check975) {
@@ -241,10 +359,11 @@ public class FullText extends SearchAction {
                 throw new ApiUsageException(String.format(ticket975, object
                         .getClass(), cls));
             } else {
-                object.putAt(TOTAL_SIZE, totalSize);
-                object.putAt(ProjectionConstants.SCORE, scores.get(object
+                Object[] parts = (Object[]) result.get(order.get(object
                         .getId()));
-                object.putAt(ALL_PROJECTIONS, projections.get(object.getId()));
+                object.putAt(TOTAL_SIZE, totalSize);
+                object.putAt(ProjectionConstants.SCORE, parts[0]);
+                object.putAt(ALL_PROJECTIONS, parts);
             }
         }
 
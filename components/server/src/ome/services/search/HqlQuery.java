@@ -43,6 +43,12 @@ public class HqlQuery extends SearchAction {
         this.params = p;
     }
 
+    @Override
+    public boolean isChained() {
+        return query.contains("IDLIST")
+                && (params == null || params.get("IDLIST") == null);
+    }
+
     @Transactional(readOnly = true)
     public Object doWork(Session session, ServiceFactory sf) {
 
@@ -0,0 +1,183 @@
+/*
+ * ome.services.search.IdSet
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.search;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ome.model.IObject;
+
+import org.hibernate.Hibernate;
+
+/**
+ * Immutable set of the ids found by a {@link SearchAction}, held as one
+ * sorted array of distinct ids per class so that the results of the actions
+ * combined by {@link Union}, {@link Intersection} and {@link Complement} can
+ * be merged without comparing the objects themselves.
+ *
+ * @since 5.0
+ */
+public class IdSet implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long[] NONE = new long[0];
+
+    public static final IdSet EMPTY = new IdSet(
+            Collections.<Class<?>, long[]> emptyMap());
+
+    private final Map<Class<?>, long[]> ids;
+
+    private IdSet(Map<Class<?>, long[]> ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * Collects the ids of a list of results, which may be null.
+     */
+    public static IdSet of(List<IObject> objects) {
+        if (objects == null || objects.isEmpty()) {
+            return EMPTY;
+        }
+        final Map<Class<?>, long[]> arrays = new HashMap<Class<?>, long[]>();
+        final Map<Class<?>, Integer> sizes = new HashMap<Class<?>, Integer>();
+        for (IObject object : objects) {
+            if (object == null || object.getId() == null) {
+                continue;
+            }
+            final Class<?> cls = Hibernate.getClass(object);
+            long[] array = arrays.get(cls);
+            int size = array == null ? 0 : sizes.get(cls);
+            if (array == null) {
+                array = new long[Math.min(objects.size(), 16)];
+            } else if (size == array.length) {
+                array = Arrays.copyOf(array, Math.min(objects.size(),
+                        size * 2));
+            }
+            array[size++] = object.getId();
+            arrays.put(cls, array);
+            sizes.put(cls, size);
+        }
+        final Map<Class<?>, long[]> ids = new HashMap<Class<?>, long[]>();
+        for (Map.Entry<Class<?>, long[]> entry : arrays.entrySet()) {
+            long[] array = entry.getValue();
+            final int size = sizes.get(entry.getKey());
+            Arrays.sort(array, 0, size);
+            int distinct = 0;
+            for (int i = 0; i < size; i++) {
+                if (distinct == 0 || array[distinct - 1] != array[i]) {
+                    array[distinct++] = array[i];
+                }
+            }
+            ids.put(entry.getKey(), distinct == array.length ? array : Arrays
+                    .copyOf(array, distinct));
+        }
+        return new IdSet(ids);
+    }
+
+    public Set<Class<?>> getTypes() {
+        return Collections.unmodifiableSet(ids.keySet());
+    }
+
+    /**
+     * Returns the sorted ids of a class. The array must not be modified.
+     */
+    public long[] getIds(Class<?> cls) {
+        long[] array = ids.get(cls);
+        return array == null ? NONE : array;
+    }
+
+    public boolean contains(IObject object) {
+        if (object == null || object.getId() == null) {
+            return false;
+        }
+        long[] array = ids.get(Hibernate.getClass(object));
+        return array != null
+                && Arrays.binarySearch(array, object.getId()) >= 0;
+    }
+
+    public int size() {
+        int size = 0;
+        for (long[] array : ids.values()) {
+            size += array.length;
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the ids in this set or the other.
+     */
+    public IdSet or(IdSet other) {
+        return merge(other, true, true, true);
+    }
+
+    /**
+     * Returns the ids in both this set and the other.
+     */
+    public IdSet and(IdSet other) {
+        return merge(other, false, false, true);
+    }
+
+    /**
+     * Returns the ids in this set but not the other.
+     */
+    public IdSet andNot(IdSet other) {
+        return merge(other, true, false, false);
+    }
+
+    /**
+     * Merges the sorted arrays of each class, keeping the ids found only in
+     * this set, only in the other or in both according to the flags.
+     */
+    private IdSet merge(IdSet other, boolean onlyThis, boolean onlyOther,
+            boolean both) {
+        final Set<Class<?>> types = new HashSet<Class<?>>(ids.keySet());
+        types.addAll(other.ids.keySet());
+        final Map<Class<?>, long[]> merged = new HashMap<Class<?>, long[]>();
+        for (Class<?> cls : types) {
+            final long[] a = getIds(cls);
+            final long[] b = other.getIds(cls);
+            final long[] rv = new long[a.length + b.length];
+            int i = 0, j = 0, size = 0;
+            while (i < a.length || j < b.length) {
+                if (j == b.length || (i < a.length && a[i] < b[j])) {
+                    if (onlyThis) {
+                        rv[size++] = a[i];
+                    }
+                    i++;
+                } else if (i == a.length || b[j] < a[i]) {
+                    if (onlyOther) {
+                        rv[size++] = b[j];
+                    }
+                    j++;
+                } else {
+                    if (both) {
+                        rv[size++] = a[i];
+                    }
+                    i++;
+                    j++;
+                }
+            }
+            if (size > 0) {
+                merged.put(cls, Arrays.copyOf(rv, size));
+            }
+        }
+        return new IdSet(merged);
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * ome.services.search.IdSetCache
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.search;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ome.system.EventContext;
+
+/**
+ * Small cache of the most recently used {@link IdSet}s of the actions
+ * combined by a search, keyed by {@link SearchAction#cacheKey()} and by the
+ * user, group and admin flag of the {@link EventContext} the action was run
+ * in, since they decide which objects it may find. Entries expire after a
+ * maximum age so that a search session does not return stale results for
+ * long.
+ *
+ * @since 5.0
+ */
+public class IdSetCache implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static class Entry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final IdSet ids;
+
+        final long created = System.currentTimeMillis();
+
+        Entry(IdSet ids) {
+            this.ids = ids;
+        }
+    }
+
+    private final long maxAge;
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * @param maxEntries
+     *            number of id sets kept, the least recently used being
+     *            dropped first.
+     * @param maxAge
+     *            milliseconds after which an id set is no longer used.
+     */
+    public IdSetCache(final int maxEntries, long maxAge) {
+        this.maxAge = maxAge;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached ids of an action run in the given context or null if
+     * there are none.
+     */
+    public synchronized IdSet get(EventContext ec, SearchAction action) {
+        final String key = key(ec, action);
+        if (key == null) {
+            return null;
+        }
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.created > maxAge) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.ids;
+    }
+
+    /**
+     * Caches the ids of an action run in the given context unless it has no
+     * {@link SearchAction#cacheKey() key}.
+     */
+    public synchronized void put(EventContext ec, SearchAction action,
+            IdSet ids) {
+        final String key = key(ec, action);
+        if (key != null) {
+            entries.put(key, new Entry(ids));
+        }
+    }
+
+    private static String key(EventContext ec, SearchAction action) {
+        final String key = action.cacheKey();
+        if (key == null) {
+            return null;
+        }
+        return String.format("%s/%s/%s:%s", ec.getCurrentUserId(),
+                ec.getCurrentGroupId(), ec.isCurrentUserAdmin(), key);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+}
@@ -82,6 +82,23 @@ public abstract class SearchAction implements Serializable,
         this.chainedList = chainedList;
     }
 
+    /**
+     * Returns true if this action uses the {@link #chainedList} and so must
+     * be run after the action whose results are chained into it.
+     */
+    public boolean isChained() {
+        return false;
+    }
+
+    /**
+     * Returns a key identifying the results of this action for the
+     * {@link IdSetCache} of a search, or null if they must not be cached.
+     * Equal keys must produce equal results.
+     */
+    public String cacheKey() {
+        return null;
+    }
+
     protected void ids(Criteria criteria) {
         ids(criteria, null, null);
     }
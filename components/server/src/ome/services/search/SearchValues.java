@@ -32,6 +32,8 @@ public class SearchValues implements Serializable {
 
     public boolean caseSensitive = Search.DEFAULT_CASE_SENSITIVTY;
     public int batchSize = Search.DEFAULT_BATCH_SIZE;
+    /** Index of the first hit of paged full text searches. */
+    public int offset = 0;
     public boolean mergedBatches = Search.DEFAULT_MERGED_BATCHES;
     public boolean returnUnloaded = Search.DEFAULT_RETURN_UNLOADED;
     public boolean useProjections = Search.DEFAULT_USE_PROJECTIONS;
@@ -58,6 +60,7 @@ public class SearchValues implements Serializable {
     public void copy(SearchValues values) {
         this.caseSensitive = values.caseSensitive;
         this.batchSize = values.batchSize;
+        this.offset = values.offset;
         this.mergedBatches = values.mergedBatches;
         this.returnUnloaded = values.returnUnloaded;
         this.useProjections = values.useProjections;
@@ -82,6 +85,45 @@ public class SearchValues implements Serializable {
         this.notAnnotatedBy = copyDetails(values.notAnnotatedBy);
     }
 
+    /**
+     * Returns a string of all the values which restrict or order the results
+     * of a search, for use in cache keys. Batching, offset and the loading
+     * of the results are left out.
+     */
+    public String cacheKey() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(caseSensitive).append(';');
+        sb.append(leadingWildcard).append(';');
+        sb.append(orderBy).append(';');
+        sb.append(createdStart).append(';');
+        sb.append(createdStop).append(';');
+        sb.append(modifiedStart).append(';');
+        sb.append(modifiedStop).append(';');
+        sb.append(annotatedStart).append(';');
+        sb.append(annotatedStop).append(';');
+        sb.append(onlyIds).append(';');
+        sb.append(onlyTypes).append(';');
+        sb.append(onlyAnnotatedWith).append(';');
+        appendDetails(sb, ownedBy);
+        appendDetails(sb, notOwnedBy);
+        appendDetails(sb, annotatedBy);
+        appendDetails(sb, notAnnotatedBy);
+        return sb.toString();
+    }
+
+    private static void appendDetails(StringBuilder sb, Details d) {
+        if (d != null) {
+            if (d.getOwner() != null) {
+                sb.append(d.getOwner().getId());
+            }
+            sb.append('/');
+            if (d.getGroup() != null) {
+                sb.append(d.getGroup().getId());
+            }
+        }
+        sb.append(';');
+    }
+
     /**
      * Copies all known values from Parameters
      * 
@@ -92,6 +134,9 @@ public class SearchValues implements Serializable {
             if (params.getLimit() != null) {
                 batchSize = params.getLimit();
             }
+            if (params.getOffset() != null) {
+                offset = params.getOffset();
+            }
             if (params.owner() >= 0) {
                 ownedBy = Details.create();
                 ownedBy.setOwner(new Experimenter(params.owner(), false));
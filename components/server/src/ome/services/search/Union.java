@@ -7,15 +7,6 @@
 
 package ome.services.search;
 
-import java.util.List;
-
-import ome.model.IObject;
-import ome.system.ServiceFactory;
-
-import org.hibernate.Session;
-import org.springframework.transaction.annotation.Transactional;
-import org.springframework.util.Assert;
-
 /**
  * Union {@link SearchAction} which combines two other search actions into one
  * logical unit, e.g.
@@ -28,33 +19,16 @@ import org.springframework.util.Assert;
  * @since 3.0-Beta3
  * @see ome.api.Search#or()
  */
-public class Union extends SearchAction {
+public class Union extends Combination {
 
     private static final long serialVersionUID = 1L;
 
-    private final SearchAction a;
-
-    private final SearchAction b;
-
     public Union(SearchValues values, SearchAction a, SearchAction b) {
-        super(values);
-        Assert.notNull(a);
-        Assert.notNull(b);
-        this.a = a;
-        this.b = b;
+        super(values, a, b);
     }
 
-    @Transactional(readOnly = true)
-    public Object doWork(Session session, ServiceFactory sf) {
-
-        List<IObject> rvA;
-        List<IObject> rvB;
-
-        rvA = (List<IObject>) a.doWork(session, sf);
-        b.chainedSearch(rvA);
-        rvB = (List<IObject>) b.doWork(session, sf);
-        rvA.addAll(rvB);
-
-        return rvA;
+    @Override
+    protected IdSet combine(IdSet idsA, IdSet idsB) {
+        return idsA.or(idsB);
     }
 }
@@ -7,6 +7,10 @@
 
 package ome.services.sessions.events;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 import ome.model.meta.Experimenter;
 import ome.model.meta.ExperimenterGroup;
 import ome.model.meta.GroupExperimenterMap;
@@ -26,8 +30,62 @@ import ome.util.messages.InternalMessage;
  */
 public class UserGroupUpdateEvent extends InternalMessage {
 
+    private final Set<Long> experimenterIds;
+
+    private final Set<Long> groupIds;
+
+    /**
+     * Signals that any session may be affected, e.g. after group memberships
+     * have changed.
+     */
     public UserGroupUpdateEvent(Object source) {
+        this(source, null, null);
+    }
+
+    /**
+     * Signals that only the sessions of the given {@link Experimenter}s and of
+     * the members of the given {@link ExperimenterGroup}s are affected.
+     *
+     * @param experimenterIds
+     *            Can be null if all sessions may be affected.
+     * @param groupIds
+     *            Can be null if all sessions may be affected.
+     */
+    public UserGroupUpdateEvent(Object source, Set<Long> experimenterIds,
+            Set<Long> groupIds) {
         super(source);
+        if (experimenterIds == null || groupIds == null) {
+            this.experimenterIds = null;
+            this.groupIds = null;
+        } else {
+            this.experimenterIds = Collections
+                    .unmodifiableSet(new HashSet<Long>(experimenterIds));
+            this.groupIds = Collections.unmodifiableSet(new HashSet<Long>(
+                    groupIds));
+        }
+    }
+
+    /**
+     * Returns true if any session may be affected by the update.
+     */
+    public boolean isGlobal() {
+        return experimenterIds == null;
+    }
+
+    /**
+     * Returns the ids of the updated {@link Experimenter}s or null if
+     * {@link #isGlobal() global}.
+     */
+    public Set<Long> getExperimenterIds() {
+        return experimenterIds;
+    }
+
+    /**
+     * Returns the ids of the updated {@link ExperimenterGroup}s or null if
+     * {@link #isGlobal() global}.
+     */
+    public Set<Long> getGroupIds() {
+        return groupIds;
     }
 
     private static final long serialVersionUID = 1L;
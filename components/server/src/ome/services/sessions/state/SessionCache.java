@@ -7,11 +7,19 @@
 package ome.services.sessions.state;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import net.sf.ehcache.CacheManager;
@@ -71,7 +79,8 @@ public class SessionCache implements ApplicationContextAware {
 
     /**
      * Container which can be put in a single {@link AtomicReference} instance.
-     * Contains all the data for a single session immutably. Therefore any
+     * Contains all the data for a single session immutably, except for the
+     * access information which is kept in atomic fields. Therefore any
      * thread that manages to get access to this instance (from the
      * {@link ConcurrentHashMap} "data") can work with this data even if another
      * thread is currently in the process of removing this from the map.
@@ -92,55 +101,58 @@ public class SessionCache implements ApplicationContextAware {
         final AtomicInteger error = new AtomicInteger(0);
 
         final SessionContext sessionContext;
-        final long lastAccessTime;
-        final long hitCount;
 
         /**
-         * Initial creation of a Data instance when a new session is
-         * added to the cache.
+         * Time of the last access, updated in place by
+         * {@link SessionCache#getSessionContext(String)} so that accessing a
+         * session does not replace its entry in the cache.
          */
-        Data(SessionContext sc) {
-            this(sc, System.currentTimeMillis(), 1);
-        }
+        final AtomicLong lastAccessTime;
 
         /**
-         * Copy constructor which uses the current time for {@link #lastAccessTime} and
-         * increments {@link #hitCount} by one. Used when updating the access
-         * time for a session.
+         * Number of accesses, updated in place like {@link #lastAccessTime}.
          */
-        Data(Data old) {
-            this(old, true);
-        }
+        final AtomicLong hitCount;
 
         /**
-         * Copy constructor which uses either the current time for {@link #lastAccessTime}
-         * (if reset is true) or the previous lastAccessTime (if reset is false); and
-         * increments {@link #hitCount} by one. Used when reloading the session.
+         * Initial creation of a Data instance when a new session is
+         * added to the cache.
          */
-        Data(Data old, boolean reset) {
-            this(old, old.sessionContext, reset);
+        Data(SessionContext sc) {
+            this(sc, System.currentTimeMillis(), 1);
         }
 
         /**
-         * Like {@link Data#Data(Data, boolean)} but allows setting the
-         * {@link SessionContext} which should be stored in the new instance.
-         * This is used on reload. See {@link SessionCache#doUpdate()}.
+         * Copy constructor which sets the {@link SessionContext} which should
+         * be stored in the new instance and uses either the current time for
+         * {@link #lastAccessTime} (if reset is true) or the previous
+         * lastAccessTime (if reset is false); and increments {@link #hitCount}
+         * by one. This is used on reload. See {@link SessionCache#doUpdate()}.
          * @param old
          * @param ctx
          * @param reset
          */
         Data(Data old, SessionContext ctx, boolean reset) {
-            this(ctx, reset ? System.currentTimeMillis() : old.lastAccessTime, old.hitCount+1);
+            this(ctx, reset ? System.currentTimeMillis() : old.lastAccessTime
+                    .get(), old.hitCount.get() + 1);
         }
 
         Data(SessionContext sc, long last, long count) {
             this.sessionContext = sc;
-            this.lastAccessTime = last;
-            this.hitCount = count;
+            this.lastAccessTime = new AtomicLong(last);
+            this.hitCount = new AtomicLong(count);
             // clear context
             sc.getSession().getDetails().setContexts(null);
         }
 
+        /**
+         * Ups the access time and the hit count.
+         */
+        void hit() {
+            lastAccessTime.set(System.currentTimeMillis());
+            hitCount.incrementAndGet();
+        }
+
     }
 
     /**
@@ -165,12 +177,34 @@ public class SessionCache implements ApplicationContextAware {
          */
         final long lastUpdateRequest;
 
+        /**
+         * Ids of the users whose sessions are to be reloaded by the next
+         * update, or null if all sessions are to be reloaded.
+         */
+        final Set<Long> experimenterIds;
+
+        /**
+         * Ids of the groups whose members' sessions are to be reloaded by the
+         * next update, or null if all sessions are to be reloaded.
+         */
+        final Set<Long> groupIds;
+
         /**
          * Initial creation of State, used on cache creation.
          */
         State() {
-            this.lastUpdateRun = System.currentTimeMillis();
+            this(System.currentTimeMillis());
+        }
+
+        /**
+         * Creation of State at the start of an update, when no request is
+         * pending.
+         */
+        State(long run) {
+            this.lastUpdateRun = run;
             this.lastUpdateRequest = this.lastUpdateRun - 1;
+            this.experimenterIds = Collections.emptySet();
+            this.groupIds = Collections.emptySet();
         }
 
         /**
@@ -178,14 +212,25 @@ public class SessionCache implements ApplicationContextAware {
          * is received by the cache.
          *
          * Specifies that a new request has occurred, but the old run
-         * is kept.
+         * is kept. The users and groups of the request are added to those
+         * already pending.
          */
-        State(State old, long request) {
+        State(State old, long request, UserGroupUpdateEvent ugue) {
             this.lastUpdateRun = old.lastUpdateRun;
-            this.lastUpdateRequest = request;
+            this.lastUpdateRequest = Math.max(request, old.lastUpdateRequest);
+            if (old.isGlobal() || ugue == null || ugue.isGlobal()) {
+                this.experimenterIds = null;
+                this.groupIds = null;
+            } else {
+                Set<Long> users = new HashSet<Long>(old.experimenterIds);
+                users.addAll(ugue.getExperimenterIds());
+                Set<Long> groups = new HashSet<Long>(old.groupIds);
+                groups.addAll(ugue.getGroupIds());
+                this.experimenterIds = users;
+                this.groupIds = groups;
+            }
         }
 
-
         /**
          * Whether or not {@link #doUpdate()} should run. Returns immediately
          * if {@link #active} contains true.
@@ -202,11 +247,41 @@ public class SessionCache implements ApplicationContextAware {
                 return true;
             }
 
+            return isForced(forceUpdateInterval);
+        }
+
+        /**
+         * Whether or not the last update is so old that all sessions must be
+         * reloaded.
+         */
+        boolean isForced(long forceUpdateInterval) {
             long timed = System.currentTimeMillis() - forceUpdateInterval;
-            if (lastUpdateRun <= timed) {
+            return lastUpdateRun <= timed;
+        }
+
+        /**
+         * Whether or not the pending requests affect all sessions.
+         */
+        boolean isGlobal() {
+            return experimenterIds == null;
+        }
+
+        /**
+         * Whether or not a session is affected by the pending requests.
+         */
+        boolean affects(SessionContext ctx) {
+            if (isGlobal()) {
                 return true;
             }
-
+            if (experimenterIds.contains(ctx.getCurrentUserId())
+                    || groupIds.contains(ctx.getCurrentGroupId())) {
+                return true;
+            }
+            for (Long id : ctx.getMemberOfGroupsList()) {
+                if (groupIds.contains(id)) {
+                    return true;
+                }
+            }
             return false;
         }
 
@@ -242,6 +317,18 @@ public class SessionCache implements ApplicationContextAware {
 
     private final AtomicReference<StaleCacheListener> staleCacheListener = new AtomicReference<StaleCacheListener>();
 
+    /**
+     * Pool in which the sessions are reloaded in batches by
+     * {@link #doUpdate()}. If null, they are reloaded one after the other.
+     */
+    private ExecutorService reloadExecutor;
+
+    /**
+     * Number of sessions reloaded by each task submitted to the
+     * {@link #reloadExecutor}.
+     */
+    private int reloadBatchSize = 100;
+
     /**
      * Whether or not {@link #doUpdate()} is currently running.
      */
@@ -275,6 +362,25 @@ public class SessionCache implements ApplicationContextAware {
         this.forceUpdateInterval = milliseconds;
     }
 
+    /**
+     * Inject the pool in which sessions are reloaded concurrently.
+     */
+    public void setReloadExecutor(ExecutorService reloadExecutor) {
+        this.reloadExecutor = reloadExecutor;
+    }
+
+    /**
+     * Inject the number of sessions reloaded by each task of the
+     * {@link #setReloadExecutor(ExecutorService) reload executor}.
+     */
+    public void setReloadBatchSize(int reloadBatchSize) {
+        if (reloadBatchSize < 1) {
+            throw new ApiUsageException("Batch size must be positive: "
+                    + reloadBatchSize);
+        }
+        this.reloadBatchSize = reloadBatchSize;
+    }
+
     // Accessors
     // ========================================================================
 
@@ -324,8 +430,12 @@ public class SessionCache implements ApplicationContextAware {
      * @param replacement
      */
     public void refresh(String uuid, SessionContext replacement) {
-        Data data = getDataNullOrThrowOnTimeout(uuid, true);
-        refresh(uuid, data, replacement);
+        while (true) {
+            Data data = getDataNullOrThrowOnTimeout(uuid, true);
+            if (refresh(uuid, data, replacement)) {
+                return;
+            }
+        }
     }
 
     /**
@@ -333,11 +443,13 @@ public class SessionCache implements ApplicationContextAware {
      * @param uuid
      * @param data
      * @param replacement
+     * @return false if data is no longer in the cache, having been replaced
+     *         or removed concurrently.
      */
-    private void refresh(String uuid, Data data, SessionContext replacement) {
+    private boolean refresh(String uuid, Data data, SessionContext replacement) {
         // Adding and upping hit information.
         Data fresh = new Data(data, replacement, false);
-        this.sessions.put(uuid, fresh);
+        return this.sessions.replace(uuid, data, fresh);
     }
 
     /**
@@ -353,7 +465,7 @@ public class SessionCache implements ApplicationContextAware {
         Data data = getDataNullOrThrowOnTimeout(uuid, true);
 
         // Up'ing access time
-        this.sessions.put(uuid, new Data(data));
+        data.hit();
         return data.sessionContext;
     }
 
@@ -389,8 +501,8 @@ public class SessionCache implements ApplicationContextAware {
             }
         }
 
-        long lastAccess = data.lastAccessTime;
-        long hits = data.hitCount;
+        long lastAccess = data.lastAccessTime.get();
+        long hits = data.hitCount.get();
 
         // Get session info
         SessionContext ctx = data.sessionContext;
@@ -488,6 +600,19 @@ public class SessionCache implements ApplicationContextAware {
         return sessions.keySet();
     }
 
+    /**
+     * Returns the contexts of all the sessions currently in the cache without
+     * upping their access information, checking for timeouts or waiting for
+     * an update. Intended for monitoring.
+     */
+    public List<SessionContext> getSessionContexts() {
+        final List<SessionContext> rv = new ArrayList<SessionContext>();
+        for (Data data : sessions.values()) {
+            rv.add(data.sessionContext);
+        }
+        return rv;
+    }
+
     // State
     // =========================================================================
 
@@ -549,8 +674,10 @@ public class SessionCache implements ApplicationContextAware {
             time = ugue.getTimestamp();
         }
 
-        State old = state.get();
-        state.set(new State(old, time));
+        State old;
+        do {
+            old = state.get();
+        } while (!state.compareAndSet(old, new State(old, time, ugue)));
     }
 
     /**
@@ -558,6 +685,11 @@ public class SessionCache implements ApplicationContextAware {
      * time again in case a second write thread was blocking the current one.
      * {@link #lastUpdateRun} gets set to a negative value to specify that this
      * method is currently running.
+     *
+     * Only the sessions of the users and groups named by the
+     * {@link UserGroupUpdateEvent}s received since the last run are reloaded,
+     * unless an event was global or the forced update interval has passed.
+     * The other sessions are only checked for timeouts.
      */
     public void doUpdate() {
 
@@ -575,14 +707,43 @@ public class SessionCache implements ApplicationContextAware {
         }
 
         try {
-            final Set<String> ids = sessions.keySet();
-            log.info("Synchronizing session cache. Count = " + ids.size());
+            // Requests received from now on are left for the next run.
+            final long start = System.currentTimeMillis();
+            State current;
+            do {
+                current = state.get();
+            } while (!state.compareAndSet(current, new State(start)));
+
+            final boolean all = current.isGlobal()
+                    || current.isForced(forceUpdateInterval);
             final StopWatch sw = new Slf4JStopWatch();
-            for (String id : ids) {
-                reload(id);
+            final int count = sessions.size();
+            final List<String> reloading = new ArrayList<String>();
+            int expired = 0;
+            for (Map.Entry<String, Data> entry : sessions.entrySet()) {
+                final String id = entry.getKey();
+                boolean affected;
+                try {
+                    affected = all
+                            || current.affects(entry.getValue().sessionContext);
+                } catch (RuntimeException e) {
+                    // Incomplete context: let reload decide what to do
+                    affected = true;
+                }
+                if (affected) {
+                    reloading.add(id);
+                } else if (expire(id)) {
+                    expired++;
+                }
             }
+            log.info(String.format("Synchronizing session cache. "
+                    + "Count = %s, Reloading = %s", count, reloading.size()));
+
+            reloadAll(reloading);
 
-            sw.stop("omero.sessions.synchronization");
+            sw.stop("omero.sessions.synchronization", String.format(
+                    "reloaded=%s expired=%s all=%s", reloading.size(), expired,
+                    all));
             log.info(String.format("Synchronization took %s ms.",
                     sw.getElapsedTime()));
 
@@ -594,6 +755,67 @@ public class SessionCache implements ApplicationContextAware {
 
     }
 
+    /**
+     * Removes a session which has timed out without reloading it.
+     *
+     * @return true if the session was removed.
+     */
+    private boolean expire(String id) {
+        try {
+            if (getDataNullOrThrowOnTimeout(id, false) == null
+                    && sessions.containsKey(id)) {
+                internalRemove(id, "Timeout");
+                return true;
+            }
+        } catch (Exception e) {
+            log.warn("Removing session on get error of " + id, e);
+            internalRemove(id, "Get error");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reloads sessions in batches of {@link #reloadBatchSize} in the
+     * {@link #reloadExecutor} if there is one, waiting for all batches to
+     * complete.
+     */
+    private void reloadAll(final List<String> ids) {
+        if (reloadExecutor == null || ids.size() <= reloadBatchSize) {
+            reloadBatch(ids);
+            return;
+        }
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int from = 0; from < ids.size(); from += reloadBatchSize) {
+            final List<String> batch = ids.subList(from, Math.min(from
+                    + reloadBatchSize, ids.size()));
+            futures.add(reloadExecutor.submit(new Runnable() {
+                public void run() {
+                    reloadBatch(batch);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted while reloading sessions");
+                return;
+            } catch (ExecutionException e) {
+                log.error("Error reloading sessions", e.getCause());
+            }
+        }
+    }
+
+    private void reloadBatch(List<String> ids) {
+        final StopWatch sw = new Slf4JStopWatch();
+        for (String id : ids) {
+            reload(id);
+        }
+        sw.stop("omero.sessions.reload", "count=" + ids.size());
+    }
+
     /**
      * Provides the reloading logic of the {@link SessionCache} for the
      * {@link SessionManagerImpl} to use.
@@ -622,6 +844,7 @@ public class SessionCache implements ApplicationContextAware {
             // made. Therefore the instance will be removed.
             log.warn("Removing session on get error of " + id, e);
             internalRemove(id, "Get error");
+            return;
         }
 
         try {
@@ -630,8 +853,8 @@ public class SessionCache implements ApplicationContextAware {
             SessionContext replacement = listener.reload(ctx);
             if (replacement == null) {
                 internalRemove(id, "Replacement null");
-            } else {
-                refresh(id, data, replacement);
+            } else if (!refresh(id, data, replacement)) {
+                log.debug("Session replaced or removed during reload: " + id);
             }
         } catch (Exception e) {
             // If an exception occurs it MAY be transient, therefore
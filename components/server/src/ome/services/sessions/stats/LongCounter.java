@@ -6,6 +6,8 @@
  */
 package ome.services.sessions.stats;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
@@ -21,6 +23,12 @@ import ome.util.messages.InternalMessage;
 /**
  * Counter object which increments an internal long by some integer value,
  * and according to some strategy publishes an {@link InternalMessage} subclass.
+ *
+ * The count is kept in a {@link StripedLong} so that concurrent increments do
+ * not contend, and is only summed when the part incremented by the current
+ * thread passes a multiple of a step of a small fraction of the interval.
+ * A message is therefore published at most a quarter of the interval after
+ * the count reaches it, without any increment ever blocking.
  * 
  * @author Josh Moore, josh at glencoesoftware.com
  * @since Beta4
@@ -33,14 +41,22 @@ public abstract class LongCounter implements ApplicationEventPublisherAware {
     
     private int interval = 0;
     
-    private long last = 0;
-    
-    private final Object mutex = new Object();
+    /**
+     * Number by which the part of the count incremented by a thread must grow
+     * for the whole count to be checked against the interval.
+     */
+    private final long step;
+
+    /**
+     * Count at which the last message was published.
+     */
+    private final AtomicLong last = new AtomicLong(0);
     
-    protected long count = 0;
+    private final StripedLong count = new StripedLong();
     
     public LongCounter(int interval) {
         this.interval = interval;
+        this.step = Math.max(1, interval / (4L * StripedLong.STRIPES));
     }
 
     public void setApplicationEventPublisher(
@@ -49,20 +65,42 @@ public abstract class LongCounter implements ApplicationEventPublisherAware {
     }
 
     public void increment(int incr) {
-        synchronized (mutex) {
-            count = count + incr;
-            if (count >= (last+interval)) {
-                last = count;
-                InternalMessage message = message();
-                try {
-                    log.info("Publishing "+ message);
-                    publisher.publishEvent(message);
-                } catch (Throwable t) {
-                    log.error(message + " produced an error: "+t);
-                }
+        final long after = count.add(incr);
+        if (incr > 0 && floorDiv(after, step) > floorDiv(after - incr, step)) {
+            check();
+        }
+    }
+
+    /**
+     * Returns the current count.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Publishes a message if the count has reached the interval since the
+     * last message. Only the thread which moves {@link #last} on publishes.
+     */
+    private void check() {
+        final long total = count.sum();
+        final long previous = last.get();
+        if (total >= (previous + interval)
+                && last.compareAndSet(previous, total)) {
+            InternalMessage message = message();
+            try {
+                log.info("Publishing "+ message);
+                publisher.publishEvent(message);
+            } catch (Throwable t) {
+                log.error(message + " produced an error: "+t);
             }
         }
     }
+
+    private static long floorDiv(long x, long y) {
+        final long q = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+    }
  
     /**
      * 
@@ -0,0 +1,96 @@
+/*
+ * ome.services.sessions.stats.SessionStatsView
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.sessions.stats;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ome.services.sessions.SessionContext;
+import ome.services.sessions.state.SessionCache;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Read-only JMX view of the {@link SessionStats} of the sessions in the
+ * {@link SessionCache}. The counts are summed from the striped counters when
+ * an attribute is read, so that the view does not add any cost to the
+ * counting itself, and the sessions are read without upping their access
+ * time. Sessions are listed by database id and user name rather than by uuid
+ * since the uuid is a credential.
+ *
+ * @since 5.0
+ */
+@ManagedResource(objectName = "omero:type=SessionStats",
+        description = "Objects read and written and method calls per session")
+public class SessionStatsView {
+
+    private final SessionCache cache;
+
+    public SessionStatsView(SessionCache cache) {
+        this.cache = cache;
+    }
+
+    @ManagedAttribute(description = "Number of sessions in the cache")
+    public int getSessionCount() {
+        return cache.getSessionContexts().size();
+    }
+
+    @ManagedAttribute(description = "Objects read by all sessions")
+    public long getObjectsRead() {
+        long total = 0;
+        for (SimpleSessionStats stats : stats()) {
+            total += stats.objectsReadCount();
+        }
+        return total;
+    }
+
+    @ManagedAttribute(description = "Objects written by all sessions")
+    public long getObjectsWritten() {
+        long total = 0;
+        for (SimpleSessionStats stats : stats()) {
+            total += stats.objectsWrittenCount();
+        }
+        return total;
+    }
+
+    @ManagedAttribute(description = "Methods active in all sessions")
+    public long getMethodCount() {
+        long total = 0;
+        for (SimpleSessionStats stats : stats()) {
+            total += stats.methodCount();
+        }
+        return total;
+    }
+
+    @ManagedAttribute(description = "Counts of each session, one per line")
+    public String[] getSessionCounts() {
+        final List<String> rv = new ArrayList<String>();
+        for (SessionContext ctx : cache.getSessionContexts()) {
+            if (ctx.stats() instanceof SimpleSessionStats) {
+                final SimpleSessionStats stats = (SimpleSessionStats) ctx.stats();
+                rv.add(String.format(
+                        "session=%s user=%s read=%s written=%s methods=%s",
+                        ctx.getCurrentSessionId(), ctx.getCurrentUserName(),
+                        stats.objectsReadCount(), stats.objectsWrittenCount(),
+                        stats.methodCount()));
+            }
+        }
+        return rv.toArray(new String[rv.size()]);
+    }
+
+    private List<SimpleSessionStats> stats() {
+        final List<SimpleSessionStats> rv = new ArrayList<SimpleSessionStats>();
+        for (SessionContext ctx : cache.getSessionContexts()) {
+            if (ctx.stats() instanceof SimpleSessionStats) {
+                rv.add((SimpleSessionStats) ctx.stats());
+            }
+        }
+        return rv;
+    }
+
+}
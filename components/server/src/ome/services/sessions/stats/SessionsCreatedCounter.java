@@ -24,7 +24,7 @@ public class SessionsCreatedCounter extends LongCounter {
     }
 
     protected InternalMessage message() {
-        return new SessionsCreatedStatsMessage(this, count);
+        return new SessionsCreatedStatsMessage(this, getCount());
     }
 
 
@@ -33,7 +33,21 @@ public class SimpleSessionStats implements SessionStats {
     }
 
     public long methodCount() {
-        return this.methods.count;
+        return this.methods.getCount();
+    }
+
+    /**
+     * Returns the number of objects loaded so far.
+     */
+    public long objectsReadCount() {
+        return this.read.getCount();
+    }
+
+    /**
+     * Returns the number of objects updated so far.
+     */
+    public long objectsWrittenCount() {
+        return this.written.getCount();
     }
 
     public void methodOut() {
@@ -0,0 +1,91 @@
+/*
+ * ome.services.sessions.stats.StripedLong
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.sessions.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sum of longs which threads can add to concurrently without contending on a
+ * single value, along the lines of the JDK 8 LongAdder. Additions go to a
+ * single base value until two threads collide on it, after which each thread
+ * adds to one of a fixed number of cells chosen by its id. The cells are
+ * spaced a cache line apart so that threads adding to different cells do not
+ * share lines. {@link #sum()} is exact when no addition is in progress.
+ *
+ * @since 5.0
+ */
+public class StripedLong {
+
+    /** Number of longs in a cache line, i.e. the spacing of the cells. */
+    private static final int PADDING = 8;
+
+    /** Number of cells, a power of two. */
+    public static final int STRIPES;
+
+    static {
+        int stripes = 1;
+        final int wanted = Math.min(64,
+                2 * Runtime.getRuntime().availableProcessors());
+        while (stripes < wanted) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    private final AtomicLong base = new AtomicLong();
+
+    private final AtomicReference<AtomicLongArray> cells = new AtomicReference<AtomicLongArray>();
+
+    /**
+     * Adds a value.
+     *
+     * @return the value of the base or cell which was added to after the
+     *         addition. This is not the sum but can be used to decide
+     *         cheaply when to compute it.
+     */
+    public long add(long x) {
+        AtomicLongArray cs = cells.get();
+        if (cs == null) {
+            final long b = base.get();
+            if (base.compareAndSet(b, b + x)) {
+                return b + x;
+            }
+            // Contended: from now on spreading over the cells
+            cells.compareAndSet(null, new AtomicLongArray(STRIPES * PADDING));
+            cs = cells.get();
+        }
+        return cs.addAndGet(index() * PADDING, x);
+    }
+
+    /**
+     * Returns the sum of all the values added.
+     */
+    public long sum() {
+        long sum = base.get();
+        final AtomicLongArray cs = cells.get();
+        if (cs != null) {
+            for (int i = 0; i < STRIPES; i++) {
+                sum += cs.get(i * PADDING);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Chooses the cell of the current thread by spreading the bits of its id.
+     */
+    private static int index() {
+        long h = Thread.currentThread().getId();
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        return (int) h & (STRIPES - 1);
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * ome.server.utests.FullTextPagingTest
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.server.utests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import ome.model.IObject;
+import ome.model.core.Image;
+import ome.services.fulltext.FullTextAnalyzer;
+import ome.services.search.FullText;
+import ome.services.search.SearchValues;
+
+import org.testng.annotations.Test;
+
+/**
+ * Runs the loop by which a paged {@link FullText} collects its pages of hits
+ * over hits of which the database restrictions filter out every odd id.
+ *
+ * @since 5.0
+ */
+public class FullTextPagingTest extends TestCase {
+
+    static class PagedFullText extends FullText {
+
+        private static final long serialVersionUID = 1L;
+
+        PagedFullText(SearchValues values) {
+            super(values, "a", FullTextAnalyzer.class);
+            setPaged(true);
+        }
+
+        List<IObject> next(Hits hits) {
+            return page(hits);
+        }
+
+        /** Hits with the ids 0 to size - 1, of which the even are loaded. */
+        static class EvenHits implements Hits {
+
+            final int size;
+
+            /** The most hits asked for at once */
+            int maxAsked = 0;
+
+            EvenHits(int size) {
+                this.size = size;
+            }
+
+            public List<?> list(int first, int max) {
+                maxAsked = Math.max(maxAsked, max);
+                List<Object[]> hits = new ArrayList<Object[]>();
+                for (long id = first; id < size && hits.size() < max; id++) {
+                    hits.add(new Object[] { 1.0f, id });
+                }
+                return hits;
+            }
+
+            public int size() {
+                return size;
+            }
+
+            public List<IObject> load(List<?> hits) {
+                List<IObject> rv = new ArrayList<IObject>();
+                for (Object hit : hits) {
+                    Long id = (Long) ((Object[]) hit)[1];
+                    if (id % 2 == 0) {
+                        rv.add(new Image(id, true));
+                    }
+                }
+                return rv;
+            }
+
+        }
+
+    }
+
+    SearchValues values(int batchSize, int offset) {
+        SearchValues values = new SearchValues();
+        values.onlyTypes = Arrays.<Class> asList(Image.class);
+        values.batchSize = batchSize;
+        values.offset = offset;
+        return values;
+    }
+
+    List<Long> ids(List<IObject> objects) {
+        List<Long> ids = new ArrayList<Long>();
+        for (IObject object : objects) {
+            ids.add(object.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testPagesAreToppedUpFromTheFollowingHits() {
+        PagedFullText fullText = new PagedFullText(values(3, 0));
+        PagedFullText.EvenHits hits = new PagedFullText.EvenHits(10);
+        assertEquals(Arrays.asList(0L, 2L, 4L), ids(fullText.next(hits)));
+        assertEquals(10, fullText.getTotalSize());
+        assertTrue(fullText.hasMoreHits());
+        assertEquals(Arrays.asList(6L, 8L), ids(fullText.next(hits)));
+        assertFalse(fullText.hasMoreHits());
+        // Never more hits are collected than missing from the page
+        assertEquals(3, hits.maxAsked);
+    }
+
+    @Test
+    public void testPagingStartsAtTheOffset() {
+        PagedFullText fullText = new PagedFullText(values(2, 5));
+        PagedFullText.EvenHits hits = new PagedFullText.EvenHits(10);
+        assertEquals(Arrays.asList(6L, 8L), ids(fullText.next(hits)));
+        assertTrue(fullText.hasMoreHits());
+        assertTrue(fullText.next(hits).isEmpty());
+        assertFalse(fullText.hasMoreHits());
+    }
+
+    @Test
+    public void testNoHits() {
+        PagedFullText fullText = new PagedFullText(values(3, 0));
+        assertTrue(fullText.next(new PagedFullText.EvenHits(0)).isEmpty());
+        assertEquals(0, fullText.getTotalSize());
+        assertFalse(fullText.hasMoreHits());
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * ome.server.utests.IdSetCacheTest
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.server.utests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import ome.model.IObject;
+import ome.model.core.Image;
+import ome.services.search.IdSet;
+import ome.services.search.IdSetCache;
+import ome.services.search.SearchAction;
+import ome.services.search.SearchValues;
+import ome.system.EventContext;
+import ome.system.ServiceFactory;
+import ome.system.SimpleEventContext;
+
+import org.hibernate.Session;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link IdSetCache} only returns the ids of an action to the
+ * context they were found in.
+ *
+ * @since 5.0
+ */
+public class IdSetCacheTest extends TestCase {
+
+    static class Context extends SimpleEventContext {
+        private static final long serialVersionUID = 1L;
+
+        Context(long user, long group, boolean admin) {
+            this.cuId = user;
+            this.cgId = group;
+            this.isAdmin = admin;
+        }
+    }
+
+    static class Action extends SearchAction {
+        private static final long serialVersionUID = 1L;
+
+        final String key;
+
+        Action(String key) {
+            super(new SearchValues());
+            this.key = key;
+        }
+
+        @Override
+        public String cacheKey() {
+            return key;
+        }
+
+        public Object doWork(Session session, ServiceFactory sf) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private final EventContext ec = new Context(2L, 3L, false);
+
+    private final IdSet ids;
+    {
+        List<IObject> images = new ArrayList<IObject>();
+        images.add(new Image(1L, true));
+        ids = IdSet.of(images);
+    }
+
+    @Test
+    public void testSameContextHits() {
+        IdSetCache cache = new IdSetCache(10, 60000L);
+        cache.put(ec, new Action("a"), ids);
+        assertSame(ids, cache.get(new Context(2L, 3L, false), new Action("a")));
+        assertNull(cache.get(ec, new Action("b")));
+    }
+
+    @Test
+    public void testOtherContextsMiss() {
+        IdSetCache cache = new IdSetCache(10, 60000L);
+        cache.put(ec, new Action("a"), ids);
+        assertNull(cache.get(new Context(4L, 3L, false), new Action("a")));
+        assertNull(cache.get(new Context(2L, 5L, false), new Action("a")));
+        assertNull(cache.get(new Context(2L, 3L, true), new Action("a")));
+    }
+
+    @Test
+    public void testNoKeyIsNotCached() {
+        IdSetCache cache = new IdSetCache(10, 60000L);
+        cache.put(ec, new Action(null), ids);
+        assertNull(cache.get(ec, new Action(null)));
+    }
+
+}
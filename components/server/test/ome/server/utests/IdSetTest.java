@@ -0,0 +1,77 @@
+/*
+ * ome.server.utests.IdSetTest
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.server.utests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import ome.model.IObject;
+import ome.model.containers.Dataset;
+import ome.model.core.Image;
+import ome.services.search.IdSet;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the merging of the sorted ids of {@link IdSet}.
+ *
+ * @since 5.0
+ */
+public class IdSetTest extends TestCase {
+
+    private IdSet images(long... ids) {
+        List<IObject> list = new ArrayList<IObject>();
+        for (long id : ids) {
+            list.add(new Image(id, true));
+        }
+        return IdSet.of(list);
+    }
+
+    private void assertIds(IdSet set, long... expected) {
+        long[] actual = set.getIds(Image.class);
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i]);
+        }
+    }
+
+    @Test
+    public void testOfSortsAndRemovesDuplicates() {
+        IdSet set = images(5, 3, 5, 1, 3);
+        assertIds(set, 1, 3, 5);
+        assertEquals(3, set.size());
+        assertTrue(set.contains(new Image(3L, false)));
+        assertFalse(set.contains(new Image(4L, false)));
+        assertTrue(IdSet.of(null).isEmpty());
+    }
+
+    @Test
+    public void testMerges() {
+        IdSet a = images(1, 2, 3, 7);
+        IdSet b = images(2, 7, 9);
+        assertIds(a.or(b), 1, 2, 3, 7, 9);
+        assertIds(a.and(b), 2, 7);
+        assertIds(a.andNot(b), 1, 3);
+        assertIds(b.andNot(a), 9);
+        assertTrue(a.and(IdSet.EMPTY).isEmpty());
+    }
+
+    @Test
+    public void testTypesAreKeptApart() {
+        List<IObject> list = new ArrayList<IObject>();
+        list.add(new Image(1L, true));
+        list.add(new Dataset(1L, true));
+        IdSet set = IdSet.of(list);
+        assertEquals(2, set.size());
+        assertTrue(set.and(images(1)).contains(new Image(1L, false)));
+        assertFalse(set.and(images(1)).contains(new Dataset(1L, false)));
+        assertIds(set.andNot(images(1)));
+        assertEquals(1, set.andNot(images(1)).getIds(Dataset.class).length);
+    }
+
+}
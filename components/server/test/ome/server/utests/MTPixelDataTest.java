@@ -6,7 +6,9 @@
 package ome.server.utests;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -104,6 +106,12 @@ public class MTPixelDataTest extends MockObjectTestCase {
                 log.setEntityId(id);
                 return log;
             }
+
+            @Override
+            public List<long[]> recent()
+            {
+                return new ArrayList<long[]>();
+            }
         };
 
         PixelDataHandler handler = new PixelDataHandler(loader, service) {
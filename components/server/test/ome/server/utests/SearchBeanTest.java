@@ -13,16 +13,21 @@ import java.util.List;
 import ome.model.IObject;
 import ome.model.annotations.TagAnnotation;
 import ome.model.core.Image;
+import ome.model.internal.Permissions;
+import ome.security.SecuritySystem;
 import ome.services.SearchBean;
 import ome.services.fulltext.FullTextAnalyzer;
+import ome.services.search.FullText;
 import ome.services.search.SearchAction;
 import ome.services.search.SearchValues;
 import ome.services.util.Executor;
 import ome.system.Principal;
+import ome.system.SimpleEventContext;
 import ome.system.ServiceFactory;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.hibernate.Session;
+import org.jmock.Mock;
 import org.jmock.MockObjectTestCase;
 import org.springframework.transaction.TransactionStatus;
 import org.testng.annotations.Test;
@@ -158,8 +163,101 @@ public class SearchBeanTest extends MockObjectTestCase {
         bean.onlyAnnotatedWith((java.lang.Class[]) null);
     }
 
+    @Test
+    public void testFullTextRunOncePerPage() {
+        bean = new SearchBean(executor, analyzer);
+        SearchValues values = new SearchValues();
+        values.onlyTypes = Arrays.<Class> asList(Image.class);
+        final int[] pages = new int[] { 3 };
+        bean.addAction(new FullText(values, "a", analyzer) {
+            @Override
+            public Object doWork(Session session, ServiceFactory sf) {
+                assertTrue(isPaged());
+                pages[0]--;
+                return new ArrayList<IObject>(Arrays.<IObject> asList(
+                        new Image(), new Image()));
+            }
+
+            @Override
+            public boolean hasMoreHits() {
+                return pages[0] > 0;
+            }
+        });
+        assertNotNull(bean.next());
+        assertEquals(2, pages[0]);
+        assertEquals(1, bean.activeQueries());
+        int count = 1;
+        while (bean.hasNext()) {
+            bean.next();
+            count++;
+        }
+        assertEquals(6, count);
+        assertEquals(0, pages[0]);
+        assertEquals(0, bean.activeQueries());
+    }
+
+    @Test
+    public void testCombinationsMergeIds() {
+        bean = new SearchBean(new Executor.Impl(null, null, null, null) {
+            @Override
+            public Principal principal() {
+                return null; // Branches then run one after the other
+            }
+
+            @Override
+            public Object execute(Principal p, Work work) {
+                return work.doWork(null, null);
+            }
+        }, analyzer);
+        // The merged id sets are cached for the current user
+        Mock sec = mock(SecuritySystem.class);
+        sec.expects(atLeastOnce()).method("getEventContext")
+                .will(returnValue(new SimpleEventContext() {
+                    private static final long serialVersionUID = 1L;
+                    {
+                        cuId = 2L;
+                        cgId = 3L;
+                        memberOfGroups = Arrays.asList(3L);
+                        leaderOfGroups = new ArrayList<Long>();
+                        setGroupPermissions(new Permissions());
+                    }
+                }));
+        bean.setSecuritySystem((SecuritySystem) sec.proxy());
+        addActionWithImages(1, 2, 3);
+        bean.or();
+        addActionWithImages(3, 4);
+        bean.and();
+        addActionWithImages(4, 2, 5);
+        assertEquals(1, bean.activeQueries());
+        List<IObject> rv = bean.results();
+        assertEquals(2, rv.size());
+        assertEquals(2L, rv.get(0).getId().longValue());
+        assertEquals(4L, rv.get(1).getId().longValue());
+
+        addActionWithImages(1, 2, 3);
+        bean.not();
+        addActionWithImages(2);
+        rv = bean.results();
+        assertEquals(2, rv.size());
+        assertEquals(1L, rv.get(0).getId().longValue());
+        assertEquals(3L, rv.get(1).getId().longValue());
+    }
+
     // ==============================================
 
+    private void addActionWithImages(final long... ids) {
+        bean.addAction(new SearchAction(new SearchValues()) {
+
+            public Object doWork(Session session, ServiceFactory sf) {
+                List<IObject> rv = new ArrayList<IObject>();
+                for (long id : ids) {
+                    rv.add(new Image(id, true));
+                }
+                return rv;
+            }
+        });
+    }
+
     private void addActionWithResultOfSize_n(final int n) {
         bean.addAction(new SearchAction(new SearchValues()) {
 
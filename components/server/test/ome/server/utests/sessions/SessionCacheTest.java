@@ -7,12 +7,16 @@
 package ome.server.utests.sessions;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -27,6 +31,7 @@ import ome.conditions.RemovedSessionException;
 import ome.conditions.SessionException;
 import ome.conditions.SessionTimeoutException;
 import ome.model.internal.Permissions;
+import ome.model.meta.Experimenter;
 import ome.model.meta.ExperimenterGroup;
 import ome.model.meta.Session;
 import ome.services.messages.DestroySessionMessage;
@@ -512,9 +517,80 @@ public class SessionCacheTest extends TestCase {
         assertTrue(internal.isKeyInCache(s.getUuid()));
     }
 
+    @Test
+    public void testUpdateOnlyReloadsAffectedSessions() {
+        final Session s1 = sess();
+        final Session s2 = sess();
+        s1.getDetails().setOwner(new Experimenter(1L, false));
+        s2.getDetails().setOwner(new Experimenter(2L, false));
+        cache.putSession(s1.getUuid(), sc(s1));
+        cache.putSession(s2.getUuid(), sc(s2));
+        final List<String> reloaded = reloadedSessions();
+
+        cache.updateEvent(new UserGroupUpdateEvent(this, Collections
+                .singleton(2L), Collections.<Long> emptySet()));
+        cache.doUpdate();
+        assertEquals(Arrays.asList(s2.getUuid()), reloaded);
+
+        // Both are members of group 1
+        reloaded.clear();
+        cache.updateEvent(new UserGroupUpdateEvent(this, Collections
+                .<Long> emptySet(), Collections.singleton(1L)));
+        cache.doUpdate();
+        assertEquals(2, reloaded.size());
+
+        reloaded.clear();
+        cache.updateEvent(new UserGroupUpdateEvent(this));
+        cache.doUpdate();
+        assertEquals(2, reloaded.size());
+    }
+
+    @Test
+    public void testUpdateReloadsInBatches() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            cache.setReloadExecutor(executor);
+            cache.setReloadBatchSize(2);
+            for (int i = 0; i < 5; i++) {
+                Session s = sess();
+                cache.putSession(s.getUuid(), sc(s));
+            }
+            final List<String> reloaded = reloadedSessions();
+            cache.updateEvent(new UserGroupUpdateEvent(this));
+            cache.doUpdate();
+            assertEquals(5, reloaded.size());
+            assertEquals(5, new HashSet<String>(reloaded).size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testGetSessionKeepsTheEntry() {
+        final Session s = sess();
+        SessionContext sc = sc(s);
+        cache.putSession(s.getUuid(), sc);
+        for (int i = 0; i < 3; i++) {
+            assertSame(sc, cache.getSessionContext(s.getUuid()));
+        }
+    }
+
     // Helpers
     // ====================
 
+    List<String> reloadedSessions() {
+        final List<String> reloaded = Collections
+                .synchronizedList(new ArrayList<String>());
+        cache.setStaleCacheListener(new StaleCacheListener() {
+            public SessionContext reload(SessionContext context) {
+                reloaded.add(context.getSession().getUuid());
+                return context;
+            }
+        });
+        return reloaded;
+    }
+
+
     Session sess() {
         Session s = new Session();
         s.setStarted(new Timestamp(System.currentTimeMillis()));
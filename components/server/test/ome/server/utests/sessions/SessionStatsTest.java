@@ -120,6 +120,36 @@ public class SessionStatsTest extends MockObjectTestCase {
         stats.methodIn();
     }
 
+    @Test
+    public void testConcurrentIncrementsAreAllCounted() throws Exception {
+        final int[] published = readCounted();
+        final ObjectsReadCounter read = read(1000);
+        final SimpleSessionStats stats = new SimpleSessionStats(read, null,
+                new MethodCounter(Integer.MAX_VALUE));
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        stats.methodIn();
+                        stats.loadedObjects(1);
+                        stats.methodOut();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80000, stats.objectsReadCount());
+        assertEquals(0, stats.methodCount());
+        // Each message is published at most a quarter of the interval late
+        // and never twice for the same interval.
+        assertTrue(published[0] >= 60);
+        assertTrue(published[0] <= 80);
+    }
+
     // Helpers
     // =========================================================================
     
@@ -134,6 +164,19 @@ public class SessionStatsTest extends MockObjectTestCase {
         return called;
     }
     
+    private int[] readCounted() {
+        final int published[] = new int[]{0};
+        mc.addApplicationListener(new ApplicationListener(){
+            public void onApplicationEvent(ApplicationEvent arg0) {
+                if (arg0 instanceof ObjectsReadStatsMessage) {
+                    synchronized (published) {
+                        published[0]++;
+                    }
+                }
+            }});
+        return published;
+    }
+
     private EventContext ec() {
         Mock mock = new Mock(EventContext.class);
         mock.setDefaultStub(new DefaultResultStub());
@@ -0,0 +1,176 @@
+/*
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.delete;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import ome.model.IObject;
+import ome.services.graphs.BaseGraphSpec;
+import ome.services.graphs.GraphEntry;
+import ome.services.graphs.GraphException;
+import ome.services.graphs.GraphStep;
+
+import org.testng.annotations.Test;
+
+/**
+ * Checks how {@link DeleteStepFactory} groups hand-built {@link DeleteStep}s
+ * into {@link DeleteStep.Batch}es: across parents, not across SOFT parents,
+ * not ahead of the rows they depend on, and at most
+ * {@link DeleteStep.Batch#MAX_SIZE} rows, i.e. ids of one
+ * <code>in (:ids)</code> list, to a batch.
+ */
+@Test
+public class DeleteStepBatchUnitTest extends TestCase {
+
+    /**
+     * Spec whose entries are used for hand-built steps.
+     */
+    private static class StepSpec extends BaseGraphSpec {
+        StepSpec(String... entries) {
+            super("/Test", entries);
+        }
+        @Override
+        public Class<IObject> getHibernateClass(String table) {
+            return IObject.class;
+        }
+    }
+
+    final DeleteStepFactory factory = new DeleteStepFactory(null, null);
+
+    /**
+     * Builds the steps of a project whose datasets each have images, each
+     * of which has the given number of pixels, in the order in which
+     * {@link ome.services.graphs.GraphState} parses them: each dataset and
+     * each image is a container which is added after the rows below it.
+     */
+    private List<GraphStep> projectSteps(String datasetOp, int[][] pixels)
+            throws GraphException {
+        StepSpec projectSpec = new StepSpec("/Dataset" + datasetOp, "/Project");
+        GraphEntry dataset = projectSpec.entries().get(0);
+        GraphEntry project = projectSpec.entries().get(1);
+        StepSpec datasetSpec = new StepSpec("/Image;HARD", "/Dataset");
+        GraphEntry image = datasetSpec.entries().get(0);
+        GraphEntry datasetRow = datasetSpec.entries().get(1);
+        StepSpec imageSpec = new StepSpec("/Image/Pixels", "/Image");
+        GraphEntry pix = imageSpec.entries().get(0);
+        GraphEntry imageRow = imageSpec.entries().get(1);
+
+        List<GraphStep> steps = new ArrayList<GraphStep>();
+        LinkedList<GraphStep> stack = new LinkedList<GraphStep>();
+        long id = 1;
+        for (int d = 0; d < pixels.length; d++) {
+            long datasetId = ++id;
+            GraphStep ds = factory.create(steps.size(), stack,
+                    projectSpec, dataset, null);
+            stack.add(ds);
+            for (int i = 0; i < pixels[d].length; i++) {
+                long imageId = ++id;
+                GraphStep img = factory.create(steps.size(), stack,
+                        datasetSpec, image, null);
+                stack.add(img);
+                for (int p = 0; p < pixels[d][i]; p++) {
+                    steps.add(factory.create(steps.size(), stack, imageSpec,
+                            pix, new long[] { imageId, ++id }));
+                }
+                steps.add(factory.create(steps.size(), stack, imageSpec,
+                        imageRow, new long[] { imageId }));
+                stack.removeLast();
+                steps.add(img);
+            }
+            steps.add(factory.create(steps.size(), stack, datasetSpec,
+                    datasetRow, new long[] { datasetId }));
+            stack.removeLast();
+            steps.add(ds);
+        }
+        steps.add(factory.create(steps.size(), stack, projectSpec,
+                project, new long[] { 1L }));
+        factory.postProcess(steps);
+        return steps;
+    }
+
+    /**
+     * Builds the given number of sibling rows below a single parent.
+     */
+    private List<GraphStep> siblingSteps(int rows) throws GraphException {
+        StepSpec spec = new StepSpec("/Test", "/Foo");
+        GraphEntry foo = spec.entries().get(1);
+        List<GraphStep> steps = new ArrayList<GraphStep>();
+        LinkedList<GraphStep> stack = new LinkedList<GraphStep>();
+        for (int i = 0; i < rows; i++) {
+            steps.add(factory.create(steps.size(), stack, spec, foo,
+                    new long[] { i + 1 }));
+        }
+        factory.postProcess(steps);
+        return steps;
+    }
+
+    private List<Integer> batchSizes(List<GraphStep> steps, String table) {
+        List<Integer> sizes = new ArrayList<Integer>();
+        for (GraphStep step : steps) {
+            if (table.equals(step.table) && step.getIds() != null) {
+                sizes.add(((DeleteStep) step).getBatchSize());
+            }
+        }
+        return sizes;
+    }
+
+    @Test
+    public void testRowsOfDifferentParentsAreBatched() throws Exception {
+        List<GraphStep> steps = projectSteps(";HARD",
+                new int[][] { { 0, 0 }, { 0 } });
+        assertEquals(Arrays.asList(3, 3, 3), batchSizes(steps, "Image"));
+        assertEquals(Arrays.asList(2, 2), batchSizes(steps, "Dataset"));
+        assertEquals(Arrays.asList(1), batchSizes(steps, "Project"));
+    }
+
+    @Test
+    public void testRowsBelowSoftParentsAreNotBatchedAcrossThem()
+            throws Exception {
+        List<GraphStep> steps = projectSteps(";SOFT",
+                new int[][] { { 0, 0 }, { 0 } });
+        assertEquals(Arrays.asList(2, 2, 1), batchSizes(steps, "Image"));
+        assertEquals(Arrays.asList(1, 1), batchSizes(steps, "Dataset"));
+    }
+
+    @Test
+    public void testRowsAreNotBatchedAheadOfTheirDependents()
+            throws Exception {
+        // The pixels of the third image are first deleted after the
+        // first image, so the third image cannot join its batch.
+        List<GraphStep> steps = projectSteps(";HARD",
+                new int[][] { { 0, 0 }, { 1 } });
+        assertEquals(Arrays.asList(2, 2, 1), batchSizes(steps, "Image"));
+
+        // Whereas the pixels of all images are deleted together first.
+        steps = projectSteps(";HARD", new int[][] { { 1, 1 }, { 1 } });
+        assertEquals(Arrays.asList(3, 3, 3), batchSizes(steps, "Pixels"));
+        assertEquals(Arrays.asList(3, 3, 3), batchSizes(steps, "Image"));
+    }
+
+    @Test
+    public void testBatchesHoldAtMostOneIdListOfRows() throws Exception {
+        final int max = DeleteStep.Batch.MAX_SIZE;
+        List<Integer> sizes = batchSizes(siblingSteps(2 * max + 500), "Foo");
+        assertEquals(2 * max + 500, sizes.size());
+        for (int i = 0; i < sizes.size(); i++) {
+            assertEquals(i < 2 * max ? max : 500, (int) sizes.get(i));
+        }
+    }
+
+    @Test
+    public void testLastRowOverTheLimitIsDeletedSingly() throws Exception {
+        final int max = DeleteStep.Batch.MAX_SIZE;
+        List<Integer> sizes = batchSizes(siblingSteps(max + 1), "Foo");
+        assertEquals(max, (int) sizes.get(0));
+        assertEquals(max, (int) sizes.get(max - 1));
+        assertEquals(1, (int) sizes.get(max));
+    }
+
+}
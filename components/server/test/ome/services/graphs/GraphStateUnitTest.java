@@ -19,6 +19,7 @@ import ome.model.IObject;
 import ome.model.internal.Permissions;
 import ome.model.meta.ExperimenterGroup;
 import ome.server.utests.DummyExecutor;
+import ome.services.delete.DeleteStep;
 import ome.services.delete.DeleteStepFactory;
 import ome.services.export.ExporterStepFactory;
 import ome.services.util.Executor;
@@ -143,6 +144,31 @@ public class GraphStateUnitTest extends MockGraphTest {
 
     }
 
+    @Test
+    public void testSimpleEntryWithMultipleResultsIsBatched() throws Exception {
+        BaseGraphSpec spec = new BaseGraphSpec("/Test", "/Test", "/Foo") {
+            @Override
+            public Class<IObject> getHibernateClass(String table) {
+                return IObject.class;
+            }
+        };
+        prepareLoadQueryInfluencers();
+
+        table = table(new long[] { 1L }, new long[] { 2L }, new long[] { 3L });
+        prepareQueryBackupIds(table);
+
+        table = Arrays.asList(Arrays.asList(4L));
+        prepareQueryBackupIds(table);
+
+        GraphState state = new GraphState(createEventContext(false),
+            new DeleteStepFactory(specXml, em), sql, session, spec);
+        assertEquals(4, state.getTotalFoundCount());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(3, ((DeleteStep) state.getStep(i)).getBatchSize());
+        }
+        assertEquals(1, ((DeleteStep) state.getStep(3)).getBatchSize());
+    }
+
     @Test
     public void testSimpleRoiSubSpec() throws Exception {
         prepareGetRelationship();
@@ -0,0 +1,106 @@
+/*
+ * ome.services.utests.PixelDataQueueTest
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.utests;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import ome.services.pixeldata.PixelDataQueue;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the lanes and the claiming of the {@link PixelDataQueue}.
+ */
+public class PixelDataQueueTest extends TestCase {
+
+    @Test
+    public void testPriorityFirst() {
+        PixelDataQueue queue = new PixelDataQueue();
+        assertTrue(queue.offerBacklog(1L, 10L));
+        assertTrue(queue.offerBacklog(2L, 11L));
+        assertTrue(queue.offerPriority(3L, null));
+        PixelDataQueue.Entry entry = queue.poll();
+        assertEquals(3L, entry.pixelsId);
+        assertTrue(entry.priority);
+        queue.done(entry);
+        assertEquals(1L, queue.poll().pixelsId);
+        assertEquals(2L, queue.poll().pixelsId);
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testPromotionFromBacklog() {
+        PixelDataQueue queue = new PixelDataQueue();
+        assertTrue(queue.offerBacklog(1L, 10L));
+        assertTrue(queue.offerBacklog(2L, 11L));
+        assertFalse(queue.offerBacklog(2L, 12L));
+        assertTrue(queue.offerPriority(2L, 12L));
+        assertFalse(queue.offerPriority(2L, 13L));
+        assertEquals(1, queue.getPrioritySize());
+        PixelDataQueue.Entry entry = queue.poll();
+        assertEquals(2L, entry.pixelsId);
+        assertEquals(Long.valueOf(12L), entry.eventLogId);
+        assertEquals(1L, queue.poll().pixelsId);
+        // The superseded backlog entry is dropped
+        assertNull(queue.poll());
+        assertEquals(0, queue.getBacklogSize());
+        assertEquals(2, queue.getClaimedSize());
+    }
+
+    @Test
+    public void testClaimedNotQueuedAgain() {
+        PixelDataQueue queue = new PixelDataQueue();
+        queue.offerBacklog(1L, 10L);
+        PixelDataQueue.Entry entry = queue.poll();
+        assertFalse(queue.offerBacklog(1L, 11L));
+        assertFalse(queue.offerPriority(1L, 11L));
+        queue.done(entry);
+        assertEquals(0, queue.getClaimedSize());
+        assertTrue(queue.offerBacklog(1L, 11L));
+    }
+
+    @Test
+    public void testConcurrentClaims() throws Exception {
+        final PixelDataQueue queue = new PixelDataQueue();
+        final int count = 1000;
+        for (long i = 0; i < count; i++) {
+            if (i % 3 == 0) {
+                queue.offerPriority(i, null);
+            } else {
+                queue.offerBacklog(i, i);
+            }
+        }
+        final Set<Long> seen = Collections.synchronizedSet(new HashSet<Long>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            new Thread() {
+                public void run() {
+                    PixelDataQueue.Entry entry;
+                    while ((entry = queue.poll()) != null) {
+                        if (!seen.add(entry.pixelsId)) {
+                            duplicates.incrementAndGet();
+                        }
+                        queue.done(entry);
+                    }
+                    latch.countDown();
+                }
+            }.start();
+        }
+        latch.await();
+        assertEquals(0, duplicates.get());
+        assertEquals(count, seen.size());
+        assertEquals(0, queue.getPrioritySize());
+        assertEquals(0, queue.getBacklogSize());
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * ome.services.utests.RenderedTileCacheTest
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.utests;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import ome.services.RenderedTileCache;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the memory and disk tiers of the {@link RenderedTileCache}.
+ */
+public class RenderedTileCacheTest extends TestCase {
+
+    private File dir;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dir = File.createTempFile("tiles", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testHitReturnsCopy() {
+        RenderedTileCache cache = new RenderedTileCache(1024, 0, dir.getPath());
+        String key = RenderedTileCache.makeKey(1L, "packed|z=0");
+        assertNull(cache.getInts(key));
+        int[] tile = new int[] { 1, 2, 3 };
+        cache.put(key, tile);
+        tile[0] = 42;
+        int[] cached = cache.getInts(key);
+        assertEquals(1, cached[0]);
+        cached[1] = 42;
+        assertEquals(2, cache.getInts(key)[1]);
+        assertNull(cache.getBytes(key));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(12, cache.getMemoryBytes());
+    }
+
+    @Test
+    public void testDisabled() {
+        RenderedTileCache cache = new RenderedTileCache(0, 0, dir.getPath());
+        String key = RenderedTileCache.makeKey(1L, "packed|z=0");
+        cache.put(key, new int[1]);
+        assertFalse(cache.isEnabled());
+        assertNull(cache.getInts(key));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        RenderedTileCache cache = new RenderedTileCache(200, 0, dir.getPath());
+        String a = RenderedTileCache.makeKey(1L, "a");
+        String b = RenderedTileCache.makeKey(1L, "b");
+        String c = RenderedTileCache.makeKey(1L, "c");
+        cache.put(a, new byte[100]);
+        cache.put(b, new byte[100]);
+        assertNotNull(cache.getBytes(a));
+        cache.put(c, new byte[100]);
+        assertNotNull(cache.getBytes(a));
+        assertNull(cache.getBytes(b));
+        assertNotNull(cache.getBytes(c));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(200, cache.getMemoryBytes());
+    }
+
+    @Test
+    public void testSpillToDisk() {
+        RenderedTileCache cache =
+            new RenderedTileCache(100, 1000, dir.getPath());
+        String a = RenderedTileCache.makeKey(1L, "a");
+        String b = RenderedTileCache.makeKey(1L, "b");
+        byte[] tile = new byte[100];
+        tile[99] = 7;
+        cache.put(a, tile);
+        cache.put(b, new byte[100]);
+        assertEquals(100, cache.getDiskBytes());
+        byte[] cached = cache.getBytes(a);
+        assertEquals(7, cached[99]);
+        assertEquals(1, cache.getDiskHitCount());
+        int[] ints = new int[] { -1, 0, Integer.MAX_VALUE };
+        String c = RenderedTileCache.makeKey(1L, "c");
+        cache.put(c, ints);
+        cache.put(b, new byte[100]);
+        int[] back = cache.getInts(c);
+        assertEquals(ints.length, back.length);
+        for (int i = 0; i < ints.length; i++) {
+            assertEquals(ints[i], back[i]);
+        }
+    }
+
+    @Test
+    public void testInvalidate() {
+        RenderedTileCache cache =
+            new RenderedTileCache(100, 1000, dir.getPath());
+        String a = RenderedTileCache.makeKey(1L, "a");
+        String b = RenderedTileCache.makeKey(1L, "b");
+        String c = RenderedTileCache.makeKey(2L, "a");
+        cache.put(a, new byte[60]);
+        cache.put(b, new byte[60]);
+        cache.put(c, new byte[10]);
+        cache.invalidate(1L);
+        assertNull(cache.getBytes(a));
+        assertNull(cache.getBytes(b));
+        assertNotNull(cache.getBytes(c));
+        assertEquals(10, cache.getMemoryBytes());
+        assertEquals(0, cache.getDiskBytes());
+        assertFalse(new File(new File(dir, RenderedTileCache.DIRECTORY),
+                "1").exists());
+    }
+
+    @Test
+    public void testConcurrentSpillsOfTheSameEntry() throws Exception {
+        final RenderedTileCache cache =
+            new RenderedTileCache(100, 1000, dir.getPath());
+        final String a = RenderedTileCache.makeKey(1L, "a");
+        final String b = RenderedTileCache.makeKey(1L, "b");
+        final int threads = 4;
+        // Every round starts from an empty disk tier so that the threads
+        // all spill the entry they have just put at about the same time.
+        final CyclicBarrier round = new CyclicBarrier(threads, new Runnable() {
+            public void run() {
+                cache.invalidate(1L);
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int t = 0; t < threads; t++) {
+                final byte fill = (byte) (t + 1);
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        for (int i = 0; i < 300; i++) {
+                            round.await(10, TimeUnit.SECONDS);
+                            byte[] tile = new byte[100];
+                            Arrays.fill(tile, fill);
+                            cache.put(a, tile);
+                            cache.put(b, new byte[100]);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // Each entry is counted once however many threads wrote it
+        assertTrue(String.valueOf(cache.getDiskBytes()),
+                cache.getDiskBytes() <= 200);
+        byte[] tile = cache.getBytes(a);
+        assertNotNull(tile);
+        assertEquals(100, tile.length);
+        for (byte v : tile) {
+            assertEquals(tile[0], v);
+        }
+        // No temporary files are left behind
+        File tiles = new File(new File(dir, RenderedTileCache.DIRECTORY), "1");
+        for (String name : tiles.list()) {
+            assertFalse(name, name.endsWith(".tmp"));
+        }
+    }
+
+}
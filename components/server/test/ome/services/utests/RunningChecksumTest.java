@@ -0,0 +1,92 @@
+/*
+ * ome.services.utests.RunningChecksumTest
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.utests;
+
+import junit.framework.TestCase;
+import ome.services.RunningChecksum;
+import ome.util.checksum.ChecksumProviderFactory;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
+
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the checksum kept as a file is written matches that of the
+ * whole file, and that it is given up on when it cannot.
+ */
+public class RunningChecksumTest extends TestCase {
+
+    final ChecksumProviderFactory factory = new ChecksumProviderFactoryImpl();
+
+    final byte[] data = new byte[1000];
+    {
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+    }
+
+    RunningChecksum running() {
+        return new RunningChecksum(factory.getProvider(ChecksumType.SHA1));
+    }
+
+    String expected() {
+        return factory.getProvider(ChecksumType.SHA1).putBytes(data)
+                .checksumAsString();
+    }
+
+    /**
+     * Writes bytes from <code>data</code> as a client would, in a buffer of
+     * which only the first <code>length</code> bytes are meant.
+     */
+    void write(RunningChecksum checksum, int position, int length) {
+        final byte[] buf = new byte[length + 7];
+        System.arraycopy(data, position, buf, 0, length);
+        checksum.written(buf, position, length);
+    }
+
+    @Test
+    public void testInOrder() {
+        RunningChecksum checksum = running();
+        for (int position = 0; position < data.length; position += 300) {
+            write(checksum, position, Math.min(300, data.length - position));
+        }
+        assertEquals(expected(), checksum.checksumAsString(data.length));
+    }
+
+    @Test
+    public void testOutOfOrder() {
+        RunningChecksum checksum = running();
+        write(checksum, 600, 400);
+        write(checksum, 300, 300);
+        write(checksum, 0, 300);
+        assertEquals(expected(), checksum.checksumAsString(data.length));
+    }
+
+    @Test
+    public void testGapGivesNoChecksum() {
+        RunningChecksum checksum = running();
+        write(checksum, 0, 300);
+        write(checksum, 600, 400);
+        assertNull(checksum.checksumAsString(data.length));
+    }
+
+    @Test
+    public void testRewriteGivesNoChecksum() {
+        RunningChecksum checksum = running();
+        write(checksum, 0, 600);
+        write(checksum, 300, 700);
+        assertNull(checksum.checksumAsString(data.length));
+    }
+
+    @Test
+    public void testOtherSizeGivesNoChecksum() {
+        RunningChecksum checksum = running();
+        write(checksum, 0, data.length);
+        assertNull(checksum.checksumAsString(data.length + 1));
+    }
+
+}
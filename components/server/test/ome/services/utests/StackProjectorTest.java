@@ -0,0 +1,149 @@
+/*
+ * ome.services.utests.StackProjectorTest
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.utests;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+import ome.api.IProjection;
+import ome.services.projection.StackProjector;
+import ome.util.PixelData;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the projections of the {@link StackProjector} against the values
+ * read through {@link PixelData}.
+ */
+public class StackProjectorTest extends TestCase {
+
+    private PixelData plane(String type, double... values) {
+        PixelData data = new PixelData(type, ByteBuffer.allocate(
+                values.length * PixelData.getBitDepth(type) / 8));
+        for (int i = 0; i < values.length; i++) {
+            data.setPixelValue(i, values[i]);
+        }
+        return data;
+    }
+
+    private double[] project(int algorithm, String from, String to,
+            double[]... planes) {
+        StackProjector projector = new StackProjector(algorithm);
+        projector.reset(planes[0].length);
+        for (double[] values : planes) {
+            projector.add(plane(from, values));
+        }
+        PixelData out = plane(to, new double[planes[0].length]);
+        projector.write(out, 0, 0, planes[0].length, planes[0].length);
+        double[] rv = new double[planes[0].length];
+        for (int i = 0; i < rv.length; i++) {
+            rv[i] = out.getPixelValue(i);
+        }
+        return rv;
+    }
+
+    private void assertValues(double[] expected, double[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], 0.0001);
+        }
+    }
+
+    @Test
+    public void testMaximumUnsigned() {
+        assertValues(new double[] { 65535, 7, 40000 },
+                project(IProjection.MAXIMUM_INTENSITY, "uint16", "uint16",
+                        new double[] { 65535, 3, 0 },
+                        new double[] { 1, 7, 40000 }));
+        assertValues(new double[] { 255, 128 },
+                project(IProjection.MAXIMUM_INTENSITY, "uint8", "uint8",
+                        new double[] { 255, 2 }, new double[] { 0, 128 }));
+    }
+
+    @Test
+    public void testUnsignedInt() {
+        // PixelData only writes values up to Integer.MAX_VALUE as uint32.
+        PixelData large = plane("uint32", 0);
+        large.getData().putInt(0, (int) 4000000000L);
+        StackProjector projector =
+            new StackProjector(IProjection.SUM_INTENSITY);
+        projector.reset(1);
+        projector.add(large);
+        projector.add(plane("uint32", 1));
+        PixelData out = plane("double", 0);
+        projector.write(out, 0, 0, 1, 1);
+        assertEquals(4000000001.0, out.getPixelValue(0));
+    }
+
+    @Test
+    public void testMaximumOfNegativeValues() {
+        assertValues(new double[] { -3, -1 },
+                project(IProjection.MAXIMUM_INTENSITY, "int8", "int8",
+                        new double[] { -5, -1 }, new double[] { -3, -2 }));
+        assertValues(new double[] { -0.5 },
+                project(IProjection.MAXIMUM_INTENSITY, "float", "float",
+                        new double[] { -2.5 }, new double[] { -0.5 }));
+    }
+
+    @Test
+    public void testSumClippedToDestination() {
+        assertValues(new double[] { 255, 30 },
+                project(IProjection.SUM_INTENSITY, "uint8", "uint8",
+                        new double[] { 200, 10 }, new double[] { 100, 20 }));
+        assertValues(new double[] { 300, 30 },
+                project(IProjection.SUM_INTENSITY, "uint8", "uint16",
+                        new double[] { 200, 10 }, new double[] { 100, 20 }));
+    }
+
+    @Test
+    public void testMean() {
+        assertValues(new double[] { 2, 1.5 },
+                project(IProjection.MEAN_INTENSITY, "double", "double",
+                        new double[] { 1, 1 }, new double[] { 2, 2 },
+                        new double[] { 3, 1.5 }));
+        assertValues(new double[] { -20, 20 },
+                project(IProjection.MEAN_INTENSITY, "int16", "int16",
+                        new double[] { -30000, 30000 },
+                        new double[] { 29960, -29960 }));
+    }
+
+    @Test
+    public void testRegionsAndStatistics() {
+        StackProjector projector =
+            new StackProjector(IProjection.MAXIMUM_INTENSITY);
+        PixelData out = plane("uint16", new double[4 * 3]);
+        // Left column of 1x3 then right block of 3x3
+        projector.reset(3);
+        projector.add(plane("uint16", 1, 2, 3));
+        projector.write(out, 0, 0, 1, 4);
+        projector.reset(9);
+        projector.add(plane("uint16", 4, 5, 6, 7, 8, 9, 10, 11, 12));
+        projector.add(plane("uint16", 0, 0, 0, 0, 0, 0, 0, 0, 99));
+        projector.write(out, 1, 0, 3, 4);
+        assertValues(new double[] { 1, 4, 5, 6, 2, 7, 8, 9, 3, 10, 11, 99 },
+                new double[] { out.getPixelValue(0), out.getPixelValue(1),
+                out.getPixelValue(2), out.getPixelValue(3),
+                out.getPixelValue(4), out.getPixelValue(5),
+                out.getPixelValue(6), out.getPixelValue(7),
+                out.getPixelValue(8), out.getPixelValue(9),
+                out.getPixelValue(10), out.getPixelValue(11) });
+        assertEquals(1.0, projector.getMinimum());
+        assertEquals(99.0, projector.getMaximum());
+        projector.resetStatistics();
+        projector.reset(1);
+        projector.add(plane("uint16", 50));
+        projector.write(out, 0, 0, 1, 4);
+        assertEquals(50.0, projector.getMinimum());
+        assertEquals(50.0, projector.getMaximum());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownAlgorithm() {
+        new StackProjector(42);
+    }
+
+}
@@ -0,0 +1,280 @@
+/*
+ * ome.services.utests.ThumbnailGeneratorTest
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.utests;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import ome.api.IPixels;
+import ome.api.IQuery;
+import ome.api.local.LocalCompress;
+import ome.io.nio.ThumbnailService;
+import ome.logic.RenderingSettingsImpl;
+import ome.model.core.Channel;
+import ome.model.core.Pixels;
+import ome.model.display.RenderingDef;
+import ome.model.display.Thumbnail;
+import ome.model.enums.PixelsType;
+import ome.model.meta.Experimenter;
+import ome.model.stats.StatsInfo;
+import ome.services.pixeldata.ThumbnailGenerator;
+import ome.system.OmeroContext;
+import ome.system.ServiceFactory;
+import ome.util.SqlAction;
+import omeis.providers.re.utests.TestPixelsMetadataService;
+import omeis.providers.re.utests.TestPixelsService;
+
+import org.apache.commons.io.FileUtils;
+import org.hibernate.Session;
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.jmock.core.Invocation;
+import org.jmock.core.Stub;
+import org.springframework.beans.BeanWrapperImpl;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the creation of the standard thumbnails of a pixels set by the
+ * {@link ThumbnailGenerator} and the parsing of its sizes from
+ * <code>omero.pixeldata.thumbnail_sizes</code>.
+ */
+public class ThumbnailGeneratorTest extends MockObjectTestCase {
+
+    File root;
+
+    Pixels pixels;
+
+    RenderingDef settings;
+
+    /** Thumbnail metadata already in the database */
+    List<Thumbnail> existing;
+
+    /** The thumbnails written, by the size of their metadata */
+    Map<String, Thumbnail> written;
+
+    long nextId;
+
+    ThumbnailGenerator generator;
+
+    ServiceFactory sf;
+
+    Session session;
+
+    SqlAction sql;
+
+    class Metadata extends TestPixelsMetadataService {
+
+        @Override
+        public Pixels retrievePixDescription(long pixelsId) {
+            return pixels;
+        }
+
+        @Override
+        public RenderingDef retrieveRndSettingsFor(long pixelsId, long userId) {
+            assertEquals(2L, userId);
+            return settings;
+        }
+
+    }
+
+    /**
+     * Writes the size of the compressed image instead of the image.
+     */
+    class Compress implements Stub {
+
+        public Object invoke(Invocation invocation) throws Throwable {
+            BufferedImage image = (BufferedImage)
+                    invocation.parameterValues.get(0);
+            OutputStream stream = (OutputStream)
+                    invocation.parameterValues.get(1);
+            stream.write((image.getWidth() + "x" + image.getHeight())
+                    .getBytes());
+            return null;
+        }
+
+        public StringBuffer describeTo(StringBuffer buffer) {
+            return buffer.append("writes the image size");
+        }
+
+    }
+
+    /**
+     * Gives new thumbnail metadata the next id.
+     */
+    class CreateThumbnail implements Stub {
+
+        public Object invoke(Invocation invocation) throws Throwable {
+            assertSame(settings, invocation.parameterValues.get(0));
+            return ++nextId;
+        }
+
+        public StringBuffer describeTo(StringBuffer buffer) {
+            return buffer.append("creates thumbnail metadata");
+        }
+
+    }
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        root = File.createTempFile("thumbnail-generator", "");
+        root.delete();
+        root.mkdirs();
+
+        PixelsType type = new PixelsType();
+        type.setValue("uint8");
+        pixels = new Pixels(1L, true);
+        pixels.setSizeX(512);
+        pixels.setSizeY(256);
+        pixels.setSizeZ(1);
+        pixels.setSizeC(1);
+        pixels.setSizeT(1);
+        pixels.setPixelsType(type);
+        pixels.getDetails().setOwner(new Experimenter(2L, false));
+        StatsInfo stats = new StatsInfo();
+        stats.setGlobalMin(0.0);
+        stats.setGlobalMax(255.0);
+        Channel channel = new Channel();
+        channel.setStatsInfo(stats);
+        pixels.addChannel(channel);
+
+        byte[] plane = new byte[512 * 256];
+        new Random(1).nextBytes(plane);
+        TestPixelsService pixelsService = new TestPixelsService(pixels);
+        pixelsService.setDummyPlane(plane);
+        final IPixels metadata = new Metadata();
+        RenderingSettingsImpl settingsService = new RenderingSettingsImpl();
+        settingsService.setPixelsMetadata(metadata);
+        settingsService.setPixelsData(pixelsService);
+        settings = settingsService.createNewRenderingDef(pixels);
+        settingsService.resetDefaultsNoSave(settings, pixels);
+
+        existing = new ArrayList<Thumbnail>();
+        written = new LinkedHashMap<String, Thumbnail>();
+        nextId = 100;
+
+        Mock compress = mock(LocalCompress.class);
+        compress.stubs().method("compressToStream").will(new Compress());
+        ThumbnailService thumbnailService =
+            new ThumbnailService(root.getAbsolutePath()) {
+                @Override
+                public void createThumbnail(Thumbnail thumbnail, byte[] buf)
+                        throws IOException {
+                    String size = thumbnail.getSizeX() + "x"
+                            + thumbnail.getSizeY();
+                    assertEquals(size, new String(buf));
+                    assertFalse(written.containsKey(size));
+                    written.put(size, thumbnail);
+                }
+            };
+        generator = new ThumbnailGenerator(pixelsService, thumbnailService,
+                (LocalCompress) compress.proxy(), null);
+
+        Mock query = mock(IQuery.class);
+        query.stubs().method("findAllByQuery").will(returnValue(existing));
+        final IQuery iQuery = (IQuery) query.proxy();
+        sf = new ServiceFactory((OmeroContext) null) {
+            @Override
+            public IPixels getPixelsService() {
+                return metadata;
+            }
+            @Override
+            public IQuery getQueryService() {
+                return iQuery;
+            }
+        };
+        Mock sessionMock = mock(Session.class);
+        sessionMock.stubs().method("evict");
+        session = (Session) sessionMock.proxy();
+        Mock sqlMock = mock(SqlAction.class);
+        sqlMock.stubs().method("createThumbnail").will(new CreateThumbnail());
+        sql = (SqlAction) sqlMock.proxy();
+    }
+
+    @AfterMethod
+    public void cleanup() throws Exception {
+        FileUtils.deleteDirectory(root);
+    }
+
+    /**
+     * Sets the sizes as the bean factory does from the property, with the
+     * editors splitting comma-separated lists into arrays.
+     */
+    void configure(String property, String value) {
+        BeanWrapperImpl wrapper = new BeanWrapperImpl(generator);
+        wrapper.useConfigValueEditors();
+        wrapper.setPropertyValue(property, value);
+    }
+
+    int generate() throws Exception {
+        return generator.generate(pixels, sf, session, sql);
+    }
+
+    @Test
+    public void testEachStandardSizeIsCreated() throws Exception {
+        assertEquals(3, generate());
+        assertEquals(3, written.size());
+        assertTrue(written.containsKey("48x24"));
+        assertTrue(written.containsKey("96x48"));
+        assertTrue(written.containsKey("256x128"));
+        for (Thumbnail thumbnail : written.values()) {
+            assertTrue(thumbnail.getId() > 100);
+            assertEquals(1L, (long) thumbnail.getPixels().getId());
+        }
+    }
+
+    @Test
+    public void testExistingMetadataIsReused() throws Exception {
+        Thumbnail thumbnail = new Thumbnail(7L, true);
+        thumbnail.setSizeX(96);
+        thumbnail.setSizeY(48);
+        existing.add(thumbnail);
+        assertEquals(3, generate());
+        assertSame(thumbnail, written.get("96x48"));
+        assertEquals(102L, nextId);
+    }
+
+    @Test
+    public void testPixelsWithoutSettingsAreSkipped() throws Exception {
+        settings = null;
+        assertEquals(0, generate());
+        assertTrue(written.isEmpty());
+        assertEquals(100L, nextId);
+    }
+
+    @Test
+    public void testSizesAreParsedFromTheProperty() throws Exception {
+        configure("sizes", "48,96,256");
+        assertEquals(3, generate());
+    }
+
+    @Test
+    public void testRepeatedSizesFromThePropertyAreCreatedOnce()
+            throws Exception {
+        configure("sizes", "96, 32,96");
+        assertEquals(2, generate());
+        assertEquals(2, written.size());
+        assertTrue(written.containsKey("32x16"));
+        assertTrue(written.containsKey("96x48"));
+    }
+
+    @Test
+    public void testBlankPropertyDisablesTheGeneration() throws Exception {
+        configure("sizes", "");
+        assertEquals(0, generate());
+        assertTrue(written.isEmpty());
+    }
+
+}
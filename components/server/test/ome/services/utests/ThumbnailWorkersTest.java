@@ -0,0 +1,146 @@
+/*
+ * ome.services.utests.ThumbnailWorkersTest
+ *
+ *   Copyright 2013 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.utests;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import ome.services.ThumbnailWorkers;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the missing thumbnails of a set are rendered in parallel, that
+ * the number of jobs outstanding is bounded, and that every requested
+ * thumbnail ends up in the results.
+ */
+public class ThumbnailWorkersTest extends TestCase {
+
+    ExecutorService executor;
+
+    Map<Long, byte[]> results;
+
+    @BeforeMethod
+    public void setup() {
+        executor = Executors.newFixedThreadPool(2);
+        results = new HashMap<Long, byte[]>();
+    }
+
+    @AfterMethod
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    Callable<byte[]> job(final long pixelsId, final CountDownLatch release,
+            final AtomicInteger running, final AtomicInteger maxRunning) {
+        return new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                int now = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), now));
+                }
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                    return new byte[] { (byte) pixelsId };
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testThumbnailsAreRenderedInParallel() throws Exception {
+        final ThumbnailWorkers workers = new ThumbnailWorkers(executor,
+                results);
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        for (long id = 1; id <= 2; id++) {
+            final long pixelsId = id;
+            workers.submit(pixelsId, new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    bothRunning.countDown();
+                    assertTrue(bothRunning.await(10, TimeUnit.SECONDS));
+                    return new byte[] { (byte) pixelsId };
+                }
+            });
+        }
+        workers.drain();
+        assertEquals(1, results.get(1L)[0]);
+        assertEquals(2, results.get(2L)[0]);
+    }
+
+    @Test
+    public void testEveryThumbnailIsCollected() throws Exception {
+        final ThumbnailWorkers workers = new ThumbnailWorkers(executor,
+                results);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        for (long id = 1; id <= 50; id++) {
+            workers.submit(id, job(id, new CountDownLatch(0), running,
+                    maxRunning));
+        }
+        workers.drain();
+        assertEquals(50, results.size());
+        for (long id = 1; id <= 50; id++) {
+            assertEquals((byte) id, results.get(id)[0]);
+        }
+        assertTrue(maxRunning.get() <= 2);
+    }
+
+    @Test
+    public void testSubmitWaitsOnceTheJobsAreBounded() throws Exception {
+        final ThumbnailWorkers workers = new ThumbnailWorkers(executor,
+                results);
+        assertEquals(4, workers.getMaxJobs());
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        for (long id = 1; id <= 4; id++) {
+            workers.submit(id, job(id, release, running, maxRunning));
+        }
+
+        final CountDownLatch submitted = new CountDownLatch(1);
+        new Thread() {
+            public void run() {
+                workers.submit(5L, job(5L, release, running, maxRunning));
+                submitted.countDown();
+            }
+        }.start();
+        assertFalse(submitted.await(100, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(submitted.await(10, TimeUnit.SECONDS));
+        workers.drain();
+        assertEquals(5, results.size());
+    }
+
+    @Test
+    public void testFailedJobGivesNoThumbnail() throws Exception {
+        final ThumbnailWorkers workers = new ThumbnailWorkers(executor,
+                results);
+        workers.submit(1L, new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                throw new IllegalStateException("render failed");
+            }
+        });
+        workers.submit(2L, job(2L, new CountDownLatch(0),
+                new AtomicInteger(), new AtomicInteger()));
+        workers.drain();
+        assertTrue(results.containsKey(1L));
+        assertNull(results.get(1L));
+        assertEquals(2, results.get(2L)[0]);
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ *   Copyright (C) 2013 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omeis.providers.re.utests;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import ome.model.display.QuantumDef;
+import ome.model.enums.Family;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+import omeis.providers.re.quantum.Quantization_8_16_bit;
+import omeis.providers.re.quantum.QuantumFactory;
+import omeis.providers.re.quantum.QuantumStrategy;
+import omeis.providers.re.quantum.RowQuantizer;
+
+import org.perf4j.LoggingStopWatch;
+import org.perf4j.StopWatch;
+import org.testng.annotations.Test;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the type-specialized {@link RowQuantizer} implementations with the
+ * per pixel <code>double</code> path they replace, both for equality of the
+ * quantized values and for speed.
+ */
+public class TestRowQuantizer extends TestCase
+{
+
+	private static final int SIZE_X = 512;
+
+	private static final int SIZE_Y = 512;
+
+	private static final int RUN_COUNT = 5;
+
+	private final Random random = new Random(42);
+
+	private QuantumStrategy createStrategy(String type, double min, double max)
+	{
+		QuantumDef qd = new QuantumDef();
+		qd.setCdStart(0);
+		qd.setCdEnd(255);
+		qd.setBitResolution(QuantumFactory.DEPTH_8BIT);
+		PixelsType pixelsType = new PixelsType();
+		pixelsType.setValue(type);
+		Family family = new Family();
+		family.setValue(QuantumFactory.LINEAR);
+		QuantumStrategy qs = new Quantization_8_16_bit(qd, pixelsType);
+		qs.setExtent(min, max);
+		qs.setMapping(family, 1.0, false);
+		qs.setWindow(min + (max - min) / 4, max - (max - min) / 4);
+		return qs;
+	}
+
+	private PixelData createData(String type, ByteOrder order,
+			double min, double max)
+	{
+		int bytesPerPixel = PixelData.getBitDepth(type) / 8;
+		byte[] plane = new byte[SIZE_X * SIZE_Y * bytesPerPixel];
+		random.nextBytes(plane);
+		ByteBuffer buffer = ByteBuffer.wrap(plane);
+		buffer.order(order);
+		PixelData data = new PixelData(type, buffer);
+		if (data.bytesPerPixel() > 2)
+		{
+			// Keep the values within the extent of the strategy.
+			int range = (int) (max - min) + 1;
+			for (int i = 0; i < data.size(); i++)
+			{
+				data.setPixelValue(i, min + random.nextInt(range));
+			}
+		}
+		return data;
+	}
+
+	private int[] quantizeGeneric(QuantumStrategy qs, PixelData data)
+		throws Exception
+	{
+		int[] values = new int[SIZE_X * SIZE_Y];
+		for (int i = 0; i < values.length; i++)
+		{
+			values[i] = qs.quantize(data.getPixelValue(i));
+		}
+		return values;
+	}
+
+	private int[] quantizeRows(QuantumStrategy qs, PixelData data)
+		throws Exception
+	{
+		int[] values = new int[SIZE_X * SIZE_Y];
+		int[] row = new int[SIZE_X];
+		RowQuantizer rq = RowQuantizer.make(qs, data);
+		for (int y = 0; y < SIZE_Y; y++)
+		{
+			rq.quantize(y * SIZE_X, SIZE_X, row);
+			System.arraycopy(row, 0, values, y * SIZE_X, SIZE_X);
+		}
+		return values;
+	}
+
+	private void assertSameQuantization(String type, double min, double max)
+		throws Exception
+	{
+		for (ByteOrder order : new ByteOrder[] {
+				ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN })
+		{
+			QuantumStrategy qs = createStrategy(type, min, max);
+			PixelData data = createData(type, order, min, max);
+			int[] expected = quantizeGeneric(qs, data);
+			int[] actual = quantizeRows(qs, data);
+			for (int i = 0; i < expected.length; i++)
+			{
+				assertEquals(type + " " + order + " at " + i,
+						expected[i], actual[i]);
+			}
+		}
+	}
+
+	private void compare(String type, double min, double max)
+		throws Exception
+	{
+		QuantumStrategy qs = createStrategy(type, min, max);
+		PixelData data = createData(type, ByteOrder.BIG_ENDIAN, min, max);
+		for (int i = 0; i < RUN_COUNT; i++)
+		{
+			StopWatch stopWatch =
+				new LoggingStopWatch("testRowQuantizer.generic." + type);
+			quantizeGeneric(qs, data);
+			stopWatch.stop();
+			stopWatch =
+				new LoggingStopWatch("testRowQuantizer.rows." + type);
+			quantizeRows(qs, data);
+			stopWatch.stop();
+		}
+	}
+
+	@Test
+	public void testUint8() throws Exception
+	{
+		assertSameQuantization("uint8", 0, 255);
+		compare("uint8", 0, 255);
+	}
+
+	@Test
+	public void testInt8() throws Exception
+	{
+		assertSameQuantization("int8", -128, 127);
+		compare("int8", -128, 127);
+	}
+
+	@Test
+	public void testUint16() throws Exception
+	{
+		assertSameQuantization("uint16", 0, 65535);
+		compare("uint16", 0, 65535);
+	}
+
+	@Test
+	public void testInt16() throws Exception
+	{
+		assertSameQuantization("int16", -32768, 32767);
+		compare("int16", -32768, 32767);
+	}
+
+	@Test
+	public void testInt32() throws Exception
+	{
+		assertSameQuantization("int32", -32768, 32767);
+		compare("int32", -32768, 32767);
+	}
+
+	@Test
+	public void testFloat() throws Exception
+	{
+		assertSameQuantization("float", 0, 65535);
+		compare("float", 0, 65535);
+	}
+
+	@Test
+	public void testDouble() throws Exception
+	{
+		assertSameQuantization("double", 0, 65535);
+		compare("double", 0, 65535);
+	}
+}
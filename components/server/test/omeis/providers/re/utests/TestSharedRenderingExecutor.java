@@ -0,0 +1,67 @@
+/*
+ *   Copyright (C) 2013 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omeis.providers.re.utests;
+
+import java.util.List;
+
+import ome.model.enums.RenderingModel;
+import omeis.providers.re.Renderer;
+import omeis.providers.re.RenderingExecutor;
+import omeis.providers.re.data.PlaneDef;
+
+import org.testng.annotations.Test;
+
+public class TestSharedRenderingExecutor extends BaseRenderingTest
+{
+
+	private static final int THREADS = 3;
+
+	@Override
+	protected int getSizeY()
+	{
+		// Prime so that the rows cannot be split evenly.
+		return 1021;
+	}
+
+	@Test
+	public void testRenderAsPackedIntUsesSharedExecutor() throws Exception
+	{
+		RenderingExecutor executor = new RenderingExecutor(THREADS);
+		List<RenderingModel> renderingModels =
+			pixelsMetadataService.getAllEnumerations(RenderingModel.class);
+		Renderer first = new Renderer(quantumFactory, renderingModels,
+				pixels, settings, pixelBuffer, executor);
+		Renderer second = new Renderer(quantumFactory, renderingModels,
+				pixels, settings, pixelBuffer, executor);
+		assertSame(executor, first.getExecutor());
+		assertSame(executor, second.getExecutor());
+
+		PlaneDef def = new PlaneDef(PlaneDef.XY, 0);
+		int[] a = first.renderAsPackedInt(def, pixelBuffer);
+		int[] b = second.renderAsPackedInt(def, pixelBuffer);
+		assertEquals(getSizeX() * getSizeY(), a.length);
+		for (int i = 0; i < a.length; i++)
+		{
+			assertEquals(a[i], b[i]);
+		}
+		// One region per thread, the first one rendered by the caller.
+		assertEquals(2 * (THREADS - 1), executor.getCompletedTaskCount());
+		assertEquals(0, executor.getQueueDepth());
+		executor.destroy();
+	}
+
+	@Test
+	public void testDefaultExecutorIsShared() throws Exception
+	{
+		List<RenderingModel> renderingModels =
+			pixelsMetadataService.getAllEnumerations(RenderingModel.class);
+		Renderer other = new Renderer(quantumFactory, renderingModels,
+				pixels, settings, pixelBuffer);
+		assertSame(RenderingExecutor.getDefault(), renderer.getExecutor());
+		assertSame(renderer.getExecutor(), other.getExecutor());
+	}
+}